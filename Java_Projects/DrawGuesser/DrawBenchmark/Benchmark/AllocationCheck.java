@@ -0,0 +1,122 @@
+package Benchmark;
+
+import Interface.Paper;
+import Utility.PointRingBuffer;
+import Utility.PointSet;
+import Utility.SystemUtility;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks that the client's point path doesn't allocate. Strokes are drawn into a {@link Paper} the way received
+ * strokes are, and points are queued through a {@link PointRingBuffer} and taken out the way the drawing sender
+ * takes them. After warm-up rounds, so that the JIT has compiled the path, the bytes allocated by the thread
+ * during the measured rounds are divided by the number of points, and any allocation fails the check.
+ * The paper is never cleared, since a cleared tile is allocated again by the next point drawn in it, which
+ * happens once per tile and round rather than once per point.
+ * Unlike the other benchmarks, it's compiled against the client as well as the server.
+ */
+public class AllocationCheck {
+    private static final int STROKE_POINTS = 32; // The number of points in each drawn stroke
+    private static final int STROKES = 256; // The number of precomputed strokes, drawn over and over
+    private static final int RING_CAPACITY = 1024; // The capacity of the ring buffer, as in the drawing sender
+    private static final int MAX_STEP = 6; // The max distance in pixels between consecutive points of a stroke
+    private static final int WIDTH = SystemUtility.CANVAS_WIDTH; // The width of the canvas in pixels
+    private static final int HEIGHT = SystemUtility.CANVAS_HEIGHT; // The height of the canvas in pixels
+
+    private final Paper paper = new Paper(); // The canvas the strokes are drawn to, never shown
+    private final PointRingBuffer ring = new PointRingBuffer(RING_CAPACITY); // The queue the points pass through
+    private final int[][] xs = new int[STROKES][STROKE_POINTS]; // The x-coordinates of the points of each stroke
+    private final int[][] ys = new int[STROKES][STROKE_POINTS]; // The y-coordinates of the points of each stroke
+    private long checksum = 0; // Sum of the points taken out of the ring buffer, so that the reads aren't removed
+
+    /**
+     * Precompute random strokes within the canvas.
+     * @param seed The seed of the strokes.
+     */
+    private AllocationCheck(long seed) {
+        Random random = new Random(seed);
+        for (int s = 0; s < STROKES; s++) {
+            int x = random.nextInt(WIDTH);
+            int y = random.nextInt(HEIGHT);
+            for (int i = 0; i < STROKE_POINTS; i++) {
+                x = Math.max(0, Math.min(WIDTH - 1, x + random.nextInt(2 * MAX_STEP + 1) - MAX_STEP));
+                y = Math.max(0, Math.min(HEIGHT - 1, y + random.nextInt(2 * MAX_STEP + 1) - MAX_STEP));
+                xs[s][i] = x;
+                ys[s][i] = y;
+            }
+        }
+    }
+
+    /**
+     * Run the check and print the allocated bytes per point.
+     * @param args Optionally "--points n" measured points, "--warmup n" rounds of as many points before them
+     *             and "--seed n" of the strokes.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            }
+        }
+        long points = Long.parseLong(options.getOrDefault("points", "1000000"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        if (points < STROKE_POINTS) {
+            System.out.println("Usage: AllocationCheck [--points 1000000] [--warmup 5] [--seed 1]");
+            System.exit(2);
+            return;
+        }
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("This JVM can't measure the memory allocated by a thread");
+            System.exit(2);
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        // Keep Swing from repainting in the background, the paper is never shown
+        System.setProperty("java.awt.headless", "true");
+        AllocationCheck check = new AllocationCheck(Long.parseLong(options.getOrDefault("seed", "1")));
+        long strokes = points / STROKE_POINTS;
+        for (int i = 0; i < warmup; i++) {
+            check.run(strokes);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        check.run(strokes);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        long measured = strokes * STROKE_POINTS;
+        System.out.printf("Paper and PointRingBuffer: %d points, %d bytes allocated, %.3f bytes/point (checksum %d)%n",
+                measured, allocated, (double) allocated / measured, check.checksum);
+        if (allocated > 0) {
+            System.out.println("FAILED: the point path allocates");
+            System.exit(1);
+        }
+        System.out.println("OK: the point path doesn't allocate");
+    }
+
+    /**
+     * Draw strokes into the paper and pass their points through the ring buffer.
+     * @param strokes The number of strokes.
+     */
+    private void run(long strokes) {
+        for (long n = 0; n < strokes; n++) {
+            int s = (int) (n % STROKES);
+            int[] strokeXs = xs[s];
+            int[] strokeYs = ys[s];
+            paper.addReceivedStroke(strokeXs, strokeYs, STROKE_POINTS, true);
+            for (int i = 0; i < STROKE_POINTS; i++) {
+                ring.offer(strokeXs[i], strokeYs[i], i == 0);
+            }
+            // Take the points out the way the drawing sender does
+            for (int i = 0; i < STROKE_POINTS; i++) {
+                long point = ring.peekPoint();
+                checksum += PointSet.unpackX(point) + PointSet.unpackY(point) + (ring.peekStrokeStart() ? 1 : 0);
+                ring.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package Benchmark;
+
+/**
+ * Consumes the results of benchmarked operations, so that the compiler can't remove work whose result is unused.
+ * Each value is compared against a volatile field that never matches, which forces the value to be computed
+ * without the cost of writing it anywhere.
+ */
+public class Blackhole {
+    private volatile Object never = new Object(); // Never equal to a consumed object
+    private volatile int neverInt = 0; // Never equal to both halves of a consumed long
+    private volatile int neverOther = 1; // Differs from neverInt, so that the comparisons never match
+    private Object last; // Only written if a comparison matches, which it never does
+
+    /**
+     * Consume an object.
+     * @param object The object.
+     */
+    public void consume(Object object) {
+        if (object == never) {
+            last = object;
+        }
+    }
+
+    /**
+     * Consume an int.
+     * @param value The value.
+     */
+    public void consume(int value) {
+        if (value == neverInt & value == neverOther) {
+            last = this;
+        }
+    }
+
+    /**
+     * Consume a long.
+     * @param value The value.
+     */
+    public void consume(long value) {
+        consume((int) value ^ (int) (value >>> 32));
+    }
+
+    /**
+     * Consume a boolean.
+     * @param value The value.
+     */
+    public void consume(boolean value) {
+        consume(value ? 1 : 0);
+    }
+}
@@ -0,0 +1,307 @@
+package Benchmark;
+
+import Utility.SystemUtility;
+import Utility.SystemUtility.PacketType;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A headless player driven by a {@link BotLoop}. It speaks the client protocol over non-blocking channels,
+ * so that one thread can run thousands of bots. Every method must be called by the bot's loop thread.
+ */
+public class Bot {
+    static final String KEY = "benchmark"; // The key of every bot's username, bots don't need to keep their points
+    private final LoadGenerator generator; // Measures what the bot observes
+    private final BotLoop loop; // The loop that runs the bot
+    private final String username; // The name the bot connects with
+    private final InetSocketAddress udpAddress; // The UDP address of the server
+    private final SocketChannel tcpChannel; // The connection to the server
+    private final DatagramChannel udpChannel; // Sends and receives drawing data
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(8192); // Bytes read from the server
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(1024); // Bytes waiting to be written, in read mode
+    private final ByteBuffer datagram = ByteBuffer.allocate(SystemUtility.MAX_PACKET_SIZE); // Reused for datagrams
+    private long connectTime; // When the bot started connecting, in nanoseconds
+    private int id = -1; // The ID given by the server
+    private boolean painter = false; // If the bot accepted to paint the current round
+    private String secretWord = null; // The word to draw, only known while painting
+    private boolean connected = false; // If the bot received its ID
+
+    /**
+     * Initialize a bot that isn't connected yet.
+     * @param generator Measures what the bot observes.
+     * @param loop The loop that runs the bot.
+     * @param username The name to connect with.
+     * @param udpAddress The UDP address of the server.
+     * @throws IOException If the channels couldn't be opened.
+     */
+    public Bot(LoadGenerator generator, BotLoop loop, String username, InetSocketAddress udpAddress) throws IOException {
+        this.generator = generator;
+        this.loop = loop;
+        this.username = username;
+        this.udpAddress = udpAddress;
+        tcpChannel = SocketChannel.open();
+        tcpChannel.configureBlocking(false);
+        tcpChannel.socket().setTcpNoDelay(true);
+        udpChannel = DatagramChannel.open();
+        udpChannel.configureBlocking(false);
+        udpChannel.bind(new InetSocketAddress(0));
+        writeBuffer.flip();
+    }
+
+    /**
+     * Start connecting to the server.
+     * @param tcpAddress The TCP address of the server.
+     * @return The TCP channel, to register with the loop's selector.
+     * @throws IOException If the connection failed immediately.
+     */
+    public SocketChannel connect(InetSocketAddress tcpAddress) throws IOException {
+        connectTime = System.nanoTime();
+        if (tcpChannel.connect(tcpAddress)) {
+            finishConnect();
+        }
+        return tcpChannel;
+    }
+
+    /**
+     * Finish connecting, then send the bot's arguments and open the route for datagrams from the server.
+     * @return True if the bot is connected; otherwise, false if the connection is still pending.
+     * @throws IOException If the connection failed.
+     */
+    public boolean finishConnect() throws IOException {
+        if (!tcpChannel.finishConnect()) {
+            return false;
+        }
+        send("CLIENT_ARGS:" + username + ":" + ((InetSocketAddress) udpChannel.getLocalAddress()).getPort() + ":"
+                + KEY);
+        udpChannel.send(ByteBuffer.allocate(1), udpAddress);
+        return true;
+    }
+
+    /**
+     * Read and handle every complete message from the server.
+     * @return False if the server closed the connection; otherwise, true.
+     * @throws IOException If the connection failed.
+     */
+    public boolean readMessages() throws IOException {
+        int read = tcpChannel.read(readBuffer);
+        if (read < 0) {
+            return false;
+        }
+        long now = System.nanoTime();
+        readBuffer.flip();
+        int start = readBuffer.position();
+        for (int i = start; i < readBuffer.limit(); i++) {
+            if (readBuffer.get(i) == '\n') {
+                int end = i > start && readBuffer.get(i - 1) == '\r' ? i - 1 : i;
+                handleMessage(new String(readBuffer.array(), start, end - start, StandardCharsets.UTF_8), now);
+                start = i + 1;
+            }
+        }
+        readBuffer.position(start);
+        readBuffer.compact();
+        if (!readBuffer.hasRemaining()) {
+            // A message longer than the buffer can't be one the bot cares about
+            readBuffer.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Answer or report a message from the server.
+     * @param message The message.
+     * @param now When the message was read, in nanoseconds.
+     */
+    private void handleMessage(String message, long now) {
+        if (message.startsWith("/m ")) {
+            generator.onChatReceived(message, now);
+            return;
+        }
+        if (!message.startsWith("/s ")) {
+            return;
+        }
+        String command = message.substring(3);
+        String data = command.contains(":") ? command.substring(command.indexOf(':') + 1) : "";
+        if (command.startsWith("ID:")) {
+            // The ID is followed by a resume token, which bots don't use
+            id = Integer.parseInt(data.split(":")[0]);
+            connected = true;
+            generator.onConnected(now - connectTime);
+        } else if (command.startsWith("NEXT_PAINTER_ACK")) {
+            return;
+        } else if (command.startsWith("NEXT_PAINTER")) {
+            painter = true;
+            send("/s NEXT_PAINTER_ACK");
+        } else if (command.startsWith("PING:")) {
+            send("/s PONG:" + data);
+        } else if (command.startsWith("SECRET_WORD:")) {
+            secretWord = data;
+        } else if (command.startsWith("START_ROUND") && painter) {
+            loop.startPainting(this);
+        } else if (command.startsWith("END_ROUND") || command.startsWith("INTERRUPT_ROUND")) {
+            if (painter) {
+                loop.stopPainting(this);
+                generator.onRoundEnded();
+            }
+            painter = false;
+            secretWord = null;
+        }
+    }
+
+    /**
+     * Receive and handle every waiting datagram.
+     * @throws IOException If a datagram couldn't be received or a pong couldn't be sent.
+     */
+    public void readDatagrams() throws IOException {
+        while (true) {
+            datagram.clear();
+            InetSocketAddress sender = (InetSocketAddress) udpChannel.receive(datagram);
+            if (sender == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            datagram.flip();
+            if (!datagram.hasRemaining()) {
+                continue;
+            }
+            PacketType type = PacketType.fromByte(datagram.get());
+            if (type == PacketType.POINT && datagram.remaining() >= 8) {
+                generator.onPointReceived(datagram.getInt(), datagram.getInt(), now);
+            } else if (type == PacketType.STROKE && datagram.remaining() >= 5) {
+                boolean strokeStart = (datagram.get() & SystemUtility.STROKE_START) != 0;
+                datagram.getShort(); // The sequence number, bots don't join strokes
+                int count = Math.min(datagram.getShort() & 0xFFFF, datagram.remaining() / 8);
+                for (int i = 0; i < count; i++) {
+                    int x = datagram.getInt();
+                    int y = datagram.getInt();
+                    generator.onPointReceived(x, y, now);
+                    if (i == 0 && strokeStart) {
+                        generator.onStrokeReceived();
+                    }
+                }
+            } else if (type == PacketType.PING && datagram.remaining() >= 4) {
+                // Answer with type, id, sequence number
+                int sequence = datagram.getInt();
+                datagram.clear();
+                datagram.put((byte) PacketType.PONG.ordinal()).putInt(id).putInt(sequence).flip();
+                udpChannel.send(datagram, sender);
+            }
+        }
+    }
+
+    /**
+     * Send a message to the server, queueing what can't be written right away.
+     * @param message The message, such as "/m hello" or "/g word".
+     */
+    public void send(String message) {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        if (writeBuffer.remaining() + bytes.length > writeBuffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(writeBuffer.capacity() * 2, writeBuffer.remaining() + bytes.length));
+            larger.put(writeBuffer);
+            writeBuffer = larger;
+        } else {
+            writeBuffer.compact();
+        }
+        writeBuffer.put(bytes);
+        writeBuffer.flip();
+        try {
+            writeMessages();
+        } catch (IOException e) {
+            loop.close(this, e.getMessage());
+        }
+    }
+
+    /**
+     * Write as much of the queued messages as the connection accepts, and wait for the rest to be writable.
+     * @throws IOException If the connection failed.
+     */
+    public void writeMessages() throws IOException {
+        if (!tcpChannel.isConnected()) {
+            return;
+        }
+        tcpChannel.write(writeBuffer);
+        SelectionKey key = tcpChannel.keyFor(loop.getSelector());
+        if (key != null && key.isValid()) {
+            key.interestOps(writeBuffer.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Send a drawn point to the server: type, id, x-coordinate, y-coordinate, flags.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @param strokeStart If the point starts a new stroke.
+     * @throws IOException If the datagram couldn't be sent.
+     */
+    public void sendPoint(int x, int y, boolean strokeStart) throws IOException {
+        datagram.clear();
+        datagram.put((byte) PacketType.POINT.ordinal()).putInt(id).putInt(x).putInt(y)
+                .put(strokeStart ? SystemUtility.STROKE_START : 0).flip();
+        udpChannel.send(datagram, udpAddress);
+    }
+
+    /**
+     * Close the bot's channels.
+     */
+    public void close() {
+        try {
+            tcpChannel.close();
+            udpChannel.close();
+        } catch (IOException e) {
+            System.out.println("Could not close the channels of " + username + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the TCP channel of the bot.
+     * @return The TCP channel.
+     */
+    public SocketChannel getTcpChannel() {
+        return tcpChannel;
+    }
+
+    /**
+     * Get the UDP channel of the bot.
+     * @return The UDP channel.
+     */
+    public DatagramChannel getUdpChannel() {
+        return udpChannel;
+    }
+
+    /**
+     * Check if the bot received its ID.
+     * @return True if the bot is connected; otherwise, false.
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Check if the bot is painting the current round.
+     * @return True if the bot is the painter; otherwise, false.
+     */
+    public boolean isPainter() {
+        return painter;
+    }
+
+    /**
+     * Get the word the bot is drawing.
+     * @return The secret word, or null if the bot isn't painting.
+     */
+    public String getSecretWord() {
+        return secretWord;
+    }
+
+    /**
+     * Get the name the bot connected with.
+     * @return The username.
+     */
+    public String getUsername() {
+        return username;
+    }
+}
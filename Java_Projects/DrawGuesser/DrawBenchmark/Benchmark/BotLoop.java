@@ -0,0 +1,342 @@
+package Benchmark;
+
+import Utility.SystemUtility;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs a share of the bots on one thread: it reads and writes their channels as they become ready, and
+ * paints, chats and guesses for them when it's due. Other threads hand work to the loop through {@link #execute}.
+ */
+public class BotLoop extends Thread {
+    private static final long STROKE_PAUSE = 100_000_000L; // Time in nanoseconds between strokes
+    private static final long WIN_DELAY = 250_000_000L; // Time in nanoseconds from the last stroke to the winning guess
+    private static final String[] WORDS = {"cat", "house", "tree", "car", "boat", "sun", "flower", "dog"}; // Things bots guess
+    private static final int STEP = 3; // Distance in pixels between the points of a stroke
+    private final LoadGenerator generator; // Measures what the bots observe
+    private final Selector selector; // Tells which channels are ready
+    private final List<Bot> bots = new ArrayList<>(); // The bots run by this loop
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // Work handed over by other threads
+    private final Random random = new Random(); // Picks bots, positions and directions
+    private final long pointInterval; // Time in nanoseconds between the painter's points
+    private final int strokePoints; // The number of points in a stroke
+    private final long roundTime; // Time in nanoseconds that the painter paints before the round is won
+    private final long chatInterval; // Time in nanoseconds between chat messages from this loop's bots, or 0
+    private final long guessInterval; // Time in nanoseconds between wrong guesses from this loop's bots, or 0
+    private Bot painter = null; // The bot painting the current round, if it's run by this loop
+    private long paintUntil; // When the painter stops starting new strokes
+    private long nextPointTime; // When the painter sends the next point
+    private long winTime = 0; // When the winning guess is sent, or 0 if it isn't scheduled
+    private int strokeLeft = 0; // The number of points left in the current stroke
+    private double x, y, angle; // The position and direction of the current stroke
+    private long nextChatTime; // When the next chat message is sent
+    private long nextGuessTime; // When the next wrong guess is sent
+    private volatile boolean alive = true;
+
+    /**
+     * Kill this thread and close its bots.
+     */
+    public void kill() {
+        alive = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Initialize the loop.
+     * @param generator Measures what the bots observe.
+     * @param name The name of the thread.
+     * @param pointRate The number of points per second the painter sends.
+     * @param strokePoints The number of points in a stroke.
+     * @param roundTime Time in seconds that the painter paints before the round is won.
+     * @param chatRate The number of chat messages per second from this loop's bots.
+     * @param guessRate The number of wrong guesses per second from this loop's bots.
+     * @throws IOException If the selector couldn't be opened.
+     */
+    public BotLoop(LoadGenerator generator, String name, double pointRate, int strokePoints, double roundTime,
+                   double chatRate, double guessRate) throws IOException {
+        super(name);
+        setDaemon(true);
+        this.generator = generator;
+        this.selector = Selector.open();
+        this.pointInterval = (long) (1e9 / pointRate);
+        this.strokePoints = strokePoints;
+        this.roundTime = (long) (roundTime * 1e9);
+        this.chatInterval = chatRate > 0 ? (long) (1e9 / chatRate) : 0;
+        this.guessInterval = guessRate > 0 ? (long) (1e9 / guessRate) : 0;
+    }
+
+    /**
+     * Hand work to the loop, it runs before the loop next waits for its channels.
+     * @param task The work.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Serve the bots' channels and act for the bots until the loop is killed.
+     */
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        nextChatTime = now + (chatInterval > 0 ? (long) (random.nextDouble() * chatInterval) : 0);
+        nextGuessTime = now + (guessInterval > 0 ? (long) (random.nextDouble() * guessInterval) : 0);
+        try {
+            while (alive) {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                long wait = act(System.nanoTime());
+                if (wait > 0) {
+                    selector.select(Math.max(1, wait / 1_000_000));
+                } else {
+                    selector.selectNow();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    serve(key);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.out.println(getName() + " stopped: " + e.getMessage());
+        } finally {
+            for (Bot bot : new ArrayList<>(bots)) {
+                bot.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.out.println("Could not close the selector of " + getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Read, write or finish connecting a channel that is ready.
+     * @param key The key of the channel.
+     */
+    private void serve(SelectionKey key) {
+        Bot bot = (Bot) key.attachment();
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.channel() instanceof SocketChannel) {
+                if (key.isConnectable() && bot.finishConnect()) {
+                    bot.writeMessages();
+                }
+                if (key.isValid() && key.isReadable() && !bot.readMessages()) {
+                    close(bot, "the server closed the connection");
+                    return;
+                }
+                if (key.isValid() && key.isWritable()) {
+                    bot.writeMessages();
+                }
+            } else if (key.isReadable()) {
+                bot.readDatagrams();
+            }
+        } catch (IOException e) {
+            close(bot, e.getMessage());
+        }
+    }
+
+    /**
+     * Start connecting a bot and add it to the loop. Must be called by the loop thread.
+     * @param bot The bot.
+     * @param tcpAddress The TCP address of the server.
+     */
+    public void open(Bot bot, InetSocketAddress tcpAddress) {
+        try {
+            bot.getUdpChannel().register(selector, SelectionKey.OP_READ, bot);
+            SocketChannel channel = bot.connect(tcpAddress);
+            channel.register(selector, channel.isConnected() ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, bot);
+            bots.add(bot);
+        } catch (IOException e) {
+            bot.close();
+            generator.onConnectFailed();
+        }
+    }
+
+    /**
+     * Close a bot and remove it from the loop. Must be called by the loop thread.
+     * @param bot The bot.
+     * @param reason Why the bot is closed.
+     */
+    public void close(Bot bot, String reason) {
+        if (!bots.remove(bot)) {
+            return;
+        }
+        bot.close();
+        if (painter == bot) {
+            painter = null;
+        }
+        if (bot.isConnected()) {
+            generator.onDisconnected();
+        } else {
+            generator.onConnectFailed();
+        }
+        System.out.println(bot.getUsername() + " was closed: " + reason);
+    }
+
+    /**
+     * Let a bot paint the round that just started. Must be called by the loop thread.
+     * @param bot The painter.
+     */
+    public void startPainting(Bot bot) {
+        painter = bot;
+        long now = System.nanoTime();
+        paintUntil = now + roundTime;
+        nextPointTime = now;
+        winTime = 0;
+        strokeLeft = 0;
+    }
+
+    /**
+     * Stop painting when the round ended. Must be called by the loop thread.
+     * @param bot The painter.
+     */
+    public void stopPainting(Bot bot) {
+        if (painter == bot) {
+            painter = null;
+        }
+    }
+
+    /**
+     * Have a bot other than the painter guess the secret word. Must be called by the loop thread.
+     * @param word The secret word.
+     * @return True if a bot guessed; otherwise, false if this loop has no bot that can guess.
+     */
+    public boolean guess(String word) {
+        Bot guesser = pickGuesser();
+        if (guesser == null) {
+            return false;
+        }
+        guesser.send("/g " + word);
+        return true;
+    }
+
+    /**
+     * Paint, chat and guess for the bots when it's due.
+     * @param now The current time in nanoseconds.
+     * @return Time in nanoseconds until the loop has to act again, or 0 to act as soon as possible.
+     */
+    private long act(long now) {
+        long next = now + 100_000_000L;
+        if (painter != null) {
+            next = Math.min(next, paint(now));
+        }
+        if (generator.isRunning()) {
+            if (chatInterval > 0 && now >= nextChatTime) {
+                Bot bot = pickGuesser();
+                if (bot != null) {
+                    generator.sendChat(bot, "is it a " + WORDS[random.nextInt(WORDS.length)] + "?");
+                }
+                nextChatTime = Math.max(now, nextChatTime + chatInterval);
+            }
+            if (guessInterval > 0 && now >= nextGuessTime) {
+                Bot bot = pickGuesser();
+                if (bot != null) {
+                    bot.send("/g " + WORDS[random.nextInt(WORDS.length)]);
+                }
+                nextGuessTime = Math.max(now, nextGuessTime + guessInterval);
+            }
+            if (chatInterval > 0) {
+                next = Math.min(next, nextChatTime);
+            }
+            if (guessInterval > 0) {
+                next = Math.min(next, nextGuessTime);
+            }
+        }
+        return Math.max(0, next - System.nanoTime());
+    }
+
+    /**
+     * Send the painter's points that are due, and have the round won once the painter is done.
+     * @param now The current time in nanoseconds.
+     * @return When the painter has to act again, in nanoseconds.
+     */
+    private long paint(long now) {
+        if (winTime > 0) {
+            if (now >= winTime) {
+                generator.requestWinningGuess(painter.getSecretWord(), this);
+                painter = null;
+                return Long.MAX_VALUE;
+            }
+            return winTime;
+        }
+        // Catch up after a stall without sending a burst of points
+        if (now - nextPointTime > 1_000_000_000L) {
+            nextPointTime = now;
+        }
+        try {
+            while (now >= nextPointTime) {
+                if (strokeLeft == 0 && now >= paintUntil) {
+                    // Let the last stroke reach everyone before the round is won
+                    winTime = now + WIN_DELAY;
+                    return winTime;
+                }
+                boolean strokeStart = strokeLeft == 0;
+                if (strokeStart) {
+                    x = STEP + random.nextInt(SystemUtility.CANVAS_WIDTH - 2 * STEP);
+                    y = STEP + random.nextInt(SystemUtility.CANVAS_HEIGHT - 2 * STEP);
+                    angle = random.nextDouble() * 2 * Math.PI;
+                    strokeLeft = strokePoints;
+                } else {
+                    // Curve a little, and turn back at the edges of the canvas
+                    angle += (random.nextDouble() - 0.5) * 0.6;
+                    x += STEP * Math.cos(angle);
+                    y += STEP * Math.sin(angle);
+                    if (x < 0 || x >= SystemUtility.CANVAS_WIDTH || y < 0 || y >= SystemUtility.CANVAS_HEIGHT) {
+                        angle += Math.PI;
+                        x = Math.max(0, Math.min(SystemUtility.CANVAS_WIDTH - 1, x));
+                        y = Math.max(0, Math.min(SystemUtility.CANVAS_HEIGHT - 1, y));
+                    }
+                }
+                generator.onPointSent((int) x, (int) y, strokeStart);
+                painter.sendPoint((int) x, (int) y, strokeStart);
+                strokeLeft--;
+                nextPointTime += strokeLeft == 0 ? pointInterval + STROKE_PAUSE : pointInterval;
+            }
+        } catch (IOException e) {
+            System.out.println("Could not send a point: " + e.getMessage());
+        }
+        return nextPointTime;
+    }
+
+    /**
+     * Pick a random connected bot that isn't painting.
+     * @return The bot, or null if there is none.
+     */
+    private Bot pickGuesser() {
+        for (int attempt = 0; attempt < 8 && !bots.isEmpty(); attempt++) {
+            Bot bot = bots.get(random.nextInt(bots.size()));
+            if (bot.isConnected() && !bot.isPainter()) {
+                return bot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the selector of the loop.
+     * @return The selector.
+     */
+    public Selector getSelector() {
+        return selector;
+    }
+}
@@ -0,0 +1,811 @@
+package Benchmark;
+
+import Network.UdpHandler;
+import Server.Client;
+import Server.ChatFilter;
+import Server.ClientManager;
+import Server.DrawServer;
+import Server.EventLog;
+import Server.Profile;
+import Server.ProfileStore;
+import Server.Scoreboard;
+import Server.ServerLog;
+import Utility.SystemUtility;
+import Utility.SystemUtility.Command;
+import Utility.SystemUtility.CommandType;
+import Utility.SystemUtility.PacketType;
+import Utility.Histogram;
+import Utility.SegmentedLog;
+import Utility.WordGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Microbenchmarks of the server's hot paths: the protocol commands, broadcasts and client lookups at different
+ * room sizes, picking words, checking guesses, recording metrics and logging messages under contention,
+ * filtering chat against growing word lists, updating the leaderboard of growing rooms, logging score changes to
+ * disk, loading player profiles from the cache and from the disk, and decoding and fanning out drawing datagrams
+ * over loopback. The results are printed as a table and can be written as JMH-compatible JSON and as CSV, so that
+ * they can be tracked over time with the same tools.
+ */
+public class HotPathBenchmarks {
+    private static final int[] ROOM_SIZES = {8, 64, 512}; // The numbers of clients to broadcast and relay to
+    private static final int[] GUESS_THREADS = {1, 4}; // The numbers of threads guessing at the same time
+    private static final int[] METRIC_THREADS = {1, 4}; // The numbers of threads recording metrics at the same time
+    private static final int[] LOG_THREADS = {1, 4}; // The numbers of threads logging messages at the same time
+    private static final String[] LOG_MODES = {"none", "println", "async", "sampled"}; // Ways to log
+    private static final int LOG_SAMPLE = 10; // One in how many messages the sampled logger logs
+    private static final int[] FILTER_PATTERNS = {10, 1000, 10000}; // The numbers of banned words to filter
+    private static final String[] FILTER_MODES = {"aho", "naive"}; // The automaton, or a contains loop per word
+    private static final int[] SCOREBOARD_PLAYERS = {100, 1000, 10000}; // The numbers of players with points
+    private static final String[] SCOREBOARD_MODES = {"incremental", "recompute"}; // Ways to update the leaderboard
+    private static final int[] EVENT_LOG_THREADS = {1, 4}; // The numbers of threads logging events at the same time
+    private static final String[] EVENT_LOG_MODES = {"group", "sync"}; // Batched by the writer, or synced per event
+    private static final int PROFILE_PLAYERS = 1000; // The number of stored profiles to load
+    private static final String[] PROFILE_MODES = {"cache", "store"}; // Every profile cached, or read from the disk
+    private static final int DRAIN_INTERVAL = 64; // Broadcasts between draining the clients' message queues
+    private static final int RELAY_DATAGRAMS = 4096; // Relayed datagrams to wait for in each relay operation
+    private static final int RELAY_WINDOW = 64; // Max points sent at once, more can overflow the handler's socket
+    private static final long RELAY_TIMEOUT = 200_000_000L; // Time in nanoseconds to wait for relayed datagrams
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress(); // Where the clients are
+
+    /**
+     * Run the benchmarks and print the results.
+     * @param args Optionally "--filter regex" to pick benchmarks by name, "--warmup n", "--iterations n",
+     *             "--time ms" per iteration, "--json path", "--csv path" and "--verbose" to show the server's output.
+     */
+    public static void main(String[] args) {
+        String filter = ".*";
+        int warmup = 3;
+        int iterations = 5;
+        long time = 1000;
+        String json = null;
+        String csv = null;
+        boolean verbose = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--filter" -> filter = args[++i];
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                case "--iterations" -> iterations = Integer.parseInt(args[++i]);
+                case "--time" -> time = Long.parseLong(args[++i]);
+                case "--json" -> json = args[++i];
+                case "--csv" -> csv = args[++i];
+                case "--verbose" -> verbose = true;
+                default -> {
+                    System.out.println("Usage: HotPathBenchmarks [--filter regex] [--warmup 3] [--iterations 5]"
+                            + " [--time 1000] [--json path] [--csv path] [--verbose]");
+                    return;
+                }
+            }
+        }
+        PrintStream out = System.out;
+        if (!verbose) {
+            // Keep the server's logging out of the results
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        Pattern pattern = Pattern.compile(filter);
+        List<MicroBenchmark.Result> results = new ArrayList<>();
+        try {
+            out.printf("%-28s %-32s %7s %14s %12s %14s%n", "Benchmark", "Params", "Threads", "Score", "Error", "Ops/s");
+            for (MicroBenchmark benchmark : createBenchmarks()) {
+                if (!pattern.matcher(benchmark.getName()).find()) {
+                    continue;
+                }
+                MicroBenchmark.Result result = benchmark.run(warmup, iterations, time);
+                results.add(result);
+                out.printf(Locale.ROOT, "%-28s %-32s %7d %11.1f ns %9.1f ns %14.0f%n", benchmark.getName(),
+                        formatParams(benchmark.getParams()), benchmark.getThreads(), result.score(), result.error(),
+                        result.throughput());
+            }
+            if (json != null) {
+                writeJson(Path.of(json), results, warmup, iterations, time);
+                out.println("Wrote " + json);
+            }
+            if (csv != null) {
+                writeCsv(Path.of(csv), results);
+                out.println("Wrote " + csv);
+            }
+        } catch (Exception e) {
+            out.println("The benchmarks failed: " + e);
+        } finally {
+            System.setOut(out);
+        }
+        // Relay benchmarks leave UDP handlers running, which can't be stopped
+        System.exit(0);
+    }
+
+    /**
+     * Create every benchmark, the relay benchmarks last since they leave UDP handlers running.
+     * @return The benchmarks.
+     */
+    private static List<MicroBenchmark> createBenchmarks() {
+        List<MicroBenchmark> benchmarks = new ArrayList<>();
+        Command command = new Command(CommandType.JOIN_ROUND, List.of("Alice", "95"));
+        benchmarks.add(new MicroBenchmark("commandToString", 1, blackhole -> {
+            blackhole.consume(command.toString());
+            return 1;
+        }));
+        benchmarks.add(new MicroBenchmark("commandFromString", 1, blackhole -> {
+            blackhole.consume(Command.fromString("JOIN_ROUND:Alice:95"));
+            return 1;
+        }));
+        for (int roomSize : ROOM_SIZES) {
+            benchmarks.add(createBroadcastBenchmark(roomSize));
+        }
+        for (int roomSize : ROOM_SIZES) {
+            List<Client> clients = new ArrayList<>();
+            benchmarks.add(new MicroBenchmark("getClientsExcluding", 1, blackhole -> {
+                blackhole.consume(ClientManager.getClientsExcluding(0));
+                return 1;
+            }).param("roomSize", roomSize).setup(() -> addClients(clients, roomSize, 0))
+                    .teardown(() -> removeClients(clients)));
+        }
+        benchmarks.add(new MicroBenchmark("getNextWord", 1, blackhole -> {
+            blackhole.consume(WordGenerator.getNextWord());
+            return 1;
+        }));
+        for (int threads : GUESS_THREADS) {
+            Client guesser = new Client("Guesser", 1, 0, LOOPBACK);
+            benchmarks.add(new MicroBenchmark("verifyGuess", threads, blackhole -> {
+                // A wrong guess, like almost every guess
+                blackhole.consume(DrawServer.VerifyGuess("lemon", guesser));
+                return 1;
+            }).setup(() -> setServerField("secretWord", "ferris wheel"))
+                    .teardown(() -> setServerField("secretWord", null)));
+        }
+        for (int threads : METRIC_THREADS) {
+            Histogram histogram = new Histogram();
+            benchmarks.add(new MicroBenchmark("histogramRecord", threads, blackhole -> {
+                // A latency in nanoseconds, like the metrics on the relay and broadcast paths record
+                histogram.record(System.nanoTime() & 0xFFFFF);
+                return 1;
+            }));
+        }
+        for (int threads : LOG_THREADS) {
+            for (String mode : LOG_MODES) {
+                benchmarks.add(createMessageLogBenchmark(mode, threads));
+            }
+        }
+        for (int patterns : FILTER_PATTERNS) {
+            for (String mode : FILTER_MODES) {
+                benchmarks.add(createChatFilterBenchmark(mode, patterns));
+            }
+        }
+        for (int players : SCOREBOARD_PLAYERS) {
+            for (String mode : SCOREBOARD_MODES) {
+                benchmarks.add(createScoreboardBenchmark(mode, players));
+            }
+        }
+        for (int threads : EVENT_LOG_THREADS) {
+            for (String mode : EVENT_LOG_MODES) {
+                benchmarks.add(createEventLogBenchmark(mode, threads));
+            }
+        }
+        for (String mode : PROFILE_MODES) {
+            benchmarks.add(createProfileBenchmark(mode));
+        }
+        for (int roomSize : ROOM_SIZES) {
+            benchmarks.add(createRelayBenchmark(roomSize));
+        }
+        return benchmarks;
+    }
+
+    /**
+     * Create a benchmark of broadcasting a chat message. The clients' queues are drained now and then,
+     * like their sender threads would, which is included in the score.
+     * @param roomSize The number of clients.
+     * @return The benchmark.
+     */
+    private static MicroBenchmark createBroadcastBenchmark(int roomSize) {
+        List<Client> clients = new ArrayList<>();
+        int[] broadcasts = new int[1];
+        return new MicroBenchmark("broadcastMessage", 1, blackhole -> {
+            ClientManager.broadcastMessage("(120) Alice - is it a lemon?");
+            if (++broadcasts[0] == DRAIN_INTERVAL) {
+                for (Client client : clients) {
+                    for (int i = 0; i < DRAIN_INTERVAL; i++) {
+                        blackhole.consume(client.pollTcpMessageToSend());
+                    }
+                }
+                broadcasts[0] = 0;
+            }
+            return 1;
+        }).param("roomSize", roomSize).setup(() -> addClients(clients, roomSize, 0))
+                .teardown(() -> removeClients(clients));
+    }
+
+    /**
+     * Create a benchmark of logging a chat message as it's received, like the client connection handlers do, and
+     * then parsing it. "println" prints every message to a file the way the handlers used to print to the console,
+     * "async" and "sampled" log through the server's log writer, every message or one in LOG_SAMPLE, so the score
+     * shows whether a thread handling messages waits for its log.
+     * @param mode "none", "println", "async" or "sampled".
+     * @param threads The number of threads handling messages.
+     * @return The benchmark.
+     */
+    private static MicroBenchmark createMessageLogBenchmark(String mode, int threads) {
+        String message = "/m is it a lemon?";
+        PrintStream[] console = new PrintStream[1];
+        Path[] directory = new Path[1];
+        return new MicroBenchmark("messageLog", threads, blackhole -> {
+            if (console[0] != null) {
+                console[0].println("Received message from Alice/7: " + message);
+            } else {
+                ServerLog.message(7, message);
+            }
+            blackhole.consume(Command.fromString(message.substring(3)));
+            return 1;
+        }).param("log", mode).setup(() -> {
+            directory[0] = Files.createTempDirectory("drawguesser-log");
+            if (mode.equals("println")) {
+                console[0] = new PrintStream(Files.newOutputStream(directory[0].resolve("console.log")), true);
+            } else if (!mode.equals("none")) {
+                ServerLog.startLogging(directory[0], mode.equals("async") ? 1 : LOG_SAMPLE);
+            }
+        }).teardown(() -> {
+            if (console[0] != null) {
+                console[0].close();
+                console[0] = null;
+            }
+            ServerLog.stopLogging();
+            try (Stream<Path> files = Files.list(directory[0])) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory[0]);
+        });
+    }
+
+    /**
+     * Create a benchmark of filtering a chat message that contains neither a banned word nor the secret word,
+     * like almost every message. "aho" filters through the server's chat filter, which reads the message once
+     * no matter how many words are banned, and "naive" checks if the lower case message contains each word.
+     * @param mode "aho" or "naive".
+     * @param patternCount The number of banned words, random words of 4 to 10 letters.
+     * @return The benchmark.
+     */
+    private static MicroBenchmark createChatFilterBenchmark(String mode, int patternCount) {
+        String message = "is it a ferris wheel or a lighthouse? I think it's the Eiffel tower";
+        List<String> words = new ArrayList<>();
+        Random random = new Random(patternCount);
+        for (int i = 0; i < patternCount; i++) {
+            char[] word = new char[4 + random.nextInt(7)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            words.add(new String(word));
+        }
+        MicroBenchmark.Operation operation;
+        if (mode.equals("aho")) {
+            operation = blackhole -> {
+                blackhole.consume(ChatFilter.filterChat(message));
+                return 1;
+            };
+        } else {
+            operation = blackhole -> {
+                String lowerCase = message.toLowerCase();
+                boolean found = false;
+                for (String word : words) {
+                    found |= lowerCase.contains(word);
+                }
+                blackhole.consume(found);
+                return 1;
+            };
+        }
+        return new MicroBenchmark("chatFilter", 1, operation).param("filter", mode).param("patterns", patternCount)
+                .setup(() -> {
+                    ChatFilter.setBannedWords(words);
+                    ChatFilter.setSecretWord("lemon");
+                }).teardown(() -> {
+                    ChatFilter.setBannedWords(List.of());
+                    ChatFilter.setSecretWord(null);
+                });
+    }
+
+    /**
+     * Create a benchmark of a random player scoring and the leaderboard being updated. "incremental" scores through
+     * the server's scoreboard, which moves the player in its ordered set and broadcasts the rows that changed, and
+     * "recompute" sorts every player by their points and creates the whole leaderboard, like the server would
+     * without it. The players aren't in the room, so neither mode sends anything.
+     * @param mode "incremental" or "recompute".
+     * @param playerCount The number of players, who start with random points.
+     * @return The benchmark.
+     */
+    private static MicroBenchmark createScoreboardBenchmark(String mode, int playerCount) {
+        List<Client> players = new ArrayList<>();
+        Random random = new Random(playerCount);
+        MicroBenchmark.Operation operation;
+        if (mode.equals("incremental")) {
+            operation = blackhole -> {
+                Client player = players.get(random.nextInt(players.size()));
+                blackhole.consume(Scoreboard.addPoints(player, 10 * random.nextInt(120)));
+                return 1;
+            };
+        } else {
+            operation = blackhole -> {
+                Client player = players.get(random.nextInt(players.size()));
+                player.addPoints(10 * random.nextInt(120));
+                List<Client> sorted = new ArrayList<>(players);
+                sorted.sort(Comparator.comparingInt(Client::getPoints).reversed());
+                List<String> data = new ArrayList<>();
+                data.add(String.valueOf(SystemUtility.LEADERBOARD_SIZE));
+                for (int i = 0; i < SystemUtility.LEADERBOARD_SIZE; i++) {
+                    data.add(String.valueOf(i + 1));
+                    data.add(sorted.get(i).getUsername());
+                    data.add(String.valueOf(sorted.get(i).getPoints()));
+                }
+                blackhole.consume(new Command(CommandType.LEADERBOARD, data).toString());
+                return 1;
+            };
+        }
+        return new MicroBenchmark("scoreboard", 1, operation).param("update", mode).param("players", playerCount)
+                .setup(() -> {
+                    for (int i = 1; i <= playerCount; i++) {
+                        Client player = new Client("Player" + i, i, 0, LOOPBACK);
+                        players.add(player);
+                        Scoreboard.addPoints(player, 10 * random.nextInt(1200));
+                    }
+                }).teardown(() -> {
+                    Scoreboard.restore(Map.of());
+                    players.clear();
+                });
+    }
+
+    /**
+     * Create a benchmark of logging a change of points, as seen by the thread that changed them. "group" queues the
+     * event for the server's event log, which syncs every event that queued up during the previous sync at once,
+     * and "sync" appends the event and syncs it to the disk before returning, one thread at a time.
+     * @param mode "group" or "sync".
+     * @param threads The number of threads logging events.
+     * @return The benchmark.
+     */
+    private static MicroBenchmark createEventLogBenchmark(String mode, int threads) {
+        Path[] directory = new Path[1];
+        SegmentedLog[] log = new SegmentedLog[1];
+        byte[] event = "Alice:1180:2360".getBytes(StandardCharsets.UTF_8);
+        MicroBenchmark.Operation operation;
+        if (mode.equals("group")) {
+            operation = blackhole -> {
+                EventLog.recordScore("Alice", 1180, 2360);
+                return 1;
+            };
+        } else {
+            operation = blackhole -> {
+                synchronized (log) {
+                    blackhole.consume(log[0].append(ByteBuffer.wrap(event)));
+                    log[0].commit();
+                }
+                return 1;
+            };
+        }
+        return new MicroBenchmark("eventLog", threads, operation).param("commit", mode).setup(() -> {
+            directory[0] = Files.createTempDirectory("drawguesser-events");
+            if (mode.equals("group")) {
+                EventLog.startLogging(directory[0]);
+            } else {
+                log[0] = new SegmentedLog(directory[0], Long.MAX_VALUE, 1);
+            }
+        }).teardown(() -> {
+            EventLog.stopLogging();
+            if (log[0] != null) {
+                log[0].close();
+                log[0] = null;
+            }
+            try (Stream<Path> files = Files.list(directory[0])) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory[0]);
+        });
+    }
+
+    /**
+     * Create a benchmark of loading the profile of a player who joins, going through every stored profile in turn.
+     * "cache" has room for every profile in the cache, so they're loaded from memory, and "store" only has room for
+     * one, so every profile is read from the disk. The store's file is likely in the page cache either way.
+     * @param mode "cache" or "store".
+     * @return The benchmark.
+     */
+    private static MicroBenchmark createProfileBenchmark(String mode) {
+        Path[] directory = new Path[1];
+        String[] usernames = new String[PROFILE_PLAYERS];
+        for (int i = 0; i < usernames.length; i++) {
+            usernames[i] = "Player" + i;
+        }
+        int cacheSize = mode.equals("cache") ? PROFILE_PLAYERS : 1;
+        int[] next = new int[1];
+        return new MicroBenchmark("profileLoad", 1, blackhole -> {
+            blackhole.consume(ProfileStore.load(usernames[next[0]++ % usernames.length]));
+            return 1;
+        }).param("source", mode).setup(() -> {
+            directory[0] = Files.createTempDirectory("drawguesser-profiles");
+            ProfileStore.startStore(directory[0], cacheSize, 50);
+            for (String username : usernames) {
+                Profile profile = new Profile(username, System.currentTimeMillis());
+                profile.recordSession(System.currentTimeMillis());
+                ProfileStore.save(profile);
+            }
+            // Restart the store once every profile is written, so that none of them are cached
+            ProfileStore.stopStore();
+            ProfileStore.startStore(directory[0], cacheSize, 50);
+            if (mode.equals("cache")) {
+                for (String username : usernames) {
+                    ProfileStore.load(username);
+                }
+            }
+        }).teardown(() -> {
+            ProfileStore.stopStore();
+            try (Stream<Path> files = Files.list(directory[0])) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory[0]);
+        });
+    }
+
+    /**
+     * Create a benchmark of relaying the painter's points through a UdpHandler to every other client over loopback.
+     * Each operation sends a window of points and waits until every client received them, and the score is the
+     * time per point. Stroke simplification is disabled, so that every point is relayed as it is. Clients that the
+     * link monitor demotes receive simplified strokes instead, which count as lost, so a host too slow to answer
+     * the pings of a large room in time shows up as a much worse score.
+     * @param roomSize The number of clients to relay to.
+     * @return The benchmark.
+     */
+    private static MicroBenchmark createRelayBenchmark(int roomSize) {
+        List<Client> clients = new ArrayList<>();
+        RelaySink sink = new RelaySink();
+        Client painter = new Client("Painter", 0, 0, LOOPBACK);
+        DatagramSocket[] painterSocket = new DatagramSocket[1];
+        int[] handlerPort = new int[1];
+        int window = Math.max(1, Math.min(RELAY_WINDOW, RELAY_DATAGRAMS / roomSize));
+        byte[] data = new byte[SystemUtility.POINT_PACKET_SIZE];
+        long[] expected = new long[1];
+        int[] sent = new int[1];
+        return new MicroBenchmark("udpRelay", 1, blackhole -> {
+            DatagramPacket packet = new DatagramPacket(data, data.length, LOOPBACK, handlerPort[0]);
+            for (int i = 0; i < window; i++) {
+                // Type, id, x-coordinate, y-coordinate, flags
+                int point = sent[0]++;
+                ByteBuffer.wrap(data).put((byte) PacketType.POINT.ordinal()).putInt(painter.getId())
+                        .putInt(point % SystemUtility.CANVAS_WIDTH).putInt(point / SystemUtility.CANVAS_WIDTH
+                                % SystemUtility.CANVAS_HEIGHT).put((byte) 0);
+                painterSocket[0].send(packet);
+            }
+            expected[0] += (long) window * roomSize;
+            if (!sink.awaitReceived(expected[0], RELAY_TIMEOUT)) {
+                // Datagrams were lost, continue from what arrived
+                expected[0] = sink.getReceived();
+            }
+            return window;
+        }).param("roomSize", roomSize).setup(() -> {
+            try (DatagramSocket probe = new DatagramSocket(0, LOOPBACK)) {
+                handlerPort[0] = probe.getLocalPort();
+            }
+            Thread handler = new Thread(new UdpHandler(handlerPort[0], null), "server-udp-" + roomSize);
+            handler.setDaemon(true);
+            handler.start();
+            for (int i = 1; i <= roomSize; i++) {
+                Client client = new Client("Client" + i, i, sink.open(i), LOOPBACK);
+                clients.add(client);
+                DrawServer.addClient(client);
+            }
+            sink.start();
+            painterSocket[0] = new DatagramSocket();
+            setServerField("currentPainter", painter);
+            // Wait until the handler relays, since it binds its socket on its own thread
+            ByteBuffer.wrap(data).put((byte) PacketType.POINT.ordinal()).putInt(painter.getId()).putInt(0).putInt(0)
+                    .put(SystemUtility.STROKE_START);
+            while (sink.getReceived() == 0) {
+                painterSocket[0].send(new DatagramPacket(data, data.length, LOOPBACK, handlerPort[0]));
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            expected[0] = sink.getReceived();
+        }).teardown(() -> {
+            setServerField("currentPainter", null);
+            removeClients(clients);
+            sink.kill();
+            painterSocket[0].close();
+        });
+    }
+
+    /**
+     * Add clients to the server, without connections.
+     * @param clients Receives the added clients.
+     * @param count The number of clients.
+     * @param udpPort The UDP port of the clients.
+     */
+    private static void addClients(List<Client> clients, int count, int udpPort) {
+        for (int i = 1; i <= count; i++) {
+            Client client = new Client("Client" + i, i, udpPort, LOOPBACK);
+            clients.add(client);
+            DrawServer.addClient(client);
+        }
+    }
+
+    /**
+     * Remove clients from the server.
+     * @param clients The clients, the list is emptied.
+     */
+    private static void removeClients(List<Client> clients) {
+        for (Client client : clients) {
+            DrawServer.removeClient(client);
+        }
+        clients.clear();
+    }
+
+    /**
+     * Set the round state of the server directly, since it's only set by a round starting.
+     * @param name The name of the static field of DrawServer.
+     * @param value The new value.
+     * @throws ReflectiveOperationException If the field doesn't exist.
+     */
+    private static void setServerField(String name, Object value) throws ReflectiveOperationException {
+        Field field = DrawServer.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(null, value);
+    }
+
+    /**
+     * Format the parameters of a benchmark.
+     * @param params The parameters.
+     * @return The parameters as "key=value" separated by commas, or "-" if there are none.
+     */
+    private static String formatParams(Map<String, String> params) {
+        if (params.isEmpty()) {
+            return "-";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            builder.append(builder.length() > 0 ? "," : "").append(param.getKey()).append('=').append(param.getValue());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Write the results in the JSON format of JMH, so that they can be compared with the same tools.
+     * @param path Where to write the results.
+     * @param results The results.
+     * @param warmup The number of warmup iterations.
+     * @param iterations The number of measured iterations.
+     * @param time The time in milliseconds of each iteration.
+     * @throws IOException If the file couldn't be written.
+     */
+    private static void writeJson(Path path, List<MicroBenchmark.Result> results, int warmup, int iterations,
+                                  long time) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+            writer.println("[");
+            for (int r = 0; r < results.size(); r++) {
+                MicroBenchmark.Result result = results.get(r);
+                MicroBenchmark benchmark = result.benchmark();
+                writer.println("    {");
+                writer.printf("        \"jmhVersion\" : \"none\",%n");
+                writer.printf("        \"benchmark\" : \"%s.%s\",%n", HotPathBenchmarks.class.getName(), benchmark.getName());
+                writer.printf("        \"mode\" : \"avgt\",%n");
+                writer.printf("        \"threads\" : %d,%n", benchmark.getThreads());
+                writer.printf("        \"forks\" : 1,%n");
+                writer.printf("        \"jvm\" : \"%s\",%n", System.getProperty("java.home").replace("\\", "\\\\"));
+                writer.printf("        \"jdkVersion\" : \"%s\",%n", System.getProperty("java.version"));
+                writer.printf("        \"warmupIterations\" : %d,%n", warmup);
+                writer.printf("        \"warmupTime\" : \"%d ms\",%n", time);
+                writer.printf("        \"measurementIterations\" : %d,%n", iterations);
+                writer.printf("        \"measurementTime\" : \"%d ms\",%n", time);
+                if (!benchmark.getParams().isEmpty()) {
+                    writer.println("        \"params\" : {");
+                    int p = 0;
+                    for (Map.Entry<String, String> param : benchmark.getParams().entrySet()) {
+                        writer.printf("            \"%s\" : \"%s\"%s%n", param.getKey(), param.getValue(),
+                                ++p < benchmark.getParams().size() ? "," : "");
+                    }
+                    writer.println("        },");
+                }
+                writer.println("        \"primaryMetric\" : {");
+                writer.printf(Locale.ROOT, "            \"score\" : %.3f,%n", result.score());
+                writer.printf(Locale.ROOT, "            \"scoreError\" : %s,%n", jsonNumber(result.error()));
+                writer.printf(Locale.ROOT, "            \"scoreConfidence\" : [%s, %s],%n",
+                        jsonNumber(result.score() - result.error()), jsonNumber(result.score() + result.error()));
+                writer.printf("            \"scoreUnit\" : \"ns/op\",%n");
+                StringBuilder raw = new StringBuilder();
+                for (double value : result.nanosPerOp()) {
+                    raw.append(raw.length() > 0 ? ", " : "").append(String.format(Locale.ROOT, "%.3f", value));
+                }
+                writer.printf("            \"rawData\" : [[%s]]%n", raw);
+                writer.println("        },");
+                writer.println("        \"secondaryMetrics\" : {");
+                writer.println("            \"throughput\" : {");
+                writer.printf(Locale.ROOT, "                \"score\" : %.3f,%n", result.throughput());
+                writer.printf("                \"scoreUnit\" : \"ops/s\"%n");
+                writer.println("            }");
+                writer.println("        }");
+                writer.println(r + 1 < results.size() ? "    }," : "    }");
+            }
+            writer.println("]");
+        }
+    }
+
+    /**
+     * Write the results as CSV, with one row per benchmark and parameters.
+     * @param path Where to write the results.
+     * @param results The results.
+     * @throws IOException If the file couldn't be written.
+     */
+    private static void writeCsv(Path path, List<MicroBenchmark.Result> results) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+            writer.println("\"Benchmark\",\"Mode\",\"Threads\",\"Samples\",\"Score\",\"Score Error (99.9%)\",\"Unit\",\"Params\",\"Throughput (ops/s)\"");
+            for (MicroBenchmark.Result result : results) {
+                MicroBenchmark benchmark = result.benchmark();
+                writer.printf(Locale.ROOT, "\"%s.%s\",\"avgt\",%d,%d,%.3f,%s,\"ns/op\",\"%s\",%.3f%n",
+                        HotPathBenchmarks.class.getName(), benchmark.getName(), benchmark.getThreads(),
+                        result.nanosPerOp().length, result.score(), jsonNumber(result.error()),
+                        formatParams(benchmark.getParams()), result.throughput());
+            }
+        }
+    }
+
+    /**
+     * Format a number for JSON, which has no NaN.
+     * @param value The number.
+     * @return The number, or "NaN" as a string if it isn't a number.
+     */
+    private static String jsonNumber(double value) {
+        return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Receives the relayed datagrams of every client on its own channel, counts the relayed points, and answers
+     * the server's pings as each client, so that the server keeps relaying every point to them.
+     */
+    private static class RelaySink extends Thread {
+        private final Selector selector; // Tells which channels have datagrams
+        private final List<DatagramChannel> channels = new ArrayList<>(); // The channel of each client
+        private final AtomicLong received = new AtomicLong(); // The number of relayed points received
+        private volatile Thread waiter = null; // The thread waiting for points, if any
+        private volatile long target = 0; // The number of points the waiting thread waits for
+        private volatile boolean alive = true;
+
+        /**
+         * Kill this thread and close its channels.
+         */
+        public void kill() {
+            alive = false;
+            selector.wakeup();
+        }
+
+        /**
+         * Initialize a sink without channels.
+         */
+        public RelaySink() {
+            super("bench-sink");
+            setDaemon(true);
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open a selector: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Open a channel for a client. Must be called before the sink is started.
+         * @param id The ID of the client, used to answer pings.
+         * @return The port of the channel.
+         * @throws IOException If the channel couldn't be opened.
+         */
+        public int open(int id) throws IOException {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, 1 << 20);
+            channel.bind(new InetSocketAddress(LOOPBACK, 0));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, id);
+            channels.add(channel);
+            return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        }
+
+        /**
+         * Get the number of relayed points received by every client together.
+         * @return The number of points.
+         */
+        public long getReceived() {
+            return received.get();
+        }
+
+        /**
+         * Wait until a number of relayed points have been received, without spinning, since the relay needs the CPU.
+         * @param count The total number of points to wait for.
+         * @param timeout The max time to wait in nanoseconds.
+         * @return True if the points were received; otherwise, false if the wait timed out.
+         */
+        public boolean awaitReceived(long count, long timeout) {
+            long deadline = System.nanoTime() + timeout;
+            target = count;
+            waiter = Thread.currentThread();
+            try {
+                long remaining;
+                while (received.get() < count && (remaining = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+                return received.get() >= count;
+            } finally {
+                waiter = null;
+            }
+        }
+
+        /**
+         * Receive datagrams until the sink is killed.
+         */
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(SystemUtility.MAX_PACKET_SIZE);
+            try {
+                while (alive) {
+                    selector.select(100);
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        DatagramChannel channel = (DatagramChannel) key.channel();
+                        InetSocketAddress sender;
+                        while ((sender = (InetSocketAddress) channel.receive(buffer.clear())) != null) {
+                            if (buffer.position() > 0 && buffer.get(0) == PacketType.POINT.ordinal()) {
+                                received.incrementAndGet();
+                            } else if (buffer.position() >= 5 && buffer.get(0) == PacketType.PING.ordinal()) {
+                                // Answer with type, id, sequence number
+                                int sequence = buffer.getInt(1);
+                                buffer.clear().put((byte) PacketType.PONG.ordinal()).putInt((Integer) key.attachment())
+                                        .putInt(sequence).flip();
+                                channel.send(buffer, sender);
+                            }
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                    Thread waiting = waiter;
+                    if (waiting != null && received.get() >= target) {
+                        LockSupport.unpark(waiting);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                System.out.println("The relay sink stopped: " + e.getMessage());
+            } finally {
+                for (DatagramChannel channel : channels) {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        System.out.println("Could not close a channel of the relay sink: " + e.getMessage());
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    System.out.println("Could not close the selector of the relay sink: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package Benchmark;
+
+import java.util.Random;
+
+/**
+ * How one direction of an emulated link impairs the datagrams that pass through it, like a netem qdisc.
+ * A datagram is dropped with the loss probability, otherwise it waits for the link to serialize it at the
+ * bandwidth cap and then for the delay plus a uniform jitter, so that jitter larger than the gap between
+ * datagrams reorders them. A datagram that would queue longer than the queue limit is tail dropped.
+ * @param loss The probability of dropping a datagram, from 0 to 1.
+ * @param delayMillis The fixed delay of every datagram in milliseconds.
+ * @param jitterMillis The most the delay varies either way in milliseconds.
+ * @param duplicate The probability of delivering a datagram twice, from 0 to 1.
+ * @param bandwidth The capacity of the link in bytes per second, or 0 for no cap.
+ * @param queueMillis The longest time in milliseconds a datagram may wait for the bandwidth cap.
+ */
+public record Impairment(double loss, long delayMillis, long jitterMillis, double duplicate, long bandwidth,
+                         long queueMillis) {
+    public static final Impairment NONE = new Impairment(0, 0, 0, 0, 0, 0); // A perfect link
+
+    /**
+     * Decide when a datagram arrives at the other end of the link.
+     * @param size The size of the datagram in bytes.
+     * @param now The time the datagram entered the link, in nanoseconds.
+     * @param busyUntil When the link finishes sending what is already queued, in nanoseconds, updated if the
+     *                  datagram is sent. Only the first element is used.
+     * @param random Draws the loss and the jitter.
+     * @return When the datagram arrives, in nanoseconds, or -1 if it's lost.
+     */
+    public long schedule(int size, long now, long[] busyUntil, Random random) {
+        if (loss > 0 && random.nextDouble() < loss) {
+            return -1;
+        }
+        long departure = now;
+        if (bandwidth > 0) {
+            long start = Math.max(now, busyUntil[0]);
+            if (start - now > queueMillis * 1_000_000L) {
+                return -1;
+            }
+            departure = start + size * 1_000_000_000L / bandwidth;
+            busyUntil[0] = departure;
+        }
+        long delay = delayMillis * 1_000_000L;
+        if (jitterMillis > 0) {
+            delay += (long) ((random.nextDouble() * 2 - 1) * jitterMillis * 1_000_000L);
+        }
+        return departure + Math.max(0, delay);
+    }
+
+    /**
+     * Decide if a datagram that wasn't lost is delivered twice.
+     * @param random Draws the duplication.
+     * @return True if the datagram is duplicated; otherwise, false.
+     */
+    public boolean duplicates(Random random) {
+        return duplicate > 0 && random.nextDouble() < duplicate;
+    }
+
+    /**
+     * Describe the impairment on one line.
+     * @return The description.
+     */
+    @Override
+    public String toString() {
+        return String.format("loss %.1f%%, delay %d ms, jitter %d ms, duplicate %.1f%%, bandwidth %s",
+                loss * 100, delayMillis, jitterMillis, duplicate * 100,
+                bandwidth > 0 ? bandwidth / 1000 + " kB/s (queue " + queueMillis + " ms)" : "unlimited");
+    }
+}
@@ -0,0 +1,564 @@
+package Benchmark;
+
+import Server.DrawServer;
+import Utility.RecordingReader.EventType;
+import Utility.SystemUtility;
+import Utility.TileRaster;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a round against a DrawServer running in the same process, with every player's datagrams passing through
+ * an {@link ImpairmentProxy}, and measures how faithfully and how quickly the drawing reaches the guessers.
+ * The painter draws a recorded trace or random strokes, and every player rasterizes what it receives the way
+ * the client's paper does, joining the points of a stroke with lines and applying erases in arrival order.
+ * Each guesser's canvas is then compared with the painter's, before any tiles are repaired over TCP.
+ */
+public class ImpairmentBenchmark implements PlayerObserver {
+    private static final int TCP_PORT = 5000; // The TCP port of the server
+    private static final int UDP_PORT = 5001; // The UDP port of the server
+    private static final int SERVER_START_TIMEOUT = 5000; // Time in milliseconds to wait for the server to listen
+    private static final int ROUND_START_TIMEOUT = 30; // Time in seconds to wait for the round to start
+    private static final int STEP = 3; // Distance in pixels between the points of a random stroke
+    private static final long STROKE_PAUSE = 100; // Time in milliseconds between random strokes
+    private static final int ERASE_SIZE = 40; // The width and height of a random erase
+    private final List<SimulatedPlayer> players = new ArrayList<>(); // The connected players
+    private final Map<SimulatedPlayer, Canvas> canvases = new ConcurrentHashMap<>(); // What each player received
+    private final Canvas reference = new Canvas(); // What the painter drew
+    private final Map<Long, Long> pointSendTimes = new ConcurrentHashMap<>(); // When each point was last sent
+    private final LatencyStats relayLatency = new LatencyStats("Point relay"); // From painter to each guesser
+    private final CountDownLatch connected; // Counts down as players receive their IDs
+    private final CountDownLatch roundStarted = new CountDownLatch(1); // Counts down when the painter may draw
+    private volatile SimulatedPlayer painter = null; // The player drawing the round
+    private volatile boolean roundOver = false; // If the round ended before the drawing did
+    private int pointsSent = 0; // The number of points the painter sent
+    private int strokesSent = 0; // The number of strokes the painter started
+    private int erasesSent = 0; // The number of rectangles the painter erased
+
+    /**
+     * Initialize the benchmark.
+     * @param players The number of players, including the painter.
+     */
+    public ImpairmentBenchmark(int players) {
+        connected = new CountDownLatch(players);
+    }
+
+    /**
+     * Run the benchmark and print a report.
+     * @param args Optionally "--loss p", "--delay ms", "--jitter ms", "--duplicate p", "--bandwidth bytes/s" and
+     *             "--queue ms" for the impairment, "--direction both|up|down" for where it applies, then
+     *             "--guessers n", "--trace path" to draw a recording at "--speed x" instead of random strokes
+     *             for "--seconds s" at "--point-rate n" per second, "--drain ms", "--tolerance px" between
+     *             matching pixels, "--seed n" and "--verbose" to show the server's output.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--verbose")) {
+                options.put("verbose", "true");
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            }
+        }
+        Impairment impairment = new Impairment(
+                Double.parseDouble(options.getOrDefault("loss", "0")),
+                Long.parseLong(options.getOrDefault("delay", "0")),
+                Long.parseLong(options.getOrDefault("jitter", "0")),
+                Double.parseDouble(options.getOrDefault("duplicate", "0")),
+                Long.parseLong(options.getOrDefault("bandwidth", "0")),
+                Long.parseLong(options.getOrDefault("queue", "200")));
+        String direction = options.getOrDefault("direction", "both");
+        if (!direction.equals("both") && !direction.equals("up") && !direction.equals("down")) {
+            System.out.println("Usage: ImpairmentBenchmark [--loss 0.05] [--delay 40] [--jitter 20] [--duplicate 0.01]"
+                    + " [--bandwidth 0] [--queue 200] [--direction both|up|down] [--guessers 4]"
+                    + " [--trace <recording> --speed 1 | --seconds 20 --point-rate 60] [--drain 2000] [--tolerance 1]"
+                    + " [--seed 1] [--verbose]");
+            return;
+        }
+        Impairment upstream = direction.equals("down") ? Impairment.NONE : impairment;
+        Impairment downstream = direction.equals("up") ? Impairment.NONE : impairment;
+        int guessers = Integer.parseInt(options.getOrDefault("guessers", "4"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        long drain = Long.parseLong(options.getOrDefault("drain", "2000"));
+        if (guessers < 1) {
+            System.out.println("At least 1 guesser is needed to play a round");
+            return;
+        }
+        PrintStream out = System.out;
+        try {
+            Trace trace = null;
+            if (options.containsKey("trace")) {
+                List<Trace> traces = Trace.load(Path.of(options.get("trace")));
+                if (traces.isEmpty()) {
+                    out.println("No recordings were found at " + options.get("trace"));
+                    return;
+                }
+                trace = traces.get(0);
+            }
+            if (!options.containsKey("verbose")) {
+                // Keep the server's logging out of the report
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            }
+            out.println("Upstream: " + upstream);
+            out.println("Downstream: " + downstream);
+            InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), UDP_PORT);
+            ImpairmentProxy proxy = new ImpairmentProxy(serverAddress, upstream, downstream, seed);
+            proxy.start();
+            ImpairmentBenchmark benchmark = new ImpairmentBenchmark(guessers + 1);
+            if (!benchmark.connect(proxy, guessers + 1)) {
+                out.println("The round didn't start in time");
+            } else {
+                if (trace != null) {
+                    out.printf("Drawing %s at %.1fx speed with %d guessers%n", trace.getName(),
+                            Double.parseDouble(options.getOrDefault("speed", "1")), guessers);
+                    benchmark.drawTrace(trace, Double.parseDouble(options.getOrDefault("speed", "1")));
+                } else {
+                    int seconds = Integer.parseInt(options.getOrDefault("seconds", "20"));
+                    int pointRate = Integer.parseInt(options.getOrDefault("point-rate", "60"));
+                    out.printf("Drawing random strokes for %d s at %d points/s with %d guessers%n",
+                            seconds, pointRate, guessers);
+                    benchmark.drawRandom(seconds, pointRate, new Random(seed));
+                }
+                Thread.sleep(drain);
+                proxy.kill();
+                proxy.join();
+                benchmark.report(out, proxy, Integer.parseInt(options.getOrDefault("tolerance", "1")));
+            }
+        } catch (IOException e) {
+            out.println("The benchmark failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            out.println("The benchmark was interrupted");
+        } finally {
+            System.setOut(out);
+        }
+        // The server has no way to shut down, so it ends with the process
+        System.exit(0);
+    }
+
+    /**
+     * Start the server, connect every player through its own link and wait for the round to start.
+     * @param proxy The proxy that opens the links.
+     * @param playerCount The number of players.
+     * @return True if the round started in time; otherwise, false.
+     * @throws IOException If a player couldn't connect.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private boolean connect(ImpairmentProxy proxy, int playerCount) throws IOException, InterruptedException {
+        Thread server = new Thread(() -> DrawServer.main(new String[0]), "server-main");
+        server.setDaemon(true);
+        server.start();
+        InetAddress address = InetAddress.getLoopbackAddress();
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT;
+        for (int i = 0; i < playerCount; i++) {
+            int linkPort = proxy.openLink();
+            SimulatedPlayer player;
+            while (true) {
+                try {
+                    player = new SimulatedPlayer(this, "Bot" + i, address, TCP_PORT,
+                            new InetSocketAddress(address, linkPort), linkPort);
+                    break;
+                } catch (ConnectException e) {
+                    // The server might not listen yet
+                    if (System.currentTimeMillis() > deadline) {
+                        throw e;
+                    }
+                    Thread.sleep(50);
+                }
+            }
+            canvases.put(player, new Canvas());
+            players.add(player);
+            player.start();
+        }
+        return connected.await(ROUND_START_TIMEOUT, TimeUnit.SECONDS)
+                && roundStarted.await(ROUND_START_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Draw the points and erases of a recorded round as the painter, until the round ends.
+     * @param trace The recorded round.
+     * @param speed How many times faster than recorded to draw.
+     * @throws IOException If a datagram couldn't be sent.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private void drawTrace(Trace trace, double speed) throws IOException, InterruptedException {
+        long begin = System.nanoTime();
+        for (long[] event : trace.getDrawing()) {
+            if (roundOver) {
+                return;
+            }
+            long wait = begin + (long) (event[1] * 1_000_000 / speed) - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+            if (event[0] == EventType.POINT.ordinal()) {
+                sendPoint((int) event[2], (int) event[3], (event[6] & SystemUtility.STROKE_START) != 0);
+            } else {
+                sendErase((int) event[2], (int) event[3], (int) event[4], (int) event[5]);
+            }
+        }
+    }
+
+    /**
+     * Draw random strokes as the painter, with an erase every tenth stroke, until the time is up or the round ends.
+     * @param seconds How long to draw.
+     * @param pointRate The number of points to send per second while drawing a stroke.
+     * @param random Picks positions and directions.
+     * @throws IOException If a datagram couldn't be sent.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private void drawRandom(int seconds, int pointRate, Random random) throws IOException, InterruptedException {
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long interval = 1_000_000_000L / pointRate;
+        while (System.nanoTime() < end && !roundOver) {
+            int x = random.nextInt(SystemUtility.CANVAS_WIDTH);
+            int y = random.nextInt(SystemUtility.CANVAS_HEIGHT);
+            double angle = random.nextDouble() * Math.PI * 2;
+            int length = 20 + random.nextInt(60);
+            long next = System.nanoTime();
+            for (int i = 0; i < length; i++) {
+                sendPoint(x, y, i == 0);
+                // Wander a little, and turn back at the edges of the canvas
+                angle += (random.nextDouble() - 0.5) * 0.6;
+                x = Math.max(0, Math.min(SystemUtility.CANVAS_WIDTH - 1, x + (int) Math.round(Math.cos(angle) * STEP)));
+                y = Math.max(0, Math.min(SystemUtility.CANVAS_HEIGHT - 1, y + (int) Math.round(Math.sin(angle) * STEP)));
+                if (x == 0 || y == 0 || x == SystemUtility.CANVAS_WIDTH - 1 || y == SystemUtility.CANVAS_HEIGHT - 1) {
+                    angle += Math.PI;
+                }
+                next += interval;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                }
+            }
+            if (strokesSent % 10 == 0) {
+                sendErase(x - ERASE_SIZE / 2, y - ERASE_SIZE / 2, x + ERASE_SIZE / 2, y + ERASE_SIZE / 2);
+            }
+            Thread.sleep(STROKE_PAUSE);
+        }
+    }
+
+    /**
+     * Send a point as the painter and draw it on the reference canvas.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @param strokeStart If the point starts a new stroke.
+     * @throws IOException If the datagram couldn't be sent.
+     */
+    private void sendPoint(int x, int y, boolean strokeStart) throws IOException {
+        reference.addStroke(new int[]{x}, new int[]{y}, 1, strokeStart);
+        pointSendTimes.put(pack(x, y), System.nanoTime());
+        pointsSent++;
+        if (strokeStart) {
+            strokesSent++;
+        }
+        painter.sendPoint(x, y, strokeStart ? SystemUtility.STROKE_START : 0);
+    }
+
+    /**
+     * Send an erase as the painter and apply it to the reference canvas.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     * @throws IOException If the datagram couldn't be sent.
+     */
+    private void sendErase(int left, int top, int right, int bottom) throws IOException {
+        reference.erase(left, top, right, bottom);
+        erasesSent++;
+        painter.sendErase(left, top, right, bottom);
+    }
+
+    /**
+     * Register that a player received its ID.
+     * @param player The player.
+     * @param nanos The time in nanoseconds from connecting to receiving the ID.
+     */
+    @Override
+    public void onConnected(SimulatedPlayer player, long nanos) {
+        connected.countDown();
+    }
+
+    /**
+     * Register that the round started, and who paints it.
+     * @param player The player that was told.
+     * @param secretWord The word to draw if the player is the painter; otherwise, null.
+     * @param time When the player was told, in nanoseconds.
+     */
+    @Override
+    public void onRoundStarted(SimulatedPlayer player, String secretWord, long time) {
+        if (secretWord != null && painter == null) {
+            painter = player;
+            roundStarted.countDown();
+        }
+    }
+
+    /**
+     * Register that the round ended, which stops the drawing.
+     * @param player The player that was told.
+     * @param time When the player was told, in nanoseconds.
+     */
+    @Override
+    public void onRoundEnded(SimulatedPlayer player, long time) {
+        if (player == painter) {
+            roundOver = true;
+        }
+    }
+
+    /**
+     * Ignore chat, the benchmark only measures the drawing.
+     * @param message The message, as sent by the server.
+     * @param time When the message was received, in nanoseconds.
+     */
+    @Override
+    public void onChatReceived(String message, long time) {
+    }
+
+    /**
+     * Draw relayed points on the player's canvas, and measure how long the first copy of each point took.
+     * @param player The player.
+     * @param xs The x-coordinates of the points.
+     * @param ys The y-coordinates of the points.
+     * @param count The number of points.
+     * @param strokeStart If the points start a new stroke.
+     * @param time When the points were received, in nanoseconds.
+     */
+    @Override
+    public void onPointsReceived(SimulatedPlayer player, int[] xs, int[] ys, int count, boolean strokeStart, long time) {
+        Canvas canvas = canvases.get(player);
+        if (canvas == null || player == painter) {
+            return;
+        }
+        canvas.addStroke(xs, ys, count, strokeStart);
+        for (int i = 0; i < count; i++) {
+            long key = pack(xs[i], ys[i]);
+            Long sent = pointSendTimes.get(key);
+            if (sent != null && canvas.markReceived(key)) {
+                relayLatency.add(time - sent);
+            }
+        }
+    }
+
+    /**
+     * Apply a relayed erase to the player's canvas.
+     * @param player The player.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     */
+    @Override
+    public void onEraseReceived(SimulatedPlayer player, int left, int top, int right, int bottom) {
+        Canvas canvas = canvases.get(player);
+        if (canvas != null && player != painter) {
+            canvas.erase(left, top, right, bottom);
+        }
+    }
+
+    /**
+     * Print what was measured.
+     * @param out Where to print the report.
+     * @param proxy The proxy, already killed, for what happened to the datagrams.
+     * @param tolerance The largest distance in pixels, along either axis, between matching pixels.
+     */
+    private void report(PrintStream out, ImpairmentProxy proxy, int tolerance) {
+        out.printf("Painter sent %d points in %d strokes and %d erases, %d pixels drawn%n",
+                pointsSent, strokesSent, erasesSent, reference.countPixels());
+        out.println(relayLatency);
+        out.println(proxy.getStatistics(true));
+        out.println(proxy.getStatistics(false));
+        double totalSimilarity = 0;
+        double worstSimilarity = 1;
+        int guessers = 0;
+        for (SimulatedPlayer player : players) {
+            if (player == painter) {
+                continue;
+            }
+            Canvas canvas = canvases.get(player);
+            int[] comparison = canvas.compare(reference, tolerance);
+            // The F1 score of the drawn pixels against the intended ones
+            double recall = comparison[0] == 0 ? 1 : 1 - (double) comparison[1] / comparison[0];
+            double precision = comparison[2] == 0 ? (comparison[0] == 0 ? 1 : 0) : 1 - (double) comparison[3] / comparison[2];
+            double similarity = recall + precision == 0 ? 0 : 2 * recall * precision / (recall + precision);
+            out.printf("%s: %.1f%% similar, %d pixels missing, %d extra, %d of %d drawn tiles identical,"
+                            + " %.1f%% of points received%n", player.getUsername(), similarity * 100, comparison[1],
+                    comparison[3], comparison[4], comparison[5],
+                    100.0 * canvas.countReceived() / Math.max(1, pointSendTimes.size()));
+            totalSimilarity += similarity;
+            worstSimilarity = Math.min(worstSimilarity, similarity);
+            guessers++;
+        }
+        out.printf("Canvas fidelity within %d px: %.1f%% mean, %.1f%% worst%n",
+                tolerance, 100 * totalSimilarity / guessers, 100 * worstSimilarity);
+    }
+
+    /**
+     * Pack a point into one key.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return The key.
+     */
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * A canvas drawn the way the client's paper draws received strokes, safe to use from any thread.
+     */
+    private static class Canvas {
+        private final TileRaster raster = new TileRaster(); // The drawn pixels
+        private final Set<Long> received = new HashSet<>(); // The distinct points received
+        private int lastX; // The x-coordinate of the last point of the current stroke
+        private int lastY; // The y-coordinate of the last point of the current stroke
+        private boolean hasLastPoint = false; // If there is a stroke to continue
+
+        /**
+         * Draw points, joined with lines to each other and to the previous stroke unless they start a new one.
+         * @param xs The x-coordinates of the points.
+         * @param ys The y-coordinates of the points.
+         * @param count The number of points.
+         * @param strokeStart If the points start a new stroke.
+         */
+        private synchronized void addStroke(int[] xs, int[] ys, int count, boolean strokeStart) {
+            if (strokeStart) {
+                hasLastPoint = false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (hasLastPoint) {
+                    // Step one pixel at a time along the longest axis, like the paper does
+                    int dx = xs[i] - lastX;
+                    int dy = ys[i] - lastY;
+                    int steps = Math.max(Math.abs(dx), Math.abs(dy));
+                    for (int step = 1; step < steps; step++) {
+                        raster.set(lastX + Math.round((float) dx * step / steps), lastY + Math.round((float) dy * step / steps));
+                    }
+                }
+                raster.set(xs[i], ys[i]);
+                lastX = xs[i];
+                lastY = ys[i];
+                hasLastPoint = true;
+            }
+        }
+
+        /**
+         * Clear the pixels within a rectangle.
+         * @param left The smallest x-coordinate of the rectangle.
+         * @param top The smallest y-coordinate of the rectangle.
+         * @param right The largest x-coordinate of the rectangle.
+         * @param bottom The largest y-coordinate of the rectangle.
+         */
+        private synchronized void erase(int left, int top, int right, int bottom) {
+            raster.clearRect(left, top, right, bottom);
+        }
+
+        /**
+         * Remember that a point was received.
+         * @param key The packed point.
+         * @return True if it's the first time the point was received; otherwise, false.
+         */
+        private synchronized boolean markReceived(long key) {
+            return received.add(key);
+        }
+
+        /**
+         * Count the distinct points received.
+         * @return The number of points.
+         */
+        private synchronized int countReceived() {
+            return received.size();
+        }
+
+        /**
+         * Count the drawn pixels.
+         * @return The number of pixels.
+         */
+        private synchronized int countPixels() {
+            int pixels = 0;
+            for (int y = 0; y < SystemUtility.CANVAS_HEIGHT; y++) {
+                for (int x = 0; x < SystemUtility.CANVAS_WIDTH; x++) {
+                    if (raster.get(x, y)) {
+                        pixels++;
+                    }
+                }
+            }
+            return pixels;
+        }
+
+        /**
+         * Compare this canvas with the intended one, pixel by pixel and tile by tile. A pixel matches if the other
+         * canvas has a pixel within the tolerance, since the server may move lines by simplifying strokes.
+         * @param intended The intended canvas.
+         * @param tolerance The largest distance in pixels, along either axis, between matching pixels.
+         * @return The intended pixels, the intended pixels without a match, the drawn pixels, the drawn pixels
+         *         without a match, the tiles with matching checksums and the tiles drawn on either canvas.
+         */
+        private int[] compare(Canvas intended, int tolerance) {
+            int[] comparison = new int[6];
+            synchronized (intended) {
+                synchronized (this) {
+                    for (int y = 0; y < SystemUtility.CANVAS_HEIGHT; y++) {
+                        for (int x = 0; x < SystemUtility.CANVAS_WIDTH; x++) {
+                            if (intended.raster.get(x, y)) {
+                                comparison[0]++;
+                                if (!isNear(raster, x, y, tolerance)) {
+                                    comparison[1]++;
+                                }
+                            }
+                            if (raster.get(x, y)) {
+                                comparison[2]++;
+                                if (!isNear(intended.raster, x, y, tolerance)) {
+                                    comparison[3]++;
+                                }
+                            }
+                        }
+                    }
+                    for (int tile = 0; tile < TileRaster.TILE_COUNT; tile++) {
+                        int wantedChecksum = intended.raster.getChecksum(tile);
+                        int drawnChecksum = raster.getChecksum(tile);
+                        if (wantedChecksum != 0 || drawnChecksum != 0) {
+                            comparison[5]++;
+                            if (wantedChecksum == drawnChecksum) {
+                                comparison[4]++;
+                            }
+                        }
+                    }
+                }
+            }
+            return comparison;
+        }
+
+        /**
+         * Check if a raster has a pixel near a point.
+         * @param raster The raster.
+         * @param x The x-coordinate of the point.
+         * @param y The y-coordinate of the point.
+         * @param tolerance The largest distance in pixels along either axis.
+         * @return True if a pixel within the tolerance is drawn; otherwise, false.
+         */
+        private static boolean isNear(TileRaster raster, int x, int y, int tolerance) {
+            for (int dy = -tolerance; dy <= tolerance; dy++) {
+                for (int dx = -tolerance; dx <= tolerance; dx++) {
+                    if (raster.get(x + dx, y + dy)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package Benchmark;
+
+import Utility.SystemUtility;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A UDP proxy on the loopback address that emulates impaired links between the server and its clients, without
+ * the privileges that tc netem needs. Each client gets its own link, a port that the client sends its datagrams
+ * to and that it tells the server to relay to, so that the server's datagrams pass through the link as well.
+ * Datagrams from the server go downstream to the client, which is the first other sender on the link, and
+ * everything else goes upstream to the server. Every link is served by one thread, which holds each datagram
+ * until its direction's {@link Impairment} lets it arrive.
+ */
+public class ImpairmentProxy extends Thread {
+    private final InetSocketAddress serverAddress; // Where upstream datagrams are sent
+    private final Impairment upstream; // How datagrams from clients to the server are impaired
+    private final Impairment downstream; // How datagrams from the server to clients are impaired
+    private final Selector selector; // Waits for datagrams on every link
+    private final Random random; // Draws the losses, jitter and duplicates
+    private final Queue<Link> newLinks = new ConcurrentLinkedQueue<>(); // Links waiting to be registered
+    private final List<Link> links = new ArrayList<>(); // Every registered link
+    private final PriorityQueue<Delivery> deliveries = new PriorityQueue<>(); // Held datagrams, by arrival time
+    private final ByteBuffer buffer = ByteBuffer.allocate(SystemUtility.MAX_PACKET_SIZE); // Reused for receiving
+    private long sequence = 0; // Orders deliveries that arrive at the same time
+    private volatile boolean alive = true;
+
+    /**
+     * Stop forwarding and close every link.
+     */
+    public void kill() {
+        alive = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Initialize a proxy without links.
+     * @param serverAddress The UDP address of the server.
+     * @param upstream How datagrams from clients to the server are impaired.
+     * @param downstream How datagrams from the server to clients are impaired.
+     * @param seed Seeds the random impairments, so that runs can be repeated.
+     * @throws IOException If the selector couldn't be opened.
+     */
+    public ImpairmentProxy(InetSocketAddress serverAddress, Impairment upstream, Impairment downstream, long seed)
+            throws IOException {
+        super("bench-proxy");
+        setDaemon(true);
+        this.serverAddress = serverAddress;
+        this.upstream = upstream;
+        this.downstream = downstream;
+        random = new Random(seed);
+        selector = Selector.open();
+    }
+
+    /**
+     * Open a link for one client.
+     * @return The port of the link on the loopback address.
+     * @throws IOException If the link couldn't be opened.
+     */
+    public int openLink() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        newLinks.add(new Link(channel));
+        selector.wakeup();
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Forward datagrams through the links until the proxy is killed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (alive) {
+                registerNewLinks();
+                Delivery next = deliveries.peek();
+                if (next == null) {
+                    selector.select();
+                } else {
+                    long wait = (next.time - System.nanoTime()) / 1_000_000L;
+                    if (wait > 0) {
+                        selector.select(wait);
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    receive((Link) key.attachment());
+                }
+                selector.selectedKeys().clear();
+                deliverDue();
+            }
+        } catch (IOException e) {
+            System.out.println("The impairment proxy failed: " + e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Register the links opened since the last pass.
+     * @throws IOException If a link couldn't be registered.
+     */
+    private void registerNewLinks() throws IOException {
+        Link link;
+        while ((link = newLinks.poll()) != null) {
+            link.channel.register(selector, SelectionKey.OP_READ, link);
+            links.add(link);
+        }
+    }
+
+    /**
+     * Receive every waiting datagram on a link and decide when each one arrives.
+     * @param link The link.
+     * @throws IOException If a datagram couldn't be received.
+     */
+    private void receive(Link link) throws IOException {
+        while (true) {
+            buffer.clear();
+            InetSocketAddress sender = (InetSocketAddress) link.channel.receive(buffer);
+            if (sender == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            buffer.flip();
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            boolean fromServer = sender.equals(serverAddress);
+            if (!fromServer && link.client == null) {
+                link.client = sender;
+            }
+            if (fromServer && link.client == null) {
+                // Nowhere to deliver it yet
+                link.downstream.dropped++;
+                continue;
+            }
+            Direction direction = fromServer ? link.downstream : link.upstream;
+            InetSocketAddress target = fromServer ? link.client : serverAddress;
+            direction.received++;
+            // A duplicate is impaired like another datagram, so it may be lost or arrive out of order too
+            int copies = direction.impairment.duplicates(random) ? 2 : 1;
+            for (int i = 0; i < copies; i++) {
+                long time = direction.impairment.schedule(data.length, now, direction.busyUntil, random);
+                if (time < 0) {
+                    direction.dropped++;
+                } else {
+                    direction.duplicated += i;
+                    deliveries.add(new Delivery(time, sequence++, link, direction, data, target));
+                }
+            }
+        }
+    }
+
+    /**
+     * Send every held datagram whose arrival time has come.
+     * @throws IOException If a datagram couldn't be sent.
+     */
+    private void deliverDue() throws IOException {
+        long now = System.nanoTime();
+        while (!deliveries.isEmpty() && deliveries.peek().time <= now) {
+            Delivery delivery = deliveries.poll();
+            if (delivery.sequence < delivery.direction.lastSequence) {
+                delivery.direction.reordered++;
+            }
+            delivery.direction.lastSequence = Math.max(delivery.direction.lastSequence, delivery.sequence);
+            delivery.direction.delivered++;
+            delivery.link.channel.send(ByteBuffer.wrap(delivery.data), delivery.target);
+        }
+    }
+
+    /**
+     * Close every link.
+     */
+    private void close() {
+        for (Link link : links) {
+            try {
+                link.channel.close();
+            } catch (IOException e) {
+                System.out.println("Could not close a link: " + e.getMessage());
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.out.println("Could not close the selector of the proxy: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Describe what happened to the datagrams in one direction of every link, only accurate after the proxy
+     * is killed.
+     * @param upstreamDirection True for the datagrams from clients to the server; otherwise, false.
+     * @return The description.
+     */
+    public String getStatistics(boolean upstreamDirection) {
+        long received = 0;
+        long dropped = 0;
+        long duplicated = 0;
+        long reordered = 0;
+        long delivered = 0;
+        for (Link link : links) {
+            Direction direction = upstreamDirection ? link.upstream : link.downstream;
+            received += direction.received;
+            dropped += direction.dropped;
+            duplicated += direction.duplicated;
+            reordered += direction.reordered;
+            delivered += direction.delivered;
+        }
+        return String.format("%s: %d datagrams in, %d dropped, %d duplicated, %d reordered, %d delivered",
+                upstreamDirection ? "Upstream" : "Downstream", received, dropped, duplicated, reordered, delivered);
+    }
+
+    /**
+     * The state of one direction of a link.
+     */
+    private static class Direction {
+        private final Impairment impairment; // How the direction impairs datagrams
+        private final long[] busyUntil = new long[1]; // When the direction finishes sending what is queued
+        private long lastSequence = -1; // The latest sequence number delivered, to detect reordering
+        private long received = 0; // The number of datagrams that entered the direction
+        private long dropped = 0; // The number of datagrams or duplicates that were lost
+        private long duplicated = 0; // The number of extra copies sent
+        private long reordered = 0; // The number of datagrams delivered after a later one
+        private long delivered = 0; // The number of datagrams sent out of the direction
+
+        /**
+         * Initialize a direction.
+         * @param impairment How the direction impairs datagrams.
+         */
+        private Direction(Impairment impairment) {
+            this.impairment = impairment;
+        }
+    }
+
+    /**
+     * The link of one client.
+     */
+    private class Link {
+        private final DatagramChannel channel; // Receives from and sends to both ends
+        private final Direction upstream = new Direction(ImpairmentProxy.this.upstream); // Towards the server
+        private final Direction downstream = new Direction(ImpairmentProxy.this.downstream); // Towards the client
+        private InetSocketAddress client = null; // The address of the client, once it has sent something
+
+        /**
+         * Initialize a link.
+         * @param channel The channel of the link, already bound.
+         */
+        private Link(DatagramChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * A datagram held until it arrives.
+     * @param time When the datagram arrives, in nanoseconds.
+     * @param sequence The order the datagram entered the proxy in.
+     * @param link The link the datagram is sent from.
+     * @param direction The direction the datagram travels.
+     * @param data The datagram.
+     * @param target Where the datagram is sent.
+     */
+    private record Delivery(long time, long sequence, Link link, Direction direction, byte[] data,
+                            InetSocketAddress target) implements Comparable<Delivery> {
+        /**
+         * Order deliveries by arrival time, then by the order they entered the proxy.
+         * @param other The other delivery.
+         * @return A negative number, zero or a positive number if this delivery arrives first, together or last.
+         */
+        @Override
+        public int compareTo(Delivery other) {
+            int order = Long.compare(time, other.time);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+}
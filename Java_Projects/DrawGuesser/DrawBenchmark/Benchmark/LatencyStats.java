@@ -0,0 +1,64 @@
+package Benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples from any thread and summarizes them as percentiles.
+ */
+public class LatencyStats {
+    private final String name; // What is measured
+    private long[] samples = new long[1024]; // The samples in nanoseconds, grown as needed
+    private int count = 0; // The number of samples
+
+    /**
+     * Initialize empty statistics.
+     * @param name What is measured.
+     */
+    public LatencyStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Add a sample.
+     * @param nanos The latency in nanoseconds.
+     */
+    public synchronized void add(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    /**
+     * Get the number of samples.
+     * @return The number of samples.
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Get a percentile of the samples.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The latency in milliseconds, or 0 if there are no samples.
+     */
+    public synchronized double getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))] / 1e6;
+    }
+
+    /**
+     * Summarize the samples on one line.
+     * @return The number of samples and the median, p90, p99 and max latency in milliseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format("%-18s n=%-8d p50=%8.2f ms  p90=%8.2f ms  p99=%8.2f ms  max=%8.2f ms", name,
+                getCount(), getPercentile(50), getPercentile(90), getPercentile(99), getPercentile(100));
+    }
+}
@@ -0,0 +1,332 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates a crowd of headless players against a running server, to find out how many players it can take.
+ * Bots connect at a given rate, acknowledge when they're asked to paint, paint strokes when selected, and chat
+ * and guess while the others paint. A handful of {@link BotLoop} threads run every bot, so thousands of players
+ * fit in one JVM. The report covers how fast bots could connect, how long the server takes to fan out the
+ * painter's points and the chat, and how much of it never arrived.
+ */
+public class LoadGenerator {
+    private static final int DRAIN_TIME = 1000; // Time in milliseconds to wait for messages in flight before reporting
+    private static final int CONNECT_TIMEOUT = 30000; // Time in milliseconds to wait for the last bots to connect
+    private static final String CHAT_TAG = " [bot:"; // Marks chat messages with their sequence number
+    private final BotLoop[] loops; // The loops running the bots
+    private final Random random = new Random(); // Picks who guesses the word
+    private final Map<Long, Long> pointSendTimes = new ConcurrentHashMap<>(); // When each point was last sent
+    private final Map<Integer, Long> chatSendTimes = new ConcurrentHashMap<>(); // When each chat message was sent
+    private final AtomicInteger chatSequence = new AtomicInteger(); // The sequence number of the next chat message
+    private final AtomicInteger connectedBots = new AtomicInteger(); // Bots that received their ID and are still connected
+    private final AtomicInteger failedBots = new AtomicInteger(); // Bots that couldn't connect
+    private final AtomicInteger disconnectedBots = new AtomicInteger(); // Bots that lost their connection
+    private final AtomicLong lastConnectTime = new AtomicLong(); // When the latest bot received its ID, in nanoseconds
+    private final AtomicLong pointsSent = new AtomicLong(); // Points sent while measuring
+    private final AtomicLong strokesExpected = new AtomicLong(); // Stroke starts that should reach the guessers
+    private final AtomicLong strokesReceived = new AtomicLong(); // Stroke starts that reached a guesser
+    private final AtomicLong chatsSent = new AtomicLong(); // Chat messages sent while measuring
+    private final AtomicLong chatsExpected = new AtomicLong(); // Chat messages that should reach the bots
+    private final AtomicLong chatsReceived = new AtomicLong(); // Chat messages that reached a bot
+    private final AtomicInteger rounds = new AtomicInteger(); // Rounds that ended while measuring
+    private final LatencyStats handshakeLatency = new LatencyStats("Handshake"); // From connecting to receiving an ID
+    private final LatencyStats relayLatency = new LatencyStats("Relay fan-out"); // From painter to each guesser
+    private final LatencyStats broadcastLatency = new LatencyStats("Chat broadcast"); // From sender to each bot
+    private volatile boolean running = false; // If the bots chat and guess
+    private volatile boolean measuring = false; // If what the bots observe is measured
+
+    /**
+     * Initialize the generator and its loops.
+     * @param loopCount The number of loops to run the bots on.
+     * @param pointRate The number of points per second the painter sends.
+     * @param strokePoints The number of points in a stroke.
+     * @param roundTime Time in seconds that a painter paints before the round is won.
+     * @param chatRate The number of chat messages per second from all bots.
+     * @param guessRate The number of wrong guesses per second from all bots.
+     * @throws IOException If a loop couldn't be started.
+     */
+    public LoadGenerator(int loopCount, double pointRate, int strokePoints, double roundTime,
+                         double chatRate, double guessRate) throws IOException {
+        loops = new BotLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new BotLoop(this, "bench-loop-" + i, pointRate, strokePoints, roundTime,
+                    chatRate / loopCount, guessRate / loopCount);
+            loops[i].start();
+        }
+    }
+
+    /**
+     * Run bots against a server and print a report.
+     * @param args Optionally "--host name", "--tcp-port 5000", "--udp-port 5001", "--bots n", "--connect-rate n"
+     *             bots per second (0 for as fast as possible), "--duration s", "--loops n", "--point-rate n",
+     *             "--stroke-points n", "--round-time s", "--chat-rate n", "--guess-rate n" and "--verbose".
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--verbose")) {
+                options.put("verbose", "true");
+            } else if (args[i].equals("--help")) {
+                System.out.println("Usage: LoadGenerator [--host localhost] [--tcp-port 5000] [--udp-port 5001]"
+                        + " [--bots 100] [--connect-rate 200] [--duration 30] [--loops 4] [--point-rate 120]"
+                        + " [--stroke-points 60] [--round-time 10] [--chat-rate 5] [--guess-rate 2] [--verbose]");
+                return;
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            }
+        }
+        String host = options.getOrDefault("host", "localhost");
+        InetSocketAddress tcpAddress = new InetSocketAddress(host, Integer.parseInt(options.getOrDefault("tcp-port", "5000")));
+        InetSocketAddress udpAddress = new InetSocketAddress(host, Integer.parseInt(options.getOrDefault("udp-port", "5001")));
+        int bots = Integer.parseInt(options.getOrDefault("bots", "100"));
+        double connectRate = Double.parseDouble(options.getOrDefault("connect-rate", "200"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int loopCount = Integer.parseInt(options.getOrDefault("loops", String.valueOf(
+                Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)))));
+        PrintStream out = System.out;
+        if (!options.containsKey("verbose")) {
+            // Keep the bots' disconnects out of the report
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        try {
+            LoadGenerator generator = new LoadGenerator(loopCount,
+                    Double.parseDouble(options.getOrDefault("point-rate", "120")),
+                    Integer.parseInt(options.getOrDefault("stroke-points", "60")),
+                    Double.parseDouble(options.getOrDefault("round-time", "10")),
+                    Double.parseDouble(options.getOrDefault("chat-rate", "5")),
+                    Double.parseDouble(options.getOrDefault("guess-rate", "2")));
+            out.printf("Connecting %d bots to %s on %d loops%n", bots, host, loopCount);
+            long connectStart = System.nanoTime();
+            generator.connect(bots, connectRate, tcpAddress, udpAddress);
+            long connectEnd = Math.max(connectStart, generator.lastConnectTime.get());
+            out.printf("Connected %d of %d bots in %.2f s (%.0f connections per second), %d failed%n",
+                    generator.connectedBots.get(), bots, (connectEnd - connectStart) / 1e9,
+                    generator.connectedBots.get() / Math.max(1e-9, (connectEnd - connectStart) / 1e9),
+                    generator.failedBots.get());
+            out.printf("Measuring for %d s%n", duration);
+            generator.measuring = true;
+            generator.running = true;
+            Thread.sleep(duration * 1000L);
+            generator.running = false;
+            // Let the messages in flight arrive
+            Thread.sleep(DRAIN_TIME);
+            generator.measuring = false;
+            generator.report(out);
+            for (BotLoop loop : generator.loops) {
+                loop.kill();
+            }
+        } catch (IOException e) {
+            out.println("The load generator failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            out.println("The load generator was interrupted");
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Connect the bots at a steady rate, and wait until each has connected or failed.
+     * @param bots The number of bots.
+     * @param connectRate The number of bots per second to start connecting, or 0 for as fast as possible.
+     * @param tcpAddress The TCP address of the server.
+     * @param udpAddress The UDP address of the server.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private void connect(int bots, double connectRate, InetSocketAddress tcpAddress, InetSocketAddress udpAddress)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        for (int i = 0; i < bots; i++) {
+            if (connectRate > 0) {
+                long wait = start + (long) (i * 1e9 / connectRate) - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                }
+            }
+            BotLoop loop = loops[i % loops.length];
+            try {
+                Bot bot = new Bot(this, loop, "Bot" + i, udpAddress);
+                loop.execute(() -> loop.open(bot, tcpAddress));
+            } catch (IOException e) {
+                onConnectFailed();
+            }
+        }
+        // Every bot either connects or fails, unless the server stops answering
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (connectedBots.get() + failedBots.get() + disconnectedBots.get() < bots
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Register that a bot received its ID.
+     * @param nanos The time in nanoseconds from connecting to receiving the ID.
+     */
+    public void onConnected(long nanos) {
+        handshakeLatency.add(nanos);
+        connectedBots.incrementAndGet();
+        lastConnectTime.set(System.nanoTime());
+    }
+
+    /**
+     * Register that a bot couldn't connect.
+     */
+    public void onConnectFailed() {
+        failedBots.incrementAndGet();
+    }
+
+    /**
+     * Register that a connected bot lost its connection.
+     */
+    public void onDisconnected() {
+        connectedBots.decrementAndGet();
+        disconnectedBots.incrementAndGet();
+    }
+
+    /**
+     * Register that a round ended for its painter.
+     */
+    public void onRoundEnded() {
+        if (measuring) {
+            rounds.incrementAndGet();
+        }
+    }
+
+    /**
+     * Have a random bot other than the painter guess the secret word, to end the round.
+     * @param word The secret word.
+     * @param painterLoop The loop of the painter, used if no other loop has a bot that can guess.
+     */
+    public void requestWinningGuess(String word, BotLoop painterLoop) {
+        if (word == null) {
+            return;
+        }
+        BotLoop loop = loops[random.nextInt(loops.length)];
+        loop.execute(() -> {
+            if (!loop.guess(word) && loop != painterLoop) {
+                painterLoop.execute(() -> painterLoop.guess(word));
+            }
+        });
+    }
+
+    /**
+     * Register that the painter is about to send a point.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @param strokeStart If the point starts a new stroke.
+     */
+    public void onPointSent(int x, int y, boolean strokeStart) {
+        pointSendTimes.put(((long) x << 32) | (y & 0xFFFFFFFFL), System.nanoTime());
+        if (measuring) {
+            pointsSent.incrementAndGet();
+            if (strokeStart) {
+                // Every stroke start is relayed to every guesser, however much the stroke is simplified
+                strokesExpected.addAndGet(connectedBots.get() - 1);
+            }
+        }
+    }
+
+    /**
+     * Register that a bot received a relayed point.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @param time When the point was received, in nanoseconds.
+     */
+    public void onPointReceived(int x, int y, long time) {
+        Long sent = pointSendTimes.get(((long) x << 32) | (y & 0xFFFFFFFFL));
+        if (measuring && sent != null) {
+            relayLatency.add(time - sent);
+        }
+    }
+
+    /**
+     * Register that a bot received the start of a relayed stroke.
+     */
+    public void onStrokeReceived() {
+        if (measuring) {
+            strokesReceived.incrementAndGet();
+        }
+    }
+
+    /**
+     * Send a chat message tagged with a sequence number, so that its broadcast can be measured.
+     * Must be called by the bot's loop thread.
+     * @param bot The bot to send the message.
+     * @param message The message.
+     */
+    public void sendChat(Bot bot, String message) {
+        int sequence = chatSequence.getAndIncrement();
+        chatSendTimes.put(sequence, System.nanoTime());
+        if (measuring) {
+            chatsSent.incrementAndGet();
+            chatsExpected.addAndGet(connectedBots.get());
+        }
+        bot.send("/m " + message + CHAT_TAG + sequence + "]");
+    }
+
+    /**
+     * Register that a bot received a chat message.
+     * @param message The message, as sent by the server.
+     * @param time When the message was received, in nanoseconds.
+     */
+    public void onChatReceived(String message, long time) {
+        int tag = message.lastIndexOf(CHAT_TAG);
+        if (!measuring || tag < 0 || !message.endsWith("]")) {
+            return;
+        }
+        try {
+            Long sent = chatSendTimes.get(Integer.parseInt(message.substring(tag + CHAT_TAG.length(), message.length() - 1)));
+            if (sent != null) {
+                broadcastLatency.add(time - sent);
+                chatsReceived.incrementAndGet();
+            }
+        } catch (NumberFormatException e) {
+            // Someone typed something that looks like a tag
+        }
+    }
+
+    /**
+     * Check if the bots should chat and guess.
+     * @return True while measuring; otherwise, false.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Print what was measured.
+     * @param out Where to print the report.
+     */
+    private void report(PrintStream out) {
+        out.println(handshakeLatency);
+        out.println(relayLatency);
+        out.println(broadcastLatency);
+        out.printf("Rounds: %d, points sent: %d, chat messages sent: %d, bots disconnected: %d%n",
+                rounds.get(), pointsSent.get(), chatsSent.get(), disconnectedBots.get());
+        out.printf("Stroke loss (UDP): %d of %d stroke starts missing (%.2f%%)%n",
+                Math.max(0, strokesExpected.get() - strokesReceived.get()), strokesExpected.get(),
+                percentMissing(strokesReceived.get(), strokesExpected.get()));
+        out.printf("Chat loss (TCP): %d of %d messages missing (%.2f%%)%n",
+                Math.max(0, chatsExpected.get() - chatsReceived.get()), chatsExpected.get(),
+                percentMissing(chatsReceived.get(), chatsExpected.get()));
+    }
+
+    /**
+     * Calculate how much of what was expected is missing.
+     * @param received The amount received.
+     * @param expected The amount expected.
+     * @return The missing percentage, or 0 if nothing was expected.
+     */
+    private static double percentMissing(long received, long expected) {
+        return expected > 0 ? 100.0 * Math.max(0, expected - received) / expected : 0;
+    }
+}
@@ -0,0 +1,256 @@
+package Benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A microbenchmark of one operation, with optional parameters and threads. It is run the way JMH runs its
+ * benchmarks in average time mode: warmup iterations let the JIT compile the operation, then each measured
+ * iteration calls it in a loop for a fixed time on every thread, and the score is the average time per call.
+ */
+public class MicroBenchmark {
+    /**
+     * The benchmarked operation.
+     */
+    public interface Operation {
+        /**
+         * Perform the operation.
+         * @param blackhole Consumes the results of the operation.
+         * @return The number of operations performed, usually 1.
+         * @throws Exception If the operation failed, which stops the benchmark.
+         */
+        int run(Blackhole blackhole) throws Exception;
+    }
+
+    /**
+     * Prepares or cleans up after a benchmark.
+     */
+    public interface Action {
+        /**
+         * Perform the action.
+         * @throws Exception If the action failed, which stops the benchmark.
+         */
+        void run() throws Exception;
+    }
+
+    // Two-sided 99.9% quantiles of Student's t-distribution, by degrees of freedom from 1 to 30, as used by JMH
+    private static final double[] T_QUANTILES = {636.62, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781,
+            4.587, 4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792, 3.768, 3.745,
+            3.725, 3.707, 3.690, 3.674, 3.659, 3.646};
+    private final String name; // The name of the benchmark
+    private final Map<String, String> params = new LinkedHashMap<>(); // The parameters, in the order they were added
+    private final int threads; // The number of threads calling the operation at the same time
+    private final Operation operation; // The benchmarked operation
+    private Action setup = () -> {}; // Runs before the first iteration
+    private Action teardown = () -> {}; // Runs after the last iteration
+    private volatile boolean running; // If the threads of the current iteration should keep calling the operation
+
+    /**
+     * Initialize a benchmark.
+     * @param name The name of the benchmark.
+     * @param threads The number of threads calling the operation at the same time.
+     * @param operation The benchmarked operation.
+     */
+    public MicroBenchmark(String name, int threads, Operation operation) {
+        this.name = name;
+        this.threads = threads;
+        this.operation = operation;
+    }
+
+    /**
+     * Add a parameter, shown with the results.
+     * @param key The name of the parameter.
+     * @param value The value of the parameter.
+     * @return This benchmark.
+     */
+    public MicroBenchmark param(String key, Object value) {
+        params.put(key, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Set what runs before the first iteration.
+     * @param setup The setup.
+     * @return This benchmark.
+     */
+    public MicroBenchmark setup(Action setup) {
+        this.setup = setup;
+        return this;
+    }
+
+    /**
+     * Set what runs after the last iteration, even if the benchmark failed.
+     * @param teardown The teardown.
+     * @return This benchmark.
+     */
+    public MicroBenchmark teardown(Action teardown) {
+        this.teardown = teardown;
+        return this;
+    }
+
+    /**
+     * Run the benchmark.
+     * @param warmupIterations The number of iterations before measuring.
+     * @param iterations The number of measured iterations.
+     * @param iterationMillis The time in milliseconds of each iteration.
+     * @return The result of every measured iteration.
+     * @throws Exception If the operation, setup or teardown failed.
+     */
+    public Result run(int warmupIterations, int iterations, long iterationMillis) throws Exception {
+        setup.run();
+        try {
+            for (int i = 0; i < warmupIterations; i++) {
+                runIteration(iterationMillis);
+            }
+            double[] nanosPerOp = new double[iterations];
+            double[] opsPerSecond = new double[iterations];
+            for (int i = 0; i < iterations; i++) {
+                double[] iteration = runIteration(iterationMillis);
+                nanosPerOp[i] = iteration[0];
+                opsPerSecond[i] = iteration[1];
+            }
+            return new Result(this, nanosPerOp, opsPerSecond);
+        } finally {
+            teardown.run();
+        }
+    }
+
+    /**
+     * Call the operation on every thread for a fixed time.
+     * @param iterationMillis The time in milliseconds of the iteration.
+     * @return The average time per operation in nanoseconds, then the operations per second of all threads.
+     * @throws Exception If the operation failed.
+     */
+    private double[] runIteration(long iterationMillis) throws Exception {
+        long[] operations = new long[threads];
+        long[] elapsed = new long[threads];
+        Exception[] failures = new Exception[threads];
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            Thread worker = new Thread(() -> {
+                Blackhole blackhole = new Blackhole();
+                long count = 0;
+                ready.countDown();
+                try {
+                    start.await();
+                    long begin = System.nanoTime();
+                    while (running) {
+                        count += operation.run(blackhole);
+                    }
+                    elapsed[index] = System.nanoTime() - begin;
+                } catch (Exception e) {
+                    failures[index] = e;
+                }
+                operations[index] = count;
+            }, "bench-worker-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        running = true;
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(iterationMillis);
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long wall = System.nanoTime() - begin;
+        long totalOperations = 0;
+        long totalElapsed = 0;
+        for (int t = 0; t < threads; t++) {
+            if (failures[t] != null) {
+                throw failures[t];
+            }
+            totalOperations += operations[t];
+            totalElapsed += elapsed[t];
+        }
+        totalOperations = Math.max(1, totalOperations);
+        return new double[]{(double) totalElapsed / totalOperations, totalOperations * 1e9 / wall};
+    }
+
+    /**
+     * Get the name of the benchmark.
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the parameters of the benchmark.
+     * @return The parameters, in the order they were added.
+     */
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    /**
+     * Get the number of threads calling the operation at the same time.
+     * @return The number of threads.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * The measured iterations of a benchmark.
+     * @param benchmark The benchmark.
+     * @param nanosPerOp The average time per operation of each iteration, in nanoseconds.
+     * @param opsPerSecond The operations per second of all threads in each iteration.
+     */
+    public record Result(MicroBenchmark benchmark, double[] nanosPerOp, double[] opsPerSecond) {
+        /**
+         * Get the score, the mean time per operation over the iterations.
+         * @return The score in nanoseconds per operation.
+         */
+        public double score() {
+            return mean(nanosPerOp);
+        }
+
+        /**
+         * Get the half-width of the 99.9% confidence interval of the score.
+         * @return The error in nanoseconds per operation, or NaN with fewer than 2 iterations.
+         */
+        public double error() {
+            int n = nanosPerOp.length;
+            if (n < 2) {
+                return Double.NaN;
+            }
+            double mean = score();
+            double sum = 0;
+            for (double value : nanosPerOp) {
+                sum += (value - mean) * (value - mean);
+            }
+            double t = n - 1 <= T_QUANTILES.length ? T_QUANTILES[n - 2] : 3.291;
+            return t * Math.sqrt(sum / (n - 1)) / Math.sqrt(n);
+        }
+
+        /**
+         * Get the mean throughput of all threads over the iterations.
+         * @return The operations per second.
+         */
+        public double throughput() {
+            return mean(opsPerSecond);
+        }
+
+        /**
+         * Calculate the mean of some values.
+         * @param values The values.
+         * @return The mean.
+         */
+        private static double mean(double[] values) {
+            double sum = 0;
+            for (double value : values) {
+                sum += value;
+            }
+            return sum / values.length;
+        }
+    }
+}
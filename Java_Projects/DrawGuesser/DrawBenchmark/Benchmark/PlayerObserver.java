@@ -0,0 +1,56 @@
+package Benchmark;
+
+/**
+ * Receives what a {@link SimulatedPlayer} observes, so that a benchmark can measure it.
+ */
+public interface PlayerObserver {
+    /**
+     * A player received its ID.
+     * @param player The player.
+     * @param nanos The time in nanoseconds from connecting to receiving the ID.
+     */
+    void onConnected(SimulatedPlayer player, long nanos);
+
+    /**
+     * A player was told that a round started.
+     * @param player The player.
+     * @param secretWord The word to draw if the player is the painter; otherwise, null.
+     * @param time When the player was told, in nanoseconds.
+     */
+    void onRoundStarted(SimulatedPlayer player, String secretWord, long time);
+
+    /**
+     * A player was told that a round ended.
+     * @param player The player.
+     * @param time When the player was told, in nanoseconds.
+     */
+    void onRoundEnded(SimulatedPlayer player, long time);
+
+    /**
+     * A player received a chat message.
+     * @param message The message, as sent by the server.
+     * @param time When the message was received, in nanoseconds.
+     */
+    void onChatReceived(String message, long time);
+
+    /**
+     * A player received relayed points, either a stroke or a single point that starts a stroke of its own.
+     * @param player The player.
+     * @param xs The x-coordinates of the points.
+     * @param ys The y-coordinates of the points.
+     * @param count The number of points.
+     * @param strokeStart If the points start a new stroke.
+     * @param time When the points were received, in nanoseconds.
+     */
+    void onPointsReceived(SimulatedPlayer player, int[] xs, int[] ys, int count, boolean strokeStart, long time);
+
+    /**
+     * A player received a relayed erase.
+     * @param player The player.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     */
+    void onEraseReceived(SimulatedPlayer player, int left, int top, int right, int bottom);
+}
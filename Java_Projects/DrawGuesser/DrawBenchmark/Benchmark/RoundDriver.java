@@ -0,0 +1,131 @@
+package Benchmark;
+
+import Utility.RecordingReader.EventType;
+import Utility.SystemUtility;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Replays one trace as a live round: the painter sends the recorded drawing, and the guessers take turns
+ * sending the recorded chat and guesses. The last guess is replaced with the secret word, so that the
+ * round ends the way it was recorded, or at the end of the trace if no one guessed it.
+ */
+public class RoundDriver extends Thread {
+    private final TraceReplayBenchmark benchmark; // Measures the round
+    private final Trace trace; // The recorded round to replay
+    private final double speed; // How many times faster than recorded to replay
+    private final SimulatedPlayer painter; // The painter of the round
+    private final List<SimulatedPlayer> guessers; // The other players, taking turns to chat and guess
+    private final String secretWord; // The word the painter is drawing
+    private int nextGuesser = 0; // The guesser to send the next message
+    private volatile boolean alive = true;
+
+    /**
+     * Kill this thread, it stops before the next event.
+     */
+    public void kill() {
+        alive = false;
+        interrupt();
+    }
+
+    /**
+     * Initialize the driver.
+     * @param benchmark Measures the round.
+     * @param trace The recorded round to replay.
+     * @param speed How many times faster than recorded to replay.
+     * @param painter The painter of the round.
+     * @param guessers The other players.
+     * @param secretWord The word the painter is drawing.
+     */
+    public RoundDriver(TraceReplayBenchmark benchmark, Trace trace, double speed, SimulatedPlayer painter,
+                       List<SimulatedPlayer> guessers, String secretWord) {
+        super("bench-round-" + trace.getName());
+        setDaemon(true);
+        this.benchmark = benchmark;
+        this.trace = trace;
+        this.speed = speed;
+        this.painter = painter;
+        this.guessers = guessers;
+        this.secretWord = secretWord;
+    }
+
+    /**
+     * Send the events of the trace in the order they were recorded, waiting until each event is due.
+     */
+    @Override
+    public void run() {
+        List<long[]> drawing = trace.getDrawing();
+        List<Long> chatTimes = trace.getChatTimes();
+        List<Long> guessTimes = trace.getGuessTimes();
+        // Win the round at the last guess, or after the last event if no one guessed
+        long finishTime = guessTimes.isEmpty() ? trace.getDuration() : guessTimes.get(guessTimes.size() - 1);
+        int drawn = 0;
+        int chatted = 0;
+        int guessed = 0;
+        long begin = System.nanoTime();
+        try {
+            while (alive) {
+                // Pick the earliest of the next drawing event, chat message and guess
+                long drawTime = drawn < drawing.size() ? drawing.get(drawn)[1] : Long.MAX_VALUE;
+                long chatTime = chatted < chatTimes.size() ? chatTimes.get(chatted) : Long.MAX_VALUE;
+                long guessTime = guessed < guessTimes.size() - 1 ? guessTimes.get(guessed) : finishTime;
+                long time = Math.min(drawTime, Math.min(chatTime, guessTime));
+                waitUntil(begin, time);
+                if (time == drawTime) {
+                    sendDrawing(drawing.get(drawn++));
+                } else if (time == chatTime) {
+                    benchmark.sendChat(takeGuesser(), trace.getChatMessages().get(chatted++));
+                } else if (guessed < guessTimes.size() - 1) {
+                    takeGuesser().send("/g " + trace.getGuessWords().get(guessed++));
+                } else {
+                    takeGuesser().send("/g " + secretWord);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // The round ended before the trace did
+        } catch (IOException e) {
+            System.out.println("Could not send drawing data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sleep until an event of the trace is due.
+     * @param begin When the replay started, in nanoseconds.
+     * @param time The time of the event in milliseconds since the start of the round.
+     * @throws InterruptedException If the round ended while waiting.
+     */
+    private void waitUntil(long begin, long time) throws InterruptedException {
+        long wait = begin + (long) (time * 1_000_000 / speed) - System.nanoTime();
+        if (wait > 0) {
+            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+        }
+    }
+
+    /**
+     * Send a recorded point or erase as the painter.
+     * @param event The event as type, time, x, y, right, bottom and flags.
+     * @throws IOException If the datagram couldn't be sent.
+     */
+    private void sendDrawing(long[] event) throws IOException {
+        int x = (int) event[2];
+        int y = (int) event[3];
+        if (event[0] == EventType.POINT.ordinal()) {
+            benchmark.onPointSent(x, y);
+            painter.sendPoint(x, y, (byte) (event[6] & SystemUtility.STROKE_START));
+        } else {
+            painter.sendErase(x, y, (int) event[4], (int) event[5]);
+        }
+    }
+
+    /**
+     * Get the guesser to send the next message, the guessers take turns.
+     * @return The guesser.
+     */
+    private SimulatedPlayer takeGuesser() {
+        SimulatedPlayer guesser = guessers.get(nextGuesser);
+        nextGuesser = (nextGuesser + 1) % guessers.size();
+        return guesser;
+    }
+}
@@ -0,0 +1,266 @@
+package Benchmark;
+
+import Utility.SystemUtility;
+import Utility.SystemUtility.PacketType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * A headless player that speaks the client protocol over real sockets, answers the server like the
+ * real client does, and reports what it receives to an observer so that it can be measured.
+ * Its datagrams can be routed through another address, such as a link of an {@link ImpairmentProxy}.
+ */
+public class SimulatedPlayer extends Thread {
+    private final PlayerObserver observer; // Receives what the player observes
+    private final String username; // The name the player connects with
+    private final Socket tcpSocket; // The connection to the server
+    private final BufferedReader reader; // Reads messages from the server
+    private final PrintWriter writer; // Writes messages to the server
+    private final DatagramSocket udpSocket; // Sends and receives drawing data
+    private final InetSocketAddress udpTarget; // Where datagrams are sent, the server or a link to it
+    private final long connectTime; // When the player started connecting, in nanoseconds
+    private final byte[] sendData = new byte[SystemUtility.POINT_PACKET_SIZE]; // Reused for outgoing datagrams
+    private final int[] xs = new int[SystemUtility.MAX_STROKE_POINTS]; // The x-coordinates of received points
+    private final int[] ys = new int[SystemUtility.MAX_STROKE_POINTS]; // The y-coordinates of received points
+    private volatile int id = -1; // The ID given by the server
+    private volatile boolean painter = false; // If the player accepted to paint the current round
+    private volatile String secretWord = null; // The word to draw, only known while painting
+    private volatile boolean alive = true;
+
+    /**
+     * Kill this thread and close its sockets.
+     */
+    public void kill() {
+        alive = false;
+        try {
+            tcpSocket.close();
+        } catch (IOException e) {
+            System.out.println("Could not close the connection of " + username + ": " + e.getMessage());
+        }
+        udpSocket.close();
+    }
+
+    /**
+     * Connect a player to the server and send its arguments, the handshake finishes on its own thread.
+     * @param observer Receives what the player observes.
+     * @param username The name to connect with.
+     * @param serverAddress The address of the server.
+     * @param tcpPort The TCP port of the server.
+     * @param udpPort The UDP port of the server.
+     * @throws IOException If the player couldn't connect.
+     */
+    public SimulatedPlayer(PlayerObserver observer, String username, InetAddress serverAddress,
+                           int tcpPort, int udpPort) throws IOException {
+        this(observer, username, serverAddress, tcpPort, new InetSocketAddress(serverAddress, udpPort), 0);
+    }
+
+    /**
+     * Connect a player to the server with its datagrams sent to another address, such as a link that forwards them
+     * to the server. The handshake finishes on its own thread.
+     * @param observer Receives what the player observes.
+     * @param username The name to connect with.
+     * @param serverAddress The address of the server.
+     * @param tcpPort The TCP port of the server.
+     * @param udpTarget Where the player's datagrams are sent.
+     * @param declaredUdpPort The UDP port the server is told to relay to, or 0 for the player's own port.
+     * @throws IOException If the player couldn't connect.
+     */
+    public SimulatedPlayer(PlayerObserver observer, String username, InetAddress serverAddress, int tcpPort,
+                           InetSocketAddress udpTarget, int declaredUdpPort) throws IOException {
+        super("bench-player-" + username);
+        setDaemon(true);
+        this.observer = observer;
+        this.username = username;
+        this.udpTarget = udpTarget;
+        connectTime = System.nanoTime();
+        udpSocket = new DatagramSocket();
+        tcpSocket = new Socket(serverAddress, tcpPort);
+        tcpSocket.setTcpNoDelay(true);
+        reader = new BufferedReader(new InputStreamReader(tcpSocket.getInputStream()));
+        writer = new PrintWriter(tcpSocket.getOutputStream(), true);
+        send("CLIENT_ARGS:" + username + ":" + (declaredUdpPort > 0 ? declaredUdpPort : udpSocket.getLocalPort())
+                + ":" + Bot.KEY);
+        // Open the route for datagrams from the server, like the real client does
+        udpSocket.send(new DatagramPacket(new byte[1], 1, udpTarget));
+    }
+
+    /**
+     * Read messages from the server until the player is killed, and listen for datagrams on another thread.
+     */
+    @Override
+    public void run() {
+        Thread udpListener = new Thread(this::listenForDatagrams, "bench-udp-" + username);
+        udpListener.setDaemon(true);
+        udpListener.start();
+        try {
+            String message;
+            while (alive && (message = reader.readLine()) != null) {
+                handleMessage(message);
+            }
+        } catch (IOException e) {
+            if (alive) {
+                System.out.println(username + " lost the connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Answer or report a message from the server.
+     * @param message The message.
+     */
+    private void handleMessage(String message) {
+        long now = System.nanoTime();
+        if (message.startsWith("/m ")) {
+            observer.onChatReceived(message, now);
+            return;
+        }
+        if (!message.startsWith("/s ")) {
+            return;
+        }
+        String command = message.substring(3);
+        String data = command.contains(":") ? command.substring(command.indexOf(':') + 1) : "";
+        if (command.startsWith("ID:")) {
+            // The ID is followed by a resume token, which bots don't use
+            id = Integer.parseInt(data.split(":")[0]);
+            observer.onConnected(this, now - connectTime);
+        } else if (command.startsWith("NEXT_PAINTER_ACK")) {
+            return;
+        } else if (command.startsWith("NEXT_PAINTER")) {
+            painter = true;
+            send("/s NEXT_PAINTER_ACK");
+        } else if (command.startsWith("PING:")) {
+            send("/s PONG:" + data);
+        } else if (command.startsWith("SECRET_WORD:")) {
+            secretWord = data;
+        } else if (command.startsWith("START_ROUND")) {
+            observer.onRoundStarted(this, painter ? secretWord : null, now);
+        } else if (command.startsWith("END_ROUND") || command.startsWith("INTERRUPT_ROUND")) {
+            painter = false;
+            secretWord = null;
+            observer.onRoundEnded(this, now);
+        }
+    }
+
+    /**
+     * Receive relayed drawing data and answer pings until the player is killed.
+     */
+    private void listenForDatagrams() {
+        byte[] data = new byte[SystemUtility.MAX_PACKET_SIZE];
+        DatagramPacket packet = new DatagramPacket(data, data.length);
+        try {
+            udpSocket.setSoTimeout(500);
+        } catch (SocketException e) {
+            System.out.println("Could not set the UDP timeout of " + username + ": " + e.getMessage());
+        }
+        while (alive) {
+            try {
+                packet.setLength(data.length);
+                udpSocket.receive(packet);
+                handleDatagram(data, packet.getLength(), packet);
+            } catch (SocketTimeoutException e) {
+                // Check if the player is still alive
+            } catch (IOException e) {
+                if (alive) {
+                    System.out.println(username + " could not receive a datagram: " + e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Report relayed points and erases to the observer, or answer a ping.
+     * @param data The received datagram.
+     * @param length The length of the datagram.
+     * @param packet The received packet, for its sender.
+     * @throws IOException If a pong couldn't be sent.
+     */
+    private void handleDatagram(byte[] data, int length, DatagramPacket packet) throws IOException {
+        long now = System.nanoTime();
+        if (length < 1) {
+            return;
+        }
+        ByteBuffer byteBuffer = ByteBuffer.wrap(data, 1, length - 1);
+        PacketType type = PacketType.fromByte(data[0]);
+        if (type == PacketType.POINT && byteBuffer.remaining() >= 8) {
+            // A single point isn't joined to any other, like a stroke of its own
+            xs[0] = byteBuffer.getInt();
+            ys[0] = byteBuffer.getInt();
+            observer.onPointsReceived(this, xs, ys, 1, true, now);
+        } else if (type == PacketType.STROKE && byteBuffer.remaining() >= 5) {
+            boolean strokeStart = (byteBuffer.get() & SystemUtility.STROKE_START) != 0;
+            byteBuffer.getShort(); // The sequence number, the observer is told where strokes start
+            int count = Math.min(Math.min(byteBuffer.getShort() & 0xFFFF, byteBuffer.remaining() / 8), xs.length);
+            for (int i = 0; i < count; i++) {
+                xs[i] = byteBuffer.getInt();
+                ys[i] = byteBuffer.getInt();
+            }
+            observer.onPointsReceived(this, xs, ys, count, strokeStart, now);
+        } else if (type == PacketType.ERASE && byteBuffer.remaining() >= 8) {
+            observer.onEraseReceived(this, byteBuffer.getShort(), byteBuffer.getShort(),
+                    byteBuffer.getShort(), byteBuffer.getShort());
+        } else if (type == PacketType.PING && byteBuffer.remaining() >= 4) {
+            // Answer with type, id, sequence number
+            byte[] pong = new byte[SystemUtility.PONG_PACKET_SIZE];
+            ByteBuffer.wrap(pong).put((byte) PacketType.PONG.ordinal()).putInt(id).putInt(byteBuffer.getInt());
+            udpSocket.send(new DatagramPacket(pong, pong.length, packet.getAddress(), packet.getPort()));
+        }
+    }
+
+    /**
+     * Send a message to the server.
+     * @param message The message, such as "/m hello" or "/g word".
+     */
+    public void send(String message) {
+        synchronized (writer) {
+            writer.println(message);
+        }
+    }
+
+    /**
+     * Send a drawn point to the server: type, id, x-coordinate, y-coordinate, flags.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @param flags The flags of the point, such as STROKE_START.
+     * @throws IOException If the datagram couldn't be sent.
+     */
+    public void sendPoint(int x, int y, byte flags) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(sendData);
+        byteBuffer.put((byte) PacketType.POINT.ordinal()).putInt(id).putInt(x).putInt(y).put(flags);
+        udpSocket.send(new DatagramPacket(sendData, SystemUtility.POINT_PACKET_SIZE, udpTarget));
+    }
+
+    /**
+     * Send an erased rectangle to the server: type, id, left, top, right, bottom.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     * @throws IOException If the datagram couldn't be sent.
+     */
+    public void sendErase(int left, int top, int right, int bottom) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(sendData);
+        byteBuffer.put((byte) PacketType.ERASE.ordinal()).putInt(id)
+                .putShort((short) left).putShort((short) top).putShort((short) right).putShort((short) bottom);
+        udpSocket.send(new DatagramPacket(sendData, SystemUtility.ERASE_PACKET_SIZE, udpTarget));
+    }
+
+    /**
+     * Get the name the player connected with.
+     * @return The username.
+     */
+    public String getUsername() {
+        return username;
+    }
+}
@@ -0,0 +1,132 @@
+package Benchmark;
+
+import Utility.RecordingReader;
+import Utility.RecordingReader.EventType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A recorded round loaded into memory, so that it can be replayed without touching the file.
+ * Keeps the painter's drawing and the chat messages and guesses of the guessers.
+ */
+public class Trace {
+    private static final String GUESS_MARKER = " - Guessed: "; // Part of the broadcast or recording of a guess
+    private final String name; // The file name of the recording
+    private final List<long[]> drawing = new ArrayList<>(); // Points and erases: type, time, x, y, right, bottom, flags
+    private final List<Long> chatTimes = new ArrayList<>(); // The time of each chat message
+    private final List<String> chatMessages = new ArrayList<>(); // The text of each chat message, as typed
+    private final List<Long> guessTimes = new ArrayList<>(); // The time of each guess
+    private final List<String> guessWords = new ArrayList<>(); // The guessed word of each guess
+    private long duration = 0; // The time of the last event
+
+    /**
+     * Load a recorded round.
+     * @param path The path of the recording.
+     * @throws IOException If the recording couldn't be read.
+     */
+    public Trace(Path path) throws IOException {
+        name = path.getFileName().toString();
+        try (RecordingReader reader = new RecordingReader(path)) {
+            while (reader.next()) {
+                long time = reader.getTime();
+                duration = time;
+                if (reader.getType() == EventType.POINT || reader.getType() == EventType.ERASE) {
+                    drawing.add(new long[]{reader.getType().ordinal(), time, reader.getX(), reader.getY(),
+                            reader.getRight(), reader.getBottom(), reader.getFlags()});
+                } else if (reader.getType() == EventType.CHAT) {
+                    String message = reader.getText();
+                    int guess = message.indexOf(GUESS_MARKER);
+                    if (guess >= 0) {
+                        guessTimes.add(time);
+                        guessWords.add(message.substring(guess + GUESS_MARKER.length()));
+                    } else if (message.startsWith("(") && message.contains(" - ")) {
+                        // Strip the score and username that the server adds to chat messages
+                        chatTimes.add(time);
+                        chatMessages.add(message.substring(message.indexOf(" - ") + 3));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Load every recording at a path.
+     * @param path A recording, or a directory of recordings.
+     * @return The loaded traces, sorted by file name.
+     * @throws IOException If a recording couldn't be read.
+     */
+    public static List<Trace> load(Path path) throws IOException {
+        List<Trace> traces = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.list(path)) {
+                for (Path file : files.filter(f -> f.toString().endsWith(".dgr")).sorted().toList()) {
+                    traces.add(new Trace(file));
+                }
+            }
+        } else {
+            traces.add(new Trace(path));
+        }
+        return traces;
+    }
+
+    /**
+     * Get the file name of the recording.
+     * @return The file name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the painter's points and erases in the order they were drawn.
+     * @return Each event as type, time, x, y, right, bottom and flags.
+     */
+    public List<long[]> getDrawing() {
+        return drawing;
+    }
+
+    /**
+     * Get the time of each chat message.
+     * @return The times in milliseconds since the start of the round.
+     */
+    public List<Long> getChatTimes() {
+        return chatTimes;
+    }
+
+    /**
+     * Get the text of each chat message, as the guesser typed it.
+     * @return The messages.
+     */
+    public List<String> getChatMessages() {
+        return chatMessages;
+    }
+
+    /**
+     * Get the time of each guess. A round ends on a correct guess, so only the last one can have been correct.
+     * @return The times in milliseconds since the start of the round.
+     */
+    public List<Long> getGuessTimes() {
+        return guessTimes;
+    }
+
+    /**
+     * Get the guessed word of each guess.
+     * @return The guessed words.
+     */
+    public List<String> getGuessWords() {
+        return guessWords;
+    }
+
+    /**
+     * Get the time of the last event of the round.
+     * @return The time in milliseconds since the start of the round.
+     */
+    public long getDuration() {
+        return duration;
+    }
+}
@@ -0,0 +1,382 @@
+package Benchmark;
+
+import Server.DrawServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays recorded rounds against a DrawServer running in the same process, with simulated players that
+ * connect over real sockets. The recorded drawing, chat and guesses are sent at a scaled speed to any
+ * number of players, and the benchmark reports how long the server takes to relay points and broadcast
+ * chat, how long players wait between rounds, and how much CPU the server uses per player.
+ * The server records the benchmark's rounds like any others, to its recordings directory.
+ */
+public class TraceReplayBenchmark implements PlayerObserver {
+    private static final int TCP_PORT = 5000; // The TCP port of the server
+    private static final int UDP_PORT = 5001; // The UDP port of the server
+    private static final int SERVER_START_TIMEOUT = 5000; // Time in milliseconds to wait for the server to listen
+    private static final String CHAT_TAG = " [bench:"; // Marks chat messages with their sequence number
+    private final List<Trace> traces; // The recorded rounds to replay, in turn
+    private final double speed; // How many times faster than recorded to replay
+    private final int warmupRounds; // The number of rounds played before measuring
+    private final List<SimulatedPlayer> players = new ArrayList<>(); // The connected players
+    private final Map<Long, Long> pointSendTimes = new ConcurrentHashMap<>(); // When each point was last sent
+    private final Map<Integer, Long> chatSendTimes = new ConcurrentHashMap<>(); // When each chat message was sent
+    private final AtomicInteger chatSequence = new AtomicInteger(); // The sequence number of the next chat message
+    private final AtomicLong pointsSent = new AtomicLong(); // The number of points sent while measuring
+    private final LatencyStats connectLatency = new LatencyStats("Connect"); // From connecting to receiving an ID
+    private final LatencyStats relayLatency = new LatencyStats("Point relay"); // From painter to each guesser
+    private final LatencyStats broadcastLatency = new LatencyStats("Chat broadcast"); // From sender to each player
+    private final LatencyStats roundGap = new LatencyStats("Inter-round gap"); // From a round's end to the next start
+    private final CountDownLatch connected; // Counts down as players receive their IDs
+    private final CountDownLatch finished; // Counts down as measured rounds end
+    private final Map<Long, Long> cpuAtStart = new HashMap<>(); // The CPU time of each server thread when measuring starts
+    private volatile SimulatedPlayer observer; // The player whose view of the rounds is measured
+    private volatile RoundDriver driver; // Replays the current round
+    private volatile boolean measuring = false; // If the warmup is over
+    private volatile long lastRoundEnd = 0; // When the observer saw the last round end, in nanoseconds
+    private volatile long measureStart = 0; // When measuring started, in nanoseconds
+    private int startedRounds = 0; // The number of rounds started, to pick the next trace
+    private int endedRounds = 0; // The number of rounds ended
+
+    /**
+     * Initialize the benchmark.
+     * @param traces The recorded rounds to replay, in turn.
+     * @param players The number of players.
+     * @param speed How many times faster than recorded to replay.
+     * @param rounds The number of rounds to measure.
+     * @param warmupRounds The number of rounds played before measuring.
+     */
+    public TraceReplayBenchmark(List<Trace> traces, int players, double speed, int rounds, int warmupRounds) {
+        this.traces = traces;
+        this.speed = speed;
+        this.warmupRounds = warmupRounds;
+        connected = new CountDownLatch(players);
+        finished = new CountDownLatch(rounds);
+    }
+
+    /**
+     * Run the benchmark and print a report.
+     * @param args "--trace path" with a recording or a directory of recordings, then optionally
+     *             "--players n", "--speed x", "--rounds n", "--warmup n", "--connect-interval ms",
+     *             "--timeout s" and "--verbose" to show the server's output.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--verbose")) {
+                options.put("verbose", "true");
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            }
+        }
+        if (!options.containsKey("trace")) {
+            System.out.println("Usage: TraceReplayBenchmark --trace <recording or directory> [--players 8] [--speed 4]"
+                    + " [--rounds 5] [--warmup 1] [--connect-interval 20] [--timeout 300] [--verbose]");
+            return;
+        }
+        int players = Integer.parseInt(options.getOrDefault("players", "8"));
+        double speed = Double.parseDouble(options.getOrDefault("speed", "4"));
+        int rounds = Integer.parseInt(options.getOrDefault("rounds", "5"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "1"));
+        int connectInterval = Integer.parseInt(options.getOrDefault("connect-interval", "20"));
+        int timeout = Integer.parseInt(options.getOrDefault("timeout", "300"));
+        if (players < 2) {
+            System.out.println("At least 2 players are needed to play a round");
+            return;
+        }
+        PrintStream out = System.out;
+        try {
+            List<Trace> traces = Trace.load(Path.of(options.get("trace")));
+            if (traces.isEmpty()) {
+                out.println("No recordings were found at " + options.get("trace"));
+                return;
+            }
+            if (!options.containsKey("verbose")) {
+                // Keep the server's logging out of the report
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            }
+            out.printf("Replaying %d trace(s) with %d players at %.1fx speed, %d warmup and %d measured rounds%n",
+                    traces.size(), players, speed, warmup, rounds);
+            TraceReplayBenchmark benchmark = new TraceReplayBenchmark(traces, players, speed, rounds, warmup);
+            boolean completed = benchmark.run(players, connectInterval, timeout);
+            benchmark.report(out, players, completed);
+        } catch (IOException e) {
+            out.println("The benchmark failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            out.println("The benchmark was interrupted");
+        } finally {
+            System.setOut(out);
+        }
+        // The server has no way to shut down, so it ends with the process
+        System.exit(0);
+    }
+
+    /**
+     * Start the server, connect the players and wait for the rounds to be played.
+     * @param playerCount The number of players.
+     * @param connectInterval Time in milliseconds between players connecting.
+     * @param timeout Time in seconds to wait for the rounds to be played.
+     * @return True if every round was played in time; otherwise, false.
+     * @throws IOException If a player couldn't connect.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private boolean run(int playerCount, int connectInterval, int timeout) throws IOException, InterruptedException {
+        Thread server = new Thread(() -> DrawServer.main(new String[0]), "server-main");
+        server.setDaemon(true);
+        server.start();
+        InetAddress address = InetAddress.getLoopbackAddress();
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT;
+        for (int i = 0; i < playerCount; i++) {
+            SimulatedPlayer player;
+            while (true) {
+                try {
+                    player = new SimulatedPlayer(this, "Bot" + i, address, TCP_PORT, UDP_PORT);
+                    break;
+                } catch (ConnectException e) {
+                    // The server might not listen yet
+                    if (System.currentTimeMillis() > deadline) {
+                        throw e;
+                    }
+                    Thread.sleep(50);
+                }
+            }
+            synchronized (players) {
+                players.add(player);
+            }
+            if (observer == null) {
+                observer = player;
+            }
+            player.start();
+            Thread.sleep(connectInterval);
+        }
+        if (!connected.await(timeout, TimeUnit.SECONDS)) {
+            return false;
+        }
+        if (warmupRounds == 0) {
+            startMeasuring();
+        }
+        return finished.await(timeout, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Register that a player received its ID.
+     * @param player The player.
+     * @param nanos The time in nanoseconds from connecting to receiving the ID.
+     */
+    @Override
+    public void onConnected(SimulatedPlayer player, long nanos) {
+        connectLatency.add(nanos);
+        connected.countDown();
+    }
+
+    /**
+     * Register that a round started, and have the painter start replaying the next trace.
+     * @param player The player that was told.
+     * @param secretWord The word to draw if the player is the painter; otherwise, null.
+     * @param time When the player was told, in nanoseconds.
+     */
+    @Override
+    public void onRoundStarted(SimulatedPlayer player, String secretWord, long time) {
+        if (player == observer && measuring && lastRoundEnd > 0) {
+            roundGap.add(time - lastRoundEnd);
+        }
+        if (secretWord == null) {
+            return;
+        }
+        List<SimulatedPlayer> guessers = new ArrayList<>();
+        synchronized (players) {
+            for (SimulatedPlayer other : players) {
+                if (other != player) {
+                    guessers.add(other);
+                }
+            }
+            Trace trace = traces.get(startedRounds++ % traces.size());
+            driver = new RoundDriver(this, trace, speed, player, guessers, secretWord);
+        }
+        driver.start();
+    }
+
+    /**
+     * Register that a round ended, and stop replaying its trace.
+     * @param player The player that was told.
+     * @param time When the player was told, in nanoseconds.
+     */
+    @Override
+    public void onRoundEnded(SimulatedPlayer player, long time) {
+        if (player != observer) {
+            return;
+        }
+        RoundDriver current = driver;
+        if (current != null) {
+            current.kill();
+        }
+        lastRoundEnd = time;
+        if (measuring) {
+            finished.countDown();
+        } else if (++endedRounds >= warmupRounds) {
+            startMeasuring();
+        }
+    }
+
+    /**
+     * Register that the painter is about to send a point.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     */
+    public void onPointSent(int x, int y) {
+        pointSendTimes.put(pack(x, y), System.nanoTime());
+        if (measuring) {
+            pointsSent.incrementAndGet();
+        }
+    }
+
+    /**
+     * Register that a guesser received relayed points.
+     * @param player The guesser.
+     * @param xs The x-coordinates of the points.
+     * @param ys The y-coordinates of the points.
+     * @param count The number of points.
+     * @param strokeStart If the points start a new stroke.
+     * @param time When the points were received, in nanoseconds.
+     */
+    @Override
+    public void onPointsReceived(SimulatedPlayer player, int[] xs, int[] ys, int count, boolean strokeStart, long time) {
+        if (!measuring) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            Long sent = pointSendTimes.get(pack(xs[i], ys[i]));
+            if (sent != null) {
+                relayLatency.add(time - sent);
+            }
+        }
+    }
+
+    /**
+     * Ignore relayed erases, the benchmark only measures points.
+     * @param player The guesser.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     */
+    @Override
+    public void onEraseReceived(SimulatedPlayer player, int left, int top, int right, int bottom) {
+    }
+
+    /**
+     * Send a chat message tagged with a sequence number, so that its broadcast can be measured.
+     * @param player The player to send the message.
+     * @param message The message.
+     */
+    public void sendChat(SimulatedPlayer player, String message) {
+        int sequence = chatSequence.getAndIncrement();
+        chatSendTimes.put(sequence, System.nanoTime());
+        player.send("/m " + message + CHAT_TAG + sequence + "]");
+    }
+
+    /**
+     * Register that a player received a chat message.
+     * @param message The message, as sent by the server.
+     * @param time When the message was received, in nanoseconds.
+     */
+    @Override
+    public void onChatReceived(String message, long time) {
+        int tag = message.lastIndexOf(CHAT_TAG);
+        if (!measuring || tag < 0 || !message.endsWith("]")) {
+            return;
+        }
+        try {
+            Long sent = chatSendTimes.get(Integer.parseInt(message.substring(tag + CHAT_TAG.length(), message.length() - 1)));
+            if (sent != null) {
+                broadcastLatency.add(time - sent);
+            }
+        } catch (NumberFormatException e) {
+            // Someone typed something that looks like a tag
+        }
+    }
+
+    /**
+     * Start measuring, from the CPU time the server has used so far.
+     */
+    private void startMeasuring() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && isServerThread(info)) {
+                cpuAtStart.put(info.getThreadId(), threads.getThreadCpuTime(info.getThreadId()));
+            }
+        }
+        measureStart = System.nanoTime();
+        measuring = true;
+    }
+
+    /**
+     * Print what was measured.
+     * @param out Where to print the report.
+     * @param playerCount The number of players.
+     * @param completed If every round was played in time.
+     */
+    private void report(PrintStream out, int playerCount, boolean completed) {
+        long elapsed = System.nanoTime() - measureStart;
+        long cpu = 0;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && isServerThread(info)) {
+                long time = threads.getThreadCpuTime(info.getThreadId());
+                if (time >= 0) {
+                    cpu += time - cpuAtStart.getOrDefault(info.getThreadId(), 0L);
+                }
+            }
+        }
+        if (!completed) {
+            out.println("Not every round was played before the timeout, the results are partial");
+        }
+        out.println(connectLatency);
+        out.println(relayLatency);
+        out.println(broadcastLatency);
+        out.println(roundGap);
+        if (measureStart > 0) {
+            out.printf("Points sent: %d, relayed points received: %d%n", pointsSent.get(), relayLatency.getCount());
+            out.printf("Server CPU: %.1f ms over %.1f s (%.1f%% of a core), %.2f ms per player per second%n",
+                    cpu / 1e6, elapsed / 1e9, 100.0 * cpu / elapsed, cpu / 1e6 / playerCount / (elapsed / 1e9));
+        }
+    }
+
+    /**
+     * Check if a thread belongs to the server rather than the benchmark.
+     * @param info The thread.
+     * @return True if the thread belongs to the server; otherwise, false.
+     */
+    private static boolean isServerThread(ThreadInfo info) {
+        return !info.getThreadName().startsWith("bench-") && info.getThreadId() != Thread.currentThread().getId()
+                && !info.getThreadName().equals("main");
+    }
+
+    /**
+     * Pack a point into one key.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return The key.
+     */
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+}
@@ -6,30 +6,49 @@ import Network.DrawingListener;
 import Network.DrawingSender;
 import Network.MessageReader;
 import Network.MessageWriter;
+import Network.TileSync;
 import Utility.SystemUtility.*;
 
-import java.awt.*;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.*;
 import java.net.DatagramSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.List;
+import java.util.Properties;
+import java.util.Random;
 
 /**
  * Client for the drawing guessing game.
  * This client is multithreaded and joins game sessions through the server.
  * Any number of clients can join the same game.
+ * If the connection drops, the client reconnects with a growing delay between attempts and presents its resume
+ * token, so that the server gives it back its session and it carries on where it left off.
  */
 public class DrawClient {
     private static final Paper paper = new Paper(); // The drawing context
     private static final int TCP_PORT = 5000; // Server's TCP_PORT
     private static final int UDP_PORT = 5001; // Server's UDP_PORT
+    private static final int RECONNECT_MIN_DELAY = 250; // Time in milliseconds before the first reconnect attempt
+    private static final int RECONNECT_MAX_DELAY = 8000; // Max time in milliseconds between reconnect attempts
+    private static final int RECONNECT_TIMEOUT = 60_000; // Time in milliseconds to keep reconnecting before exiting
+    private static final Random random = new Random(); // Spreads out the reconnect attempts of different clients
+    // The keys that prove to servers that the usernames this user has played as are theirs
+    private static final Path KEY_FILE = Path.of(System.getProperty("user.home"), ".drawguesser", "keys.properties");
+    private static final int KEY_BYTES = 16; // Random bytes in a new key
     private static volatile boolean isCurrentPainter = false; // If the client should paint or not
     private static String secretWord = null; // The word to paint if isCurrentPainter = true; Otherwise, invalid
     private static int id; // ID of client
     private static volatile boolean serverConnectionClosed = false; // Flag for if the server stops responding
+    private static volatile String resumeToken = null; // Token that resumes the session when reconnecting, if any
+    private static volatile boolean sessionStarted = false; // If the server accepted the current connection
 
     /**
      * Initializes the client, and then waits for program to close.
@@ -50,54 +69,54 @@ public class DrawClient {
             return;
         }
 
+        // Get the key of the username, so that no one else gets this player's points
+        String key = getPlayerKey(username);
+
         // Create GUI
         Gui gui = new Gui(paper);
-        try (Socket tcpSocket = new Socket(serverAddress, TCP_PORT)) {
-            PrintWriter tcpOut = new PrintWriter(tcpSocket.getOutputStream(), true);
-            BufferedReader tcpIn = new BufferedReader(new InputStreamReader(tcpSocket.getInputStream()));
-
-            // Create UDP socket with any available port number
-            try (DatagramSocket udpSocket = new DatagramSocket()) {
-
-                // Start the TCP reader thread
-                MessageReader tcpReader = new MessageReader(tcpIn);
-                tcpReader.start();
-
-                // Start the TCP writer thread
-                MessageWriter tcpWriter = new MessageWriter(tcpOut);
-                tcpWriter.start();
+        // Create UDP socket with any available port number, which is kept when reconnecting
+        try (DatagramSocket udpSocket = new DatagramSocket()) {
+            // Start the UDP drawing sender that sends new points drawn by the client to the server
+            DrawingSender drawingSender = new DrawingSender(UDP_PORT, serverAddress, udpSocket);
 
-                // Send username and the UDP port number to use to the server
-                List<String> userArgs = List.of(username, String.valueOf(udpSocket.getLocalPort()));
-                Command userArgsCommand = new Command(CommandType.CLIENT_ARGS,
-                        userArgs);
-                tcpOut.println(userArgsCommand);
+            // Start the UDP drawing listener that listens for new points received from the server
+            DrawingListener drawingListener = new DrawingListener(udpSocket);
 
-                // Start the UDP drawing sender that sends new points drawn by the client to the server
-                DrawingSender drawingSender = new DrawingSender(UDP_PORT, serverAddress, udpSocket);
-
-                // Start the UDP drawing listener that listens for new points received from the server
-                DrawingListener drawingListener = new DrawingListener(udpSocket);
-
-                // Keep the main thread alive as long as the server is alive
-                while (!serverConnectionClosed) {
-                    Thread.sleep(1000);
+            // Connect to the server, and reconnect whenever the connection drops until the server can't be reached
+            int delay = RECONNECT_MIN_DELAY; // Time in milliseconds to wait before the next reconnect attempt
+            long lostTime = System.nanoTime(); // The time the last session's connection dropped
+            while (!serverConnectionClosed) {
+                sessionStarted = false;
+                try (Socket tcpSocket = new Socket(serverAddress, TCP_PORT)) {
+                    runSession(tcpSocket, username, key, udpSocket.getLocalPort());
+                } catch (IOException e) {
+                    System.err.printf("Could not connect to %s\n%s\n", serverAddress, e.getMessage());
+                }
+                if (sessionStarted) {
+                    // Start over with a short delay, the connection worked until now
+                    delay = RECONNECT_MIN_DELAY;
+                    lostTime = System.nanoTime();
+                    Gui.addChatMessage("Lost the connection to the server, reconnecting...");
+                } else if (resumeToken == null) {
+                    // The client never joined, so the server isn't there to come back to
+                    break;
                 }
-                // Kill the TCP and UDP handler threads to close the program
-                tcpReader.kill();
-                tcpWriter.kill();
-                tcpReader.join();
-                tcpWriter.join();
-
-                drawingSender.kill();
-                drawingListener.kill();
-                drawingSender.join();
-                drawingListener.join();
-
-            } catch (InterruptedException e) {
-                System.err.printf("Could not connect to %s\n%s", serverAddress, e.getMessage());
+                if (serverConnectionClosed || (System.nanoTime() - lostTime) / 1_000_000 > RECONNECT_TIMEOUT) {
+                    break;
+                }
+                // Wait a random part of the delay, so that clients who were dropped together don't reconnect
+                // together, and double the delay for the next attempt
+                Thread.sleep(delay / 2 + random.nextInt(delay / 2 + 1));
+                delay = Math.min(delay * 2, RECONNECT_MAX_DELAY);
             }
-        } catch (IOException e) {
+
+            // Kill the UDP handler threads to close the program
+            drawingSender.kill();
+            drawingListener.kill();
+            drawingSender.join();
+            drawingListener.join();
+
+        } catch (IOException | InterruptedException e) {
             System.err.printf("Could not connect to %s\n%s", serverAddress, e.getMessage());
         } catch (IllegalArgumentException e){
             System.out.println(e.getMessage());
@@ -116,6 +135,53 @@ public class DrawClient {
         System.out.println("\nExiting...");
     }
 
+    /**
+     * Join the server through a new connection, resuming the previous session if there is one, and handle
+     * its messages until the connection drops or the program exits.
+     * @param tcpSocket The connection to the server.
+     * @param username The username of the client.
+     * @param key The key of the username.
+     * @param udpPort The port of the client's UDP socket.
+     * @throws IOException If the streams of the connection couldn't be opened.
+     * @throws InterruptedException If the thread was interrupted while waiting for the connection.
+     */
+    private static void runSession(Socket tcpSocket, String username, String key, int udpPort)
+            throws IOException, InterruptedException {
+        PrintWriter tcpOut = new PrintWriter(tcpSocket.getOutputStream(), true);
+        BufferedReader tcpIn = new BufferedReader(new InputStreamReader(tcpSocket.getInputStream()));
+
+        // Start the TCP reader thread
+        MessageReader tcpReader = new MessageReader(tcpIn);
+        tcpReader.start();
+
+        // Send username, the UDP port number to use and the key to the server, and the resume token if there is one
+        String token = resumeToken;
+        List<String> userArgs = token != null ? List.of(username, String.valueOf(udpPort), key, token)
+                : List.of(username, String.valueOf(udpPort), key);
+        Command userArgsCommand = new Command(CommandType.CLIENT_ARGS,
+                userArgs);
+        tcpOut.println(userArgsCommand);
+
+        // Start the TCP writer thread once the server accepted the session, which drops the messages that went
+        // stale while disconnected, then it sends the rest
+        while (!sessionStarted && !serverConnectionClosed && tcpReader.isAlive()) {
+            tcpReader.join(100);
+        }
+        MessageWriter tcpWriter = new MessageWriter(tcpOut);
+        tcpWriter.start();
+
+        // Keep the main thread alive as long as the connection is alive
+        while (!serverConnectionClosed && tcpReader.isAlive()) {
+            tcpReader.join(1000);
+        }
+        // Kill the TCP handler threads, closing the socket stops the reader if it's still reading
+        tcpWriter.kill();
+        tcpWriter.join();
+        tcpReader.kill();
+        tcpSocket.close();
+        tcpReader.join();
+    }
+
     /**
      * Get the username from the program arguments.
      * @param args Username follow by the server's address.
@@ -131,6 +197,40 @@ public class DrawClient {
         }
     }
 
+    /**
+     * Get the key that proves to the server that a username is this player's, and create one the first time the
+     * username is used. The keys are kept in a file in the user's home directory. If the file can't be written,
+     * the key only lasts until the program exits.
+     * @param username The username.
+     * @return The key.
+     */
+    public static String getPlayerKey(String username) {
+        Properties keys = new Properties();
+        try (Reader reader = Files.newBufferedReader(KEY_FILE)) {
+            keys.load(reader);
+        } catch (IOException e) {
+            // No username has a key yet
+        }
+        String key = keys.getProperty(username);
+        if (key != null && !key.isEmpty()) {
+            return key;
+        }
+        byte[] bytes = new byte[KEY_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        // URL-safe characters, which never contain the separator of commands
+        key = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        keys.setProperty(username, key);
+        try {
+            Files.createDirectories(KEY_FILE.getParent());
+            try (Writer writer = Files.newBufferedWriter(KEY_FILE)) {
+                keys.store(writer, "DrawGuesser keys of usernames");
+            }
+        } catch (IOException e) {
+            System.out.println("Could not save the key of " + username + ": " + e.getMessage());
+        }
+        return key;
+    }
+
     /**
      * Get the server address from the program arguments.
      * @param args Username follow by the server's address.
@@ -154,10 +254,41 @@ public class DrawClient {
 
     /**
      * Adds an incoming point to the canvas
-     * @param p The point to be drawn
+     * @param x The x-coordinate of the point to be drawn
+     * @param y The y-coordinate of the point to be drawn
+     */
+    public static void addPointToDraw(int x, int y) {
+        paper.addReceivedPoint(x, y);
+    }
+
+    /**
+     * Adds an incoming part of a simplified stroke to the canvas
+     * @param xs The x-coordinates of the points of the stroke in the order they were drawn
+     * @param ys The y-coordinates of the points of the stroke in the order they were drawn
+     * @param count The number of points in the stroke
+     * @param strokeStart If the points start a new stroke; otherwise, they continue the previous stroke
+     */
+    public static void addStrokeToDraw(int[] xs, int[] ys, int count, boolean strokeStart) {
+        paper.addReceivedStroke(xs, ys, count, strokeStart);
+    }
+
+    /**
+     * Erases the points within a rectangle erased by the painter
+     * @param left The smallest x-coordinate of the rectangle
+     * @param top The smallest y-coordinate of the rectangle
+     * @param right The largest x-coordinate of the rectangle
+     * @param bottom The largest y-coordinate of the rectangle
      */
-    public static void addPointToDraw(Point p) {
-        paper.addReceivedPoint(p);
+    public static void addEraseToDraw(int left, int top, int right, int bottom) {
+        paper.eraseReceivedRect(left, top, right, bottom);
+    }
+
+    /**
+     * Get the drawing canvas.
+     * @return The paper.
+     */
+    public static Paper getPaper() {
+        return paper;
     }
 
     /**
@@ -191,6 +322,39 @@ public class DrawClient {
         id = newId;
     }
 
+    /**
+     * Response to the ID command, the server accepted the client as a new player.
+     * If the client had a session before, it couldn't be resumed, so the game is started over. Nothing queued
+     * before is sent for the new player, neither guesses nor answers to the previous connection.
+     * @param newId The new ID.
+     * @param token The token that resumes the session, or null if the server doesn't give one.
+     */
+    public static void startSession(int newId, String token){
+        if (resumeToken != null) {
+            endRound();
+            clearPaper();
+            TileSync.reset();
+            Gui.addChatMessage("Reconnected as a new player, the previous session had ended.");
+        }
+        MessageWriter.dropStaleMessages(true);
+        setId(newId);
+        resumeToken = token;
+        sessionStarted = true;
+    }
+
+    /**
+     * Response to the RESUME command, the server gave the client back its session.
+     * The messages queued for the client before the connection dropped follow. Only the chat and guesses queued
+     * by the client are still sent, the answers to the previous connection are dropped.
+     * @param token The token that resumes the session the next time.
+     */
+    public static void resumeSession(String token){
+        MessageWriter.dropStaleMessages(false);
+        resumeToken = token;
+        sessionStarted = true;
+        Gui.addChatMessage("Reconnected!");
+    }
+
     /**
      * Response to the END_ROUND command.
      * Resets game status to prepare for a new round.
@@ -207,6 +371,7 @@ public class DrawClient {
      */
     public static void startNewRound(){
         clearPaper();
+        TileSync.reset();
         Gui.startCountdown(Utility.SystemUtility.ROUND_LENGTH);
     }
 
@@ -0,0 +1,118 @@
+package Client;
+
+import Interface.Paper;
+import Utility.RecordingPlayer;
+import Utility.RecordingReader;
+import Utility.TileRaster;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Plays a round recorded by the server into a paper, either in a window or headless.
+ * Headless replays run as fast as possible by default and print a summary, which is useful for
+ * checking what a round looked like at its end without watching it.
+ */
+public class ReplayViewer implements RecordingPlayer.Listener {
+    private final Paper paper; // The paper to draw the recording to
+    private final int[] xs = new int[1]; // The x-coordinate of the point being drawn
+    private final int[] ys = new int[1]; // The y-coordinate of the point being drawn
+    private long points = 0; // The number of played points
+    private long erases = 0; // The number of played erases
+
+    /**
+     * Initialize the viewer.
+     * @param paper The paper to draw the recording to.
+     */
+    public ReplayViewer(Paper paper) {
+        this.paper = paper;
+    }
+
+    /**
+     * Replay a recording.
+     * @param args The path of the recording, then optionally the speed and "--headless".
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: ReplayViewer <recording> [speed] [--headless]");
+            return;
+        }
+        boolean headless = args[args.length - 1].equals("--headless");
+        // Headless replays don't wait between events unless a speed is given
+        double speed = args.length >= 2 && !args[1].equals("--headless") ? Double.parseDouble(args[1]) : headless ? 0 : 1;
+        Paper paper = new Paper();
+        if (!headless) {
+            SwingUtilities.invokeLater(() -> {
+                JFrame frame = new JFrame("Replay of " + args[0]);
+                frame.add(paper);
+                frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+                frame.setSize(650, 780);
+                frame.setVisible(true);
+            });
+        }
+        ReplayViewer viewer = new ReplayViewer(paper);
+        try (RecordingReader reader = new RecordingReader(Path.of(args[0]))) {
+            long start = System.nanoTime();
+            long events = new RecordingPlayer(reader, speed).play(viewer);
+            int drawnTiles = 0;
+            for (int checksum : paper.getTileChecksums()) {
+                if (checksum != 0) {
+                    drawnTiles++;
+                }
+            }
+            System.out.printf("Replayed %d events (%d points, %d erases) spanning %.1f s in %.1f ms, %d of %d tiles drawn%n",
+                    events, viewer.points, viewer.erases, reader.getTime() / 1000.0,
+                    (System.nanoTime() - start) / 1e6, drawnTiles, TileRaster.TILE_COUNT);
+        } catch (IOException e) {
+            System.out.println("Could not replay " + args[0] + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("Replay was interrupted");
+        }
+    }
+
+    /**
+     * Draw a recorded point, filling in the line from the previous point of the stroke.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @param strokeStart If the point starts a new stroke.
+     */
+    @Override
+    public void onPoint(int x, int y, boolean strokeStart) {
+        xs[0] = x;
+        ys[0] = y;
+        paper.addReceivedStroke(xs, ys, 1, strokeStart);
+        points++;
+    }
+
+    /**
+     * Erase a recorded rectangle.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     */
+    @Override
+    public void onErase(int left, int top, int right, int bottom) {
+        paper.eraseReceivedRect(left, top, right, bottom);
+        erases++;
+    }
+
+    /**
+     * Print a recorded chat message.
+     * @param message The message.
+     */
+    @Override
+    public void onChat(String message) {
+        System.out.println(message);
+    }
+
+    /**
+     * Print a recorded system message.
+     * @param command The command and its data.
+     */
+    @Override
+    public void onSystem(String command) {
+        System.out.println("/s " + command);
+    }
+}
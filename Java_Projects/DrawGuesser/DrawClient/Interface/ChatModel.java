@@ -0,0 +1,179 @@
+package Interface;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.List;
+
+/**
+ * The chat messages shown in the GUI, kept in a ring buffer that drops the oldest message once it's full.
+ * Each message is word wrapped into rows of equal height, so that the chat list only has to lay out and paint
+ * the rows that are visible. Must only be used from the event dispatch thread.
+ */
+public class ChatModel extends AbstractListModel<String> {
+    private final String[] messages; // Ring buffer of messages
+    private final int[] messageRows; // The number of rows each message is wrapped into
+    private int messageHead = 0; // The index of the oldest message
+    private int messageCount = 0; // The number of messages in the ring buffer
+    private String[] rows = new String[64]; // Growable ring buffer of wrapped rows
+    private int rowHead = 0; // The index of the oldest row
+    private int rowCount = 0; // The number of rows in the ring buffer
+    private FontMetrics metrics = null; // The metrics of the font that the rows are displayed with
+    private int wrapWidth = 0; // The max width of a row in pixels, or 0 to not wrap
+
+    /**
+     * Initialize the chat with the max number of messages it can hold.
+     * @param capacity The max number of messages.
+     */
+    public ChatModel(int capacity) {
+        messages = new String[capacity];
+        messageRows = new int[capacity];
+    }
+
+    /**
+     * Get the number of rows.
+     * @return The number of rows.
+     */
+    @Override
+    public int getSize() {
+        return rowCount;
+    }
+
+    /**
+     * Get a row.
+     * @param index The index of the row, where 0 is the oldest row.
+     * @return The text of the row.
+     */
+    @Override
+    public String getElementAt(int index) {
+        return rows[(rowHead + index) % rows.length];
+    }
+
+    /**
+     * Add a batch of messages with a single update of the chat list, dropping the oldest messages if necessary.
+     * @param batch The messages to add, in the order they were received.
+     */
+    public void addMessages(List<String> batch) {
+        // Messages that would be dropped by the same batch are never added
+        if (batch.size() > messages.length) {
+            batch = batch.subList(batch.size() - messages.length, batch.size());
+        }
+        int removedRows = 0;
+        int addedRows = 0;
+        for (String message : batch) {
+            if (messageCount == messages.length) {
+                // Drop the oldest message and its rows
+                int dropped = messageRows[messageHead];
+                rowHead = (rowHead + dropped) % rows.length;
+                rowCount -= dropped;
+                removedRows += dropped;
+                messageHead = (messageHead + 1) % messages.length;
+                messageCount--;
+            }
+            int index = (messageHead + messageCount) % messages.length;
+            messages[index] = message;
+            messageRows[index] = addRows(message);
+            addedRows += messageRows[index];
+            messageCount++;
+        }
+        if (removedRows > 0) {
+            fireIntervalRemoved(this, 0, removedRows - 1);
+        }
+        if (addedRows > 0) {
+            fireIntervalAdded(this, rowCount - addedRows, rowCount - 1);
+        }
+    }
+
+    /**
+     * Change how the rows are wrapped, wrapping all messages again if it changed.
+     * @param metrics The metrics of the font that the rows are displayed with.
+     * @param wrapWidth The max width of a row in pixels.
+     */
+    public void setWrapWidth(FontMetrics metrics, int wrapWidth) {
+        if (metrics.equals(this.metrics) && wrapWidth == this.wrapWidth) {
+            return;
+        }
+        this.metrics = metrics;
+        this.wrapWidth = wrapWidth;
+        if (rowCount > 0) {
+            int oldRowCount = rowCount;
+            rowHead = 0;
+            rowCount = 0;
+            fireIntervalRemoved(this, 0, oldRowCount - 1);
+        }
+        for (int i = 0; i < messageCount; i++) {
+            int index = (messageHead + i) % messages.length;
+            messageRows[index] = addRows(messages[index]);
+        }
+        if (rowCount > 0) {
+            fireIntervalAdded(this, 0, rowCount - 1);
+        }
+    }
+
+    /**
+     * Word wrap a message into rows and add them after an empty row that separates it from the previous message.
+     * @param message The message to add.
+     * @return The number of rows added.
+     */
+    private int addRows(String message) {
+        int added = 1;
+        addRow("");
+        int start = 0;
+        while (start < message.length()) {
+            int end = findRowEnd(message, start);
+            addRow(message.substring(start, end));
+            added++;
+            // Skip the spaces that the row was broken at
+            start = end;
+            while (start < message.length() && message.charAt(start) == ' ') {
+                start++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Find where a row should end so that it fits the wrap width, preferring to break between words.
+     * @param message The message to wrap.
+     * @param start The index where the row starts.
+     * @return The index after the last character of the row.
+     */
+    private int findRowEnd(String message, int start) {
+        if (metrics == null || wrapWidth <= 0) {
+            return message.length();
+        }
+        int width = 0;
+        int lastSpace = -1;
+        for (int i = start; i < message.length(); i++) {
+            char c = message.charAt(i);
+            width += metrics.charWidth(c);
+            if (width > wrapWidth) {
+                // Break after the last word that fits, or inside the word if it doesn't fit on its own
+                if (lastSpace > start) {
+                    return lastSpace;
+                }
+                return Math.max(i, start + 1);
+            }
+            if (c == ' ') {
+                lastSpace = i;
+            }
+        }
+        return message.length();
+    }
+
+    /**
+     * Add a row at the end of the row ring buffer, growing it if it's full.
+     * @param row The text of the row.
+     */
+    private void addRow(String row) {
+        if (rowCount == rows.length) {
+            String[] grown = new String[rows.length * 2];
+            for (int i = 0; i < rowCount; i++) {
+                grown[i] = rows[(rowHead + i) % rows.length];
+            }
+            rows = grown;
+            rowHead = 0;
+        }
+        rows[(rowHead + rowCount) % rows.length] = row;
+        rowCount++;
+    }
+}
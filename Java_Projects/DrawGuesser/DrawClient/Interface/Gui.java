@@ -5,12 +5,18 @@ import Utility.SystemUtility;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.util.List;
 
 /**
  * A GUI for the drawing guessing game that allows for chatting, displaying information, and painting.
  */
 public class Gui extends JFrame{
-    private static final JTextArea chatTextArea = new JTextArea(); // Area to display chat messages
+    private static final int MAX_CHAT_MESSAGES = 500; // The max number of messages kept in the chat
+    private static final ChatModel chatModel = new ChatModel(MAX_CHAT_MESSAGES); // The messages in the chat
+    private static final JList<String> chatList = new JList<>(chatModel); // List to display chat messages
+    private static final LeaderboardModel leaderboardModel = new LeaderboardModel(); // The top players
     private final JTextField chatInputTextField; // Field for typing new chat messages
     private static final CircularTimer cTimer = new CircularTimer(SystemUtility.ROUND_LENGTH); // Countdown timer
     private static JLabel headerLabel; // Displays a label on top of GUI
@@ -33,21 +39,48 @@ public class Gui extends JFrame{
 
         // Create a panel for the chat area and input box
         JPanel chatPanel = new JPanel(new BorderLayout());
-        chatTextArea.setEditable(false); // Stop user from editing chat area
-        chatTextArea.setBackground(new Color(248, 248, 255));
-        // Have text wrap if it's too long
-        chatTextArea.setLineWrap(true);
-        chatTextArea.setWrapStyleWord(true);
-        // Make it scrollable
-        JScrollPane chatScrollPane = new JScrollPane(chatTextArea);
+        chatList.setBackground(new Color(248, 248, 255));
+        // Display the messages without letting the user select them
+        chatList.setFocusable(false);
+        chatList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, value, index, false, false);
+            }
+        });
+        // Every row has the same height, so only the visible rows have to be laid out
+        FontMetrics chatMetrics = chatList.getFontMetrics(chatList.getFont());
+        chatList.setFixedCellHeight(chatMetrics.getHeight() + 2);
+        // Make it scrollable, wrapping text if it's too long instead of scrolling horizontally
+        JScrollPane chatScrollPane = new JScrollPane(chatList,
+                ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
         chatScrollPane.setPreferredSize(new Dimension(250, 780));
+        chatScrollPane.getViewport().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                // Wrap the messages again to fit the new width
+                int width = chatScrollPane.getViewport().getWidth();
+                chatList.setFixedCellWidth(width);
+                chatModel.setWrapWidth(chatMetrics, width - 10); // Minus the padding of the list and its rows
+            }
+        });
         // Add some padding
-        chatTextArea.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+        chatList.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
         chatPanel.setBorder(BorderFactory.createEmptyBorder(2, 2, 2, 2));
         chatPanel.add(chatScrollPane, BorderLayout.CENTER); // Add chat area to the center
         // Add the input box at the bottom of the chat panel
         chatInputTextField = new JTextField();
         chatPanel.add(chatInputTextField, BorderLayout.SOUTH); // Add input field to the bottom
+        // Add the top players above the chat, with room for a full leaderboard
+        JList<String> leaderboardList = new JList<>(leaderboardModel);
+        leaderboardList.setFocusable(false);
+        leaderboardList.setFixedCellHeight(chatMetrics.getHeight() + 2);
+        leaderboardList.setVisibleRowCount(SystemUtility.LEADERBOARD_SIZE);
+        leaderboardList.setCellRenderer(chatList.getCellRenderer());
+        JScrollPane leaderboardPane = new JScrollPane(leaderboardList);
+        leaderboardPane.setBorder(BorderFactory.createTitledBorder("Top players"));
+        chatPanel.add(leaderboardPane, BorderLayout.NORTH);
         // Add the chat panel to the left
         add(chatPanel, BorderLayout.WEST);
 
@@ -56,6 +89,18 @@ public class Gui extends JFrame{
         paper.setPreferredSize(new Dimension(650, 780));
         drawPanel.add(paper, BorderLayout.CENTER); // Add the drawing canvas to the right of chat panel
 
+        // Add the painting tools above the canvas, only used while the client is the painter, and the view reset
+        JPanel tools = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        ButtonGroup toolGroup = new ButtonGroup();
+        addToolButton(tools, toolGroup, "Pen", paper, Paper.Tool.PEN).setSelected(true);
+        addToolButton(tools, toolGroup, "Eraser", paper, Paper.Tool.ERASER);
+        addToolButton(tools, toolGroup, "Clear region", paper, Paper.Tool.CLEAR_REGION);
+        JButton fit = new JButton("Fit");
+        fit.setFocusable(false);
+        fit.addActionListener(e -> paper.resetView());
+        tools.add(fit);
+        drawPanel.add(tools, BorderLayout.NORTH);
+
         // Add circular timer for counting down
         cTimer.setPreferredSize(new Dimension(60,60));
         drawPanel.add(cTimer, BorderLayout.SOUTH);
@@ -76,13 +121,39 @@ public class Gui extends JFrame{
     }
 
     /**
-     * Sets the header label on the top of the GUI
+     * Sets the header label on the top of the GUI. Can be called from any thread.
      * @param text The text to set it to.
      */
     public static void setHeaderLabel(String text){
+        UiDispatcher.setHeader(text);
+    }
+
+    /**
+     * Sets the header label on the top of the GUI. Must be called from the event dispatch thread.
+     * @param text The text to set it to.
+     */
+    static void applyHeaderLabel(String text){
         headerLabel.setText(text);
     }
 
+    /**
+     * Adds a button that selects a painting tool.
+     * @param tools The panel to add the button to.
+     * @param group The group of tool buttons, so that only one is selected.
+     * @param text The text of the button.
+     * @param paper The canvas that uses the tool.
+     * @param tool The tool that the button selects.
+     * @return The button.
+     */
+    private JToggleButton addToolButton(JPanel tools, ButtonGroup group, String text, Paper paper, Paper.Tool tool) {
+        JToggleButton button = new JToggleButton(text);
+        button.setFocusable(false);
+        button.addActionListener(e -> paper.setTool(tool));
+        group.add(button);
+        tools.add(button);
+        return button;
+    }
+
     /**
      * Adds a chat message from the input field to the MessageWriter's list of messages to send.
      */
@@ -95,26 +166,48 @@ public class Gui extends JFrame{
     }
 
     /**
-     * Adds a received chat message to the chat area
+     * Adds a received chat message to the chat. Can be called from any thread, the messages
+     * received during the same frame are added to the chat in one batch by the event dispatch thread.
      * @param message the message to display
      */
     public static void addChatMessage(String message) {
-        // Show message with some padding
-        chatTextArea.append("\n" + message + "\n");
+        UiDispatcher.addChatMessage(message);
+    }
+
+    /**
+     * Adds a batch of chat messages to the chat, and keeps it scrolled to the bottom if it already was.
+     * Must be called from the event dispatch thread.
+     * @param batch the messages to display
+     */
+    static void applyChatMessages(List<String> batch) {
+        int lastVisible = chatList.getLastVisibleIndex();
+        boolean atBottom = lastVisible < 0 || lastVisible >= chatModel.getSize() - 1;
+        chatModel.addMessages(batch);
+        if (atBottom) {
+            chatList.ensureIndexIsVisible(chatModel.getSize() - 1);
+        }
+    }
+
+    /**
+     * Applies the changes of the leaderboard sent by the server. Can be called from any thread.
+     * @param data The number of rows, followed by the rank, username and points of every row that changed.
+     */
+    public static void updateLeaderboard(List<String> data) {
+        UiDispatcher.post(() -> leaderboardModel.applyChanges(data));
     }
 
     /**
-     * Sets the timer to the specified amount of time and starts counting down.
+     * Sets the timer to the specified amount of time and starts counting down. Can be called from any thread.
      * @param numberOfSeconds the start time in seconds.
      */
     public static void startCountdown(int numberOfSeconds){
-        cTimer.startCountdown(numberOfSeconds);
+        UiDispatcher.post(() -> cTimer.startCountdown(numberOfSeconds));
     }
 
     /**
-     * Sets the counter to 0 and stops countdown.
+     * Sets the counter to 0 and stops countdown. Can be called from any thread.
      */
     public static void resetCounter(){
-        cTimer.resetCounter();
+        UiDispatcher.post(cTimer::resetCounter);
     }
 }
@@ -0,0 +1,62 @@
+package Interface;
+
+import Utility.SystemUtility;
+
+import javax.swing.*;
+import java.util.List;
+
+/**
+ * The top players shown in the GUI, kept up to date by applying the changed rows that the server sends.
+ * Must only be used from the event dispatch thread.
+ */
+public class LeaderboardModel extends AbstractListModel<String> {
+    private final String[] rows = new String[SystemUtility.LEADERBOARD_SIZE]; // The text of each row
+    private int size = 0; // The number of rows
+
+    /**
+     * Get the number of rows.
+     * @return The number of rows.
+     */
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get a row.
+     * @param index The index of the row, where 0 is the player with the most points.
+     * @return The text of the row.
+     */
+    @Override
+    public String getElementAt(int index) {
+        return rows[index];
+    }
+
+    /**
+     * Apply the changes of the leaderboard from a LEADERBOARD command.
+     * @param data The number of rows, followed by the rank, username and points of every row that changed.
+     */
+    public void applyChanges(List<String> data) {
+        try {
+            int newSize = Math.min(rows.length, Integer.parseInt(data.get(0)));
+            for (int i = 1; i + 2 < data.size(); i += 3) {
+                int rank = Integer.parseInt(data.get(i));
+                if (rank >= 1 && rank <= rows.length) {
+                    rows[rank - 1] = rank + ". " + data.get(i + 1) + " (" + data.get(i + 2) + ")";
+                }
+            }
+            int oldSize = size;
+            size = newSize;
+            if (newSize < oldSize) {
+                fireIntervalRemoved(this, newSize, oldSize - 1);
+            } else if (newSize > oldSize) {
+                fireIntervalAdded(this, oldSize, newSize - 1);
+            }
+            if (Math.min(oldSize, newSize) > 0) {
+                fireContentsChanged(this, 0, Math.min(oldSize, newSize) - 1);
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.out.println("Leaderboard message was malformed: " + e.getMessage());
+        }
+    }
+}
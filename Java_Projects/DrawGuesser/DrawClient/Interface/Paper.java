@@ -2,71 +2,382 @@ package Interface;
 
 import Network.DrawingSender;
 import Client.DrawClient;
+import Utility.SystemUtility;
+import Utility.TileRaster;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.awt.event.MouseWheelEvent;
 import java.util.concurrent.Semaphore;
 
 /**
- * The canvas to be drawn to.
+ * The canvas to be drawn to. Points are kept in canvas coordinates, which are independent of the size of
+ * the panel, and are shown through a view that can be zoomed with the mouse wheel and panned by dragging
+ * with the right or middle mouse button. Until the view is changed, it fits the canvas to the panel.
  */
 public class Paper extends JPanel {
-    // List to hold all points to be drawn
-    private HashSet hs = new HashSet();
-    // Semaphore to provide mutual exclusion to the hash set so that we can multi-thread
+    /**
+     * What dragging the mouse over the paper does.
+     */
+    public enum Tool {
+        PEN, // Draws points
+        ERASER, // Erases the points in a square around the mouse
+        CLEAR_REGION // Erases the points in the rectangle between where the mouse was pressed and released
+    }
+
+    private static final int ERASER_RADIUS = 8; // Half the width of the square erased by the eraser
+    private static final double MIN_SCALE = 0.1; // The smallest number of screen pixels per canvas pixel
+    private static final double MAX_SCALE = 8; // The largest number of screen pixels per canvas pixel
+    private static final double ZOOM_STEP = 1.1; // The zoom factor of one step of the mouse wheel
+    // Tiled raster of all drawn points, used for rendering and detecting drift from the server's canvas
+    private final TileRaster raster = new TileRaster();
+    // Cached images of the tiles of the raster at the level of detail of the view
+    private final TileRenderer renderer = new TileRenderer();
+    // Semaphore to provide mutual exclusion to the raster so that we can multi-thread
     private final Semaphore semaphore = new Semaphore(1);
+    // The last received point of the current stroke, only valid if hasLastReceivedPoint is true
+    private int lastReceivedX;
+    private int lastReceivedY;
+    private boolean hasLastReceivedPoint = false; // If there is a stroke to continue
+    private volatile Tool tool = Tool.PEN; // The tool used by the mouse
+    private Rectangle region = null; // The region being selected with CLEAR_REGION, only used on the GUI thread
+    private Point regionStart = null; // Where the mouse was pressed when selecting a region
+    // The view, read by the network threads when repainting changed areas. A stale read only repaints the wrong area
+    // right before the whole panel is repainted for the new view
+    private volatile double scale = 1; // The number of screen pixels per canvas pixel
+    private volatile double originX = 0; // The screen x-coordinate of the left edge of the canvas
+    private volatile double originY = 0; // The screen y-coordinate of the top edge of the canvas
+    private volatile boolean fitToPanel = true; // If the view fits the canvas to the panel
+    private Point panStart = null; // Where the mouse was when panning started or last moved, only used on the GUI thread
+    // The last point drawn by the painter, to skip the same canvas point when zoomed in
+    private int lastDrawnX;
+    private int lastDrawnY;
+    private boolean strokeStartPending = true; // If the next point drawn by the painter starts a new stroke
 
     /**
      * Instantiate event listeners and background
      */
     public Paper() {
-        setBackground(Color.white);
+        setBackground(Color.lightGray);
         addMouseListener(new L1());
         addMouseMotionListener(new L2());
+        addMouseWheelListener(this::zoom);
+    }
+
+    /**
+     * Change what dragging the mouse over the paper does.
+     *
+     * @param tool The tool to use
+     */
+    public void setTool(Tool tool) {
+        this.tool = tool;
+    }
+
+    /**
+     * Fit the canvas to the panel again, undoing any zoom and pan.
+     */
+    public void resetView() {
+        fitToPanel = true;
+        repaint();
     }
 
     /**
-     * Draw all points
+     * Draw the tiles of the canvas within the area that needs to be repainted
      *
      * @param g the <code>Graphics</code> object to protect
      */
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
-        g.setColor(Color.black);
+        updateFit();
         try {
-            // Acquire the semaphore before modifying the set
+            // Acquire the semaphore before reading the raster
             semaphore.acquire();
-            // Draw all points
-            Iterator i = hs.iterator();
-            while (i.hasNext()) {
-                Point p = (Point) i.next();
-                g.fillOval(p.x, p.y, 2, 2);
-            }
+            // Draw the visible tiles, rendering the ones that have changed
+            renderer.draw(g, raster, scale, originX, originY);
         } catch (InterruptedException e) {
             System.out.println(e.getMessage());
         } finally {
-            // Release the semaphore after modification
+            // Release the semaphore after reading
             semaphore.release();
         }
+        // Outline the region being selected
+        if (region != null) {
+            g.setColor(Color.gray);
+            int left = toScreenX(region.x);
+            int top = toScreenY(region.y);
+            g.drawRect(left, top, toScreenX(region.x + region.width + 1) - left - 1,
+                    toScreenY(region.y + region.height + 1) - top - 1);
+        }
+    }
+
+    /**
+     * Fit the canvas to the panel, unless the view has been zoomed or panned.
+     */
+    private void updateFit() {
+        if (fitToPanel) {
+            double fit = Math.min((double) getWidth() / SystemUtility.CANVAS_WIDTH,
+                    (double) getHeight() / SystemUtility.CANVAS_HEIGHT);
+            scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, fit));
+            originX = (getWidth() - SystemUtility.CANVAS_WIDTH * scale) / 2;
+            originY = (getHeight() - SystemUtility.CANVAS_HEIGHT * scale) / 2;
+        }
+    }
+
+    /**
+     * Zoom the view around the mouse.
+     *
+     * @param me The mouse wheel event
+     */
+    private void zoom(MouseWheelEvent me) {
+        updateFit();
+        double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE,
+                scale * Math.pow(ZOOM_STEP, -me.getPreciseWheelRotation())));
+        // Keep the canvas point under the mouse in place
+        originX = me.getX() - (me.getX() - originX) * newScale / scale;
+        originY = me.getY() - (me.getY() - originY) * newScale / scale;
+        scale = newScale;
+        fitToPanel = false;
+        repaint();
+    }
+
+    /**
+     * Convert a screen x-coordinate to a canvas x-coordinate.
+     *
+     * @param x The screen x-coordinate
+     * @return The canvas x-coordinate
+     */
+    private int toCanvasX(int x) {
+        return (int) Math.floor((x - originX) / scale);
+    }
+
+    /**
+     * Convert a screen y-coordinate to a canvas y-coordinate.
+     *
+     * @param y The screen y-coordinate
+     * @return The canvas y-coordinate
+     */
+    private int toCanvasY(int y) {
+        return (int) Math.floor((y - originY) / scale);
+    }
+
+    /**
+     * Convert a canvas x-coordinate to a screen x-coordinate.
+     *
+     * @param x The canvas x-coordinate
+     * @return The screen x-coordinate
+     */
+    private int toScreenX(int x) {
+        return (int) Math.round(x * scale + originX);
+    }
+
+    /**
+     * Convert a canvas y-coordinate to a screen y-coordinate.
+     *
+     * @param y The canvas y-coordinate
+     * @return The screen y-coordinate
+     */
+    private int toScreenY(int y) {
+        return (int) Math.round(y * scale + originY);
+    }
+
+    /**
+     * Repaint the area of the screen that shows the points within a rectangle of the canvas.
+     *
+     * @param left The smallest canvas x-coordinate of the rectangle
+     * @param top The smallest canvas y-coordinate of the rectangle
+     * @param right The largest canvas x-coordinate of the rectangle
+     * @param bottom The largest canvas y-coordinate of the rectangle
+     */
+    private void repaintCanvas(int left, int top, int right, int bottom) {
+        // A point is drawn 2 canvas pixels wide
+        int screenLeft = toScreenX(left) - 1;
+        int screenTop = toScreenY(top) - 1;
+        repaint(screenLeft, screenTop, toScreenX(right + 2) - screenLeft + 1, toScreenY(bottom + 2) - screenTop + 1);
     }
 
     /**
      * Adds a point that has been received by other clients to be drawn
      *
-     * @param p The point to be drawn
+     * @param x The x-coordinate of the point to be drawn
+     * @param y The y-coordinate of the point to be drawn
      */
-    public void addReceivedPoint(Point p) {
+    public void addReceivedPoint(int x, int y) {
         try {
-            // Acquire the semaphore before modifying the set
+            // Acquire the semaphore before modifying the raster
             semaphore.acquire();
             // Add point
-            hs.add(p);
-            repaint();
+            addToCanvas(x, y);
+            repaintCanvas(x, y, x, y);
+        } catch (InterruptedException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Release the semaphore after modification
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Adds a simplified stroke that has been received by other clients to be drawn.
+     * Since the server may have removed points from the stroke, the gaps between points are filled in.
+     *
+     * @param xs The x-coordinates of the points of the stroke in the order they were drawn
+     * @param ys The y-coordinates of the points of the stroke in the order they were drawn
+     * @param count The number of points in the stroke
+     * @param strokeStart If the points start a new stroke; otherwise, they continue the previous stroke
+     */
+    public void addReceivedStroke(int[] xs, int[] ys, int count, boolean strokeStart) {
+        try {
+            // Acquire the semaphore before modifying the raster
+            semaphore.acquire();
+            if (strokeStart) {
+                hasLastReceivedPoint = false;
+            }
+            // Add each point and fill in the line from the previous point
+            int left = Integer.MAX_VALUE;
+            int top = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE;
+            int bottom = Integer.MIN_VALUE;
+            if (hasLastReceivedPoint && count > 0) {
+                left = right = lastReceivedX;
+                top = bottom = lastReceivedY;
+            }
+            for (int i = 0; i < count; i++) {
+                if (hasLastReceivedPoint) {
+                    addLine(lastReceivedX, lastReceivedY, xs[i], ys[i]);
+                }
+                addToCanvas(xs[i], ys[i]);
+                lastReceivedX = xs[i];
+                lastReceivedY = ys[i];
+                hasLastReceivedPoint = true;
+                left = Math.min(left, xs[i]);
+                top = Math.min(top, ys[i]);
+                right = Math.max(right, xs[i]);
+                bottom = Math.max(bottom, ys[i]);
+            }
+            // Only repaint the area covered by the stroke
+            if (count > 0) {
+                repaintCanvas(left, top, right, bottom);
+            }
+        } catch (InterruptedException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Release the semaphore after modification
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Erases the points within a rectangle that has been erased by the painter
+     *
+     * @param left The smallest x-coordinate of the rectangle
+     * @param top The smallest y-coordinate of the rectangle
+     * @param right The largest x-coordinate of the rectangle
+     * @param bottom The largest y-coordinate of the rectangle
+     */
+    public void eraseReceivedRect(int left, int top, int right, int bottom) {
+        try {
+            // Acquire the semaphore before modifying the raster
+            semaphore.acquire();
+            eraseFromCanvas(left, top, right, bottom);
+        } catch (InterruptedException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Release the semaphore after modification
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Adds a point to the raster, points outside the canvas are ignored.
+     * The semaphore must be held by the caller.
+     *
+     * @param x The x-coordinate of the point to be drawn
+     * @param y The y-coordinate of the point to be drawn
+     */
+    private void addToCanvas(int x, int y) {
+        if (raster.set(x, y) < 0) {
+            return;
+        }
+        renderer.invalidate(x, y, x, y);
+    }
+
+    /**
+     * Removes the points within a rectangle from the raster, and repaints only the erased area. The semaphore must be held by the caller.
+     *
+     * @param left The smallest x-coordinate of the rectangle
+     * @param top The smallest y-coordinate of the rectangle
+     * @param right The largest x-coordinate of the rectangle
+     * @param bottom The largest y-coordinate of the rectangle
+     */
+    private void eraseFromCanvas(int left, int top, int right, int bottom) {
+        raster.clearRect(left, top, right, bottom);
+        renderer.invalidate(left, top, right, bottom);
+        repaintCanvas(left, top, right, bottom);
+    }
+
+    /**
+     * Get the checksum of every tile of the canvas.
+     *
+     * @return The checksums, indexed by tile
+     */
+    public int[] getTileChecksums() {
+        int[] checksums = new int[TileRaster.TILE_COUNT];
+        try {
+            // Acquire the semaphore before reading the raster
+            semaphore.acquire();
+            for (int tile = 0; tile < checksums.length; tile++) {
+                checksums[tile] = raster.getChecksum(tile);
+            }
+        } catch (InterruptedException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Release the semaphore after reading
+            semaphore.release();
+        }
+        return checksums;
+    }
+
+    /**
+     * Get the drawn points of a tile.
+     *
+     * @param tile The index of the tile
+     * @return The bits of the tile in row-major order, or null if the tile is empty
+     */
+    public long[] getTile(int tile) {
+        try {
+            // Acquire the semaphore before reading the raster
+            semaphore.acquire();
+            return raster.getTile(tile);
+        } catch (InterruptedException e) {
+            System.out.println(e.getMessage());
+            return null;
+        } finally {
+            // Release the semaphore after reading
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Replaces all points in a tile with the points of the server's version of the tile.
+     *
+     * @param tile The index of the tile
+     * @param bits The bits of the tile in row-major order, or null if the tile is empty
+     */
+    public void replaceTile(int tile, long[] bits) {
+        int left = TileRaster.getTileX(tile);
+        int top = TileRaster.getTileY(tile);
+        try {
+            // Acquire the semaphore before modifying the raster
+            semaphore.acquire();
+            // Replace the points of the tile
+            raster.setTile(tile, bits);
+            int right = left + SystemUtility.TILE_SIZE - 1;
+            int bottom = top + SystemUtility.TILE_SIZE - 1;
+            renderer.invalidate(left, top, right, bottom);
+            repaintCanvas(left, top, right, bottom);
         } catch (InterruptedException e) {
             System.out.println(e.getMessage());
         } finally {
@@ -75,19 +386,68 @@ public class Paper extends JPanel {
         }
     }
 
+    /**
+     * Adds the points on the line between two points, excluding the end points.
+     * The semaphore must be held by the caller.
+     *
+     * @param fromX The x-coordinate of the start of the line
+     * @param fromY The y-coordinate of the start of the line
+     * @param toX The x-coordinate of the end of the line
+     * @param toY The y-coordinate of the end of the line
+     */
+    private void addLine(int fromX, int fromY, int toX, int toY) {
+        int dx = toX - fromX;
+        int dy = toY - fromY;
+        // Step one pixel at a time along the longest axis
+        int steps = Math.max(Math.abs(dx), Math.abs(dy));
+        for (int i = 1; i < steps; i++) {
+            addToCanvas(fromX + Math.round((float) dx * i / steps), fromY + Math.round((float) dy * i / steps));
+        }
+    }
+
     /**
      * Adds a point to be drawn and requests for point to be sent to other client
      *
-     * @param p The point to be drawn
+     * @param x The x-coordinate of the point to be drawn
+     * @param y The y-coordinate of the point to be drawn
+     * @param strokeStart If the point starts a new stroke
      */
-    private void addPoint(Point p) {
+    private void addPoint(int x, int y, boolean strokeStart) {
         try {
-            // Acquire the semaphore before modifying the set
+            // Acquire the semaphore before modifying the raster
             semaphore.acquire();
             // Add and send point
-            hs.add(p);
-            DrawingSender.addPointToSend(p);
-            repaint();
+            addToCanvas(x, y);
+            DrawingSender.addPointToSend(x, y, strokeStart);
+            repaintCanvas(x, y, x, y);
+        } catch (InterruptedException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Release the semaphore after modification
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Erases the points within a rectangle and requests for the erase to be sent to other clients
+     *
+     * @param left The smallest x-coordinate of the rectangle
+     * @param top The smallest y-coordinate of the rectangle
+     * @param right The largest x-coordinate of the rectangle
+     * @param bottom The largest y-coordinate of the rectangle
+     */
+    private void erase(int left, int top, int right, int bottom) {
+        // The rectangle is sent as shorts, which covers much more than the paper
+        left = Math.max(left, Short.MIN_VALUE);
+        top = Math.max(top, Short.MIN_VALUE);
+        right = Math.min(right, Short.MAX_VALUE);
+        bottom = Math.min(bottom, Short.MAX_VALUE);
+        try {
+            // Acquire the semaphore before modifying the raster
+            semaphore.acquire();
+            // Erase and send the rectangle
+            eraseFromCanvas(left, top, right, bottom);
+            DrawingSender.addEraseToSend(left, top, right, bottom);
         } catch (InterruptedException e) {
             System.out.println(e.getMessage());
         } finally {
@@ -97,26 +457,128 @@ public class Paper extends JPanel {
     }
 
     /**
-     * Handles drawing of point when mouse is clicked
+     * Draws a point of the painter's current stroke. Points outside the canvas are skipped and break the stroke,
+     * and a point is only drawn once when the mouse moves within it.
+     *
+     * @param x The canvas x-coordinate of the point
+     * @param y The canvas y-coordinate of the point
+     */
+    private void drawAt(int x, int y) {
+        if (x < 0 || y < 0 || x >= SystemUtility.CANVAS_WIDTH || y >= SystemUtility.CANVAS_HEIGHT) {
+            strokeStartPending = true;
+            return;
+        }
+        if (!strokeStartPending && x == lastDrawnX && y == lastDrawnY) {
+            return;
+        }
+        addPoint(x, y, strokeStartPending);
+        strokeStartPending = false;
+        lastDrawnX = x;
+        lastDrawnY = y;
+    }
+
+    /**
+     * Erases the square of the eraser around a point
+     *
+     * @param x The x-coordinate of the center of the eraser
+     * @param y The y-coordinate of the center of the eraser
+     */
+    private void eraseAround(int x, int y) {
+        erase(x - ERASER_RADIUS, y - ERASER_RADIUS, x + ERASER_RADIUS, y + ERASER_RADIUS);
+    }
+
+    /**
+     * Selects the region between where the mouse was pressed and a point, repainting the old and new outline
+     *
+     * @param x The x-coordinate of the point
+     * @param y The y-coordinate of the point
+     */
+    private void selectRegion(int x, int y) {
+        if (region != null) {
+            repaintCanvas(region.x, region.y, region.x + region.width, region.y + region.height);
+        }
+        region = new Rectangle(Math.min(regionStart.x, x), Math.min(regionStart.y, y),
+                Math.abs(x - regionStart.x), Math.abs(y - regionStart.y));
+        repaintCanvas(region.x, region.y, region.x + region.width, region.y + region.height);
+    }
+
+    /**
+     * Handles drawing of point, erasing, or starting a region when mouse is clicked,
+     * and clearing the region when the mouse is released. The right and middle buttons pan the view
      */
     class L1 extends MouseAdapter {
         public void mousePressed(MouseEvent me) {
+            if (!SwingUtilities.isLeftMouseButton(me)) {
+                // Start panning from the current view
+                updateFit();
+                fitToPanel = false;
+                panStart = me.getPoint();
+                return;
+            }
             // Ensure the client is allowed to paint
             if(DrawClient.isClientCurrentPainter()){
-                addPoint(me.getPoint());
+                int x = toCanvasX(me.getX());
+                int y = toCanvasY(me.getY());
+                switch (tool) {
+                    case PEN -> {
+                        strokeStartPending = true;
+                        drawAt(x, y);
+                    }
+                    case ERASER -> eraseAround(x, y);
+                    case CLEAR_REGION -> {
+                        regionStart = new Point(x, y);
+                        selectRegion(x, y);
+                    }
+                }
             }
 
         }
+
+        public void mouseReleased(MouseEvent me) {
+            if (!SwingUtilities.isLeftMouseButton(me)) {
+                panStart = null;
+                return;
+            }
+            if (regionStart != null) {
+                // Clear the selected region if the client is still allowed to paint
+                selectRegion(toCanvasX(me.getX()), toCanvasY(me.getY()));
+                Rectangle cleared = region;
+                region = null;
+                regionStart = null;
+                repaintCanvas(cleared.x, cleared.y, cleared.x + cleared.width, cleared.y + cleared.height);
+                if(DrawClient.isClientCurrentPainter()){
+                    erase(cleared.x, cleared.y, cleared.x + cleared.width, cleared.y + cleared.height);
+                }
+            }
+        }
     }
 
     /**
-     * Handles drawing of a line when mouse is dragged
+     * Handles drawing of a line, erasing, or resizing a region when mouse is dragged
      */
     class L2 extends MouseMotionAdapter {
         public void mouseDragged(MouseEvent me) {
+            if (panStart != null) {
+                // Move the view along with the mouse
+                originX += me.getX() - panStart.x;
+                originY += me.getY() - panStart.y;
+                panStart = me.getPoint();
+                repaint();
+                return;
+            }
             // Ensure the client is allowed to paint
-            if(DrawClient.isClientCurrentPainter()){
-                addPoint(me.getPoint());
+            if(DrawClient.isClientCurrentPainter() && SwingUtilities.isLeftMouseButton(me)){
+                int x = toCanvasX(me.getX());
+                int y = toCanvasY(me.getY());
+                switch (tool) {
+                    case PEN -> drawAt(x, y);
+                    case ERASER -> eraseAround(x, y);
+                    case CLEAR_REGION -> {
+                        if (regionStart != null) {
+                            selectRegion(x, y);
+                        }
+                    }
+                }
             }
         }
     }
@@ -126,10 +588,12 @@ public class Paper extends JPanel {
      */
     public void clear() {
         try {
-            // Acquire the semaphore before modifying the set
+            // Acquire the semaphore before modifying the raster
             semaphore.acquire();
             // Clear all points
-            hs.clear();
+            raster.clear();
+            renderer.invalidateAll();
+            hasLastReceivedPoint = false;
             // Repaint the panel to reflect the cleared state
             repaint();
         } catch (InterruptedException e) {
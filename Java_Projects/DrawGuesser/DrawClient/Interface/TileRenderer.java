@@ -0,0 +1,201 @@
+package Interface;
+
+import Utility.SystemUtility;
+import Utility.TileRaster;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+
+/**
+ * Renders the tiles of a raster into cached images at a level of detail that matches the zoom, so that a frame
+ * only has to draw one image per visible tile regardless of how many points the canvas has. Zoomed out, a tile
+ * is decimated into blocks of canvas pixels; zoomed in, its points are drawn at a higher resolution.
+ * A tile is only rendered again when it changes or the level of detail changes, and only once it's visible.
+ * The renderer is not thread safe, the owner must provide mutual exclusion.
+ */
+public class TileRenderer {
+    public static final int MIN_LEVEL = -4; // The lowest level of detail, 1 image pixel per 16x16 canvas pixels
+    public static final int MAX_LEVEL = 3; // The highest level of detail, 8x8 image pixels per canvas pixel
+    private static final byte WHITE = (byte) 0xFF; // The gray value of an empty pixel
+    private final BufferedImage[] images = new BufferedImage[TileRaster.TILE_COUNT]; // Cached image of each tile
+    private int level = 0; // The level of detail of the cached images, as a power of two
+    private boolean[] dot = createDot(0); // The pixels covered by a point at the current level of detail
+
+    /**
+     * Get the level of detail to render a zoom with, the lowest level that is at least as detailed as the screen.
+     * @param scale The number of screen pixels per canvas pixel.
+     * @return The level of detail, as a power of two.
+     */
+    public static int getLevel(double scale) {
+        int level = (int) Math.ceil(Math.log(scale) / Math.log(2) - 1e-9);
+        return Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+    }
+
+    /**
+     * Discard the cached images of all tiles that the points within a rectangle are drawn on.
+     * Since a point is drawn 2 pixels wide, it also touches the tiles to the right of and below it.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     */
+    public void invalidate(int left, int top, int right, int bottom) {
+        int fromX = Math.max(left, 0) / SystemUtility.TILE_SIZE;
+        int fromY = Math.max(top, 0) / SystemUtility.TILE_SIZE;
+        int toX = Math.min(right + 1, SystemUtility.CANVAS_WIDTH - 1) / SystemUtility.TILE_SIZE;
+        int toY = Math.min(bottom + 1, SystemUtility.CANVAS_HEIGHT - 1) / SystemUtility.TILE_SIZE;
+        for (int tileY = fromY; tileY <= toY; tileY++) {
+            for (int tileX = fromX; tileX <= toX; tileX++) {
+                images[tileY * TileRaster.TILES_X + tileX] = null;
+            }
+        }
+    }
+
+    /**
+     * Discard the cached images of all tiles.
+     */
+    public void invalidateAll() {
+        Arrays.fill(images, null);
+    }
+
+    /**
+     * Draw the tiles that overlap the clip of the graphics, rendering the ones that aren't cached.
+     * @param g The graphics to draw to.
+     * @param raster The points to draw.
+     * @param scale The number of screen pixels per canvas pixel.
+     * @param originX The screen x-coordinate of the left edge of the canvas.
+     * @param originY The screen y-coordinate of the top edge of the canvas.
+     */
+    public void draw(Graphics g, TileRaster raster, double scale, double originX, double originY) {
+        int newLevel = getLevel(scale);
+        if (newLevel != level) {
+            invalidateAll();
+            level = newLevel;
+            dot = createDot(Math.max(level, 0));
+        }
+        // Find the tiles that overlap the clip
+        Rectangle clip = g.getClipBounds();
+        int fromX = 0;
+        int fromY = 0;
+        int toX = TileRaster.TILES_X - 1;
+        int toY = TileRaster.TILES_Y - 1;
+        if (clip != null) {
+            fromX = Math.max(fromX, (int) Math.floor((clip.x - originX) / scale) / SystemUtility.TILE_SIZE);
+            fromY = Math.max(fromY, (int) Math.floor((clip.y - originY) / scale) / SystemUtility.TILE_SIZE);
+            toX = Math.min(toX, (int) Math.floor((clip.x + clip.width - originX) / scale) / SystemUtility.TILE_SIZE);
+            toY = Math.min(toY, (int) Math.floor((clip.y + clip.height - originY) / scale) / SystemUtility.TILE_SIZE);
+        }
+        for (int tileY = fromY; tileY <= toY; tileY++) {
+            for (int tileX = fromX; tileX <= toX; tileX++) {
+                int tile = tileY * TileRaster.TILES_X + tileX;
+                if (images[tile] == null) {
+                    images[tile] = render(raster, tile);
+                }
+                // Round both edges, so that neighbouring tiles meet without gaps
+                int left = TileRaster.getTileX(tile);
+                int top = TileRaster.getTileY(tile);
+                int right = Math.min(left + SystemUtility.TILE_SIZE, SystemUtility.CANVAS_WIDTH);
+                int bottom = Math.min(top + SystemUtility.TILE_SIZE, SystemUtility.CANVAS_HEIGHT);
+                int screenLeft = (int) Math.round(left * scale + originX);
+                int screenTop = (int) Math.round(top * scale + originY);
+                g.drawImage(images[tile], screenLeft, screenTop,
+                        (int) Math.round(right * scale + originX) - screenLeft,
+                        (int) Math.round(bottom * scale + originY) - screenTop, null);
+            }
+        }
+    }
+
+    /**
+     * Render a tile at the current level of detail.
+     * @param raster The points to draw.
+     * @param tile The index of the tile.
+     * @return The image of the tile.
+     */
+    private BufferedImage render(TileRaster raster, int tile) {
+        int left = TileRaster.getTileX(tile);
+        int top = TileRaster.getTileY(tile);
+        int width = Math.min(SystemUtility.TILE_SIZE, SystemUtility.CANVAS_WIDTH - left);
+        int height = Math.min(SystemUtility.TILE_SIZE, SystemUtility.CANVAS_HEIGHT - top);
+        if (level >= 0) {
+            // Stamp the dot of every point straight into the pixels of the image,
+            // including the points left of and above the tile that reach into it
+            int pixels = 1 << level;
+            int size = 2 * pixels;
+            int imageWidth = width * pixels;
+            int imageHeight = height * pixels;
+            BufferedImage image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_BYTE_GRAY);
+            byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            Arrays.fill(data, WHITE);
+            for (int y = top - 1; y < top + height; y++) {
+                for (int x = left - 1; x < left + width; x++) {
+                    if (!raster.get(x, y)) {
+                        continue;
+                    }
+                    int dotX = (x - left) * pixels;
+                    int dotY = (y - top) * pixels;
+                    for (int row = Math.max(0, -dotY); row < size && dotY + row < imageHeight; row++) {
+                        int offset = (dotY + row) * imageWidth + dotX;
+                        for (int column = Math.max(0, -dotX); column < size && dotX + column < imageWidth; column++) {
+                            if (dot[row * size + column]) {
+                                data[offset + column] = 0;
+                            }
+                        }
+                    }
+                }
+            }
+            return image;
+        }
+        // Decimate each block of canvas pixels into one image pixel, drawn if any point touches the block
+        int block = 1 << -level;
+        int imageWidth = (width + block - 1) / block;
+        int imageHeight = (height + block - 1) / block;
+        BufferedImage image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_BYTE_GRAY);
+        for (int blockY = 0; blockY < imageHeight; blockY++) {
+            for (int blockX = 0; blockX < imageWidth; blockX++) {
+                image.setRGB(blockX, blockY, isBlockDrawn(raster, left + blockX * block, top + blockY * block, block)
+                        ? Color.black.getRGB() : Color.white.getRGB());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Create the round dot that a point is drawn as, 2 canvas pixels wide.
+     * @param level The level of detail, at least 0.
+     * @return The covered pixels of the dot in row-major order.
+     */
+    private static boolean[] createDot(int level) {
+        int size = 2 << level;
+        double radius = size / 2.0;
+        boolean[] dot = new boolean[size * size];
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                double dx = column + 0.5 - radius;
+                double dy = row + 0.5 - radius;
+                dot[row * size + column] = dx * dx + dy * dy <= radius * radius;
+            }
+        }
+        return dot;
+    }
+
+    /**
+     * Check if any point touches a block of canvas pixels.
+     * @param raster The points to check.
+     * @param left The x-coordinate of the left edge of the block.
+     * @param top The y-coordinate of the top edge of the block.
+     * @param block The width and height of the block.
+     * @return True if a point is drawn on the block; otherwise, false.
+     */
+    private static boolean isBlockDrawn(TileRaster raster, int left, int top, int block) {
+        for (int y = top - 1; y < top + block; y++) {
+            for (int x = left - 1; x < left + block; x++) {
+                if (raster.get(x, y)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
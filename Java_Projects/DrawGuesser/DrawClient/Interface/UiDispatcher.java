@@ -0,0 +1,83 @@
+package Interface;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Collects GUI updates from the network threads and applies them on the event dispatch thread
+ * in a single batch per frame. Only the last header update of a batch is applied, and all chat
+ * messages of a batch are added to the chat at once.
+ */
+public class UiDispatcher {
+    private static final int FRAME_INTERVAL = 16; // Time in milliseconds between batches
+    private static final ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>(); // Other updates
+    private static final ConcurrentLinkedQueue<String> pendingChatMessages = new ConcurrentLinkedQueue<>();
+    private static final AtomicReference<String> pendingHeader = new AtomicReference<>(); // The latest header
+    private static final AtomicBoolean batchScheduled = new AtomicBoolean(false); // If a batch is pending
+
+    /**
+     * Queue a change of the header label, replacing any change that hasn't been applied yet.
+     * @param text The text to set the header to.
+     */
+    public static void setHeader(String text) {
+        pendingHeader.set(text);
+        scheduleBatch();
+    }
+
+    /**
+     * Queue a received chat message.
+     * @param message The message to display.
+     */
+    public static void addChatMessage(String message) {
+        pendingChatMessages.add(message);
+        scheduleBatch();
+    }
+
+    /**
+     * Queue any other GUI update, applied in the order it was queued.
+     * @param task The update to apply on the event dispatch thread.
+     */
+    public static void post(Runnable task) {
+        pendingTasks.add(task);
+        scheduleBatch();
+    }
+
+    /**
+     * Schedule a batch for the next frame unless one is already pending.
+     */
+    private static void scheduleBatch() {
+        if (batchScheduled.compareAndSet(false, true)) {
+            Timer timer = new Timer(FRAME_INTERVAL, e -> applyBatch());
+            timer.setRepeats(false);
+            timer.start();
+        }
+    }
+
+    /**
+     * Apply all pending updates. Must be called from the event dispatch thread.
+     */
+    private static void applyBatch() {
+        // Allow new batches to be scheduled before draining, so that no update is left behind
+        batchScheduled.set(false);
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            task.run();
+        }
+        String header = pendingHeader.getAndSet(null);
+        if (header != null) {
+            Gui.applyHeaderLabel(header);
+        }
+        List<String> chatMessages = new ArrayList<>();
+        String message;
+        while ((message = pendingChatMessages.poll()) != null) {
+            chatMessages.add(message);
+        }
+        if (!chatMessages.isEmpty()) {
+            Gui.applyChatMessages(chatMessages);
+        }
+    }
+}
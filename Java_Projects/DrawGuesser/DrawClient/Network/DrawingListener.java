@@ -1,8 +1,9 @@
 package Network;
 
 import Client.DrawClient;
+import Utility.SystemUtility;
+import Utility.SystemUtility.*;
 
-import java.awt.*;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -15,6 +16,10 @@ import java.nio.ByteBuffer;
 public class DrawingListener extends Thread {
     final DatagramSocket socket; // The socket to be read from
     private volatile boolean alive = true;
+    // Preallocated coordinates of a received stroke, so that receiving doesn't allocate any objects per point
+    private final int[] strokeXs = new int[SystemUtility.MAX_STROKE_POINTS];
+    private final int[] strokeYs = new int[SystemUtility.MAX_STROKE_POINTS];
+    private int nextStrokeSequence = -1; // The sequence number that continues the last stroke, or -1 if none
 
     /**
      * Kill this thread.
@@ -37,19 +42,18 @@ public class DrawingListener extends Thread {
      */
     @Override
     public void run() {
-        byte[] responseData = new byte[8];
+        byte[] responseData = new byte[SystemUtility.MAX_PACKET_SIZE];
         DatagramPacket response = new DatagramPacket(responseData, responseData.length);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(responseData);
         while (alive) {
             // Attempt to read the next message for 1 second
             try {
                 socket.setSoTimeout(1000);
                 try{
+                    response.setLength(responseData.length);
                     socket.receive(response);
-                    // Convert byte data to a point
-                    ByteBuffer byteBuffer = ByteBuffer.wrap(responseData);
-                    Point p = new Point(byteBuffer.getInt(), byteBuffer.getInt());
-                    // Add to draw
-                    DrawClient.addPointToDraw(p);
+                    byteBuffer.clear().limit(response.getLength());
+                    handlePacket(byteBuffer, response);
                 }catch (SocketTimeoutException e){
                     // Ignore timeout exception
                 }
@@ -58,4 +62,49 @@ public class DrawingListener extends Thread {
             }
         }
     }
+
+    /**
+     * Draw or erase the points of a datagram relayed by the server, or answer a ping.
+     * @param byteBuffer The received datagram.
+     * @param response The received packet, used for answering the sender.
+     * @throws IOException If an answer couldn't be sent.
+     */
+    private void handlePacket(ByteBuffer byteBuffer, DatagramPacket response) throws IOException {
+        // Ignore datagrams that are too short to contain a header
+        if (byteBuffer.remaining() < 1) {
+            return;
+        }
+        PacketType type = PacketType.fromByte(byteBuffer.get());
+        if (type == PacketType.POINT && byteBuffer.remaining() >= 8) {
+            // Convert byte data to a point and add it to draw
+            DrawClient.addPointToDraw(byteBuffer.getInt(), byteBuffer.getInt());
+        } else if (type == PacketType.STROKE && byteBuffer.remaining() >= 5) {
+            // Read the flags, sequence number and number of points, then convert the byte data to a stroke
+            boolean strokeStart = (byteBuffer.get() & SystemUtility.STROKE_START) != 0;
+            int sequence = byteBuffer.getShort() & 0xFFFF;
+            // Only join the points to the last drawn point if they directly follow it in the same stroke,
+            // after a lost or reordered datagram they're drawn as a stroke of their own instead
+            boolean continues = !strokeStart && sequence == nextStrokeSequence;
+            nextStrokeSequence = (sequence + 1) & 0xFFFF;
+            int count = Math.min(byteBuffer.getShort() & 0xFFFF, byteBuffer.remaining() / 8);
+            count = Math.min(count, strokeXs.length);
+            for (int i = 0; i < count; i++) {
+                strokeXs[i] = byteBuffer.getInt();
+                strokeYs[i] = byteBuffer.getInt();
+            }
+            // Add to draw
+            DrawClient.addStrokeToDraw(strokeXs, strokeYs, count, !continues);
+        } else if (type == PacketType.ERASE && byteBuffer.remaining() >= 8) {
+            // Convert byte data to the left, top, right and bottom of a rectangle and erase it
+            DrawClient.addEraseToDraw(byteBuffer.getShort(), byteBuffer.getShort(),
+                    byteBuffer.getShort(), byteBuffer.getShort());
+        } else if (type == PacketType.PING && byteBuffer.remaining() >= 4) {
+            // Answer with the type, our ID, and the sequence number of the ping
+            ByteBuffer pong = ByteBuffer.allocate(SystemUtility.PONG_PACKET_SIZE);
+            pong.put((byte) PacketType.PONG.ordinal());
+            pong.putInt(DrawClient.getId());
+            pong.putInt(byteBuffer.getInt());
+            socket.send(new DatagramPacket(pong.array(), pong.capacity(), response.getSocketAddress()));
+        }
+    }
 }
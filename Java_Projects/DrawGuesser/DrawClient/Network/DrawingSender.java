@@ -1,23 +1,24 @@
 package Network;
 
 import Client.DrawClient;
+import Utility.PointRingBuffer;
+import Utility.PointSet;
+import Utility.SystemUtility;
 
-import java.awt.*;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Constantly sends newly drawn points to the server.
  */
 public class DrawingSender extends Thread{
-    private static BlockingQueue<Point> pointsToSend; // The points to be sent
+    private static final int QUEUE_CAPACITY = 4096; // The max number of points waiting to be sent
+    // The points to be sent, preallocated so that drawing doesn't allocate any objects per point
+    private static final PointRingBuffer pointsToSend = new PointRingBuffer(QUEUE_CAPACITY);
     private final int UDP_PORT; // udp port of server
     private final String SERVER_ADDRESS; // Address of server
     private final DatagramSocket socket; // The socket to be used for sending messages
@@ -38,7 +39,6 @@ public class DrawingSender extends Thread{
      */
     public DrawingSender(int UDP_PORT, String SERVER_ADDRESS, DatagramSocket socket) {
         // Initialize variables
-        pointsToSend = new LinkedBlockingQueue<>();
         this.UDP_PORT = UDP_PORT;
         this.SERVER_ADDRESS = SERVER_ADDRESS;
         this.socket = socket;
@@ -55,25 +55,42 @@ public class DrawingSender extends Thread{
             // Get host address
             InetAddress host = InetAddress.getByName(SERVER_ADDRESS);
             // Create UDP request packet
-            int dataLength = 12;
+            int dataLength = Math.max(SystemUtility.POINT_PACKET_SIZE, SystemUtility.ERASE_PACKET_SIZE);
             byte[] requestData = new byte[dataLength];
+            ByteBuffer buffer = ByteBuffer.wrap(requestData);
             DatagramPacket request = new DatagramPacket(requestData, requestData.length, host, UDP_PORT);
             // UDP hole punching (Required if we're running a public server behind a home router)
             punchUdpHole(socket, host);
             while (alive) {
-                // Waits until there's a new point to send
-                Point p = pointsToSend.poll(1, TimeUnit.SECONDS);
-                // Ensure there is a point to send
-                if(p != null){
-                    // Use ByteBuffer to copy the point's integers into the byte array
-                    ByteBuffer buffer = ByteBuffer.allocate(dataLength);
-                    // Put ID, x, and y into 4 bytes of the buffer each
+                // Waits for 1 second until there's a new point to send
+                if(pointsToSend.await(1000)){
+                    long p = pointsToSend.peekPoint();
+                    // Use the ByteBuffer to write directly into requestData
+                    buffer.clear();
+                    if (pointsToSend.peekErase()) {
+                        // Take both corners of the rectangle and put them as the left, top, right and bottom
+                        pointsToSend.remove();
+                        long corner = pointsToSend.peekPoint();
+                        pointsToSend.remove();
+                        buffer.put((byte) SystemUtility.PacketType.ERASE.ordinal());
+                        buffer.putInt(DrawClient.getId());
+                        buffer.putShort((short) PointSet.unpackX(p));
+                        buffer.putShort((short) PointSet.unpackY(p));
+                        buffer.putShort((short) PointSet.unpackX(corner));
+                        buffer.putShort((short) PointSet.unpackY(corner));
+                        request.setLength(buffer.position());
+                        socket.send(request);
+                        continue;
+                    }
+                    // Put the packet type, then ID, x, and y into 4 bytes of the buffer each, then the flags
+                    buffer.put((byte) SystemUtility.PacketType.POINT.ordinal());
                     buffer.putInt(DrawClient.getId());
-                    buffer.putInt(p.x);
-                    buffer.putInt(p.y);
-                    // Copy the ByteBuffer's content to requestData
-                    System.arraycopy(buffer.array(), 0, requestData, 0, dataLength);
+                    buffer.putInt(PointSet.unpackX(p));
+                    buffer.putInt(PointSet.unpackY(p));
+                    buffer.put(pointsToSend.peekStrokeStart() ? SystemUtility.STROKE_START : 0);
+                    pointsToSend.remove();
                     // Transmit the point
+                    request.setLength(buffer.position());
                     socket.send(request);
                 }
 
@@ -102,9 +119,24 @@ public class DrawingSender extends Thread{
 
     /**
      * Adds a drawn point to the outgoing message buffer to be sent.
-     * @param p The point to add.
+     * If the buffer is full the point is dropped, the canvas keyframes repair it on the server.
+     * @param x The x-coordinate of the point to add.
+     * @param y The y-coordinate of the point to add.
+     * @param strokeStart If the point starts a new stroke.
      */
-    public static void addPointToSend(Point p){
-        pointsToSend.add(p);
+    public static void addPointToSend(int x, int y, boolean strokeStart){
+        pointsToSend.offer(x, y, strokeStart);
+    }
+
+    /**
+     * Adds an erased rectangle to the outgoing message buffer to be sent, in order with the drawn points.
+     * The coordinates must fit in a short, which covers the canvas and more.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     */
+    public static void addEraseToSend(int left, int top, int right, int bottom){
+        pointsToSend.offerErase(left, top, right, bottom);
     }
 }
@@ -41,8 +41,8 @@ public class MessageReader extends Thread {
                 // Read messages from the server
                 message = in.readLine();
                 if(message == null){
-                    System.out.println("The server disconnected, exiting program!");
-                    DrawClient.setServerConnectionClosed();
+                    // The client reconnects once this thread is done
+                    System.out.println("The server disconnected!");
                     return;
                 }else{
                     // Handle the received message
@@ -50,15 +50,16 @@ public class MessageReader extends Thread {
                 }
             }
         } catch (IOException e) {
-            // Something unexpected went wrong
+            // The connection dropped, the client reconnects once this thread is done
             System.out.println(e.getMessage());
-            DrawClient.setServerConnectionClosed();
         }
     }
 
     /**
      * Handle a system or regular message.
      * System messages triggers an action, and regular messages are printed to the GUI.
+     * Messages are decoded on this thread, while the GUI updates they cause are queued and applied
+     * in batches on the event dispatch thread.
      * @param message The message to handle.
      */
     private void handleMessage(String message) {
@@ -81,6 +82,19 @@ public class MessageReader extends Thread {
                     // Tell the server we accept the role with an ACK command
                     MessageWriter.addTcpSystemMessage(new Command(CommandType.NEXT_PAINTER_ACK, null).toString());
                 }
+                case PING -> { // Server measures the connection
+                    // Answer with the same data
+                    MessageWriter.addTcpSystemMessage(new Command(CommandType.PONG, command.data()).toString());
+                }
+                case TILE_CHECKSUMS -> { // Detect if the canvas has drifted from the server's canvas
+                    TileSync.handleChecksums(command.data());
+                }
+                case TILE_DATA -> { // Repair a drifted tile
+                    TileSync.handleTileData(command.data());
+                }
+                case LEADERBOARD -> { // Update the changed rows of the leaderboard
+                    Gui.updateLeaderboard(command.data());
+                }
                 case END_ROUND -> { // End current round
                     DrawClient.endRound();
                 }
@@ -88,15 +102,18 @@ public class MessageReader extends Thread {
                     String interruptMessage = String.join(":", command.data()); // Reconstruct message from data
                     Gui.addChatMessage(interruptMessage);
                 }
-                case ID -> { // Set ID
+                case ID -> { // Set ID, and the token to resume the session with
                     try {
                         int clientId = Integer.parseInt(command.data().get(0)); // Get ID from command data
-                        DrawClient.setId(clientId);
+                        DrawClient.startSession(clientId, command.data().size() > 1 ? command.data().get(1) : null);
                     } catch (NumberFormatException e) {
                         System.out.println("The received ID was not a valid integer!\n" + e.getMessage());
                         DrawClient.setServerConnectionClosed();
                     }
                 }
+                case RESUME -> { // The session was resumed, the messages sent while away follow
+                    DrawClient.resumeSession(command.data().get(1));
+                }
                 case SECRET_WORD -> { // Set secret word
                     DrawClient.setSecretWord(command.data().get(0)); // Set secret word from command data
                 }
@@ -1,7 +1,6 @@
 package Network;
 
 import java.io.PrintWriter;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 
@@ -10,8 +9,8 @@ import java.util.concurrent.TimeUnit;
  */
 public class MessageWriter extends Thread {
     private final PrintWriter out;
-    // The chat buffer containing outgoing messages
-    private final static BlockingQueue<String> blockingChatQueue = new LinkedBlockingDeque<>();
+    // The chat buffer containing outgoing messages, kept while the client reconnects
+    private final static LinkedBlockingDeque<String> blockingChatQueue = new LinkedBlockingDeque<>();
     private volatile boolean alive = true; // Flag for thread to know when to return
 
     /**
@@ -31,6 +30,8 @@ public class MessageWriter extends Thread {
 
     /**
      * Constantly looks in the chat buffer for new messages to send to the server.
+     * When the connection fails, the message that couldn't be sent is put back for the next connection and the
+     * thread stops. Messages that were written shortly before the connection broke may still be lost.
      */
     @Override
     public void run() {
@@ -43,6 +44,10 @@ public class MessageWriter extends Thread {
                 message = blockingChatQueue.poll(1,TimeUnit.SECONDS);
                 if(message != null){
                     out.println(message);
+                    if(out.checkError()){
+                        blockingChatQueue.addFirst(message);
+                        return;
+                    }
                 }
             }
         } catch (InterruptedException e) {
@@ -63,6 +68,16 @@ public class MessageWriter extends Thread {
         }
     }
 
+    /**
+     * Drop the messages that have gone stale while the client reconnected: the system messages, which answer the
+     * previous connection, and optionally the guesses, which belong to the previous player.
+     * @param dropGuesses If the queued guesses should be dropped as well.
+     */
+    public static void dropStaleMessages(boolean dropGuesses) {
+        blockingChatQueue.removeIf(message -> message.startsWith("/s ")
+                || (dropGuesses && message.startsWith("/g ")));
+    }
+
     /**
      * Add a system message to the outgoing message buffer.
      * @param message the message to add.
@@ -0,0 +1,86 @@
+package Network;
+
+import Client.DrawClient;
+import Utility.SystemUtility.*;
+import Utility.TileRaster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the canvas with the tile checksums broadcast by the server to recover from lost drawing datagrams.
+ * Guessers fetch the tiles that differ from the server, while the painter sends its own exact tiles
+ * to the server. Only tiles that are no longer being drawn on are synchronized.
+ */
+public class TileSync {
+    private static int[] previousChecksums = null; // The server's checksums from the previous broadcast
+
+    /**
+     * Forget the previous checksums before a new round.
+     */
+    public static synchronized void reset() {
+        previousChecksums = null;
+    }
+
+    /**
+     * Compare the canvas with the server's checksums and repair the tiles that have drifted.
+     * @param data The checksum of every non-empty tile as "index=checksum".
+     */
+    public static synchronized void handleChecksums(List<String> data) {
+        // Parse the checksums, tiles that are missing are empty
+        int[] checksums = new int[TileRaster.TILE_COUNT];
+        try {
+            for (String datum : data) {
+                String[] parts = datum.split("=");
+                int tile = Integer.parseInt(parts[0]);
+                if (tile >= 0 && tile < checksums.length) {
+                    checksums[tile] = Integer.parseUnsignedInt(parts[1], 16);
+                }
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.out.println("Tile checksums were malformed: " + e.getMessage());
+            return;
+        }
+
+        int[] localChecksums = DrawClient.getPaper().getTileChecksums();
+        List<String> requestedTiles = new ArrayList<>();
+        for (int tile = 0; tile < checksums.length; tile++) {
+            // Skip tiles that match, or that changed since the last broadcast since they may still be drawn on
+            boolean stable = previousChecksums != null && previousChecksums[tile] == checksums[tile];
+            if (localChecksums[tile] == checksums[tile] || !stable) {
+                continue;
+            }
+            if (DrawClient.isClientCurrentPainter()) {
+                // The painter's canvas is exact, repair the server's tile
+                MessageWriter.addTcpSystemMessage(new Command(CommandType.TILE_DATA, List.of(String.valueOf(tile),
+                        TileRaster.encodeTile(DrawClient.getPaper().getTile(tile)))).toString());
+            } else if (checksums[tile] == 0) {
+                // The tile is empty on the server, no need to fetch it
+                DrawClient.getPaper().replaceTile(tile, null);
+            } else {
+                requestedTiles.add(String.valueOf(tile));
+            }
+        }
+        if (!requestedTiles.isEmpty()) {
+            MessageWriter.addTcpSystemMessage(new Command(CommandType.TILE_REQUEST, requestedTiles).toString());
+        }
+        previousChecksums = checksums;
+    }
+
+    /**
+     * Replace a tile of the canvas with the server's version of it.
+     * @param data The index of the tile followed by the encoded tile.
+     */
+    public static void handleTileData(List<String> data) {
+        try {
+            int tile = Integer.parseInt(data.get(0));
+            // An empty tile is encoded as an empty string, which isn't part of the data
+            long[] bits = TileRaster.decodeTile(data.size() > 1 ? data.get(1) : "");
+            if (tile >= 0 && tile < TileRaster.TILE_COUNT) {
+                DrawClient.getPaper().replaceTile(tile, bits);
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            System.out.println("Tile data was malformed: " + e.getMessage());
+        }
+    }
+}
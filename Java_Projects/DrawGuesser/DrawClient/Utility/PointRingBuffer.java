@@ -0,0 +1,138 @@
+package Utility;
+
+/**
+ * A bounded, preallocated queue of packed points and their kinds, stored in parallel primitive arrays.
+ * An erased rectangle is queued as two consecutive corner points, so that it keeps its order among the points.
+ * Adding and taking points doesn't allocate any objects. When the queue is full, new points are dropped
+ * instead of blocking the thread that draws them.
+ */
+public class PointRingBuffer {
+    private static final byte POINT = 0; // The point continues the current stroke
+    private static final byte STROKE_START = 1; // The point starts a new stroke
+    private static final byte ERASE = 2; // The point and the next point are the corners of an erased rectangle
+    private final long[] points; // Ring buffer of points packed with PointSet.pack
+    private final byte[] kinds; // The kind of each point
+    private int head = 0; // The index of the oldest point
+    private int size = 0; // The number of queued points
+    private long dropped = 0; // The number of points dropped because the queue was full
+
+    /**
+     * Initialize an empty queue.
+     * @param capacity The max number of queued points.
+     */
+    public PointRingBuffer(int capacity) {
+        points = new long[capacity];
+        kinds = new byte[capacity];
+    }
+
+    /**
+     * Add a point to the queue, or drop it if the queue is full.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @param strokeStart If the point starts a new stroke.
+     * @return True if the point was added; otherwise, false.
+     */
+    public synchronized boolean offer(int x, int y, boolean strokeStart) {
+        if (size == points.length) {
+            dropped++;
+            return false;
+        }
+        put(x, y, strokeStart ? STROKE_START : POINT);
+        return true;
+    }
+
+    /**
+     * Add an erased rectangle to the queue, or drop it if the queue doesn't have room for both corners.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     * @return True if the rectangle was added; otherwise, false.
+     */
+    public synchronized boolean offerErase(int left, int top, int right, int bottom) {
+        if (size + 2 > points.length) {
+            dropped++;
+            return false;
+        }
+        put(left, top, ERASE);
+        put(right, bottom, ERASE);
+        return true;
+    }
+
+    /**
+     * Add a point at the tail of the queue, which must have room for it.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @param kind The kind of the point.
+     */
+    private void put(int x, int y, byte kind) {
+        int tail = (head + size) % points.length;
+        points[tail] = PointSet.pack(x, y);
+        kinds[tail] = kind;
+        size++;
+        // Wake up the thread waiting for a point
+        if (size == 1) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until a point is available.
+     * @param timeout The max time to wait in milliseconds.
+     * @return True if a point is available; otherwise, false if the wait timed out.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public synchronized boolean await(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (size == 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Get the oldest point without removing it.
+     * @return The packed point, only valid if the queue isn't empty.
+     */
+    public synchronized long peekPoint() {
+        return points[head];
+    }
+
+    /**
+     * Check if the oldest point starts a new stroke.
+     * @return True if it starts a new stroke, only valid if the queue isn't empty.
+     */
+    public synchronized boolean peekStrokeStart() {
+        return kinds[head] == STROKE_START;
+    }
+
+    /**
+     * Check if the oldest point is the first corner of an erased rectangle, followed by the opposite corner.
+     * @return True if it's an erased rectangle, only valid if the queue isn't empty.
+     */
+    public synchronized boolean peekErase() {
+        return kinds[head] == ERASE;
+    }
+
+    /**
+     * Remove the oldest point.
+     */
+    public synchronized void remove() {
+        if (size > 0) {
+            head = (head + 1) % points.length;
+            size--;
+        }
+    }
+
+    /**
+     * Get the number of points that were dropped because the queue was full.
+     * @return The number of dropped points.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
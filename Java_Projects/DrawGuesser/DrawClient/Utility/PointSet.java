@@ -0,0 +1,213 @@
+package Utility;
+
+import java.util.Arrays;
+
+/**
+ * A set of points where each point is packed into a primitive long, stored in an open-addressing hash table
+ * with linear probing. Adding, removing and iterating points doesn't allocate any objects, except when the
+ * table has to grow. The set is not thread safe, the owner must provide mutual exclusion.
+ */
+public class PointSet {
+    public static final long EMPTY = Long.MIN_VALUE; // Marks an unused slot, the point (Integer.MIN_VALUE, 0)
+    private long[] table; // The slots of the hash table
+    private int size = 0; // The number of points in the set
+
+    /**
+     * Initialize an empty set.
+     * @param expectedSize The number of points the set can hold before it has to grow.
+     */
+    public PointSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        table = newTable(capacity);
+    }
+
+    /**
+     * Pack the coordinates of a point into a long.
+     * @param x The x-coordinate.
+     * @param y The y-coordinate.
+     * @return The packed point.
+     */
+    public static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the x-coordinate of a packed point.
+     * @param point The packed point.
+     * @return The x-coordinate.
+     */
+    public static int unpackX(long point) {
+        return (int) (point >> 32);
+    }
+
+    /**
+     * Get the y-coordinate of a packed point.
+     * @param point The packed point.
+     * @return The y-coordinate.
+     */
+    public static int unpackY(long point) {
+        return (int) point;
+    }
+
+    /**
+     * Add a point to the set.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return True if the point was added; otherwise, false if it was already in the set.
+     */
+    public boolean add(int x, int y) {
+        long point = pack(x, y);
+        if (point == EMPTY) {
+            return false;
+        }
+        int mask = table.length - 1;
+        int slot = hash(point) & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == point) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = point;
+        size++;
+        // Keep the load factor at most 1/2 so that probe sequences stay short
+        if (size * 2 > table.length) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Check if a point is in the set.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return True if the point is in the set; otherwise, false.
+     */
+    public boolean contains(int x, int y) {
+        return findSlot(pack(x, y)) >= 0;
+    }
+
+    /**
+     * Remove a point from the set.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return True if the point was removed; otherwise, false if it wasn't in the set.
+     */
+    public boolean remove(int x, int y) {
+        int slot = findSlot(pack(x, y));
+        if (slot < 0) {
+            return false;
+        }
+        // Shift the following points of the probe sequence back instead of leaving a tombstone
+        int mask = table.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (table[next] != EMPTY) {
+            int home = hash(table[next]) & mask;
+            // Move the point into the hole unless its home slot lies cyclically after the hole
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[hole] = EMPTY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Remove all points from the set, keeping the capacity.
+     */
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Get the number of points in the set.
+     * @return The number of points.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of slots, used for iterating the set with {@link #getSlot(int)}.
+     * @return The number of slots.
+     */
+    public int getSlotCount() {
+        return table.length;
+    }
+
+    /**
+     * Get the packed point in a slot.
+     * @param slot The index of the slot.
+     * @return The packed point, or {@link #EMPTY} if the slot is unused.
+     */
+    public long getSlot(int slot) {
+        return table[slot];
+    }
+
+    /**
+     * Find the slot of a packed point.
+     * @param point The packed point.
+     * @return The index of the slot, or -1 if the point isn't in the set.
+     */
+    private int findSlot(long point) {
+        if (point == EMPTY) {
+            return -1;
+        }
+        int mask = table.length - 1;
+        int slot = hash(point) & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == point) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Double the capacity of the table and insert all points again.
+     */
+    private void grow() {
+        long[] old = table;
+        table = newTable(old.length * 2);
+        int mask = table.length - 1;
+        for (long point : old) {
+            if (point != EMPTY) {
+                int slot = hash(point) & mask;
+                while (table[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = point;
+            }
+        }
+    }
+
+    /**
+     * Create a table where every slot is unused.
+     * @param capacity The number of slots, a power of two.
+     * @return The table.
+     */
+    private static long[] newTable(int capacity) {
+        long[] table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    /**
+     * Spread the bits of a packed point so that nearby points end up in different slots.
+     * @param point The packed point.
+     * @return The hash.
+     */
+    private static int hash(long point) {
+        long h = point * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
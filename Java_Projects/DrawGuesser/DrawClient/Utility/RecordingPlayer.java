@@ -0,0 +1,92 @@
+package Utility;
+
+/**
+ * Plays the events of a round recording back to a listener, at the speed they were recorded or faster.
+ */
+public class RecordingPlayer {
+    /**
+     * Receives the events of a recording as they are played back.
+     */
+    public interface Listener {
+        /**
+         * A point was drawn by the painter.
+         * @param x The x-coordinate of the point.
+         * @param y The y-coordinate of the point.
+         * @param strokeStart If the point starts a new stroke.
+         */
+        void onPoint(int x, int y, boolean strokeStart);
+
+        /**
+         * A rectangle was erased by the painter.
+         * @param left The smallest x-coordinate of the rectangle.
+         * @param top The smallest y-coordinate of the rectangle.
+         * @param right The largest x-coordinate of the rectangle.
+         * @param bottom The largest y-coordinate of the rectangle.
+         */
+        void onErase(int left, int top, int right, int bottom);
+
+        /**
+         * A chat message was broadcast to the room.
+         * @param message The message.
+         */
+        void onChat(String message);
+
+        /**
+         * A system message was sent.
+         * @param command The command and its data, as sent after "/s ".
+         */
+        void onSystem(String command);
+    }
+
+    private final RecordingReader reader; // The recording to play
+    private final double speed; // How many times faster than recorded to play, or 0 to play without waiting
+    private volatile boolean alive = true;
+
+    /**
+     * Kill the playback, it stops before the next event.
+     */
+    public void kill() {
+        alive = false;
+    }
+
+    /**
+     * Initialize the player.
+     * @param reader The recording to play.
+     * @param speed How many times faster than recorded to play, such as 1 for real time, or 0 to play
+     *              every event without waiting.
+     */
+    public RecordingPlayer(RecordingReader reader, double speed) {
+        this.reader = reader;
+        this.speed = speed;
+    }
+
+    /**
+     * Play the rest of the recording on the calling thread, waiting until each event is due.
+     * @param listener Receives the events.
+     * @return The number of played events.
+     * @throws InterruptedException If the thread was interrupted while waiting for an event.
+     */
+    public long play(Listener listener) throws InterruptedException {
+        long begin = System.nanoTime();
+        long played = 0;
+        while (alive && reader.next()) {
+            if (speed > 0) {
+                long wait = begin + (long) (reader.getTime() * 1_000_000 / speed) - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                }
+            }
+            switch (reader.getType()) {
+                case POINT -> listener.onPoint(reader.getX(), reader.getY(),
+                        (reader.getFlags() & SystemUtility.STROKE_START) != 0);
+                case ERASE -> listener.onErase(reader.getX(), reader.getY(), reader.getRight(), reader.getBottom());
+                case CHAT -> listener.onChat(reader.getText());
+                case SYSTEM -> listener.onSystem(reader.getText());
+                case END -> {
+                }
+            }
+            played++;
+        }
+        return played;
+    }
+}
@@ -0,0 +1,319 @@
+package Utility;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+
+/**
+ * A raster of the drawn points on the canvas, split into square tiles with a cheap checksum each.
+ * Used for bridging the canvas between the server and client side code, so that a client can detect
+ * and fetch only the tiles that have drifted from the canonical canvas.
+ * The raster is not thread safe, the owner must provide mutual exclusion.
+ */
+public class TileRaster {
+    // The number of tile columns and rows on the canvas
+    public static final int TILES_X = (SystemUtility.CANVAS_WIDTH + SystemUtility.TILE_SIZE - 1) / SystemUtility.TILE_SIZE;
+    public static final int TILES_Y = (SystemUtility.CANVAS_HEIGHT + SystemUtility.TILE_SIZE - 1) / SystemUtility.TILE_SIZE;
+    public static final int TILE_COUNT = TILES_X * TILES_Y; // The number of tiles on the canvas
+    private static final int BITS_PER_TILE = SystemUtility.TILE_SIZE * SystemUtility.TILE_SIZE; // One bit per pixel
+    private static final int WORDS_PER_TILE = BITS_PER_TILE / 64; // The number of longs that store a tile
+
+    private final long[][] tiles = new long[TILE_COUNT][]; // The bits of each tile, null if the tile is empty
+    private final int[] checksums = new int[TILE_COUNT]; // The cached checksum of each tile
+    private final boolean[] dirty = new boolean[TILE_COUNT]; // If the cached checksum of a tile is outdated
+
+    /**
+     * Mark a point as drawn, points outside the canvas are ignored.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return The index of the tile that changed, or -1 if nothing changed.
+     */
+    public int set(int x, int y) {
+        int tile = getTileIndex(x, y);
+        if (tile < 0) {
+            return -1;
+        }
+        if (tiles[tile] == null) {
+            tiles[tile] = new long[WORDS_PER_TILE];
+        }
+        int bit = getBitIndex(x, y);
+        long mask = 1L << (bit & 63);
+        if ((tiles[tile][bit >>> 6] & mask) != 0) {
+            return -1;
+        }
+        tiles[tile][bit >>> 6] |= mask;
+        dirty[tile] = true;
+        return tile;
+    }
+
+    /**
+     * Check if a point is drawn.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return True if the point is on the canvas and drawn; otherwise, false.
+     */
+    public boolean get(int x, int y) {
+        int tile = getTileIndex(x, y);
+        if (tile < 0 || tiles[tile] == null) {
+            return false;
+        }
+        int bit = getBitIndex(x, y);
+        return (tiles[tile][bit >>> 6] & (1L << (bit & 63))) != 0;
+    }
+
+    /**
+     * Clear the drawn points within a rectangle, the parts outside the canvas are ignored.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     * @return True if any point was cleared; otherwise, false.
+     */
+    public boolean clearRect(int left, int top, int right, int bottom) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, SystemUtility.CANVAS_WIDTH - 1);
+        bottom = Math.min(bottom, SystemUtility.CANVAS_HEIGHT - 1);
+        if (left > right || top > bottom) {
+            return false;
+        }
+        boolean cleared = false;
+        // Only visit the tiles that overlap the rectangle
+        for (int tileY = top / SystemUtility.TILE_SIZE; tileY <= bottom / SystemUtility.TILE_SIZE; tileY++) {
+            for (int tileX = left / SystemUtility.TILE_SIZE; tileX <= right / SystemUtility.TILE_SIZE; tileX++) {
+                int tile = tileY * TILES_X + tileX;
+                long[] bits = tiles[tile];
+                if (bits == null) {
+                    continue;
+                }
+                int fromX = Math.max(left, tileX * SystemUtility.TILE_SIZE);
+                int toX = Math.min(right, (tileX + 1) * SystemUtility.TILE_SIZE - 1);
+                int fromY = Math.max(top, tileY * SystemUtility.TILE_SIZE);
+                int toY = Math.min(bottom, (tileY + 1) * SystemUtility.TILE_SIZE - 1);
+                boolean tileChanged = false;
+                for (int y = fromY; y <= toY; y++) {
+                    for (int x = fromX; x <= toX; x++) {
+                        int bit = getBitIndex(x, y);
+                        long mask = 1L << (bit & 63);
+                        if ((bits[bit >>> 6] & mask) != 0) {
+                            bits[bit >>> 6] &= ~mask;
+                            tileChanged = true;
+                        }
+                    }
+                }
+                if (tileChanged) {
+                    cleared = true;
+                    dirty[tile] = true;
+                    // Keep empty tiles as null, so that they are skipped like tiles that were never drawn to
+                    boolean empty = true;
+                    for (long word : bits) {
+                        if (word != 0) {
+                            empty = false;
+                            break;
+                        }
+                    }
+                    if (empty) {
+                        tiles[tile] = null;
+                        checksums[tile] = 0;
+                        dirty[tile] = false;
+                    }
+                }
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * Clear all tiles.
+     */
+    public void clear() {
+        for (int i = 0; i < TILE_COUNT; i++) {
+            tiles[i] = null;
+            checksums[i] = 0;
+            dirty[i] = false;
+        }
+    }
+
+    /**
+     * Get the checksum of a tile. An empty tile always has the checksum 0.
+     * @param tile The index of the tile.
+     * @return The checksum.
+     */
+    public int getChecksum(int tile) {
+        if (dirty[tile]) {
+            long hash = 0;
+            for (long word : tiles[tile]) {
+                hash = Long.rotateLeft(hash, 7) ^ (word * 0x9E3779B97F4A7C15L);
+            }
+            checksums[tile] = (int) (hash ^ (hash >>> 32));
+            dirty[tile] = false;
+        }
+        return checksums[tile];
+    }
+
+    /**
+     * Get a copy of the bits of a tile.
+     * @param tile The index of the tile.
+     * @return The bits of the tile in row-major order, or null if the tile is empty.
+     */
+    public long[] getTile(int tile) {
+        return tiles[tile] == null ? null : tiles[tile].clone();
+    }
+
+    /**
+     * Replace the bits of a tile.
+     * @param tile The index of the tile.
+     * @param bits The bits of the tile in row-major order, or null to empty the tile.
+     */
+    public void setTile(int tile, long[] bits) {
+        tiles[tile] = bits == null ? null : bits.clone();
+        checksums[tile] = 0;
+        dirty[tile] = bits != null;
+    }
+
+    /**
+     * Get the x-coordinate of the left edge of a tile.
+     * @param tile The index of the tile.
+     * @return The x-coordinate.
+     */
+    public static int getTileX(int tile) {
+        return (tile % TILES_X) * SystemUtility.TILE_SIZE;
+    }
+
+    /**
+     * Get the y-coordinate of the top edge of a tile.
+     * @param tile The index of the tile.
+     * @return The y-coordinate.
+     */
+    public static int getTileY(int tile) {
+        return (tile / TILES_X) * SystemUtility.TILE_SIZE;
+    }
+
+    /**
+     * Check if a bit of a tile is set.
+     * @param bits The bits of the tile in row-major order.
+     * @param dx The x-coordinate within the tile.
+     * @param dy The y-coordinate within the tile.
+     * @return True if the bit is set; otherwise, false.
+     */
+    public static boolean isSet(long[] bits, int dx, int dy) {
+        int bit = dy * SystemUtility.TILE_SIZE + dx;
+        return (bits[bit >>> 6] & (1L << (bit & 63))) != 0;
+    }
+
+    /**
+     * Encode the bits of a tile as alternating run lengths of unset and set bits, stored as
+     * variable-length integers in Base64 so that it can be sent as command data.
+     * @param bits The bits of the tile in row-major order, or null if the tile is empty.
+     * @return The encoded tile.
+     */
+    public static String encodeTile(long[] bits) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (bits != null) {
+            boolean current = false; // Runs start with unset bits
+            int run = 0;
+            for (int bit = 0; bit < BITS_PER_TILE; bit++) {
+                boolean set = (bits[bit >>> 6] & (1L << (bit & 63))) != 0;
+                if (set != current) {
+                    writeVarInt(out, run);
+                    current = set;
+                    run = 0;
+                }
+                run++;
+            }
+            // The trailing run of unset bits is implied
+            if (current) {
+                writeVarInt(out, run);
+            }
+        }
+        return Base64.getEncoder().withoutPadding().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * Decode a tile that was encoded with {@link #encodeTile(long[])}.
+     * @param encoded The encoded tile.
+     * @return The bits of the tile in row-major order, or null if the tile is empty.
+     * @throws IllegalArgumentException If the encoded tile is malformed.
+     */
+    public static long[] decodeTile(String encoded) throws IllegalArgumentException {
+        byte[] data = Base64.getDecoder().decode(encoded);
+        if (data.length == 0) {
+            return null;
+        }
+        long[] bits = new long[WORDS_PER_TILE];
+        int bit = 0;
+        boolean set = false;
+        int[] position = {0};
+        while (position[0] < data.length) {
+            int run = readVarInt(data, position);
+            if (run < 0 || bit + run > BITS_PER_TILE) {
+                throw new IllegalArgumentException("The encoded tile is out of bounds.");
+            }
+            if (set) {
+                for (int i = bit; i < bit + run; i++) {
+                    bits[i >>> 6] |= 1L << (i & 63);
+                }
+            }
+            bit += run;
+            set = !set;
+        }
+        return bits;
+    }
+
+    /**
+     * Get the index of the tile that a point is in.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return The index of the tile, or -1 if the point is outside the canvas.
+     */
+    private static int getTileIndex(int x, int y) {
+        if (x < 0 || y < 0 || x >= SystemUtility.CANVAS_WIDTH || y >= SystemUtility.CANVAS_HEIGHT) {
+            return -1;
+        }
+        return (y / SystemUtility.TILE_SIZE) * TILES_X + x / SystemUtility.TILE_SIZE;
+    }
+
+    /**
+     * Get the index of a point's bit within its tile.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return The index of the bit.
+     */
+    private static int getBitIndex(int x, int y) {
+        return (y % SystemUtility.TILE_SIZE) * SystemUtility.TILE_SIZE + x % SystemUtility.TILE_SIZE;
+    }
+
+    /**
+     * Write a non-negative integer using 7 bits per byte, where the high bit marks that more bytes follow.
+     * @param out The stream to write to.
+     * @param value The integer to write.
+     */
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while (value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Read an integer written by {@link #writeVarInt(ByteArrayOutputStream, int)}.
+     * @param data The data to read from.
+     * @param position The position to read at, advanced past the integer.
+     * @return The integer.
+     * @throws IllegalArgumentException If the integer is truncated.
+     */
+    private static int readVarInt(byte[] data, int[] position) throws IllegalArgumentException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= data.length) {
+                throw new IllegalArgumentException("The encoded tile is truncated.");
+            }
+            int b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("The encoded tile is malformed.");
+    }
+}
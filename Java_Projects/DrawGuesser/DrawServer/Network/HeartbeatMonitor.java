@@ -0,0 +1,170 @@
+package Network;
+
+import Network.Tcp.SessionManager;
+import Server.Client;
+import Server.ClientManager;
+import Server.ServerLog;
+import Server.ServerMetrics;
+import Utility.SystemUtility.*;
+import Utility.TimerWheel;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Sends every client a heartbeat through TCP at a fixed interval and disconnects clients that haven't sent
+ * anything for too long. Any message counts as a sign of life, so a client only needs to answer the heartbeats,
+ * which are the TCP pings that measure its link quality, when it has nothing else to say. Half-open connections,
+ * where the client is gone but the server's socket doesn't know it, are closed within the timeout instead of
+ * when the operating system gives up on them.
+ * The deadline of every client is kept in a timing wheel, so each tick only checks the clients whose deadline
+ * falls in it. A deadline that passes while the client has been heard from since is moved forward.
+ */
+public class HeartbeatMonitor extends Thread {
+    private static final long TICK = 100_000_000L; // The resolution of the deadlines in nanoseconds
+    private static final int WHEEL_SLOTS = 128; // Slots in the timing wheel, a turn covers 12.8 seconds
+    private static volatile HeartbeatMonitor instance = null; // The monitor, or null if heartbeats are disabled
+
+    private final long interval; // Time in nanoseconds between heartbeats
+    private final long timeout; // Time in nanoseconds without messages before a client is disconnected
+    private final TimerWheel<Watch> deadlines; // When each watched client must have been heard from
+    private final ConcurrentLinkedQueue<Watch> newWatches = new ConcurrentLinkedQueue<>(); // Clients to watch
+    private long nextHeartbeatTime; // The time the next heartbeats are due, in nanoseconds
+    private volatile boolean alive = true;
+
+    /**
+     * Kill this thread, the watched clients are no longer checked.
+     */
+    public void kill() {
+        alive = false;
+    }
+
+    /**
+     * Initialize the monitor and start sending heartbeats.
+     * @param interval Time in nanoseconds between heartbeats.
+     * @param timeout Time in nanoseconds without messages before a client is disconnected.
+     */
+    private HeartbeatMonitor(long interval, long timeout) {
+        super("heartbeat");
+        this.interval = interval;
+        this.timeout = timeout;
+        long now = System.nanoTime();
+        this.deadlines = new TimerWheel<>(WHEEL_SLOTS, TICK, now);
+        this.nextHeartbeatTime = now + interval;
+        setDaemon(true);
+        this.start();
+    }
+
+    /**
+     * Start sending heartbeats and disconnecting silent clients.
+     * @param intervalMillis Time in milliseconds between heartbeats.
+     * @param timeoutMillis Time in milliseconds without messages before a client is disconnected.
+     */
+    public static synchronized void startMonitoring(int intervalMillis, int timeoutMillis) {
+        if (instance == null) {
+            instance = new HeartbeatMonitor(intervalMillis * 1_000_000L, timeoutMillis * 1_000_000L);
+        }
+    }
+
+    /**
+     * Watch a client that was just accepted, disconnecting them if they go silent.
+     * @param client The client.
+     * @param socket The client's TCP socket, closed if they go silent.
+     */
+    public static void watch(Client client, Socket socket) {
+        HeartbeatMonitor monitor = instance;
+        if (monitor != null) {
+            monitor.newWatches.add(new Watch(client, socket));
+        }
+    }
+
+    /**
+     * Check if a client is connected and has been heard from within two heartbeat intervals, so that they
+     * can be trusted to answer in time. Clients are always responsive while heartbeats are disabled.
+     * @param client The client.
+     * @return True if the client is responsive; otherwise, false.
+     */
+    public static boolean isResponsive(Client client) {
+        HeartbeatMonitor monitor = instance;
+        if (client.isClosed()) {
+            return false;
+        }
+        return monitor == null || System.nanoTime() - client.getLastHeardTime() < 2 * monitor.interval;
+    }
+
+    /**
+     * Send heartbeats and check deadlines every tick while alive.
+     */
+    @Override
+    public void run() {
+        while (alive) {
+            try {
+                Thread.sleep(TICK / 1_000_000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            Watch watch;
+            while ((watch = newWatches.poll()) != null) {
+                deadlines.schedule(watch, watch.client().getLastHeardTime() + timeout);
+            }
+            if (now >= nextHeartbeatTime) {
+                nextHeartbeatTime = now + interval;
+                sendHeartbeats();
+            }
+            deadlines.advance(now, this::checkDeadline);
+        }
+    }
+
+    /**
+     * Send a heartbeat to every connected client, as a TCP ping that also measures their link.
+     */
+    private void sendHeartbeats() {
+        List<Client> clients = ClientManager.getClients();
+        for (Client client : clients) {
+            if (!client.isClosed()) {
+                client.addTcpSystemMessage(CommandType.PING,
+                        List.of(String.valueOf(client.getLinkQuality().nextTcpPing())));
+            }
+        }
+    }
+
+    /**
+     * Disconnect a client whose deadline has passed, unless they have been heard from since it was set.
+     * Clients that already disconnected are forgotten, and so are the old sockets of clients who resumed their
+     * session on a new one, which is watched on its own.
+     * @param watch The client and their socket.
+     */
+    private void checkDeadline(Watch watch) {
+        Client client = watch.client();
+        if (client.isClosed() || watch.socket().isClosed()) {
+            return;
+        }
+        long deadline = client.getLastHeardTime() + timeout;
+        if (deadline > System.nanoTime()) {
+            deadlines.schedule(watch, deadline);
+            return;
+        }
+        // Stop waiting for the client and end their session, a dead client isn't kept for a grace period,
+        // then close the socket so that their handler removes them
+        client.close();
+        SessionManager.end(client);
+        ServerMetrics.recordHeartbeatTimeout();
+        ServerLog.warn("heartbeat-timeout", client.getId(), "No message for " + timeout / 1_000_000 + " ms");
+        try {
+            watch.socket().close();
+        } catch (IOException e) {
+            ServerLog.warn("close-error", client.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * A watched client.
+     * @param client The client.
+     * @param socket The client's TCP socket.
+     */
+    private record Watch(Client client, Socket socket) {
+    }
+}
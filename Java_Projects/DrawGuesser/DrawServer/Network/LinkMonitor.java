@@ -0,0 +1,73 @@
+package Network;
+
+import Server.Client;
+import Server.ClientManager;
+import Utility.SystemUtility;
+import Utility.SystemUtility.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Periodically pings every client through UDP to measure their link quality,
+ * and places each client in the relay tier that suits their link.
+ * The TCP pings are sent as heartbeats by the {@link HeartbeatMonitor}.
+ */
+public class LinkMonitor {
+    private static final int PING_INTERVAL = 1000; // Time in milliseconds between pings
+    private final byte[] pingData = new byte[5]; // type, sequence number
+    private long nextPingTime = System.currentTimeMillis(); // The time the next pings are due
+
+    /**
+     * Get the time left until the next pings are due.
+     * @return The remaining time in milliseconds, at least 1.
+     */
+    public int getMillisUntilDue() {
+        return (int) Math.max(1, nextPingTime - System.currentTimeMillis());
+    }
+
+    /**
+     * Update the tier of every client and send them new pings, if the pings are due.
+     * @param udpSocket The socket that the drawing stream is relayed through.
+     * @throws IOException If a UDP ping couldn't be sent.
+     */
+    public void sendPingsIfDue(DatagramSocket udpSocket) throws IOException {
+        long now = System.currentTimeMillis();
+        if (now < nextPingTime) {
+            return;
+        }
+        nextPingTime = now + PING_INTERVAL;
+        List<Client> clients = ClientManager.getOpenClients();
+        for (Client client : clients) {
+            LinkQuality linkQuality = client.getLinkQuality();
+            // Decide the tier from the previous pings before sending new ones
+            linkQuality.updateTier();
+            // Ping through UDP
+            ByteBuffer byteBuffer = ByteBuffer.wrap(pingData);
+            byteBuffer.put((byte) PacketType.PING.ordinal());
+            byteBuffer.putInt(linkQuality.nextUdpPing());
+            udpSocket.send(new DatagramPacket(pingData, pingData.length, client.getAddress(), client.getUDP_PORT()));
+        }
+    }
+
+    /**
+     * Register a UDP PONG datagram: type, id, sequence number. A PONG is only registered if it came from the
+     * address and UDP port the client's pings are sent to, since otherwise anyone who knows a client's id could
+     * answer their pings and make their link look better or worse than it is.
+     * @param packet The received datagram and where it came from.
+     */
+    public void handlePong(DatagramPacket packet) {
+        if (packet.getLength() < SystemUtility.PONG_PACKET_SIZE) {
+            return;
+        }
+        ByteBuffer byteBuffer = ByteBuffer.wrap(packet.getData(), 1, packet.getLength() - 1);
+        Client client = ClientManager.getClient(byteBuffer.getInt());
+        if (client != null && packet.getPort() == client.getUDP_PORT()
+                && packet.getAddress().equals(client.getAddress())) {
+            client.getLinkQuality().onUdpPong(byteBuffer.getInt());
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package Network;
+
+/**
+ * Measures the round trip time and packet loss of a client's TCP and UDP connections through PING commands,
+ * and decides which quality of the relayed drawing stream the client should receive.
+ */
+public class LinkQuality {
+    private static final int WINDOW = 40; // Number of recent pings used for measuring loss, one lost ping is 2.5%
+    private static final long PONG_TIMEOUT = 2_000_000_000L; // Time in nanoseconds before a ping counts as lost
+    private static final double DECIMATED_LOSS = 0.05; // Min UDP loss for the DECIMATED tier
+    private static final double KEYFRAME_LOSS = 0.3; // Min UDP loss for the KEYFRAME tier
+    private static final double DECIMATED_RTT = 200; // Min round trip time in milliseconds for the DECIMATED tier
+    private static final double KEYFRAME_RTT = 600; // Min round trip time in milliseconds for the KEYFRAME tier
+    private static final double PROMOTE_FACTOR = 0.5; // Share of a tier's thresholds a link must be under to leave it
+    private static final long MIN_TIER_TIME = 10_000_000_000L; // Time in nanoseconds in a tier before a promotion
+
+    /**
+     * Qualities of the relayed drawing stream, from best to worst.
+     */
+    public enum Tier {
+        FULL, // Every relayed point, as fast as possible
+        DECIMATED, // Coarser strokes, relayed in fewer datagrams
+        KEYFRAME // One coarse batch of strokes per second
+    }
+
+    private final Channel tcp = new Channel(); // Pings sent through the TCP connection
+    private final Channel udp = new Channel(); // Pings sent through UDP
+    private volatile Tier tier = Tier.FULL; // The stream quality the client currently receives
+    private long tierTime = System.nanoTime(); // The time the client got its current tier, only used by the monitor
+
+    /**
+     * Register a new TCP ping.
+     * @return The sequence number to send with the ping.
+     */
+    public int nextTcpPing() {
+        return tcp.ping();
+    }
+
+    /**
+     * Register a new UDP ping.
+     * @return The sequence number to send with the ping.
+     */
+    public int nextUdpPing() {
+        return udp.ping();
+    }
+
+    /**
+     * Register an answer to a TCP ping.
+     * @param seq The sequence number of the answered ping.
+     */
+    public void onTcpPong(int seq) {
+        tcp.pong(seq);
+    }
+
+    /**
+     * Register an answer to a UDP ping.
+     * @param seq The sequence number of the answered ping.
+     */
+    public void onUdpPong(int seq) {
+        udp.pong(seq);
+    }
+
+    /**
+     * Get the smoothed round trip time of the TCP connection.
+     * @return The round trip time in milliseconds, or -1 if no ping has been answered.
+     */
+    public double getTcpRtt() {
+        return tcp.getRtt();
+    }
+
+    /**
+     * Get the smoothed round trip time of UDP.
+     * @return The round trip time in milliseconds, or -1 if no ping has been answered.
+     */
+    public double getUdpRtt() {
+        return udp.getRtt();
+    }
+
+    /**
+     * Get the share of recent TCP pings that weren't answered in time.
+     * @return The loss between 0 and 1.
+     */
+    public double getTcpLoss() {
+        return tcp.getLoss();
+    }
+
+    /**
+     * Get the share of recent UDP pings that weren't answered in time.
+     * @return The loss between 0 and 1.
+     */
+    public double getUdpLoss() {
+        return udp.getLoss();
+    }
+
+    /**
+     * Get the quality of the drawing stream that the client should receive.
+     * @return The tier.
+     */
+    public Tier getTier() {
+        return tier;
+    }
+
+    /**
+     * Update the tier from the latest measurements. A worse link is demoted immediately, while a better link is
+     * promoted one tier at a time to avoid flapping between tiers: only after it has spent some time in its tier,
+     * and only if it's well under the tier's thresholds, not just under them.
+     */
+    public void updateTier() {
+        double loss = udp.getLoss();
+        double rtt = udp.getRtt() >= 0 ? udp.getRtt() : tcp.getRtt();
+        long now = System.nanoTime();
+        Tier measured = measure(loss, rtt, 1);
+        if (measured.ordinal() > tier.ordinal()) {
+            tier = measured;
+            tierTime = now;
+        } else if (tier != Tier.FULL && now - tierTime >= MIN_TIER_TIME
+                && measure(loss, rtt, PROMOTE_FACTOR).ordinal() < tier.ordinal()) {
+            tier = Tier.values()[tier.ordinal() - 1];
+            tierTime = now;
+        }
+    }
+
+    /**
+     * Get the tier that a link's measurements fall into.
+     * @param loss The UDP loss between 0 and 1.
+     * @param rtt The round trip time in milliseconds.
+     * @param factor The share of each threshold to measure against, 1 for the thresholds themselves.
+     * @return The tier.
+     */
+    private static Tier measure(double loss, double rtt, double factor) {
+        if (loss >= KEYFRAME_LOSS * factor || rtt >= KEYFRAME_RTT * factor) {
+            return Tier.KEYFRAME;
+        } else if (loss >= DECIMATED_LOSS * factor || rtt >= DECIMATED_RTT * factor) {
+            return Tier.DECIMATED;
+        }
+        return Tier.FULL;
+    }
+
+    /**
+     * Keeps track of the pings sent through one connection.
+     */
+    private static class Channel {
+        private final long[] sendTimes = new long[WINDOW]; // The time each ping in the window was sent
+        private final boolean[] answered = new boolean[WINDOW]; // If each ping in the window was answered
+        private int nextSeq = 0; // The sequence number of the next ping
+        private double rtt = -1; // Smoothed round trip time in milliseconds
+
+        /**
+         * Register a new ping, replacing the oldest ping in the window.
+         * @return The sequence number of the ping.
+         */
+        synchronized int ping() {
+            int slot = nextSeq % WINDOW;
+            sendTimes[slot] = System.nanoTime();
+            answered[slot] = false;
+            return nextSeq++;
+        }
+
+        /**
+         * Register an answer to a ping, ignoring unknown, old, and duplicated answers.
+         * @param seq The sequence number of the answered ping.
+         */
+        synchronized void pong(int seq) {
+            if (seq < 0 || seq >= nextSeq || seq <= nextSeq - WINDOW || answered[seq % WINDOW]) {
+                return;
+            }
+            int slot = seq % WINDOW;
+            answered[slot] = true;
+            double sample = (System.nanoTime() - sendTimes[slot]) / 1_000_000.0;
+            // Exponentially weighted moving average of the round trip time
+            rtt = rtt < 0 ? sample : 0.8 * rtt + 0.2 * sample;
+        }
+
+        /**
+         * Get the smoothed round trip time.
+         * @return The round trip time in milliseconds, or -1 if no ping has been answered.
+         */
+        synchronized double getRtt() {
+            return rtt;
+        }
+
+        /**
+         * Get the share of pings in the window that have timed out without an answer.
+         * The loss is always measured against a full window, so that a ping lost shortly after connecting
+         * doesn't count as a large share of the few pings sent so far.
+         * @return The loss between 0 and 1.
+         */
+        synchronized double getLoss() {
+            long now = System.nanoTime();
+            int lost = 0;
+            for (int seq = Math.max(0, nextSeq - WINDOW); seq < nextSeq; seq++) {
+                int slot = seq % WINDOW;
+                if (!answered[slot] && now - sendTimes[slot] >= PONG_TIMEOUT) {
+                    lost++;
+                }
+            }
+            return (double) lost / WINDOW;
+        }
+    }
+}
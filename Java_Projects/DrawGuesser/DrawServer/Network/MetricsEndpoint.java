@@ -0,0 +1,59 @@
+package Network;
+
+import Server.ServerMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the server's metrics over HTTP in the Prometheus text format, at /metrics.
+ * The endpoint has a single thread of its own and only reads the metrics, so it can't slow the game down.
+ */
+public class MetricsEndpoint {
+    private final HttpServer httpServer; // Accepts the metrics requests
+    private final ServerMetrics metrics = new ServerMetrics(); // The metrics to serve
+
+    /**
+     * Kill the endpoint and release its port.
+     */
+    public void kill() {
+        httpServer.stop(0);
+    }
+
+    /**
+     * Initialize the endpoint and start listening.
+     * @param address The address and port to listen at, such as the loopback address to only serve local scrapers.
+     * @throws IOException If the port couldn't be bound.
+     */
+    public MetricsEndpoint(InetSocketAddress address) throws IOException {
+        httpServer = HttpServer.create(address, 0);
+        httpServer.createContext("/metrics", this::handleRequest);
+        httpServer.start();
+        System.out.println("Server is serving metrics at http://" + address.getHostString() + ":"
+                + httpServer.getAddress().getPort() + "/metrics");
+    }
+
+    /**
+     * Answer a request with the current metrics.
+     * @param exchange The request and its response.
+     * @throws IOException If the response couldn't be sent.
+     */
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.getPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package Network;
+
+import Utility.SystemUtility;
+
+/**
+ * Optional relay stage that buffers the painter's points for a few milliseconds and simplifies each stroke
+ * with Ramer-Douglas-Peucker before the points are relayed to the other clients.
+ * The painter's own canvas is never affected, only the relayed copy is simplified.
+ */
+public class StrokeSimplifier {
+    private final double toleranceSquared; // Max squared deviation in pixels of a removed point
+    private final long maxLatency; // Max time in nanoseconds that a point may be buffered
+    // Buffered coordinates, the max number of points in a STROKE datagram plus a slot for the anchor
+    private final int[] xs = new int[SystemUtility.MAX_STROKE_POINTS + 1]; // Buffered x-coordinates
+    private final int[] ys = new int[SystemUtility.MAX_STROKE_POINTS + 1]; // Buffered y-coordinates
+    private final boolean[] keep = new boolean[SystemUtility.MAX_STROKE_POINTS + 1]; // Points that survive
+    private final int[] stack = new int[2 * (SystemUtility.MAX_STROKE_POINTS + 1)]; // Ranges left to simplify
+    private int size = 0; // Number of buffered points, including the anchor
+    private boolean hasAnchor = false; // If xs[0], ys[0] is the last relayed point of the current stroke
+    private boolean strokeStart = false; // If the buffered points start a new stroke
+    private int sequence = 0; // The sequence number of the next STROKE datagram, wraps around at 16 bits
+    private long firstPointTime; // The time the oldest buffered point was received
+    private long pointsIn = 0; // Total number of points received
+    private long pointsOut = 0; // Total number of points relayed
+
+    /**
+     * Initialize the simplifier.
+     * @param tolerance The max distance in pixels that a removed point may deviate from the relayed stroke.
+     * @param maxLatency The max time in milliseconds that a point may be buffered before it is relayed.
+     */
+    public StrokeSimplifier(double tolerance, int maxLatency) {
+        this.toleranceSquared = tolerance * tolerance;
+        this.maxLatency = maxLatency * 1_000_000L;
+    }
+
+    /**
+     * Check if a new point has to flush the buffered points before it can be added.
+     * @param isStrokeStart If the new point starts a new stroke.
+     * @return True if the buffered points must be flushed first; otherwise, false.
+     */
+    public boolean mustFlushBefore(boolean isStrokeStart) {
+        // Without an anchor the extra slot stays unused, so that a flush never relays more than a datagram holds
+        int capacity = hasAnchor ? xs.length : xs.length - 1;
+        return hasPoints() && (isStrokeStart || size == capacity);
+    }
+
+    /**
+     * Buffer a point received from the painter. The buffer must have been flushed if
+     * {@link #mustFlushBefore(boolean)} returned true.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @param isStrokeStart If the point starts a new stroke.
+     */
+    public void addPoint(int x, int y, boolean isStrokeStart) {
+        if (isStrokeStart) {
+            // A new stroke can't be connected to the previously relayed point
+            hasAnchor = false;
+            size = 0;
+            strokeStart = true;
+        }
+        if (!hasPoints()) {
+            // The first buffered point decides when the buffer is due
+            firstPointTime = System.nanoTime();
+        }
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+        pointsIn++;
+    }
+
+    /**
+     * Check if there are any buffered points that haven't been relayed.
+     * @return True if there are points waiting; otherwise, false.
+     */
+    public boolean hasPoints() {
+        return size > (hasAnchor ? 1 : 0);
+    }
+
+    /**
+     * Get the time left until the buffered points have to be relayed.
+     * @return The remaining time in milliseconds, at least 1; or 0 if there's nothing buffered.
+     */
+    public int getMillisUntilDue() {
+        if (!hasPoints()) {
+            return 0;
+        }
+        long remaining = firstPointTime + maxLatency - System.nanoTime();
+        return (int) Math.max(1, remaining / 1_000_000L);
+    }
+
+    /**
+     * Check if the oldest buffered point has reached the latency cap.
+     * @return True if the buffered points have to be relayed now; otherwise, false.
+     */
+    public boolean isDue() {
+        return hasPoints() && System.nanoTime() - firstPointTime >= maxLatency;
+    }
+
+    /**
+     * Simplify the buffered points and write them as a STROKE datagram.
+     * The last relayed point is kept as an anchor so that the next flush continues the same stroke. Every datagram
+     * has the next sequence number, so that a client only joins a continuation to the last point it drew if the
+     * continuation directly follows it, and not after a lost or reordered datagram.
+     * @param packet The array to write the datagram to, must fit {@link SystemUtility#MAX_PACKET_SIZE} bytes.
+     * @return The length of the datagram in bytes, or 0 if there was nothing to relay.
+     */
+    public int flush(byte[] packet) {
+        if (!hasPoints()) {
+            return 0;
+        }
+        simplify();
+        // Write header: type, flags, sequence number, and a placeholder for the number of points
+        packet[0] = (byte) SystemUtility.PacketType.STROKE.ordinal();
+        packet[1] = strokeStart ? SystemUtility.STROKE_START : 0;
+        packet[2] = (byte) (sequence >> 8);
+        packet[3] = (byte) sequence;
+        sequence = (sequence + 1) & 0xFFFF;
+        int offset = 6;
+        int count = 0;
+        // The anchor has already been relayed, skip it
+        for (int i = hasAnchor ? 1 : 0; i < size; i++) {
+            if (keep[i]) {
+                offset = putInt(packet, offset, xs[i]);
+                offset = putInt(packet, offset, ys[i]);
+                count++;
+            }
+        }
+        packet[4] = (byte) (count >> 8);
+        packet[5] = (byte) count;
+        pointsOut += count;
+
+        // Keep the last point as the anchor of the next flush
+        xs[0] = xs[size - 1];
+        ys[0] = ys[size - 1];
+        size = 1;
+        hasAnchor = true;
+        strokeStart = false;
+        return offset;
+    }
+
+    /**
+     * Forget all buffered points, e.g. when the painter changes.
+     */
+    public void reset() {
+        size = 0;
+        hasAnchor = false;
+        strokeStart = false;
+    }
+
+    /**
+     * Get the total number of points received from painters.
+     * @return The number of points.
+     */
+    public long getPointsIn() {
+        return pointsIn;
+    }
+
+    /**
+     * Get the total number of points relayed after simplification.
+     * @return The number of points.
+     */
+    public long getPointsOut() {
+        return pointsOut;
+    }
+
+    /**
+     * Get the share of received points that were removed by simplification.
+     * @return The reduction ratio between 0 and 1.
+     */
+    public double getReductionRatio() {
+        return pointsIn == 0 ? 0 : 1 - (double) pointsOut / pointsIn;
+    }
+
+    /**
+     * Mark the buffered points to keep with an iterative Ramer-Douglas-Peucker.
+     * The first and last points of the buffer are always kept.
+     */
+    private void simplify() {
+        for (int i = 0; i < size; i++) {
+            keep[i] = false;
+        }
+        keep[0] = true;
+        keep[size - 1] = true;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            // Find the point furthest away from the line between first and last
+            double maxDistance = -1;
+            int furthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = distanceSquared(i, first, last);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    furthest = i;
+                }
+            }
+            // Keep the point and simplify both halves if it deviates too much
+            if (furthest >= 0 && maxDistance > toleranceSquared) {
+                keep[furthest] = true;
+                stack[top++] = first;
+                stack[top++] = furthest;
+                stack[top++] = furthest;
+                stack[top++] = last;
+            }
+        }
+    }
+
+    /**
+     * Get the squared distance from a point to the line segment between two other points.
+     * @param point The index of the point.
+     * @param first The index of the start of the segment.
+     * @param last The index of the end of the segment.
+     * @return The squared distance in pixels.
+     */
+    private double distanceSquared(int point, int first, int last) {
+        double dx = xs[last] - xs[first];
+        double dy = ys[last] - ys[first];
+        double px = xs[point] - xs[first];
+        double py = ys[point] - ys[first];
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            // The segment is a single point
+            return px * px + py * py;
+        }
+        // Project the point onto the segment and clamp it to the end points
+        double t = Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+        double ex = px - t * dx;
+        double ey = py - t * dy;
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * Write a big-endian integer into a byte array.
+     * @param array The array to write to.
+     * @param offset The position to write at.
+     * @param value The integer to write.
+     * @return The position after the integer.
+     */
+    private static int putInt(byte[] array, int offset, int value) {
+        array[offset] = (byte) (value >> 24);
+        array[offset + 1] = (byte) (value >> 16);
+        array[offset + 2] = (byte) (value >> 8);
+        array[offset + 3] = (byte) value;
+        return offset + 4;
+    }
+}
@@ -1,13 +1,24 @@
 package Network.Tcp;
 
+import Network.HeartbeatMonitor;
+import Server.CanvasManager;
+import Server.ChatFilter;
 import Server.ClientManager;
 import Utility.SystemUtility.*;
+import Utility.TokenBucket;
 import Server.Client;
 import Server.DrawServer;
+import Server.GuessDigest;
+import Server.Profile;
+import Server.ProfileStore;
+import Server.ServerLog;
+import Server.ServerMetrics;
+import Server.ServerMetrics.Rejection;
 
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
@@ -29,64 +40,103 @@ public class ClientConnectionHandler extends Thread{
 
     /**
      * Creates a client with username, udp port number, ID, and handles incoming messages from client.
+     * A client who presents a resume token gets their session back instead, if it hasn't ended.
      * The thread that handles outgoing messages to clients is also started here.
      */
     @Override
     public void run() {
         Client client = null;
         ClientMessageSender messageSender = null;
+        boolean handshaking = true; // If the client hasn't sent valid arguments yet
+        boolean resumed = false; // If the client resumed a session whose connection dropped
 
         // Try to create reader and writer
         try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
              PrintWriter out = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream(), StandardCharsets.ISO_8859_1), true)) {
-            // Get username and UDP port arguments from client
-            String response = in.readLine();
+            // Get username and UDP port arguments from client, who only has a limited time to send them
+            String response = readHandshake(in);
             Command command = Command.fromString(response);
-            // Validate client arguments
+            // Validate client arguments, resuming the client's session if they have a valid token
             if(command != null && command.commandType() == CommandType.CLIENT_ARGS){
-                client = tryAcceptClient(command.data(), clientSocket.getInetAddress());
+                client = SessionManager.tryResume(command.data(), clientSocket);
+                resumed = client != null;
+                if(!resumed){
+                    try{
+                        client = tryAcceptClient(command.data(), clientSocket.getInetAddress());
+                    }catch (SecurityException e){
+                        // Tell the player why they can't join before the connection closes
+                        out.println("/m " + e.getMessage());
+                        throw e;
+                    }
+                }
             }
             // Verify that the client was accepted
             if(client == null){
                 throw new IllegalArgumentException("The client did not provide valid arguments.");
             }
+            // The handshake is done, from now on heartbeats detect dead connections
+            clientSocket.setSoTimeout(0);
+            TcpServerController.finishHandshake();
+            handshaking = false;
+            // Send the client their ID and a token to resume their session with, ahead of the messages queued
+            // for a resumed client while they were away
+            String token = SessionManager.open(client, clientSocket);
+            out.println("/s " + new Command(resumed ? CommandType.RESUME : CommandType.ID,
+                    List.of(String.valueOf(client.getId()), token)));
             // Start a thread that sends the messages in the client's tcp message buffer
             messageSender = new ClientMessageSender(out, client);
             messageSender.start();
-            // Send the client their ID
-            client.addTcpSystemMessage(CommandType.ID, List.of(String.valueOf(client.getId())));
-            // Add client to the server's list of clients
-            DrawServer.addClient(client);
+            // Add client to the server's list of clients, a resumed client never left it
+            if(!resumed){
+                DrawServer.addClient(client);
+            }
+            // Disconnect the client if they stop answering heartbeats
+            HeartbeatMonitor.watch(client, clientSocket);
             // Announce and Log that the client has connected
             String username = client.getUsername();
-            ClientManager.broadcastMessage(username + " Connected!");
-            System.out.println("Client Connected!\tUsername: " + username +
-                    "\tID: " + client.getId() +
-                    "\tUDP-port: " + client.getUDP_PORT());
+            if(resumed){
+                ServerLog.info("resume", client.getId(), "Username: " + username + ", UDP port: "
+                        + client.getUDP_PORT());
+            }else{
+                ClientManager.broadcastMessage(username + " Connected!");
+                ServerLog.info("connect", client.getId(), "Username: " + username + ", UDP port: "
+                        + client.getUDP_PORT());
+            }
 
             // Handle incoming client messages while alive, or until the connection closes
             String message;
             while ((message = in.readLine()) != null) {
-                // Log all messages sent across the server
-                System.out.println("Received message from " + username + "/" + client.getId() + ": " + message);
+                // Any message shows that the connection is alive
+                client.markHeard();
+                // Log a sample of the messages sent across the server
+                ServerLog.message(client.getId(), message);
                 // Handle the messages
                 handleIncomingClientMessage(message, client);
             }
 
+        } catch (SocketTimeoutException e) {
+            ServerMetrics.recordRejection(Rejection.HANDSHAKE_TIMEOUT);
+            ServerLog.warn("handshake-timeout", -1, "Address: " + clientSocket.getInetAddress());
         } catch (IOException e) {
-            System.out.println("Error handling client: " + e);
+            ServerLog.warn("error", client != null ? client.getId() : -1, e.toString());
         } catch (IllegalArgumentException e){
-            System.out.println("Client rejected: " + e.getMessage());
+            ServerMetrics.recordRejection(Rejection.INVALID_HANDSHAKE);
+            ServerLog.warn("rejected", -1, e.getMessage());
+        } catch (SecurityException e){
+            ServerMetrics.recordRejection(Rejection.USERNAME_TAKEN);
+            ServerLog.warn("username-rejected", -1, e.getMessage() + " Address: " + clientSocket.getInetAddress());
         }finally {
+            if (handshaking) {
+                // Make room for another connection's handshake
+                TcpServerController.finishHandshake();
+            }
             if(client != null){
-                // Remove client from clients list and log disconnection if they were created
-                DrawServer.removeClient(client);
-                System.out.println("Client disconnected: " + client.getUsername());
-                ClientManager.broadcastMessage("Client Disconnected: " + client.getUsername());
+                // Stop waiting for the client, they may be back on another connection before this one is closed
+                client.close();
             }
 
             try {
-                // Kill the client's message sender first
+                // Kill the client's message sender first, the messages it couldn't send stay queued
                 if(messageSender != null){
                     messageSender.kill();
                     messageSender.join();
@@ -96,25 +146,75 @@ public class ClientConnectionHandler extends Thread{
                     clientSocket.close();
                 }
             } catch (IOException | InterruptedException e) {
-                System.out.println("Error closing client socket: " + e.getMessage());
+                ServerLog.warn("close-error", client != null ? client.getId() : -1, e.getMessage());
+            }
+
+            // Keep the client in the game while they may resume their session, then remove them
+            if(client != null && !SessionManager.awaitResume(client)){
+                // Remove client from clients list and log disconnection if they were created
+                DrawServer.removeClient(client);
+                ServerLog.info("disconnect", client.getId(), "Username: " + client.getUsername());
+                ClientManager.broadcastMessage("Client Disconnected: " + client.getUsername());
+                ClientManager.releaseUsername(client.getUsername());
             }
         }
     }
 
     /**
-     * Creates a new client if the username and udpPort arguments are valid.
-     * @param clientArgs The arguments to use following the structure: {"username","udpPort"}
+     * Read the line of arguments that starts the handshake. The whole line must arrive before the handshake's
+     * deadline and be short, so that a client can't hold a handshake open by sending it slowly or endlessly.
+     * @param in The reader of the client's connection.
+     * @return The line, or null if the connection closed first.
+     * @throws SocketTimeoutException If the deadline passed before the line ended.
+     * @throws IOException If the connection couldn't be read.
+     * @throws IllegalArgumentException If the line is too long.
+     */
+    private String readHandshake(BufferedReader in) throws IOException {
+        long deadline = System.nanoTime() + TcpServerController.HANDSHAKE_TIMEOUT * 1_000_000L;
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            // Every read may only wait for what is left of the time
+            long remaining = (deadline - System.nanoTime()) / 1_000_000;
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("The handshake took too long");
+            }
+            clientSocket.setSoTimeout((int) remaining);
+            int c = in.read();
+            if (c < 0) {
+                return line.isEmpty() ? null : line.toString();
+            }
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (c != '\r') {
+                if (line.length() >= TcpServerController.MAX_HANDSHAKE_LENGTH) {
+                    throw new IllegalArgumentException("The handshake is longer than "
+                            + TcpServerController.MAX_HANDSHAKE_LENGTH + " characters.");
+                }
+                line.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Creates a new client if the username, udpPort and key arguments are valid. The username must not be in use,
+     * and the key must be the one that claimed the username, if anyone has.
+     * @param clientArgs The arguments to use following the structure: {"username","udpPort","key"}, maybe followed
+     *                   by a resume token that didn't resume a session
      * @param clientAddress The IP address of the client (used for logging)
      * @return A client if the validation was successful; otherwise, null.
+     * @throws SecurityException If the username is in use or belongs to another player.
      */
     private static Client tryAcceptClient(List<String> clientArgs, InetAddress clientAddress){
         boolean usernameOk = false;
         boolean udpPortOk = false;
+        boolean keyOk = false;
         int udpPort = 0;
         String username = null;
+        String key = null;
 
-        // Ensure that there's exactly two arguments
-        if(clientArgs.size() == 2){
+        // Ensure that there's three arguments, or four with a resume token
+        if(clientArgs.size() == 3 || clientArgs.size() == 4){
             username = clientArgs.get(0);
             // Verify valid username
             if(username != null && !username.isEmpty()){
@@ -129,23 +229,66 @@ public class ClientConnectionHandler extends Thread{
             }catch (NumberFormatException e){
                 // Ignore
             }
+            // Verify valid key
+            key = clientArgs.get(2);
+            if(key != null && !key.isEmpty()){
+                keyOk = true;
+            }
         }
 
-        // Verify that username and udpPort are valid
-        if(usernameOk && udpPortOk){
-            // Create new client
-            return new Client(username, TcpServerController.getNextId(), udpPort, clientAddress);
+        // Verify that username, udpPort and key are valid
+        if(usernameOk && udpPortOk && keyOk){
+            // Only one client at a time may use a username
+            if(!ClientManager.reserveUsername(username)){
+                throw new SecurityException("The username " + username + " is already in the game.");
+            }
+            // Create new client with their stats from earlier sessions, usually cached for returning players,
+            // which only belong to the player who holds the key of the username
+            Profile profile = ProfileStore.load(username);
+            if(!profile.claim(key)){
+                ClientManager.releaseUsername(username);
+                throw new SecurityException("The username " + username + " belongs to another player.");
+            }
+            return new Client(username, TcpServerController.getNextId(), udpPort, clientAddress, profile);
         } else if (!usernameOk) {
             // Log that username is invalid
-            System.out.println("Username invalid for client: " + clientAddress);
+            ServerLog.warn("invalid-username", -1, "Address: " + clientAddress);
         }else if(!udpPortOk){
             // Log that UDP port is invalid
-            System.out.println("UDP port invalid for client: " + clientAddress);
+            ServerLog.warn("invalid-udp-port", -1, "Address: " + clientAddress);
+        }else{
+            // Log that key is invalid
+            ServerLog.warn("invalid-key", -1, "Address: " + clientAddress);
         }
         return null;
     }
 
 
+    /**
+     * Take a token from one of a client's rate limits. If there is none, the client is told once that they're
+     * sending too fast, until they send in time again. Each limit is told about on its own.
+     * @param client The client.
+     * @param limit The client's limit for the type of message.
+     * @param kind What the client is sending, for the notice, such as "messages".
+     * @return True if the client may send the message; otherwise, false.
+     */
+    private static boolean tryTakeToken(Client client, TokenBucket limit, String kind) {
+        long now = System.nanoTime();
+        if (limit.tryAcquire(now)) {
+            client.setThrottled(limit, false);
+            return true;
+        }
+        ServerMetrics.recordThrottled();
+        if (!client.isThrottled(limit)) {
+            client.setThrottled(limit, true);
+            long waitMillis = Math.max(1, limit.getWaitTime(now) / 1_000_000);
+            client.addTcpMessage("You're sending " + kind + " too fast, wait " + waitMillis
+                    + " ms! (Only you can see this)");
+            ServerLog.info("throttled", client.getId(), kind);
+        }
+        return false;
+    }
+
     /**
      * Interprets a client message and performs some action based on the contents.
      * This method handles client guesses, regular messages, and system messages.
@@ -157,13 +300,21 @@ public class ClientConnectionHandler extends Thread{
         if (message.startsWith("/g ")) {
             // Ensure that the client is not the painter
             if(!DrawServer.isCurrentPainter(client.getId())){
+                // Drop the guess if the client guesses too fast, which also keeps them from trying every word
+                if (!tryTakeToken(client, client.getGuessLimit(), "guesses")) {
+                    return;
+                }
                 message = message.substring(3);
-                //broadcast the guess
-                ClientManager.broadcastMessage("(" + client.getPoints() + ") " + client.getUsername() + " - Guessed: " + message);
+                int points = client.getPoints(); // The points before the guess, shown with the guess
                 // Check if the guess is correct
                 if (DrawServer.VerifyGuess(message,client)) {
-                    // The guess was correct, Broadcast victory message
+                    // The guess was correct, broadcast the guess and the victory message right away
+                    ClientManager.broadcastMessage("(" + points + ") " + client.getUsername() + " - Guessed: "
+                            + message);
                     ClientManager.broadcastMessage("(" + client.getPoints() + ") " + client.getUsername() + " Guessed The Correct Word!!!");
+                } else {
+                    // Broadcast the wrong guess, possibly gathered with others if the room is guessing fast
+                    GuessDigest.submit(points, client.getUsername(), ChatFilter.filterGuess(message));
                 }
             }else{
                 // Inform the client that guessing as the painter is not allowed
@@ -172,8 +323,12 @@ public class ClientConnectionHandler extends Thread{
         }
         // Handle regular messages
         else if (message.startsWith("/m ")) {
-            // Broadcast message to all clients
-            message = message.substring(3);
+            // Drop the message if the client chats too fast, every message is queued for every client
+            if (!tryTakeToken(client, client.getChatLimit(), "messages")) {
+                return;
+            }
+            // Broadcast message to all clients, without banned words or the secret word
+            message = ChatFilter.filterChat(message.substring(3));
             ClientManager.broadcastMessage("(" + client.getPoints() + ") " + client.getUsername() + " - " + message);
         }
         // Handle system messages
@@ -182,6 +337,34 @@ public class ClientConnectionHandler extends Thread{
             if(message.startsWith(CommandType.NEXT_PAINTER_ACK.toString())) {
                 // The client accepted to be the next painter, add it to the clients ACK response buffer
                 client.addAckResponse(message);
+            } else if (message.startsWith(CommandType.PONG.toString())) {
+                // The client answered a ping, register it to measure the connection
+                Command command = Command.fromString(message);
+                try {
+                    if (command != null && !command.data().isEmpty()) {
+                        client.getLinkQuality().onTcpPong(Integer.parseInt(command.data().get(0)));
+                    }
+                } catch (NumberFormatException e) {
+                    ServerLog.warn("malformed-pong", client.getId(), e.getMessage());
+                }
+            } else if (message.startsWith(CommandType.TILE_REQUEST.toString())) {
+                // The client's canvas has drifted, send the requested tiles. A client that requests faster than
+                // the checksums are broadcast is dropped without a notice, an honest client asks again after the
+                // next broadcast
+                if (!client.getTileRequestLimit().tryAcquire()) {
+                    ServerMetrics.recordThrottled();
+                    return;
+                }
+                Command command = Command.fromString(message);
+                if (command != null) {
+                    CanvasManager.sendTiles(client, command.data());
+                }
+            } else if (message.startsWith(CommandType.TILE_DATA.toString())) {
+                // Only the painter's canvas is exact enough to repair the canonical canvas
+                Command command = Command.fromString(message);
+                if (command != null && DrawServer.isCurrentPainter(client.getId())) {
+                    CanvasManager.replaceTile(command.data());
+                }
             }
         }
     }
@@ -11,9 +11,14 @@ public class ClientMessageSender extends Thread {
 
     private final PrintWriter out;
     private final Client client;
-    private boolean alive = true;
+    private volatile boolean alive = true;
+
+    /**
+     * Kill this thread, without waiting for the next message.
+     */
     public void kill(){
         alive = false;
+        interrupt();
     }
 
     /**
@@ -28,6 +33,7 @@ public class ClientMessageSender extends Thread {
 
     /**
      * Polls outgoing message buffer of a client and sends them while the thread is alive.
+     * A message that can't be sent is put back, and the thread stops, since the connection is gone.
      */
     @Override
     public void run() {
@@ -36,6 +42,10 @@ public class ClientMessageSender extends Thread {
             String message = client.pollTcpMessageToSend();
             if (message != null) {
                 out.println(message);  // Send the message
+                if (out.checkError()) {
+                    client.returnTcpMessage(message);
+                    return;
+                }
             }
         }
     }
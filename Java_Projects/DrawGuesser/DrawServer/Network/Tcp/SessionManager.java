@@ -0,0 +1,242 @@
+package Network.Tcp;
+
+import Server.Client;
+import Server.ServerLog;
+import Server.ServerMetrics;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the session of every accepted client under a resume token, so that a client whose connection drops can
+ * reconnect within a grace period as the same client: with their id, points and painter role, and with the
+ * messages that were queued for them before the drop. The client stays in the game while they're away, so a painter
+ * who comes back in time doesn't interrupt the round, and they're only removed once the grace period is over.
+ * Broadcasts skip them meanwhile, like they skip clients who haven't joined yet. A client who stopped answering
+ * heartbeats isn't given a grace period. A token can only be used once, every resumed client is given a new one.
+ */
+public class SessionManager {
+    private static final int GRACE_PERIOD = 30_000; // Time in milliseconds a dropped client may resume (0 disables)
+    private static final int TAKEOVER_TIMEOUT = 2000; // Time in milliseconds for an old connection to let go
+    private static final int TOKEN_BYTES = 16; // Random bytes in a resume token
+    private static final SecureRandom RANDOM = new SecureRandom(); // Generates the resume tokens
+    private static final Map<String, Session> SESSIONS = new ConcurrentHashMap<>(); // Sessions by resume token
+    private static final Map<Integer, Session> SESSIONS_BY_ID = new ConcurrentHashMap<>(); // Sessions by client id
+
+    /**
+     * The states of a session.
+     */
+    private enum State {
+        CONNECTED, // The client is connected
+        SUSPENDED, // The client's connection dropped, and they may still resume
+        ENDED // The client left for good
+    }
+
+    /**
+     * The session of a client and the connection they currently use.
+     */
+    private static class Session {
+        private final Client client; // The client
+        private volatile String token = null; // The token that resumes the session
+        private Socket socket; // The client's current connection
+        private State state = State.CONNECTED; // The state of the session
+
+        /**
+         * Create the session of a client who just connected.
+         * @param client The client.
+         * @param socket The client's connection.
+         */
+        private Session(Client client, Socket socket) {
+            this.client = client;
+            this.socket = socket;
+        }
+
+        /**
+         * Suspend the session after its connection dropped.
+         * @return True if the session was suspended; otherwise, false if it had already ended.
+         */
+        private synchronized boolean suspend() {
+            if (state != State.CONNECTED) {
+                return false;
+            }
+            state = State.SUSPENDED;
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * Wait for the client to resume a suspended session, and end it if they don't in time.
+         * @param timeout Time in milliseconds to wait.
+         * @return True if the client resumed; otherwise, false.
+         * @throws InterruptedException If the thread was interrupted while waiting.
+         */
+        private synchronized boolean awaitResume(long timeout) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            try {
+                for (long remaining = timeout; state == State.SUSPENDED && remaining > 0;
+                     remaining = deadline - System.currentTimeMillis()) {
+                    wait(remaining);
+                }
+            } finally {
+                if (state == State.SUSPENDED) {
+                    state = State.ENDED;
+                }
+            }
+            return state == State.CONNECTED;
+        }
+
+        /**
+         * End the session, so that it can neither be suspended nor resumed.
+         */
+        private synchronized void end() {
+            state = State.ENDED;
+            notifyAll();
+        }
+
+        /**
+         * Move the session to a new connection. If the old connection still seems alive, the client noticed that
+         * it dropped before the server did, so it's closed and its handler is given some time to suspend it.
+         * @param socket The new connection.
+         * @param timeout Time in milliseconds to wait for the old connection's handler.
+         * @return True if the session was moved; otherwise, false if it has ended.
+         * @throws InterruptedException If the thread was interrupted while waiting.
+         */
+        private synchronized boolean resume(Socket socket, long timeout) throws InterruptedException {
+            if (state == State.CONNECTED) {
+                try {
+                    this.socket.close();
+                } catch (IOException e) {
+                    ServerLog.warn("close-error", client.getId(), e.getMessage());
+                }
+                long deadline = System.currentTimeMillis() + timeout;
+                for (long remaining = timeout; state == State.CONNECTED && remaining > 0;
+                     remaining = deadline - System.currentTimeMillis()) {
+                    wait(remaining);
+                }
+            }
+            if (state != State.SUSPENDED) {
+                return false;
+            }
+            this.socket = socket;
+            state = State.CONNECTED;
+            notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Open a session for a client who was just accepted, or give a resumed client a new token.
+     * @param client The client.
+     * @param socket The client's connection.
+     * @return The token that resumes the session, which the client should be sent.
+     */
+    public static String open(Client client, Socket socket) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        RANDOM.nextBytes(bytes);
+        // URL-safe characters, which never contain the separator of commands
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Session session = SESSIONS_BY_ID.computeIfAbsent(client.getId(), id -> new Session(client, socket));
+        if (session.token != null) {
+            SESSIONS.remove(session.token, session);
+        }
+        session.token = token;
+        SESSIONS.put(token, session);
+        return token;
+    }
+
+    /**
+     * Resume the session of a client whose connection dropped, if they present a valid token.
+     * @param clientArgs The arguments of the new connection: {"username", "udpPort", "key", "token"}.
+     * @param socket The new connection.
+     * @return The client if the session was resumed; otherwise, null, and the connection should be accepted
+     *         as a new client instead.
+     */
+    public static Client tryResume(List<String> clientArgs, Socket socket) {
+        if (clientArgs.size() != 4) {
+            return null;
+        }
+        String token = clientArgs.get(3);
+        Session session = SESSIONS.get(token);
+        if (session == null || !session.client.getUsername().equals(clientArgs.get(0))) {
+            ServerLog.warn("resume-rejected", -1, "Unknown token from address: " + socket.getInetAddress());
+            return null;
+        }
+        int udpPort;
+        try {
+            udpPort = Integer.parseInt(clientArgs.get(1));
+        } catch (NumberFormatException e) {
+            udpPort = -1;
+        }
+        // Use up the token, unless another connection already did
+        if (udpPort < 0 || !SESSIONS.remove(token, session)) {
+            ServerLog.warn("resume-rejected", session.client.getId(), "Address: " + socket.getInetAddress());
+            return null;
+        }
+        try {
+            if (!session.resume(socket, TAKEOVER_TIMEOUT)) {
+                ServerLog.warn("resume-rejected", session.client.getId(), "The session has ended");
+                return null;
+            }
+        } catch (InterruptedException e) {
+            ServerLog.warn("resume-rejected", session.client.getId(), "Interrupted: " + e.getMessage());
+            return null;
+        }
+        session.client.resume(socket.getInetAddress(), udpPort);
+        ServerMetrics.recordResume();
+        return session.client;
+    }
+
+    /**
+     * Keep a client whose connection dropped in the game for the grace period, waiting for them to resume.
+     * If they don't, their session ends and they should be removed.
+     * @param client The client.
+     * @return True if the client resumed their session on another connection; otherwise, false.
+     */
+    public static boolean awaitResume(Client client) {
+        Session session = SESSIONS_BY_ID.get(client.getId());
+        if (session == null || GRACE_PERIOD <= 0 || !session.suspend()) {
+            close(client);
+            return false;
+        }
+        ServerLog.info("suspend", client.getId(), "Waiting " + GRACE_PERIOD + " ms for "
+                + client.getUsername() + " to resume");
+        try {
+            if (session.awaitResume(GRACE_PERIOD)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            ServerLog.warn("suspend", client.getId(), "Interrupted: " + e.getMessage());
+        }
+        ServerMetrics.recordSessionExpired();
+        close(client);
+        return false;
+    }
+
+    /**
+     * End the session of a client who stopped answering, so that they're removed as soon as their connection
+     * closes instead of being kept for the grace period. Their token can't resume it anymore.
+     * @param client The client.
+     */
+    public static void end(Client client) {
+        Session session = SESSIONS_BY_ID.get(client.getId());
+        if (session != null) {
+            session.end();
+        }
+    }
+
+    /**
+     * Forget the session of a client who left for good, so that their token can't resume it.
+     * @param client The client.
+     */
+    private static void close(Client client) {
+        Session session = SESSIONS_BY_ID.remove(client.getId());
+        if (session != null && session.token != null) {
+            SESSIONS.remove(session.token, session);
+        }
+    }
+}
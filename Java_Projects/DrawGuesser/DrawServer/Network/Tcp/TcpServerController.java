@@ -1,14 +1,42 @@
 package Network.Tcp;
 
+import Server.ServerLog;
+import Server.ServerMetrics;
+import Server.ServerMetrics.Rejection;
+import Utility.TokenBucket;
+
 import java.io.*;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handles all TCP communication between the server and client, and initializes new clients.
+ * Connections are admitted before they get a thread: each IP address may only connect at a limited rate, only
+ * so many connections may be in their handshake at once, and a connection that doesn't send its arguments in
+ * time is closed. Connections from the loopback address are not rate limited, so that local tools can connect
+ * many bots at once.
  */
 public class TcpServerController implements Runnable {
+    private static final int ACCEPT_BACKLOG = 128; // Max connections the OS queues until they're accepted
+    private static final int MAX_PENDING_HANDSHAKES = 64; // Max connections that haven't sent their arguments yet
+    static final int HANDSHAKE_TIMEOUT = 5000; // Time in milliseconds for a connection to send its arguments
+    static final int MAX_HANDSHAKE_LENGTH = 256; // Max characters in the line of arguments
+    private static final double CONNECT_RATE = 1; // Connections per second that each IP address may make
+    private static final int CONNECT_BURST = 10; // Connections that an IP address may make at once
+    private static final int MAX_TRACKED_ADDRESSES = 4096; // Addresses to track before forgetting the least recent
+    private static final AtomicInteger pendingHandshakes = new AtomicInteger(); // Connections in their handshake
     private static int nextId = 0; // An incrementing number used for client id
+    // Connect rate of each address, in order of their last connection so that the oldest is forgotten first
+    private final Map<InetAddress, TokenBucket> connectBuckets = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetAddress, TokenBucket> eldest) {
+            return size() > MAX_TRACKED_ADDRESSES;
+        }
+    };
     private final int port; // Server's TCP port number
     private boolean alive; // TCP resources will eventually be released if this is set to false
     private ServerSocket tcpServerSocket; // Socket to accept client connections through
@@ -42,14 +70,21 @@ public class TcpServerController implements Runnable {
      */
     @Override
     public void run() {
-        try (ServerSocket tcpServerSocket = new ServerSocket(port)) {
+        try (ServerSocket tcpServerSocket = new ServerSocket(port, ACCEPT_BACKLOG)) {
             // Save variable in case we want to kill the TcpHandler
             this.tcpServerSocket = tcpServerSocket;
             System.out.println("Server is listening for TCP connections on port " + port);
+            ServerLog.info("ready", -1, "Ready " + ServerMetrics.recordReady() + " ms after the server started");
             // Handle new client connections while alive
             while (alive) {
                 Socket clientSocket = tcpServerSocket.accept(); // Accept new connection
-                System.out.println("Accepted TCP connection from " + clientSocket.getInetAddress());
+                // Turn the connection away before it gets a thread if it isn't admitted
+                Rejection rejection = admit(clientSocket.getInetAddress());
+                if (rejection != null) {
+                    reject(clientSocket, rejection);
+                    continue;
+                }
+                ServerLog.info("accept", -1, "Address: " + clientSocket.getInetAddress());
                 // Create a new thread that handles the new client
                 ClientConnectionHandler clientConnectionHandler = new ClientConnectionHandler(clientSocket);
                 clientConnectionHandler.start();
@@ -59,6 +94,50 @@ public class TcpServerController implements Runnable {
         }
     }
 
+    /**
+     * Decide if a new connection may start its handshake, and count it as pending if it may.
+     * @param address The IP address of the connection.
+     * @return Why the connection is turned away, or null if it's admitted.
+     */
+    private Rejection admit(InetAddress address) {
+        if (!address.isLoopbackAddress()) {
+            long now = System.nanoTime();
+            TokenBucket bucket = connectBuckets.computeIfAbsent(address,
+                    key -> new TokenBucket(CONNECT_RATE, CONNECT_BURST));
+            if (!bucket.tryAcquire(now)) {
+                return Rejection.RATE_LIMIT;
+            }
+        }
+        if (pendingHandshakes.incrementAndGet() > MAX_PENDING_HANDSHAKES) {
+            pendingHandshakes.decrementAndGet();
+            return Rejection.PENDING_LIMIT;
+        }
+        return null;
+    }
+
+    /**
+     * Close a connection that wasn't admitted, resetting it so that no resources are held for it.
+     * @param clientSocket The connection.
+     * @param rejection Why the connection was turned away.
+     */
+    private static void reject(Socket clientSocket, Rejection rejection) {
+        ServerMetrics.recordRejection(rejection);
+        try {
+            clientSocket.setSoLinger(true, 0);
+            clientSocket.close();
+        } catch (IOException e) {
+            // Ignore, the connection is gone either way
+        }
+    }
+
+    /**
+     * Register that an admitted connection finished its handshake, successfully or not,
+     * making room for another connection.
+     */
+    public static void finishHandshake() {
+        pendingHandshakes.decrementAndGet();
+    }
+
     /**
      * Increment nextId by 1
      * @return The incremented nextId
@@ -3,25 +3,61 @@ package Network;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.util.List;
 
+import Network.LinkQuality.Tier;
+import Server.CanvasManager;
 import Server.ClientManager;
 import Server.DrawServer;
+import Server.RoundRecorder;
+import Server.ServerEvents;
+import Server.ServerLog;
+import Server.ServerMetrics;
 import Server.Client;
+import Utility.SystemUtility;
+import Utility.SystemUtility.*;
 
 /**
  * Handles all UDP traffic between clients.
+ * Each relay tier receives its own stream of the painter's drawing, so that clients on poor links
+ * receive fewer and coarser datagrams without affecting the rest of the room.
  */
 public class UdpHandler implements Runnable {
+    private static final int REPORT_INTERVAL = 30_000; // Time in milliseconds between relay reports
+    private static final double DECIMATED_TOLERANCE = 3.0; // Max deviation in pixels of the DECIMATED stream
+    private static final int DECIMATED_LATENCY = 150; // Max buffering in milliseconds of the DECIMATED stream
+    private static final double KEYFRAME_TOLERANCE = 6.0; // Max deviation in pixels of the KEYFRAME stream
+    private static final int KEYFRAME_LATENCY = 1000; // Max buffering in milliseconds of the KEYFRAME stream
+    private static final int RELAY_SAMPLE_INTERVAL = 64; // Relays per relay event emitted to flight recordings
     private final int port; // The port to listen at
+    // The simplifier of each tier's stream, indexed by tier. A null FULL stream relays every point as it arrives
+    private final StrokeSimplifier[] streams = new StrokeSimplifier[Tier.values().length];
+    private final LinkMonitor linkMonitor = new LinkMonitor(); // Measures the link quality of every client
+    private final byte[] relayData = new byte[SystemUtility.MAX_PACKET_SIZE]; // Datagram relayed to clients
+    private int painterId = -1; // The id of the painter whose points are buffered in the simplifiers
+    private long lastReportTime = System.currentTimeMillis(); // The time of the last relay report
+    private int relaysUntilSample = RELAY_SAMPLE_INTERVAL; // Relays left until the next one is sampled
 
     /**
      * Initialize the handler
      * @param port the port to listen at for UDP traffic.
      */
     public UdpHandler(int port) {
+        this(port, null);
+    }
+
+    /**
+     * Initialize the handler with a stroke simplification stage
+     * @param port the port to listen at for UDP traffic.
+     * @param simplifier the stage that simplifies relayed strokes, or null to relay every point as it arrives.
+     */
+    public UdpHandler(int port, StrokeSimplifier simplifier) {
         this.port = port;
+        streams[Tier.FULL.ordinal()] = simplifier;
+        streams[Tier.DECIMATED.ordinal()] = new StrokeSimplifier(DECIMATED_TOLERANCE, DECIMATED_LATENCY);
+        streams[Tier.KEYFRAME.ordinal()] = new StrokeSimplifier(KEYFRAME_TOLERANCE, KEYFRAME_LATENCY);
     }
 
     /**
@@ -32,32 +68,235 @@ public class UdpHandler implements Runnable {
     public void run() {
         try (DatagramSocket udpSocket = new DatagramSocket(port)) {
             System.out.println("Server is listening for UDP messages on port " + port);
-            byte[] responseData = new byte[12]; // id, x-coordinate, y-coordinate
-            byte[] requestData = new byte[8]; // x-coordinate, y-coordinate
+            byte[] responseData = new byte[SystemUtility.MAX_PACKET_SIZE]; // type, id, x-coordinate, y-coordinate, flags
+            DatagramPacket receivedMessage = new DatagramPacket(responseData, responseData.length);
             while (true) {
-                DatagramPacket receivedMessage = new DatagramPacket(responseData, responseData.length);
-                // Listen for a new message
-                udpSocket.receive(receivedMessage);
-                // Extract the ID of the client
-                ByteBuffer byteBuffer = ByteBuffer.wrap(responseData);
-                int id = byteBuffer.getInt();
-                // Ensure that the received message is from the current painter, otherwise ignore it
-                if(DrawServer.isCurrentPainter(id)){
-                    // Find all other clients to broadcast the painter's message to
-                    List<Client> clients = ClientManager.getClientsExcluding(id);
-                    // Copy contents of bytebuffer into requestData (without the id part)
-                    byteBuffer.position(4); // Ensure that the bytebuffer is pointing to the second integer
-                    byteBuffer.get(requestData); // Copy the next 8 bytes to requestData
-                    // Relay the message to all other clients
-                    for(Client client : clients){
-                        DatagramPacket request = new DatagramPacket(requestData, requestData.length,
-                                client.getAddress(), client.getUDP_PORT());
-                        udpSocket.send(request);
+                // Wake up in time to relay buffered points before they exceed the latency cap
+                udpSocket.setSoTimeout(getMillisUntilDue());
+                receivedMessage.setLength(responseData.length);
+                try {
+                    // Listen for a new message
+                    udpSocket.receive(receivedMessage);
+                    ServerMetrics.recordDatagramReceived();
+                    handlePacket(udpSocket, receivedMessage);
+                } catch (SocketTimeoutException e) {
+                    // Nothing was received before the next task was due
+                }
+                for (Tier tier : Tier.values()) {
+                    StrokeSimplifier stream = streams[tier.ordinal()];
+                    if (stream != null && stream.isDue()) {
+                        relayStroke(udpSocket, tier);
                     }
                 }
+                linkMonitor.sendPingsIfDue(udpSocket);
+                reportIfDue();
             }
         } catch (IOException e) {
             System.out.println("Something went wrong when listening for UDP traffic: " + e.getMessage());
         }
     }
+
+    /**
+     * Get the time left until buffered points or pings are due.
+     * @return The remaining time in milliseconds, at least 1.
+     */
+    private int getMillisUntilDue() {
+        int millis = linkMonitor.getMillisUntilDue();
+        for (StrokeSimplifier stream : streams) {
+            if (stream != null && stream.hasPoints()) {
+                millis = Math.min(millis, stream.getMillisUntilDue());
+            }
+        }
+        return millis;
+    }
+
+    /**
+     * Handle a received datagram based on its type, ignoring unknown datagrams.
+     * @param udpSocket The socket to relay through.
+     * @param packet The received datagram and where it came from.
+     * @throws IOException If a datagram couldn't be sent.
+     */
+    private void handlePacket(DatagramSocket udpSocket, DatagramPacket packet) throws IOException {
+        byte[] data = packet.getData();
+        int length = packet.getLength();
+        // Hole punching datagrams are ignored
+        if (length < 1) {
+            return;
+        }
+        PacketType type = PacketType.fromByte(data[0]);
+        if (type == PacketType.POINT && length >= SystemUtility.POINT_PACKET_SIZE) {
+            handlePoint(udpSocket, data, length);
+        } else if (type == PacketType.ERASE && length >= SystemUtility.ERASE_PACKET_SIZE) {
+            handleErase(udpSocket, data, length);
+        } else if (type == PacketType.PONG) {
+            linkMonitor.handlePong(packet);
+        }
+    }
+
+    /**
+     * Relay a point received from the current painter to all other clients, ignoring points from other clients.
+     * @param udpSocket The socket to relay through.
+     * @param data The received datagram.
+     * @param length The length of the received datagram.
+     * @throws IOException If a datagram couldn't be sent.
+     */
+    private void handlePoint(DatagramSocket udpSocket, byte[] data, int length) throws IOException {
+        // Extract the ID of the client
+        ByteBuffer byteBuffer = ByteBuffer.wrap(data, 1, length - 1);
+        int id = byteBuffer.getInt();
+        // Ensure that the received message is from the current painter, otherwise ignore it
+        if (!DrawServer.isCurrentPainter(id)) {
+            return;
+        }
+        int x = byteBuffer.getInt();
+        int y = byteBuffer.getInt();
+        byte flags = byteBuffer.get();
+        boolean strokeStart = (flags & SystemUtility.STROKE_START) != 0;
+        // Keep the canonical canvas and the recording exact, regardless of how the point is relayed
+        CanvasManager.addPoint(x, y);
+        RoundRecorder.recordPoint(x, y, flags);
+
+        setPainter(id);
+        for (Tier tier : Tier.values()) {
+            StrokeSimplifier stream = streams[tier.ordinal()];
+            if (stream == null) {
+                // Relay the point as it is: type, x-coordinate, y-coordinate
+                ByteBuffer relayBuffer = ByteBuffer.wrap(relayData);
+                relayBuffer.put((byte) PacketType.POINT.ordinal());
+                relayBuffer.putInt(x);
+                relayBuffer.putInt(y);
+                relay(udpSocket, tier, relayBuffer.position());
+                continue;
+            }
+            if (stream.mustFlushBefore(strokeStart)) {
+                relayStroke(udpSocket, tier);
+            }
+            stream.addPoint(x, y, strokeStart);
+        }
+    }
+
+    /**
+     * Relay a rectangle erased by the current painter to all other clients, ignoring erases from other clients.
+     * The buffered points of every stream are relayed first, so that they can't reappear after the erase.
+     * @param udpSocket The socket to relay through.
+     * @param data The received datagram.
+     * @param length The length of the received datagram.
+     * @throws IOException If a datagram couldn't be sent.
+     */
+    private void handleErase(DatagramSocket udpSocket, byte[] data, int length) throws IOException {
+        // Extract the ID of the client
+        ByteBuffer byteBuffer = ByteBuffer.wrap(data, 1, length - 1);
+        int id = byteBuffer.getInt();
+        // Ensure that the received message is from the current painter, otherwise ignore it
+        if (!DrawServer.isCurrentPainter(id)) {
+            return;
+        }
+        short left = byteBuffer.getShort();
+        short top = byteBuffer.getShort();
+        short right = byteBuffer.getShort();
+        short bottom = byteBuffer.getShort();
+        CanvasManager.eraseRect(left, top, right, bottom);
+        RoundRecorder.recordErase(left, top, right, bottom);
+
+        setPainter(id);
+        for (Tier tier : Tier.values()) {
+            StrokeSimplifier stream = streams[tier.ordinal()];
+            if (stream != null && stream.hasPoints()) {
+                relayStroke(udpSocket, tier);
+            }
+        }
+        // Relay the erase as it is to every tier: type, left, top, right, bottom
+        ByteBuffer relayBuffer = ByteBuffer.wrap(relayData);
+        relayBuffer.put((byte) PacketType.ERASE.ordinal());
+        relayBuffer.putShort(left);
+        relayBuffer.putShort(top);
+        relayBuffer.putShort(right);
+        relayBuffer.putShort(bottom);
+        relay(udpSocket, null, relayBuffer.position());
+    }
+
+    /**
+     * Reset the streams when a new painter starts drawing, since they can't continue the previous painter's stroke.
+     * @param id The ID of the painter that sent the latest datagram.
+     */
+    private void setPainter(int id) {
+        if (id != painterId) {
+            for (StrokeSimplifier stream : streams) {
+                if (stream != null) {
+                    stream.reset();
+                }
+            }
+            painterId = id;
+        }
+    }
+
+    /**
+     * Simplify the buffered points of a tier's stream and relay them as one STROKE datagram.
+     * @param udpSocket The socket to relay through.
+     * @param tier The tier whose stream to relay.
+     * @throws IOException If a datagram couldn't be sent.
+     */
+    private void relayStroke(DatagramSocket udpSocket, Tier tier) throws IOException {
+        int length = streams[tier.ordinal()].flush(relayData);
+        if (length > 0 && DrawServer.isCurrentPainter(painterId)) {
+            relay(udpSocket, tier, length);
+        }
+    }
+
+    /**
+     * Send the relay datagram to all clients in a tier, except the painter.
+     * @param udpSocket The socket to relay through.
+     * @param tier The tier of the clients to relay to, or null to relay to every tier.
+     * @param length The length of the relay datagram.
+     * @throws IOException If a datagram couldn't be sent.
+     */
+    private void relay(DatagramSocket udpSocket, Tier tier, int length) throws IOException {
+        // Find all other clients to broadcast the painter's message to
+        long start = System.nanoTime();
+        List<Client> clients = ClientManager.getClientsExcluding(painterId);
+        // Relay the message to all other clients in the tier
+        int sent = 0;
+        for (Client client : clients) {
+            // Skip clients whose connection dropped, their address may be stale until they resume
+            if (!client.isClosed() && (tier == null || client.getLinkQuality().getTier() == tier)) {
+                DatagramPacket request = new DatagramPacket(relayData, length,
+                        client.getAddress(), client.getUDP_PORT());
+                udpSocket.send(request);
+                sent++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        ServerMetrics.recordFanOut(sent, elapsed);
+        if (--relaysUntilSample == 0) {
+            relaysUntilSample = RELAY_SAMPLE_INTERVAL;
+            ServerEvents.relaySampled(tier == null ? "ALL" : tier.toString(), sent, length, elapsed,
+                    RELAY_SAMPLE_INTERVAL);
+        }
+    }
+
+    /**
+     * Periodically log how much each tier's stream is reduced and how many clients receive it.
+     */
+    private void reportIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastReportTime < REPORT_INTERVAL) {
+            return;
+        }
+        lastReportTime = now;
+        int[] clientsPerTier = new int[streams.length];
+        for (Client client : ClientManager.getOpenClients()) {
+            clientsPerTier[client.getLinkQuality().getTier().ordinal()]++;
+        }
+        for (Tier tier : Tier.values()) {
+            StrokeSimplifier stream = streams[tier.ordinal()];
+            if (stream == null) {
+                ServerLog.info("relay-report", -1, tier + ": " + clientsPerTier[tier.ordinal()]
+                        + " clients, every point relayed");
+            } else {
+                ServerLog.info("relay-report", -1, String.format("%s: %d clients, %d points received, %d relayed"
+                        + " (%.1f%% reduction)", tier, clientsPerTier[tier.ordinal()], stream.getPointsIn(),
+                        stream.getPointsOut(), stream.getReductionRatio() * 100));
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+package Server;
+
+import Utility.SystemUtility.*;
+import Utility.TileRaster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the canonical canvas of the current round as a tiled raster, and periodically broadcasts
+ * the checksum of every tile so that clients can fetch the tiles that have drifted from it.
+ */
+public class CanvasManager {
+    private static final int REFRESH_INTERVAL = 5000; // Max time in milliseconds between checksum broadcasts
+    // Max tiles sent for one request, a client whose canvas drifted further gets the rest after the next broadcast
+    private static final int MAX_TILES_PER_REQUEST = 32;
+    private static final TileRaster CANVAS = new TileRaster(); // The canonical canvas
+    private static boolean changed = false; // If the canvas has changed since the last checksum broadcast
+    private static long lastBroadcastTime = 0; // The time of the last checksum broadcast
+
+    /**
+     * Add a point drawn by the current painter to the canvas.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     */
+    public static synchronized void addPoint(int x, int y) {
+        if (CANVAS.set(x, y) >= 0) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Erase the points within a rectangle erased by the current painter.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     */
+    public static synchronized void eraseRect(int left, int top, int right, int bottom) {
+        if (CANVAS.clearRect(left, top, right, bottom)) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Clear the canvas before a new round.
+     */
+    protected static synchronized void clear() {
+        CANVAS.clear();
+        changed = false;
+        lastBroadcastTime = 0;
+    }
+
+    /**
+     * Broadcast the checksum of every non-empty tile as "index=checksum", if the canvas has changed
+     * or if no checksums have been broadcast for a while.
+     */
+    protected static synchronized void broadcastChecksumsIfDue() {
+        long now = System.currentTimeMillis();
+        if (!changed && now - lastBroadcastTime < REFRESH_INTERVAL) {
+            return;
+        }
+        changed = false;
+        lastBroadcastTime = now;
+        List<String> checksums = new ArrayList<>();
+        for (int tile = 0; tile < TileRaster.TILE_COUNT; tile++) {
+            int checksum = CANVAS.getChecksum(tile);
+            if (checksum != 0) {
+                checksums.add(tile + "=" + Integer.toHexString(checksum));
+            }
+        }
+        ClientManager.broadcastSystemMessage(CommandType.TILE_CHECKSUMS, checksums);
+    }
+
+    /**
+     * Send the requested tiles to a client. Each tile is sent once, however often it was requested, and at most
+     * {@link #MAX_TILES_PER_REQUEST} tiles are sent, so that one request can't queue much more than the canvas.
+     * A malformed request is dropped from the first malformed index.
+     * @param client The client that requested the tiles.
+     * @param tiles The indices of the requested tiles.
+     */
+    public static void sendTiles(Client client, List<String> tiles) {
+        boolean[] sent = new boolean[TileRaster.TILE_COUNT]; // The tiles already sent for this request
+        int sentCount = 0;
+        for (String tile : tiles) {
+            if (sentCount == MAX_TILES_PER_REQUEST) {
+                break;
+            }
+            try {
+                int index = Integer.parseInt(tile);
+                if (index >= 0 && index < TileRaster.TILE_COUNT && !sent[index]) {
+                    sent[index] = true;
+                    sentCount++;
+                    long[] bits;
+                    synchronized (CanvasManager.class) {
+                        bits = CANVAS.getTile(index);
+                    }
+                    client.addTcpSystemMessage(CommandType.TILE_DATA,
+                            List.of(String.valueOf(index), TileRaster.encodeTile(bits)));
+                }
+            } catch (NumberFormatException e) {
+                ServerLog.warn("malformed-tile-request", client.getId(), e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replace a tile with the painter's version of it. Since the painter's own canvas is exact,
+     * this repairs tiles where the painter's points were lost on the way to the server.
+     * @param data The index of the tile followed by the encoded tile.
+     */
+    public static void replaceTile(List<String> data) {
+        try {
+            int index = Integer.parseInt(data.get(0));
+            // An empty tile is encoded as an empty string, which isn't part of the data
+            long[] bits = TileRaster.decodeTile(data.size() > 1 ? data.get(1) : "");
+            if (index >= 0 && index < TileRaster.TILE_COUNT) {
+                synchronized (CanvasManager.class) {
+                    CANVAS.setTile(index, bits);
+                    changed = true;
+                }
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            ServerLog.warn("malformed-tile-data", -1, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package Server;
+
+import Utility.AhoCorasick;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Masks banned words and the secret word in messages before they're broadcast, so that no one can spoil the
+ * round by typing the word in the chat. Banned words only match whole words, while the secret word matches
+ * anywhere, also inside longer words and without its spaces. Both are matched regardless of case and accents.
+ * The banned words are loaded once into one automaton and the secret word gets a small automaton of its own
+ * each round, so a new round doesn't rebuild the large one. Each message is still read in a single pass,
+ * stepping both automata with every character.
+ */
+public class ChatFilter {
+    private static final char MASK = '*'; // Replaces every character of a match
+    private static volatile AhoCorasick bannedWords = new AhoCorasick(List.of()); // Matches the banned words
+    private static volatile AhoCorasick secretWord = new AhoCorasick(List.of()); // Matches the secret word
+
+    /**
+     * Load the banned words from a file with one word or phrase per line, if the file exists.
+     * @param path The path of the file.
+     */
+    public static void loadBannedWords(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            List<String> words = new ArrayList<>();
+            for (String line : Files.readAllLines(path)) {
+                if (!line.isBlank()) {
+                    words.add(line.strip());
+                }
+            }
+            setBannedWords(words);
+            ServerLog.info("chat-filter", -1, "Loaded " + words.size() + " banned words from "
+                    + path.toAbsolutePath());
+        } catch (IOException e) {
+            ServerLog.warn("chat-filter", -1, "Could not load banned words from " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replace the banned words.
+     * @param words The banned words and phrases.
+     */
+    public static void setBannedWords(Collection<String> words) {
+        bannedWords = new AhoCorasick(words);
+    }
+
+    /**
+     * Set the secret word of the round that started, or clear it when the round ends.
+     * @param word The secret word, or null if there is no round.
+     */
+    public static void setSecretWord(String word) {
+        if (word == null) {
+            secretWord = new AhoCorasick(List.of());
+        } else if (word.contains(" ")) {
+            secretWord = new AhoCorasick(List.of(word, word.replace(" ", "")));
+        } else {
+            secretWord = new AhoCorasick(List.of(word));
+        }
+    }
+
+    /**
+     * Mask the banned words and the secret word in a chat message.
+     * @param message The message.
+     * @return The message with every match masked, the same instance if nothing matched.
+     */
+    public static String filterChat(String message) {
+        return filter(message);
+    }
+
+    /**
+     * Mask the banned words and the secret word in a wrong guess before it's broadcast. A guess that failed can
+     * still contain the secret word, such as its plural, the word with punctuation or with other accents.
+     * @param guess The wrong guess.
+     * @return The guess with every match masked, the same instance if nothing matched.
+     */
+    public static String filterGuess(String guess) {
+        return filter(guess);
+    }
+
+    /**
+     * Mask the matches in a text in a single pass, stepping the automata with each folded character.
+     * @param text The text.
+     * @return The text with every match masked, the same instance if nothing matched.
+     */
+    private static String filter(String text) {
+        AhoCorasick banned = bannedWords;
+        AhoCorasick secret = secretWord;
+        int bannedState = banned.getStartState();
+        int secretState = secret.getStartState();
+        char[] masked = null; // Only copied once something matches
+        for (int i = 0; i < text.length(); i++) {
+            char c = AhoCorasick.fold(text.charAt(i));
+            bannedState = banned.step(bannedState, c);
+            for (int match = banned.getMatch(bannedState); match >= 0; match = banned.getNextMatch(match)) {
+                int start = i + 1 - banned.getMatchLength(match);
+                if (isWholeWord(text, start, i + 1)) {
+                    masked = mask(text, masked, start, i + 1);
+                    break;
+                }
+            }
+            secretState = secret.step(secretState, c);
+            int match = secret.getMatch(secretState);
+            if (match >= 0) {
+                masked = mask(text, masked, i + 1 - secret.getMatchLength(match), i + 1);
+            }
+        }
+        return masked == null ? text : new String(masked);
+    }
+
+    /**
+     * Check if a part of a text is a whole word, not preceded or followed by a letter or digit.
+     * @param text The text.
+     * @param start The index of the first character of the part.
+     * @param end The index after the last character of the part.
+     * @return True if the part is a whole word; otherwise, false.
+     */
+    private static boolean isWholeWord(String text, int start, int end) {
+        return (start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1)))
+                && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)));
+    }
+
+    /**
+     * Mask a part of a text.
+     * @param text The text.
+     * @param masked The masked copy of the text, or null if nothing has been masked yet.
+     * @param start The index of the first character to mask.
+     * @param end The index after the last character to mask.
+     * @return The masked copy of the text.
+     */
+    private static char[] mask(String text, char[] masked, int start, int end) {
+        if (masked == null) {
+            masked = text.toCharArray();
+        }
+        for (int i = start; i < end; i++) {
+            masked[i] = MASK;
+        }
+        return masked;
+    }
+}
@@ -1,37 +1,69 @@
 package Server;
 
+import Network.LinkQuality;
 import Utility.SystemUtility.*;
+import Utility.TokenBucket;
 
 import java.net.InetAddress;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 /**
  * Contains all necessary information about the client and manages the clients ACK responses and message buffer
  * that is used for sending them messages.
  */
 public class Client {
+    private static final double CHAT_RATE = 3; // Chat messages per second that a client may send
+    private static final int CHAT_BURST = 10; // Chat messages that a client may send at once
+    private static final double GUESS_RATE = 3; // Guesses per second that a client may send
+    private static final int GUESS_BURST = 10; // Guesses that a client may send at once
+    private static final double TILE_REQUEST_RATE = 1; // Tile requests per second, as often as checksums are sent
+    private static final int TILE_REQUEST_BURST = 3; // Tile requests that a client may send at once
     private final Queue<String> ackQueue = new LinkedList<>(); // Queue for ACK responses
-    // Thread safe queue for adding outgoing messages to be sent to the client
-    private final LinkedBlockingQueue<String> tcpMessagesToSend = new LinkedBlockingQueue<>();
+    // Thread safe queue for adding outgoing messages to be sent to the client, kept while they reconnect
+    private final LinkedBlockingDeque<String> tcpMessagesToSend = new LinkedBlockingDeque<>();
     private final String username; // The username of the client
     private final int id; // The id of the client
-    private final int UDP_PORT; // The UDP port of the client
-    private final InetAddress address; // The IP address of the client
-    private int points; // The game points of the client
+    private volatile int UDP_PORT; // The UDP port of the client, which may change when they resume their session
+    private volatile InetAddress address; // The IP address of the client, which may change when they resume
+    private final AtomicInteger points = new AtomicInteger(); // The game points of the client
+    private final Profile profile; // The stats kept about the client between sessions
+    private final LinkQuality linkQuality = new LinkQuality(); // Measured quality of the client's connection
+    private volatile long lastHeardTime = System.nanoTime(); // The last time a message arrived from the client
+    private volatile boolean closed = false; // If the client has disconnected or is being disconnected
+    private final TokenBucket chatLimit = new TokenBucket(CHAT_RATE, CHAT_BURST); // Limits the client's chat
+    private final TokenBucket guessLimit = new TokenBucket(GUESS_RATE, GUESS_BURST); // Limits the client's guesses
+    // Limits the client's tile requests, each of which queues up to a few kilobytes per tile for them
+    private final TokenBucket tileRequestLimit = new TokenBucket(TILE_REQUEST_RATE, TILE_REQUEST_BURST);
+    private boolean chatThrottled = false; // If the client was told they're chatting too fast, used by the handler
+    private boolean guessThrottled = false; // If the client was told they're guessing too fast, used by the handler
 
     /**
-     * Create a client with all necessary information about them
+     * Create a client with all necessary information about them, who has never joined before
      * @param username username of the client
      * @param id unique id of the client
      * @param UDP_PORT UDP port of the client
      * @param address IP address of the client
      */
     public Client(String username, int id, int UDP_PORT, InetAddress address){
+        this(username, id, UDP_PORT, address, new Profile(username, System.currentTimeMillis()));
+    }
+
+    /**
+     * Create a client with all necessary information about them
+     * @param username username of the client
+     * @param id unique id of the client
+     * @param UDP_PORT UDP port of the client
+     * @param address IP address of the client
+     * @param profile the stats kept about the client between sessions
+     */
+    public Client(String username, int id, int UDP_PORT, InetAddress address, Profile profile){
         this.username = username;
         this.id = id;
         this.UDP_PORT = UDP_PORT;
         this.address = address;
+        this.profile = profile;
     }
 
     /**
@@ -54,8 +86,8 @@ public class Client {
         long startTime = System.nanoTime(); // Time to compare against
         int pollInterval = 100; // Timeout 100 ms
 
-        // Try to find an ACK response from client for 5 seconds
-        while ((System.nanoTime() - startTime) < timeout) {
+        // Try to find an ACK response from client for 5 seconds, unless they disconnect
+        while ((System.nanoTime() - startTime) < timeout && !closed) {
             // Search through the queue
             for (String response : ackQueue) {
                 if (response.equals(searchString)) {
@@ -73,11 +105,101 @@ public class Client {
     }
 
     /**
-     * Add game points to client.
+     * Register that a message arrived from the client, which shows that their connection is alive.
+     */
+    public void markHeard() {
+        lastHeardTime = System.nanoTime();
+    }
+
+    /**
+     * Get the last time a message arrived from the client.
+     * @return The time from System.nanoTime().
+     */
+    public long getLastHeardTime() {
+        return lastHeardTime;
+    }
+
+    /**
+     * Mark the client as disconnected, so that no one waits for them anymore.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Reconnect the client after their connection dropped, as the same client with the same points and messages.
+     * @param address The IP address of the new connection.
+     * @param UDP_PORT The UDP port the client uses now.
+     */
+    public void resume(InetAddress address, int UDP_PORT) {
+        this.address = address;
+        this.UDP_PORT = UDP_PORT;
+        lastHeardTime = System.nanoTime();
+        closed = false;
+    }
+
+    /**
+     * Check if the client has disconnected or is being disconnected.
+     * @return True if the client is closed; otherwise, false.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Get the limit on how fast the client may chat.
+     * @return The token bucket of chat messages.
+     */
+    public TokenBucket getChatLimit() {
+        return chatLimit;
+    }
+
+    /**
+     * Get the limit on how fast the client may guess.
+     * @return The token bucket of guesses.
+     */
+    public TokenBucket getGuessLimit() {
+        return guessLimit;
+    }
+
+    /**
+     * Get the limit on how fast the client may request canvas tiles.
+     * @return The token bucket of tile requests.
+     */
+    public TokenBucket getTileRequestLimit() {
+        return tileRequestLimit;
+    }
+
+    /**
+     * Check if the client has been told that they're sending too fast for one of their limits, since they last
+     * sent in time.
+     * @param limit The chat or guess limit.
+     * @return True if the client was told; otherwise, false.
+     */
+    public boolean isThrottled(TokenBucket limit) {
+        return limit == chatLimit ? chatThrottled : guessThrottled;
+    }
+
+    /**
+     * Set if the client has been told that they're sending too fast for one of their limits.
+     * @param limit The chat or guess limit.
+     * @param throttled True if the client was told, false once they send in time again.
+     */
+    public void setThrottled(TokenBucket limit, boolean throttled) {
+        if (limit == chatLimit) {
+            chatThrottled = throttled;
+        } else {
+            guessThrottled = throttled;
+        }
+    }
+
+    /**
+     * Add game points to client. The leaderboard only learns about points added through the Scoreboard.
      * @param addition the amount of points to add.
+     * @return the new number of points.
      */
-    public void addPoints(int addition){
-        points += addition;
+    public int addPoints(int addition){
+        return points.addAndGet(addition);
     }
 
     /**
@@ -101,7 +223,23 @@ public class Client {
      * @return the number of points.
      */
     public int getPoints(){
-        return points;
+        return points.get();
+    }
+
+    /**
+     * Get the stats kept about the client between sessions.
+     * @return the profile.
+     */
+    public Profile getProfile(){
+        return profile;
+    }
+
+    /**
+     * Get the measured quality of the client's connection.
+     * @return the link quality.
+     */
+    public LinkQuality getLinkQuality(){
+        return linkQuality;
     }
 
     /**
@@ -122,6 +260,7 @@ public class Client {
      */
     public void addTcpMessage(String message) {
         tcpMessagesToSend.add("/m " + message);
+        ServerEvents.queueGrew(id, tcpMessagesToSend.size());
     }
 
     /**
@@ -130,6 +269,7 @@ public class Client {
      */
     public void addTcpSystemMessage(String message) {
         tcpMessagesToSend.add("/s " + message);
+        ServerEvents.queueGrew(id, tcpMessagesToSend.size());
     }
 
     /**
@@ -140,6 +280,15 @@ public class Client {
     public void addTcpSystemMessage(CommandType commandType, List<String> optionalData) {
         Command command = new Command(commandType,optionalData); // Create command
         tcpMessagesToSend.add("/s " + command); // Add system message as a string
+        ServerEvents.queueGrew(id, tcpMessagesToSend.size());
+    }
+
+    /**
+     * Get the number of messages waiting in the TCP message buffer.
+     * @return The number of messages.
+     */
+    public int getTcpQueueDepth() {
+        return tcpMessagesToSend.size();
     }
 
     /**
@@ -148,10 +297,19 @@ public class Client {
      */
     public String pollTcpMessageToSend() {
         try {
-            return tcpMessagesToSend.poll(1000,TimeUnit.SECONDS);  // Waits for a message for 1 second
+            return tcpMessagesToSend.poll(1000,TimeUnit.MILLISECONDS);  // Waits for a message for 1 second
         } catch (InterruptedException e) {
             return null;
         }
     }
 
+    /**
+     * Put back a message that couldn't be sent, first in the TCP message buffer, so that it's sent first
+     * if the client resumes their session.
+     * @param message the message.
+     */
+    public void returnTcpMessage(String message) {
+        tcpMessagesToSend.addFirst(message);
+    }
+
 }
@@ -1,16 +1,22 @@
 package Server;
 
+import Network.HeartbeatMonitor;
 import Utility.SystemUtility.*;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages the list of clients and the addition of messages to their outgoing message buffer.
  */
 public class ClientManager {
     private static final List<Client> CLIENTS = Collections.synchronizedList(new ArrayList<>()); // List of clients
+    private static final Map<Integer, Client> CLIENTS_BY_ID = new ConcurrentHashMap<>(); // Clients by their id
+    private static final Set<String> USERNAMES = ConcurrentHashMap.newKeySet(); // Usernames of joined clients
     private static int currentPainterIndex = -1; // The index of the current painter
 
     /**
@@ -26,7 +32,11 @@ public class ClientManager {
      * @param client the client to be removed
      */
     protected static void removeClient(Client client) {
-        CLIENTS.remove(client);
+        if (CLIENTS.remove(client)) {
+            ServerMetrics.recordDisconnect();
+            ServerEvents.clientDisconnected(client);
+        }
+        CLIENTS_BY_ID.remove(client.getId(), client);
     }
 
     /**
@@ -34,7 +44,63 @@ public class ClientManager {
      * @param client the client to be added
      */
     protected static void addClient(Client client) {
+        CLIENTS_BY_ID.put(client.getId(), client);
         CLIENTS.add(client);
+        ServerMetrics.recordConnect();
+        ServerEvents.clientConnected(client);
+    }
+
+    /**
+     * Reserve a username for a client who is joining, so that no one else can join with it until it's released.
+     * A client keeps their username while they may resume a dropped session.
+     * @param username The username.
+     * @return True if the username was reserved; otherwise, false if another client is using it.
+     */
+    public static boolean reserveUsername(String username) {
+        return USERNAMES.add(username);
+    }
+
+    /**
+     * Release the username of a client who left, or who didn't finish joining.
+     * @param username The username.
+     */
+    public static void releaseUsername(String username) {
+        USERNAMES.remove(username);
+    }
+
+    /**
+     * Get the connected client with a specific id.
+     * @param id The id of the client.
+     * @return The client if it's connected; otherwise, null.
+     */
+    public static Client getClient(int id) {
+        return CLIENTS_BY_ID.get(id);
+    }
+
+    /**
+     * Get all connected clients.
+     * @return A copy of the list of clients.
+     */
+    public static List<Client> getClients() {
+        synchronized (CLIENTS) {
+            return new ArrayList<>(CLIENTS);
+        }
+    }
+
+    /**
+     * Get all clients whose connection is open, without the clients who may still resume a dropped session.
+     * @return A list of the clients.
+     */
+    public static List<Client> getOpenClients() {
+        List<Client> openClients = new ArrayList<>();
+        synchronized (CLIENTS) {
+            for (Client client : CLIENTS) {
+                if (!client.isClosed()) {
+                    openClients.add(client);
+                }
+            }
+        }
+        return openClients;
     }
 
     /**
@@ -45,9 +111,11 @@ public class ClientManager {
     public static List<Client> getClientsExcluding(int id) {
         List<Client> otherClients = new ArrayList<>(); // Create new list
         // Add all clients that don't have a matching id
-        for (Client client : CLIENTS) {
-            if (client.getId() != id) {
-                otherClients.add(client);
+        synchronized (CLIENTS) {
+            for (Client client : CLIENTS) {
+                if (client.getId() != id) {
+                    otherClients.add(client);
+                }
             }
         }
         return otherClients;
@@ -74,7 +142,7 @@ public class ClientManager {
      * Try to select a client to be the next painter.
      * This will find a client and ask their handler if they're ready to be the next painter,
      * if they do not respond within a certain time-limit, or there are less than 2 clients connected,
-     * the operation will fail.
+     * the operation will fail. Clients that aren't answering heartbeats are skipped.
      *
      * @return The next painter if successful; otherwise, null.
      */
@@ -87,10 +155,23 @@ public class ClientManager {
             try {
                 // Attempt to get the client (they might have disconnected)
                 Client nextPainter = CLIENTS.get(currentPainterIndex);
+                // Skip clients that aren't answering heartbeats, everyone would have to wait for their ACK
+                for (int skipped = 1; !HeartbeatMonitor.isResponsive(nextPainter); skipped++) {
+                    rotatePainterIndex();
+                    if (currentPainterIndex < 0 || skipped >= CLIENTS.size()) {
+                        return null;
+                    }
+                    nextPainter = CLIENTS.get(currentPainterIndex);
+                }
                 // Send a next painter request to client
                 nextPainter.addTcpSystemMessage(CommandType.NEXT_PAINTER, null);
                 // Wait for an ACK response from client for 5 seconds
-                if (nextPainter.findAckResponse(CommandType.NEXT_PAINTER_ACK.toString())) {
+                long waitStart = System.nanoTime();
+                boolean accepted = nextPainter.findAckResponse(CommandType.NEXT_PAINTER_ACK.toString());
+                long waited = System.nanoTime() - waitStart;
+                ServerMetrics.recordAckWait(waited, accepted);
+                ServerEvents.painterSelected(nextPainter.getId(), waited, accepted);
+                if (accepted) {
                     // The client accepted the painter role, return the next painter
                     return nextPainter;
                 }
@@ -111,10 +192,17 @@ public class ClientManager {
     public synchronized static void broadcastSystemMessage(CommandType commandType) {
         // Create new system command without data
         Command command = new Command(commandType,null);
-        for (Client client : CLIENTS) {
-            // Add system message to client's buffer
-            client.addTcpSystemMessage(command.toString());
+        recordSystemMessage(command);
+        long start = System.nanoTime();
+        synchronized (CLIENTS) {
+            for (Client client : CLIENTS) {
+                // Add system message to client's buffer, unless their connection dropped
+                if (!client.isClosed()) {
+                    client.addTcpSystemMessage(command.toString());
+                }
+            }
         }
+        ServerMetrics.recordBroadcast(System.nanoTime() - start);
     }
 
     /**
@@ -125,20 +213,78 @@ public class ClientManager {
     public synchronized static void broadcastSystemMessage(CommandType commandType, String data) {
         // Create new system command without data
         Command command = new Command(commandType,List.of(data));
-        for (Client client : CLIENTS) {
-            // Add system message to client's buffer
-            client.addTcpSystemMessage(command.toString());
+        recordSystemMessage(command);
+        long start = System.nanoTime();
+        synchronized (CLIENTS) {
+            for (Client client : CLIENTS) {
+                // Add system message to client's buffer, unless their connection dropped
+                if (!client.isClosed()) {
+                    client.addTcpSystemMessage(command.toString());
+                }
+            }
+        }
+        ServerMetrics.recordBroadcast(System.nanoTime() - start);
+    }
+
+    /**
+     * Add a system message to all clients' outgoing tcp message buffer with a list of data.
+     * @param commandType The type of command to be sent.
+     * @param data The data to be sent.
+     */
+    public synchronized static void broadcastSystemMessage(CommandType commandType, List<String> data) {
+        // Create new system command with data
+        Command command = new Command(commandType,data);
+        recordSystemMessage(command);
+        long start = System.nanoTime();
+        synchronized (CLIENTS) {
+            for (Client client : CLIENTS) {
+                // Add system message to client's buffer, unless their connection dropped
+                if (!client.isClosed()) {
+                    client.addTcpSystemMessage(command.toString());
+                }
+            }
         }
+        ServerMetrics.recordBroadcast(System.nanoTime() - start);
     }
 
     /**
      * Add a regular message to all clients' outgoing tcp message buffer.
      * @param message the message to be sent.
      */
-    public synchronized static void broadcastMessage(String message) {
-        for (Client client : CLIENTS) {
-            // Add message to client's buffer
-            client.addTcpMessage(message);
+    public static void broadcastMessage(String message) {
+        broadcastMessage(message, true);
+    }
+
+    /**
+     * Add a regular message to all clients' outgoing tcp message buffer.
+     * @param message the message to be sent.
+     * @param record If the message is recorded in the round recording, false if what it says was recorded already.
+     */
+    public synchronized static void broadcastMessage(String message, boolean record) {
+        if (record) {
+            RoundRecorder.recordChat(message);
+        }
+        long start = System.nanoTime();
+        synchronized (CLIENTS) {
+            for (Client client : CLIENTS) {
+                // Add message to client's buffer, unless their connection dropped
+                if (!client.isClosed()) {
+                    client.addTcpMessage(message);
+                }
+            }
+        }
+        ServerMetrics.recordBroadcast(System.nanoTime() - start);
+    }
+
+    /**
+     * Record a broadcast system message in the round recording. Tile checksums are left out, since they can be
+     * computed from the recorded drawing, and so are leaderboard changes, which only make sense to a client
+     * who received every change before them.
+     * @param command The broadcast command.
+     */
+    private static void recordSystemMessage(Command command) {
+        if (command.commandType() != CommandType.TILE_CHECKSUMS && command.commandType() != CommandType.LEADERBOARD) {
+            RoundRecorder.recordSystem(command.toString());
         }
     }
 }
@@ -1,9 +1,18 @@
 package Server;
 
+import Network.HeartbeatMonitor;
+import Network.MetricsEndpoint;
+import Network.StrokeSimplifier;
 import Network.Tcp.TcpServerController;
 import Network.UdpHandler;
 import Utility.WordGenerator;
 import Utility.SystemUtility.*;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.Semaphore;
@@ -16,7 +25,23 @@ import java.util.concurrent.Semaphore;
 public class DrawServer {
     private static final int TCP_PORT = 5000;  // Port for TCP connections
     private static final int UDP_PORT = 5001;  // Port for UDP connections
+    private static final double STROKE_TOLERANCE = 1.0; // Max deviation in pixels of relayed strokes (0 disables)
+    private static final int STROKE_MAX_LATENCY = 40; // Max time in milliseconds that relayed points are buffered
+    private static final Path RECORDING_DIRECTORY = Path.of("recordings"); // Where rounds are recorded (null disables)
+    private static final int METRICS_PORT = 9464; // Local port for the Prometheus metrics endpoint (0 disables)
+    private static final Path LOG_DIRECTORY = Path.of("logs"); // Where the server log is written (null disables)
+    private static final int MESSAGE_LOG_SAMPLE = 10; // One in how many client messages is logged
+    private static final int HEARTBEAT_INTERVAL = 1000; // Time in milliseconds between heartbeats to each client
+    private static final int HEARTBEAT_TIMEOUT = 5000; // Time in milliseconds without messages before a disconnect
+    private static final double GUESS_DIGEST_RATE = 20; // Guesses per second that start digests (0 disables)
+    private static final int GUESS_DIGEST_WINDOW = 500; // Time in milliseconds that guesses are gathered per digest
+    private static final Path BANNED_WORDS_FILE = Path.of("banned_words.txt"); // Words masked in the chat, if any
+    private static final Path EVENT_LOG_DIRECTORY = Path.of("events"); // Where scores are kept (null disables)
+    private static final Path PROFILE_DIRECTORY = Path.of("profiles"); // Where profiles are kept (null disables)
+    private static final int PROFILE_CACHE_SIZE = 10_000; // The max number of profiles kept in memory
+    private static final int PROFILE_FLUSH_INTERVAL = 200; // Time in milliseconds between writing changed profiles
     private static String secretWord = null; // The word to paint/guess
+    private static int secretWordLength = 0; // The length of the current round's word, kept after it's guessed
     private static Client currentPainter; // The currently selected painter
     private static volatile boolean startNewRound = true; // Flag for when to start a new round
 
@@ -36,17 +61,26 @@ public class DrawServer {
         // Broadcast interruption
         ClientManager.broadcastSystemMessage(CommandType.INTERRUPT_ROUND, message);
         // Enable start of round
-        endRound();
+        endRound("interrupted");
     }
 
     /**
      * Stops an active round and sets the server up for a new round of gameplay.
+     * @param reason Why the round ended, such as "guessed", "timeout" or "interrupted".
      */
-    private static void endRound(){
+    private static void endRound(String reason){
+        if (!startNewRound) {
+            long duration = Instant.now().toEpochMilli() - startNewRoundTime;
+            ServerMetrics.recordRoundEnded(duration * 1_000_000L);
+            ServerEvents.roundEnded(currentPainter.getId(), secretWordLength, duration, reason);
+            EventLog.recordRound(currentPainter.getUsername(), reason, duration);
+        }
         secretWord = null; // Disable further guessing
+        ChatFilter.setSecretWord(null); // The word may be said once the round is over
         startNewRound = true; // Enable start of round
         // Broadcast that the round has ended
         ClientManager.broadcastSystemMessage(CommandType.END_ROUND);
+        RoundRecorder.endRound();
     }
 
     /**
@@ -95,16 +129,27 @@ public class DrawServer {
             if (nextPainter != null) {
                 // New painter was found
                 currentPainter = nextPainter;
+                currentPainter.getProfile().recordPainted();
+                ProfileStore.save(currentPainter.getProfile());
+                // Start the new round with an empty canonical canvas and a new recording
+                CanvasManager.clear();
+                RoundRecorder.startRound(currentPainter.getUsername());
                 // Announce that a new round is about to start
                 ClientManager.broadcastSystemMessage(CommandType.NEW_ROUND);
                 // Update currentWordToGuess
                 secretWord = WordGenerator.getNextWord();
+                secretWordLength = secretWord.length();
+                // Keep everyone from spoiling the word in the chat
+                ChatFilter.setSecretWord(secretWord);
                 // Tell the new painter about the secret word
                 currentPainter.addTcpSystemMessage(CommandType.SECRET_WORD, List.of(secretWord));
+                RoundRecorder.recordSystem(new Command(CommandType.SECRET_WORD, List.of(secretWord)).toString());
                 // Broadcast that a new round has started
                 ClientManager.broadcastSystemMessage(CommandType.START_ROUND, currentPainter.getUsername());
                 // Save current time
                 startNewRoundTime = Instant.now().toEpochMilli();
+                ServerMetrics.recordRoundStarted();
+                ServerEvents.roundStarted(currentPainter.getId(), secretWordLength);
                 return true;
             }
         } catch (InterruptedException e) {
@@ -117,22 +162,75 @@ public class DrawServer {
 
     /**
      * Initializes TCP and UDP reader/writer threads, and continuously attempts to start new rounds of gameplay.
-     * @param args Ignored
+     * @param args Empty to host games, or "--replay file [speed]" to replay a recorded round to spectators instead
      */
     public static void main(String[] args) {
+        // Log to rotating files in the background, the console only gets INFO and above
+        if (LOG_DIRECTORY != null) {
+            ServerLog.startLogging(LOG_DIRECTORY, MESSAGE_LOG_SAMPLE);
+        }
+
+        // Restore the scoreboard from the event log before anyone can join, and keep every change in it
+        if (EVENT_LOG_DIRECTORY != null) {
+            EventLog.startLogging(EVENT_LOG_DIRECTORY);
+            // Commit what is queued when the server is stopped
+            Runtime.getRuntime().addShutdownHook(new Thread(EventLog::stopLogging));
+        }
+
+        // Keep the stats of every player between sessions, the most recent ones in memory
+        if (PROFILE_DIRECTORY != null) {
+            ProfileStore.startStore(PROFILE_DIRECTORY, PROFILE_CACHE_SIZE, PROFILE_FLUSH_INTERVAL);
+            // Write the changed profiles when the server is stopped
+            Runtime.getRuntime().addShutdownHook(new Thread(ProfileStore::stopStore));
+        }
+
+        // Mask banned words in the chat, if there's a list of them
+        ChatFilter.loadBannedWords(BANNED_WORDS_FILE);
+
+        // Send heartbeats and disconnect clients that stop answering them
+        HeartbeatMonitor.startMonitoring(HEARTBEAT_INTERVAL, HEARTBEAT_TIMEOUT);
+
         // Start TCP server controller
         Thread tcpThread = new Thread(new TcpServerController(TCP_PORT));
         tcpThread.start();
 
-        // Start UDP handler
-        Thread udpThread = new Thread(new UdpHandler(UDP_PORT));
+        // Expose the metrics over JMX, and over HTTP to local scrapers unless the port is disabled
+        ServerMetrics.register();
+        if (METRICS_PORT > 0) {
+            try {
+                new MetricsEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), METRICS_PORT));
+            } catch (IOException e) {
+                System.out.println("Could not serve metrics on port " + METRICS_PORT + ": " + e.getMessage());
+            }
+        }
+
+        if (args.length >= 2 && args[0].equals("--replay")) {
+            replay(Path.of(args[1]), args.length >= 3 ? Double.parseDouble(args[2]) : 1);
+            return;
+        }
+        if (RECORDING_DIRECTORY != null) {
+            RoundRecorder.startRecording(RECORDING_DIRECTORY);
+        }
+        // Gather wrong guesses into digests while the room guesses faster than the rate, unless disabled
+        if (GUESS_DIGEST_RATE > 0) {
+            GuessDigest.startDigesting(GUESS_DIGEST_RATE, GUESS_DIGEST_WINDOW);
+        }
+
+        // Start UDP handler, simplifying relayed strokes unless the tolerance is disabled
+        StrokeSimplifier simplifier = STROKE_TOLERANCE > 0
+                ? new StrokeSimplifier(STROKE_TOLERANCE, STROKE_MAX_LATENCY) : null;
+        Thread udpThread = new Thread(new UdpHandler(UDP_PORT, simplifier));
         udpThread.start();
 
         // Start new rounds while server is alive
         while (true) {
                 // If a round is currently active, check if the round has exceeded the round time
                 if (!startNewRound && getElapsedRoundTime() > Utility.SystemUtility.ROUND_LENGTH) {
-                    endRound();
+                    endRound("timeout");
+                }
+                // Let the clients detect if their canvas has drifted from the canonical canvas
+                if (!startNewRound) {
+                    CanvasManager.broadcastChecksumsIfDue();
                 }
                 // Check if a new round should start
                 if (startNewRound) {
@@ -154,6 +252,19 @@ public class DrawServer {
         }
     }
 
+    /**
+     * Replay a recorded round to every connected client instead of hosting games, no one can paint.
+     * @param path The path of the recording.
+     * @param speed How many times faster than recorded to play.
+     */
+    private static void replay(Path path, double speed) {
+        try (DatagramSocket udpSocket = new DatagramSocket(UDP_PORT)) {
+            new ReplayBroadcaster(udpSocket).replayForever(path, speed);
+        } catch (SocketException e) {
+            System.out.println("Could not listen for UDP traffic on port " + UDP_PORT + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Verify if the guess matches the current word to be guessed.
      * @param guess The guessed word.
@@ -173,9 +284,11 @@ public class DrawServer {
                 int remainingTimeInSeconds = Utility.SystemUtility.ROUND_LENGTH - getElapsedRoundTime();
                 // Give guesser 10 times the amount of seconds in points
                 int rewardedPoints = remainingTimeInSeconds * 10;
-                client.addPoints(rewardedPoints);
+                Scoreboard.addPoints(client, rewardedPoints);
+                client.getProfile().recordGuessed();
+                ProfileStore.save(client.getProfile());
                 // Enable start of new round
-                endRound();
+                endRound("guessed");
                 return true;
             }
         } catch (InterruptedException e) {
@@ -192,6 +305,10 @@ public class DrawServer {
      */
     public static void addClient(Client client){
         ClientManager.addClient(client); // Add client to list
+        Scoreboard.addClient(client); // Give them their points back and show them the top players
+        EventLog.recordJoin(client.getUsername());
+        client.getProfile().recordSession(System.currentTimeMillis());
+        ProfileStore.save(client.getProfile());
         // Check if a round is currently active
         if(!startNewRound && getRemainingRoundTime() > 0){
             // Let the client join the current round
@@ -215,6 +332,8 @@ public class DrawServer {
 
             // Remove client
             ClientManager.removeClient(client);
+            client.getProfile().recordLeft(System.currentTimeMillis());
+            ProfileStore.save(client.getProfile());
             if (client.equals(currentPainter)) {
                 // removed player was the current painter
                 interruptRound("The round was interrupted because the painter disconnected.");
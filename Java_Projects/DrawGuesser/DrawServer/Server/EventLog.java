@@ -0,0 +1,381 @@
+package Server;
+
+import Utility.SegmentedLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the game's history on disk: every join, change of points and round result is appended to a segmented log,
+ * so that the scoreboard survives a restart or a crash. The threads that produce events only queue them, and this
+ * thread writes every event that is waiting at once and syncs them to the disk with a single commit, so the round
+ * logic never waits for the disk and a busy server doesn't need a sync per event. Events that weren't committed
+ * yet are lost in a crash, which is at most one batch. Whenever a segment fills up, the points of every player
+ * are written to a snapshot and the older segments are deleted, so a restart only has to read the latest snapshot
+ * and the segment after it.
+ */
+public class EventLog extends Thread {
+    private static final long SEGMENT_SIZE = 4_000_000; // The size in bytes at which a new segment is started
+    private static final int MAX_BATCH = 4096; // The max number of events written per commit
+    private static final int MAX_EVENT_SIZE = 1 << 16; // The max size in bytes of an event
+    private static final long IDLE_WAIT = 100_000_000; // Time in nanoseconds to wait if no event wakes the thread
+    private static final String SNAPSHOT_PREFIX = "snapshot-"; // The start of the name of every snapshot
+    private static final String SNAPSHOT_SUFFIX = ".snap"; // The end of the name of every snapshot
+    private static final int SNAPSHOT_MAGIC = 0x44475353; // "DGSS", the first bytes of every snapshot
+    private static volatile EventLog instance = null; // The event log, or null if events aren't kept
+
+    private final Path directory; // The directory of the segments and snapshots
+    private final SegmentedLog log; // The segments that events are appended to
+    private final Map<String, Integer> scores; // The points of each player as of the last written event
+    private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>(); // Events to write, any thread
+    private final ByteBuffer payload = ByteBuffer.allocate(MAX_EVENT_SIZE); // Reused for encoding each event
+    private volatile boolean alive = true;
+
+    /**
+     * The kinds of events in the log.
+     */
+    public enum EventType {
+        JOIN, // A client joined: username
+        SCORE, // A player got points: username, points added, points in total
+        ROUND // A round ended: painter, reason, duration in milliseconds
+    }
+
+    /**
+     * An event waiting to be written.
+     * @param type The kind of event.
+     * @param time The time of the event in epoch milliseconds.
+     * @param username The username of the client the event is about.
+     * @param text The reason a round ended, or null.
+     * @param value The points added or the duration of the round.
+     * @param total The points in total, or 0.
+     */
+    private record Event(EventType type, long time, String username, String text, int value, int total) {
+    }
+
+    /**
+     * Kill this thread after it has committed every queued event.
+     */
+    public void kill() {
+        alive = false;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Initialize the event log and start writing events.
+     * @param directory The directory of the segments and snapshots.
+     * @param log The segments, opened after the last recovered event.
+     * @param scores The recovered points of each player.
+     */
+    private EventLog(Path directory, SegmentedLog log, Map<String, Integer> scores) {
+        super("event-log");
+        this.directory = directory;
+        this.log = log;
+        this.scores = scores;
+        setDaemon(true);
+        this.start();
+    }
+
+    /**
+     * Rebuild the scoreboard from the latest snapshot and the events after it, then start logging new events.
+     * Must be called before any client can join.
+     * @param directory The directory of the segments and snapshots, created if it doesn't exist.
+     */
+    public static synchronized void startLogging(Path directory) {
+        if (instance != null) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Map<String, Integer> scores = new HashMap<>();
+            long snapshotSequence = readSnapshot(directory, scores);
+            long[] replayed = new long[1];
+            long lastSequence = SegmentedLog.read(directory, snapshotSequence, (sequence, event) -> {
+                apply(event, scores);
+                replayed[0]++;
+            });
+            Scoreboard.restore(scores);
+            instance = new EventLog(directory, new SegmentedLog(directory, SEGMENT_SIZE, lastSequence + 1), scores);
+            long duration = System.nanoTime() - start;
+            ServerMetrics.recordRecovery(duration);
+            ServerLog.info("event-log", -1, String.format("Recovered %d scores from snapshot %d and %d events"
+                    + " after it in %.1f ms, logging to %s", scores.size(), snapshotSequence, replayed[0],
+                    duration / 1e6, directory.toAbsolutePath()));
+        } catch (IOException | RuntimeException e) {
+            ServerLog.warn("event-log", -1, "Could not recover the event log, events aren't kept: " + e);
+        }
+    }
+
+    /**
+     * Stop logging events, after every queued event has been committed.
+     */
+    public static synchronized void stopLogging() {
+        EventLog eventLog = instance;
+        if (eventLog != null) {
+            instance = null;
+            eventLog.kill();
+            try {
+                eventLog.join();
+            } catch (InterruptedException e) {
+                System.out.println("Interrupted while committing the event log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Log that a client joined.
+     * @param username The username of the client.
+     */
+    public static void recordJoin(String username) {
+        queue(new Event(EventType.JOIN, System.currentTimeMillis(), username, null, 0, 0));
+    }
+
+    /**
+     * Log that a player got points. Must be called in the order the points were added.
+     * @param username The username of the player.
+     * @param addition The points added.
+     * @param total The points of the player in total.
+     */
+    public static void recordScore(String username, int addition, int total) {
+        queue(new Event(EventType.SCORE, System.currentTimeMillis(), username, null, addition, total));
+    }
+
+    /**
+     * Log that a round ended.
+     * @param painter The username of the painter.
+     * @param reason Why the round ended, such as "guessed".
+     * @param duration The duration of the round in milliseconds.
+     */
+    public static void recordRound(String painter, String reason, long duration) {
+        queue(new Event(EventType.ROUND, System.currentTimeMillis(), painter, reason,
+                (int) Math.min(Integer.MAX_VALUE, duration), 0));
+    }
+
+    /**
+     * Queue an event and wake the writer, unless events aren't kept.
+     * @param event The event.
+     */
+    private static void queue(Event event) {
+        EventLog eventLog = instance;
+        if (eventLog != null) {
+            eventLog.events.add(event);
+            LockSupport.unpark(eventLog);
+        }
+    }
+
+    /**
+     * Commit the queued events in batches while alive, and everything still queued when killed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (alive || !events.isEmpty()) {
+                if (events.isEmpty()) {
+                    LockSupport.parkNanos(IDLE_WAIT);
+                    continue;
+                }
+                // Everything that queued up during the last commit goes into the next one
+                long start = System.nanoTime();
+                int count = 0;
+                Event event;
+                while (count < MAX_BATCH && (event = events.poll()) != null) {
+                    write(event);
+                    count++;
+                }
+                log.commit();
+                ServerMetrics.recordEventCommit(count, System.nanoTime() - start);
+                if (log.isSegmentFull()) {
+                    log.startSegment();
+                    writeSnapshot(log.getNextSequence() - 1);
+                    log.deleteOldSegments();
+                }
+            }
+            log.close();
+        } catch (IOException e) {
+            ServerLog.warn("event-log", -1, "Stopped keeping events: " + e.getMessage());
+            instance = null;
+        }
+    }
+
+    /**
+     * Encode an event, append it to the log and apply it to the points kept for snapshots.
+     * @param event The event.
+     * @throws IOException If the log couldn't be written.
+     */
+    private void write(Event event) throws IOException {
+        payload.clear();
+        try {
+            payload.put((byte) event.type().ordinal());
+            payload.putLong(event.time());
+            putString(payload, event.username());
+            switch (event.type()) {
+                case SCORE -> {
+                    payload.putInt(event.value());
+                    payload.putInt(event.total());
+                    scores.put(event.username(), event.total());
+                }
+                case ROUND -> {
+                    putString(payload, event.text());
+                    payload.putInt(event.value());
+                }
+                case JOIN -> {
+                }
+            }
+        } catch (BufferOverflowException e) {
+            ServerLog.warn("event-log", -1, "Skipped an event that is too large: " + event.type());
+            return;
+        }
+        payload.flip();
+        log.append(payload);
+    }
+
+    /**
+     * Apply a recovered event to the points of each player.
+     * @param event The payload of the event.
+     * @param scores The points of each player.
+     */
+    private static void apply(ByteBuffer event, Map<String, Integer> scores) {
+        int type = event.get();
+        event.getLong(); // The time
+        String username = getString(event);
+        if (type == EventType.SCORE.ordinal()) {
+            event.getInt(); // The points added
+            scores.put(username, event.getInt());
+        }
+    }
+
+    /**
+     * Write the points of every player as of an event to a new snapshot, and delete the older snapshots.
+     * The snapshot is written to a temporary file that is moved into place once it's on the disk,
+     * so a crash leaves either the whole snapshot or none of it.
+     * @param sequence The sequence number of the last event in the snapshot.
+     * @throws IOException If the snapshot couldn't be written.
+     */
+    private void writeSnapshot(long sequence) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(SNAPSHOT_MAGIC);
+        data.writeLong(sequence);
+        data.writeInt(scores.size());
+        for (Map.Entry<String, Integer> score : scores.entrySet()) {
+            data.writeUTF(score.getKey());
+            data.writeInt(score.getValue());
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(bytes.toByteArray());
+        data.writeInt((int) checksum.getValue());
+
+        Path snapshot = directory.resolve(String.format("%s%016d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+        Path temporary = directory.resolve(snapshot.getFileName() + ".tmp");
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer out = ByteBuffer.wrap(bytes.toByteArray());
+            while (out.hasRemaining()) {
+                file.write(out);
+            }
+            file.force(false);
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        for (Path old : listSnapshots(directory)) {
+            if (!old.equals(snapshot)) {
+                Files.delete(old);
+            }
+        }
+    }
+
+    /**
+     * Read the latest snapshot that is complete, skipping any that are damaged.
+     * @param directory The directory of the snapshots.
+     * @param scores Receives the points of each player in the snapshot.
+     * @return The sequence number of the last event in the snapshot, or 0 if there is no snapshot.
+     * @throws IOException If the directory couldn't be listed.
+     */
+    private static long readSnapshot(Path directory, Map<String, Integer> scores) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        List<Path> snapshots = listSnapshots(directory);
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            try {
+                byte[] bytes = Files.readAllBytes(snapshots.get(i));
+                CRC32C checksum = new CRC32C();
+                checksum.update(bytes, 0, bytes.length - 4);
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+                if (data.readInt() != SNAPSHOT_MAGIC
+                        || ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt() != (int) checksum.getValue()) {
+                    throw new IOException("The checksum doesn't match");
+                }
+                long sequence = data.readLong();
+                int count = data.readInt();
+                for (int j = 0; j < count; j++) {
+                    scores.put(data.readUTF(), data.readInt());
+                }
+                return sequence;
+            } catch (IOException | IndexOutOfBoundsException e) {
+                ServerLog.warn("event-log", -1, "Skipped snapshot " + snapshots.get(i) + ": " + e.getMessage());
+                scores.clear();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * List the snapshots in a directory, oldest first.
+     * @param directory The directory.
+     * @return The paths of the snapshots.
+     * @throws IOException If the directory couldn't be listed.
+     */
+    private static List<Path> listSnapshots(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX)) {
+                    snapshots.add(file);
+                }
+            }
+        }
+        snapshots.sort(null);
+        return snapshots;
+    }
+
+    /**
+     * Write a string as its length in bytes followed by its UTF-8 bytes.
+     * @param buffer The buffer to write to.
+     * @param text The string.
+     */
+    private static void putString(ByteBuffer buffer, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Read a string written by putString.
+     * @param buffer The buffer to read from.
+     * @return The string.
+     */
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,131 @@
+package Server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Broadcasts wrong guesses, on their own while guessing is calm and gathered into one digest per window while
+ * the room guesses faster than a threshold. Every broadcast is queued for every client, so in a large room a
+ * digest replaces hundreds of broadcasts with one. The digest mode starts once a window's guess rate exceeds the
+ * threshold and stops once it falls below half of it, so it doesn't flap around the threshold.
+ * Correct guesses and system messages don't pass through here and are never delayed.
+ * Guesses gathered into a digest are recorded one by one as they're submitted, in the form they would have been
+ * broadcast in, so that a round recording keeps every guess and not only those listed in a digest.
+ */
+public class GuessDigest extends Thread {
+    private static final int MAX_DIGEST_GUESSES = 40; // Max guesses listed in a digest, the rest are only counted
+    private static volatile GuessDigest instance = null; // The digest thread, or null if digests are disabled
+
+    private final double threshold; // Guesses per second above which guesses are gathered into digests
+    private final int window; // Time in milliseconds between digests
+    private final AtomicInteger windowGuesses = new AtomicInteger(); // Wrong guesses submitted in this window
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>(); // Guesses to digest
+    private final StringBuilder digest = new StringBuilder(); // Reused for building each digest
+    private volatile boolean digesting = false; // If guesses are currently gathered into digests
+    private volatile boolean alive = true;
+
+    /**
+     * Kill this thread after it has broadcast the pending guesses.
+     */
+    public void kill() {
+        alive = false;
+    }
+
+    /**
+     * Initialize the digest thread and start measuring the guess rate.
+     * @param threshold Guesses per second above which guesses are gathered into digests.
+     * @param window Time in milliseconds between digests.
+     */
+    private GuessDigest(double threshold, int window) {
+        super("guess-digest");
+        this.threshold = threshold;
+        this.window = window;
+        setDaemon(true);
+        this.start();
+    }
+
+    /**
+     * Start gathering wrong guesses into digests when the room guesses too fast.
+     * @param threshold Guesses per second above which guesses are gathered into digests.
+     * @param window Time in milliseconds between digests.
+     */
+    public static synchronized void startDigesting(double threshold, int window) {
+        if (instance == null) {
+            instance = new GuessDigest(threshold, window);
+        }
+    }
+
+    /**
+     * Broadcast a wrong guess now, or with the next digest if the room is guessing too fast.
+     * @param points The game points of the client who guessed.
+     * @param username The username of the client who guessed.
+     * @param guess The guessed word.
+     */
+    public static void submit(int points, String username, String guess) {
+        GuessDigest guessDigest = instance;
+        if (guessDigest != null) {
+            guessDigest.windowGuesses.incrementAndGet();
+            if (guessDigest.digesting) {
+                RoundRecorder.recordChat("(" + points + ") " + username + " - Guessed: " + guess);
+                guessDigest.pending.add("(" + points + ") " + username + " - " + guess);
+                return;
+            }
+        }
+        ClientManager.broadcastMessage("(" + points + ") " + username + " - Guessed: " + guess);
+    }
+
+    /**
+     * Update the mode from each window's guess rate and broadcast the digest of each window, while alive.
+     */
+    @Override
+    public void run() {
+        while (alive) {
+            try {
+                Thread.sleep(window);
+            } catch (InterruptedException e) {
+                break;
+            }
+            double rate = windowGuesses.getAndSet(0) * 1000.0 / window;
+            if (!digesting && rate > threshold) {
+                digesting = true;
+                ServerLog.info("guess-digest", -1, String.format("Started at %.0f guesses/s", rate));
+            } else if (digesting && rate < threshold / 2) {
+                digesting = false;
+                ServerLog.info("guess-digest", -1, String.format("Stopped at %.0f guesses/s", rate));
+            }
+            broadcastDigest();
+        }
+        broadcastDigest();
+    }
+
+    /**
+     * Broadcast the pending guesses as one message, if there are any.
+     * Guesses past the max are counted instead of listed, to keep the message short.
+     */
+    private void broadcastDigest() {
+        String guess = pending.poll();
+        if (guess == null) {
+            return;
+        }
+        digest.setLength(0);
+        digest.append("Guesses: ");
+        int listed = 0;
+        int unlisted = 0;
+        for (; guess != null; guess = pending.poll()) {
+            if (listed < MAX_DIGEST_GUESSES) {
+                if (listed > 0) {
+                    digest.append(" | ");
+                }
+                digest.append(guess);
+                listed++;
+            } else {
+                unlisted++;
+            }
+        }
+        if (unlisted > 0) {
+            digest.append(" | and ").append(unlisted).append(" more");
+        }
+        // The guesses of the digest were recorded when they were submitted
+        ClientManager.broadcastMessage(digest.toString(), false);
+    }
+}
@@ -0,0 +1,200 @@
+package Server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The stats that are kept about a player between sessions, known by their username. The first player to join with
+ * a username claims it with a secret key, and only a player who presents the same key is given the profile and the
+ * points of the username later. Only a hash of the key is kept. Changes are made by the threads handling the player
+ * and saved by the {@link ProfileStore}, so every method is synchronized.
+ */
+public class Profile {
+    private static final byte VERSION = 2; // The version of the stored format, 1 had no key
+
+    private final String username; // The username of the player
+    private final long firstSeen; // The time the player first joined, in epoch milliseconds
+    private long lastSeen; // The time the player last joined or left, in epoch milliseconds
+    private int sessions; // The number of times the player has joined
+    private int roundsPainted; // The number of rounds the player has painted
+    private int wordsGuessed; // The number of words the player has guessed first
+    private byte[] keyHash; // The SHA-256 hash of the key of the player, or null if no one has claimed the username
+
+    /**
+     * Create the profile of a player who has never joined before.
+     * @param username The username of the player.
+     * @param now The current time in epoch milliseconds.
+     */
+    public Profile(String username, long now) {
+        this(username, now, now, 0, 0, 0, null);
+    }
+
+    /**
+     * Create a profile with its stats.
+     * @param username The username of the player.
+     * @param firstSeen The time the player first joined, in epoch milliseconds.
+     * @param lastSeen The time the player last joined or left, in epoch milliseconds.
+     * @param sessions The number of times the player has joined.
+     * @param roundsPainted The number of rounds the player has painted.
+     * @param wordsGuessed The number of words the player has guessed first.
+     * @param keyHash The hash of the key of the player, or null if no one has claimed the username.
+     */
+    private Profile(String username, long firstSeen, long lastSeen, int sessions, int roundsPainted,
+                    int wordsGuessed, byte[] keyHash) {
+        this.username = username;
+        this.firstSeen = firstSeen;
+        this.lastSeen = lastSeen;
+        this.sessions = sessions;
+        this.roundsPainted = roundsPainted;
+        this.wordsGuessed = wordsGuessed;
+        this.keyHash = keyHash;
+    }
+
+    /**
+     * Check that a player holds the key of the username, or claim the username with the key if no one has.
+     * @param key The key the player presented.
+     * @return True if the player may use the profile; otherwise, false if the key belongs to someone else.
+     */
+    public synchronized boolean claim(String key) {
+        byte[] hash = hash(key);
+        if (keyHash == null) {
+            keyHash = hash;
+            return true;
+        }
+        return MessageDigest.isEqual(keyHash, hash);
+    }
+
+    /**
+     * Hash the key of a player.
+     * @param key The key.
+     * @return The SHA-256 hash of the key.
+     */
+    private static byte[] hash(String key) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Record that the player joined.
+     * @param now The current time in epoch milliseconds.
+     */
+    public synchronized void recordSession(long now) {
+        sessions++;
+        lastSeen = now;
+    }
+
+    /**
+     * Record that the player left.
+     * @param now The current time in epoch milliseconds.
+     */
+    public synchronized void recordLeft(long now) {
+        lastSeen = now;
+    }
+
+    /**
+     * Record that the player painted a round.
+     */
+    public synchronized void recordPainted() {
+        roundsPainted++;
+    }
+
+    /**
+     * Record that the player guessed a word first.
+     */
+    public synchronized void recordGuessed() {
+        wordsGuessed++;
+    }
+
+    /**
+     * Get the username of the player.
+     * @return The username.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Get the number of times the player has joined.
+     * @return The number of sessions.
+     */
+    public synchronized int getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Get the number of rounds the player has painted.
+     * @return The number of rounds.
+     */
+    public synchronized int getRoundsPainted() {
+        return roundsPainted;
+    }
+
+    /**
+     * Get the number of words the player has guessed first.
+     * @return The number of words.
+     */
+    public synchronized int getWordsGuessed() {
+        return wordsGuessed;
+    }
+
+    /**
+     * Encode the stats for storing them.
+     * @return The encoded stats.
+     */
+    public synchronized byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream data = new DataOutputStream(bytes)) {
+            data.writeByte(VERSION);
+            data.writeLong(firstSeen);
+            data.writeLong(lastSeen);
+            data.writeInt(sessions);
+            data.writeInt(roundsPainted);
+            data.writeInt(wordsGuessed);
+            data.writeByte(keyHash != null ? keyHash.length : 0);
+            if (keyHash != null) {
+                data.write(keyHash);
+            }
+        } catch (IOException e) {
+            // Writing to a byte array can't fail
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode stored stats. A profile stored before keys were kept is unclaimed.
+     * @param username The username of the player.
+     * @param bytes The encoded stats.
+     * @return The profile.
+     * @throws IOException If the stats are in an unknown format.
+     */
+    public static Profile fromBytes(String username, byte[] bytes) throws IOException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte version = data.readByte();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unknown profile version");
+        }
+        long firstSeen = data.readLong();
+        long lastSeen = data.readLong();
+        int sessions = data.readInt();
+        int roundsPainted = data.readInt();
+        int wordsGuessed = data.readInt();
+        byte[] keyHash = null;
+        if (version == VERSION) {
+            int length = data.readUnsignedByte();
+            if (length > 0) {
+                keyHash = data.readNBytes(length);
+            }
+        }
+        return new Profile(username, firstSeen, lastSeen, sessions, roundsPainted, wordsGuessed, keyHash);
+    }
+}
@@ -0,0 +1,205 @@
+package Server;
+
+import Utility.KeyValueStore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps the profile of every player on disk in a {@link KeyValueStore}, behind a bounded cache of the profiles
+ * that were used most recently, so a player who comes back is usually loaded without reading the disk.
+ * Saving a profile only marks it as changed, and this thread writes every changed profile at once and syncs
+ * them with a single commit now and then, so no thread handling a client ever waits for the disk to save.
+ * Changed profiles are kept until they're written, even if the cache drops them, so loading never finds
+ * an older version on the disk.
+ */
+public class ProfileStore extends Thread {
+    private static final String FILE_NAME = "profiles.db"; // The name of the store's file
+    private static volatile ProfileStore instance = null; // The profile store, or null if profiles aren't kept
+
+    private final KeyValueStore store; // The profiles on disk
+    private final long flushInterval; // Time in nanoseconds between writing the changed profiles
+    private final Map<String, Profile> cache; // The most recently used profiles, guarded by itself
+    private final Map<String, Profile> changed = new ConcurrentHashMap<>(); // Saved profiles waiting to be written
+    private final Map<String, Profile> writing = new ConcurrentHashMap<>(); // Profiles being written
+    private volatile boolean alive = true;
+
+    /**
+     * Kill this thread after it has written every changed profile.
+     */
+    public void kill() {
+        alive = false;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Initialize the profile store and start writing changed profiles.
+     * @param store The profiles on disk.
+     * @param cacheSize The max number of profiles in the cache.
+     * @param flushInterval Time in milliseconds between writing the changed profiles.
+     */
+    private ProfileStore(KeyValueStore store, int cacheSize, int flushInterval) {
+        super("profile-writer");
+        this.store = store;
+        this.flushInterval = flushInterval * 1_000_000L;
+        // A linked map in access order drops the profile that was used the longest time ago
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Profile> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        setDaemon(true);
+        this.start();
+    }
+
+    /**
+     * Start keeping profiles on disk.
+     * @param directory The directory of the store's file, created if it doesn't exist.
+     * @param cacheSize The max number of profiles in the cache.
+     * @param flushInterval Time in milliseconds between writing the changed profiles.
+     */
+    public static synchronized void startStore(Path directory, int cacheSize, int flushInterval) {
+        if (instance != null) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            KeyValueStore store = new KeyValueStore(directory.resolve(FILE_NAME));
+            instance = new ProfileStore(store, cacheSize, flushInterval);
+            ServerLog.info("profile-store", -1, String.format("Indexed %d profiles in %.1f ms from %s",
+                    store.size(), (System.nanoTime() - start) / 1e6, directory.resolve(FILE_NAME).toAbsolutePath()));
+        } catch (IOException e) {
+            ServerLog.warn("profile-store", -1, "Could not open the profile store, profiles aren't kept: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop keeping profiles, after every changed profile has been written.
+     */
+    public static synchronized void stopStore() {
+        ProfileStore profileStore = instance;
+        if (profileStore != null) {
+            instance = null;
+            profileStore.kill();
+            try {
+                profileStore.join();
+            } catch (InterruptedException e) {
+                System.out.println("Interrupted while writing the profiles: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Load the profile of a player from the cache, or from the disk if it isn't cached. A player who has never
+     * joined gets a new profile. Profiles aren't kept if the store isn't started, then every player is new.
+     * @param username The username of the player.
+     * @return The profile.
+     */
+    public static Profile load(String username) {
+        ProfileStore profileStore = instance;
+        if (profileStore == null) {
+            return new Profile(username, System.currentTimeMillis());
+        }
+        Profile profile;
+        synchronized (profileStore.cache) {
+            profile = profileStore.cache.get(username);
+        }
+        if (profile != null) {
+            ServerMetrics.recordProfileLoad(true);
+            return profile;
+        }
+        ServerMetrics.recordProfileLoad(false);
+        profile = profileStore.changed.get(username);
+        if (profile == null) {
+            profile = profileStore.writing.get(username);
+        }
+        if (profile == null) {
+            profile = profileStore.read(username);
+        }
+        synchronized (profileStore.cache) {
+            // Another thread may have loaded the same player meanwhile, there must only be one profile
+            Profile loaded = profileStore.cache.putIfAbsent(username, profile);
+            return loaded != null ? loaded : profile;
+        }
+    }
+
+    /**
+     * Mark a profile as changed, so that it's written with the next batch.
+     * @param profile The profile.
+     */
+    public static void save(Profile profile) {
+        ProfileStore profileStore = instance;
+        if (profileStore != null) {
+            profileStore.changed.put(profile.getUsername(), profile);
+        }
+    }
+
+    /**
+     * Write the changed profiles in batches while alive, and every changed profile when killed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (alive) {
+                LockSupport.parkNanos(flushInterval);
+                writeChanged();
+            }
+            writeChanged();
+            store.close();
+        } catch (IOException e) {
+            ServerLog.warn("profile-store", -1, "Stopped keeping profiles: " + e.getMessage());
+            instance = null;
+        }
+    }
+
+    /**
+     * Write every changed profile and sync them with one commit, then compact the file if it's mostly old profiles.
+     * @throws IOException If the profiles couldn't be written.
+     */
+    private void writeChanged() throws IOException {
+        if (changed.isEmpty()) {
+            return;
+        }
+        for (String username : changed.keySet()) {
+            Profile profile = changed.get(username);
+            // Keep the profile findable while it's written, changes after this are saved again
+            writing.put(username, profile);
+            changed.remove(username, profile);
+            try {
+                store.put(username, profile.toBytes());
+            } catch (IllegalArgumentException e) {
+                ServerLog.warn("profile-store", -1, "Skipped a profile that is too large: " + e.getMessage());
+            }
+        }
+        store.commit();
+        writing.clear();
+        if (store.shouldCompact()) {
+            long size = store.getFileSize();
+            store.compact();
+            ServerLog.info("profile-store", -1, "Compacted " + size + " bytes to " + store.getFileSize());
+        }
+    }
+
+    /**
+     * Read a profile from the disk, or create a new one if the player has never joined.
+     * @param username The username of the player.
+     * @return The profile.
+     */
+    private Profile read(String username) {
+        try {
+            byte[] bytes = store.get(username);
+            if (bytes != null) {
+                return Profile.fromBytes(username, bytes);
+            }
+        } catch (IOException e) {
+            ServerLog.warn("profile-store", -1, "Could not read the profile of " + username + ": " + e.getMessage());
+        }
+        return new Profile(username, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,133 @@
+package Server;
+
+import Utility.RecordingPlayer;
+import Utility.RecordingReader;
+import Utility.SystemUtility;
+import Utility.SystemUtility.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Plays a round recording to every connected client, who watch it as spectators.
+ * The drawing is relayed as it was when the round was played, along with the chat and the round messages.
+ * The recording is played again after a pause for as long as the server runs.
+ */
+public class ReplayBroadcaster implements RecordingPlayer.Listener {
+    private static final int PAUSE = 5000; // Time in milliseconds between the end of a replay and the next
+    private static final int SPECTATOR_WAIT = 500; // Time in milliseconds between checks for spectators
+    // The recorded system messages that are shown to spectators, the others only concern the players of the round
+    private static final Set<CommandType> FORWARDED = EnumSet.of(CommandType.NEW_ROUND, CommandType.START_ROUND,
+            CommandType.END_ROUND, CommandType.INTERRUPT_ROUND);
+    private final DatagramSocket socket; // The socket to relay the drawing through
+    private final byte[] relayData = new byte[SystemUtility.MAX_PACKET_SIZE]; // Datagram relayed to clients
+
+    /**
+     * Initialize the broadcaster.
+     * @param socket The socket to relay the drawing through, bound to the server's UDP port.
+     */
+    public ReplayBroadcaster(DatagramSocket socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Replay a recording to the connected clients until the thread is interrupted.
+     * @param path The path of the recording.
+     * @param speed How many times faster than recorded to play.
+     */
+    public void replayForever(Path path, double speed) {
+        ServerLog.info("replay", -1, String.format("Replaying %s at %.1fx to spectators", path, speed));
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // Wait for spectators before starting the replay
+                if (ClientManager.numOfClients() == 0) {
+                    Thread.sleep(SPECTATOR_WAIT);
+                    continue;
+                }
+                try (RecordingReader reader = new RecordingReader(path)) {
+                    long played = new RecordingPlayer(reader, speed).play(this);
+                    ServerLog.info("replay", -1, "Replayed " + played + " events");
+                }
+                Thread.sleep(PAUSE);
+            } catch (IOException e) {
+                ServerLog.warn("replay", -1, "Could not replay " + path + ": " + e.getMessage());
+                return;
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Relay a recorded point: type, x-coordinate, y-coordinate
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @param strokeStart If the point starts a new stroke, which isn't relayed for single points.
+     */
+    @Override
+    public void onPoint(int x, int y, boolean strokeStart) {
+        ByteBuffer relayBuffer = ByteBuffer.wrap(relayData);
+        relayBuffer.put((byte) PacketType.POINT.ordinal());
+        relayBuffer.putInt(x);
+        relayBuffer.putInt(y);
+        relay(relayBuffer.position());
+    }
+
+    /**
+     * Relay a recorded erase: type, left, top, right, bottom
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     */
+    @Override
+    public void onErase(int left, int top, int right, int bottom) {
+        ByteBuffer relayBuffer = ByteBuffer.wrap(relayData);
+        relayBuffer.put((byte) PacketType.ERASE.ordinal());
+        relayBuffer.putShort((short) left);
+        relayBuffer.putShort((short) top);
+        relayBuffer.putShort((short) right);
+        relayBuffer.putShort((short) bottom);
+        relay(relayBuffer.position());
+    }
+
+    /**
+     * Broadcast a recorded chat message.
+     * @param message The message.
+     */
+    @Override
+    public void onChat(String message) {
+        ClientManager.broadcastMessage(message);
+    }
+
+    /**
+     * Broadcast a recorded system message, if spectators should see it.
+     * @param command The command and its data.
+     */
+    @Override
+    public void onSystem(String command) {
+        Command parsed = Command.fromString(command);
+        if (parsed != null && FORWARDED.contains(parsed.commandType())) {
+            ClientManager.broadcastSystemMessage(parsed.commandType(), parsed.data());
+        }
+    }
+
+    /**
+     * Send the relay datagram to all clients.
+     * @param length The length of the relay datagram.
+     */
+    private void relay(int length) {
+        for (Client client : ClientManager.getOpenClients()) {
+            try {
+                socket.send(new DatagramPacket(relayData, length, client.getAddress(), client.getUDP_PORT()));
+            } catch (IOException e) {
+                ServerLog.warn("replay-relay", client.getId(), e.getMessage());
+            }
+        }
+    }
+}
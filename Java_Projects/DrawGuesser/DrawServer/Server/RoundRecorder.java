@@ -0,0 +1,356 @@
+package Server;
+
+import Utility.EventRing;
+import Utility.RecordingReader;
+import Utility.RecordingReader.EventType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the drawing stream and the chat and system messages of every round to its own append-only file,
+ * in the format read by {@link RecordingReader}. The threads that produce events only queue them, the file
+ * is written by this thread. Drawing events come from the UDP thread through a lock-free ring that drops
+ * events when full, so recording never blocks the relay.
+ */
+public class RoundRecorder extends Thread {
+    private static final int DRAWING_CAPACITY = 1 << 16; // The max number of queued drawing events
+    private static final int BUFFER_SIZE = 1 << 16; // The size in bytes of the write buffer
+    private static final long IDLE_WAIT = 1_000_000_000; // Time in nanoseconds to wait if no event wakes the thread
+    private static final byte START = -1; // Queued message: A new round starts, the text is the file name
+    private static volatile RoundRecorder instance = null; // The recorder, or null if recording is disabled
+
+    private final Path directory; // The directory to write recordings to
+    private final EventRing drawingEvents = new EventRing(DRAWING_CAPACITY); // Points and erases from the UDP thread
+    private final ConcurrentLinkedQueue<Message> messages = new ConcurrentLinkedQueue<>(); // Text events, any thread
+    private final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE); // Events waiting to be written to the file
+    private FileChannel file = null; // The recording of the current round, or null between rounds
+    private Path filePath = null; // The path of the recording of the current round
+    private long lastEventTime; // The time of the last written event in epoch milliseconds
+    private long eventCount; // The number of events written to the current recording
+    private long droppedAtStart; // The number of dropped drawing events when the current recording started
+    private volatile boolean idle = false; // If the thread is about to wait, so that a new event has to wake it
+    private volatile boolean alive = true;
+
+    /**
+     * A chat or system message, or the start of a round, queued with the time it happened.
+     * @param type The event type, or {@link #START}.
+     * @param time The time of the event in epoch milliseconds.
+     * @param text The text of the message.
+     */
+    private record Message(byte type, long time, String text) {
+    }
+
+    /**
+     * Kill this thread, which closes the current recording.
+     */
+    public void kill() {
+        alive = false;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Initialize the recorder and start writing events.
+     * @param directory The directory to write recordings to.
+     */
+    private RoundRecorder(Path directory) {
+        this.directory = directory;
+        setDaemon(true);
+        this.start();
+    }
+
+    /**
+     * Start recording rounds.
+     * @param directory The directory to write recordings to, created if it doesn't exist.
+     */
+    public static void startRecording(Path directory) {
+        if (instance == null) {
+            instance = new RoundRecorder(directory);
+            ServerLog.info("round-recorder", -1, "Recording rounds to " + directory.toAbsolutePath());
+        }
+    }
+
+    /**
+     * Start the recording of a new round, ending the recording of the previous round if it didn't end.
+     * @param painter The username of the painter.
+     */
+    public static void startRound(String painter) {
+        RoundRecorder recorder = instance;
+        if (recorder != null) {
+            long now = System.currentTimeMillis();
+            recorder.messages.add(new Message(START, now, "round-" + now + "-" + painter.replaceAll("\\W", "_") + ".dgr"));
+            recorder.wake();
+        }
+    }
+
+    /**
+     * Record the end of the current round.
+     */
+    public static void endRound() {
+        RoundRecorder recorder = instance;
+        if (recorder != null) {
+            recorder.messages.add(new Message((byte) EventType.END.ordinal(), System.currentTimeMillis(), null));
+            recorder.wake();
+        }
+    }
+
+    /**
+     * Record a point drawn by the painter. Must only be called from the UDP thread.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @param flags The flags of the point.
+     */
+    public static void recordPoint(int x, int y, byte flags) {
+        RoundRecorder recorder = instance;
+        if (recorder != null) {
+            recorder.drawingEvents.offer((byte) EventType.POINT.ordinal(), System.currentTimeMillis(),
+                    pack(x, y), flags);
+            recorder.wake();
+        }
+    }
+
+    /**
+     * Record a rectangle erased by the painter. Must only be called from the UDP thread.
+     * @param left The smallest x-coordinate of the rectangle.
+     * @param top The smallest y-coordinate of the rectangle.
+     * @param right The largest x-coordinate of the rectangle.
+     * @param bottom The largest y-coordinate of the rectangle.
+     */
+    public static void recordErase(int left, int top, int right, int bottom) {
+        RoundRecorder recorder = instance;
+        if (recorder != null) {
+            recorder.drawingEvents.offer((byte) EventType.ERASE.ordinal(), System.currentTimeMillis(),
+                    pack(left, top), pack(right, bottom));
+            recorder.wake();
+        }
+    }
+
+    /**
+     * Record a chat message broadcast to the room.
+     * @param message The message.
+     */
+    public static void recordChat(String message) {
+        recordText(EventType.CHAT, message);
+    }
+
+    /**
+     * Record a system message.
+     * @param command The command and its data, as sent after "/s ".
+     */
+    public static void recordSystem(String command) {
+        recordText(EventType.SYSTEM, command);
+    }
+
+    /**
+     * Queue a chat or system message.
+     * @param type The event type.
+     * @param text The text of the message.
+     */
+    private static void recordText(EventType type, String text) {
+        RoundRecorder recorder = instance;
+        if (recorder != null) {
+            recorder.messages.add(new Message((byte) type.ordinal(), System.currentTimeMillis(), text));
+            recorder.wake();
+        }
+    }
+
+    /**
+     * Wake the thread after an event was queued, if it's waiting. While it's busy, queuing costs no unpark.
+     */
+    private void wake() {
+        if (idle) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    /**
+     * Continuously write queued events in the order they happened while alive.
+     */
+    @Override
+    public void run() {
+        try {
+            Files.createDirectories(directory);
+            while (alive) {
+                if (!writeNextEvent()) {
+                    // Write what is buffered while there is nothing else to do
+                    flush();
+                    // Ask to be woken, then look again, so that an event queued meanwhile isn't left waiting
+                    idle = true;
+                    if (alive && messages.isEmpty() && drawingEvents.isEmpty()) {
+                        LockSupport.parkNanos(IDLE_WAIT);
+                    }
+                    idle = false;
+                }
+            }
+            closeRecording();
+        } catch (IOException e) {
+            ServerLog.warn("round-recorder", -1, "Round recording stopped: " + e.getMessage());
+            instance = null;
+        }
+    }
+
+    /**
+     * Write the oldest queued event, merging the drawing events and the messages by time.
+     * @return True if an event was taken; otherwise, false if there were none.
+     * @throws IOException If the recording couldn't be written.
+     */
+    private boolean writeNextEvent() throws IOException {
+        Message message = messages.peek();
+        boolean hasDrawing = !drawingEvents.isEmpty();
+        if (message == null && !hasDrawing) {
+            return false;
+        }
+        if (hasDrawing && (message == null || drawingEvents.peekTime() <= message.time())) {
+            byte type = drawingEvents.peekType();
+            long time = drawingEvents.peekTime();
+            long first = drawingEvents.peekFirst();
+            long second = drawingEvents.peekSecond();
+            drawingEvents.remove();
+            // Drawing between rounds isn't recorded
+            if (file != null) {
+                writeHeader(type, time, type == EventType.POINT.ordinal() ? 5 : 8);
+                out.putShort((short) (first >> 32));
+                out.putShort((short) first);
+                if (type == EventType.POINT.ordinal()) {
+                    out.put((byte) second);
+                } else {
+                    out.putShort((short) (second >> 32));
+                    out.putShort((short) second);
+                }
+                eventCount++;
+            }
+            return true;
+        }
+        messages.poll();
+        if (message.type() == START) {
+            closeRecording();
+            openRecording(message.text(), message.time());
+        } else if (file != null) {
+            byte[] text = message.text() == null ? new byte[0] : message.text().getBytes(StandardCharsets.UTF_8);
+            if (message.type() == EventType.END.ordinal()) {
+                writeHeader(message.type(), message.time(), 0);
+                eventCount++;
+                closeRecording();
+            } else {
+                writeHeader(message.type(), message.time(), 5 + text.length);
+                writeVarInt(text.length);
+                writeBytes(text);
+                eventCount++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create the recording of a new round and write its header.
+     * @param name The file name of the recording.
+     * @param startTime The start time of the round in epoch milliseconds.
+     * @throws IOException If the recording couldn't be created.
+     */
+    private void openRecording(String name, long startTime) throws IOException {
+        filePath = directory.resolve(name);
+        file = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        out.clear();
+        out.putInt(RecordingReader.MAGIC);
+        out.put(RecordingReader.VERSION);
+        out.putLong(startTime);
+        lastEventTime = startTime;
+        eventCount = 0;
+        droppedAtStart = drawingEvents.getDropped();
+    }
+
+    /**
+     * Write the rest of the current recording and close it, if there is one.
+     * @throws IOException If the recording couldn't be written.
+     */
+    private void closeRecording() throws IOException {
+        if (file == null) {
+            return;
+        }
+        flush();
+        ServerLog.info("round-recorder", -1, String.format("Recorded %d events (%d bytes, %d drawing events dropped)"
+                + " to %s", eventCount, file.size(), drawingEvents.getDropped() - droppedAtStart, filePath));
+        file.close();
+        file = null;
+    }
+
+    /**
+     * Write the type and the time since the previous event, making sure that the event fits in the buffer.
+     * @param type The event type.
+     * @param time The time of the event in epoch milliseconds.
+     * @param payloadSize The max size of the payload in bytes, not counting text written with writeBytes.
+     * @throws IOException If the buffer couldn't be flushed.
+     */
+    private void writeHeader(byte type, long time, int payloadSize) throws IOException {
+        if (out.remaining() < 6 + payloadSize) {
+            flush();
+        }
+        out.put(type);
+        // Events from different queues can be a millisecond out of order, which is recorded as no delay
+        writeVarInt((int) Math.max(0, Math.min(Integer.MAX_VALUE, time - lastEventTime)));
+        lastEventTime = Math.max(lastEventTime, time);
+    }
+
+    /**
+     * Write a non-negative integer using 7 bits per byte, where the high bit marks that more bytes follow.
+     * @param value The integer to write.
+     * @throws IOException If the buffer couldn't be flushed.
+     */
+    private void writeVarInt(int value) throws IOException {
+        if (out.remaining() < 5) {
+            flush();
+        }
+        while (value >= 0x80) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Write bytes through the buffer, flushing it as often as needed.
+     * @param bytes The bytes to write.
+     * @throws IOException If the buffer couldn't be flushed.
+     */
+    private void writeBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!out.hasRemaining()) {
+                flush();
+            }
+            int length = Math.min(out.remaining(), bytes.length - offset);
+            out.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Append the buffered events to the current recording.
+     * @throws IOException If the recording couldn't be written.
+     */
+    private void flush() throws IOException {
+        out.flip();
+        while (file != null && out.hasRemaining()) {
+            file.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Pack two coordinates into a long.
+     * @param x The first coordinate.
+     * @param y The second coordinate.
+     * @return The packed coordinates.
+     */
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+}
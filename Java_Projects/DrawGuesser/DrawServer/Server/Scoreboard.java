@@ -0,0 +1,134 @@
+package Server;
+
+import Utility.SystemUtility;
+import Utility.SystemUtility.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Keeps every player who has ever scored ordered by their points, and the leaderboard of the top players that the
+ * clients are shown. Players are known by their username, so a player who comes back gets their points back, and every
+ * change is kept in the {@link EventLog}, which restores the scoreboard when the server starts. Each change of points
+ * moves one player in the ordered set and then only reads the top of it, so the cost grows with the logarithm of the
+ * number of players, never with the number itself. Only the rows of the leaderboard that changed are broadcast, which
+ * is nothing at all when a player outside of it scores. Changes are made one at a time, since every client has to
+ * apply the changes in the order they were made. They only happen when someone guesses the word, so no one waits for
+ * the lock.
+ */
+public class Scoreboard {
+    private static final TreeSet<Score> SCORES = new TreeSet<>(); // Every player with points, best first
+    private static final Map<String, Score> SCORES_BY_NAME = new HashMap<>(); // The score of each player by name
+    private static Score[] leaderboard = new Score[0]; // The top players that the clients were last sent
+
+    /**
+     * Add game points to a client, log the change and tell everyone how the leaderboard changed, if it did.
+     * @param client The client who scored.
+     * @param addition The amount of points to add.
+     * @return The new number of points of the player.
+     */
+    public static synchronized int addPoints(Client client, int addition) {
+        client.addPoints(addition);
+        Score previous = SCORES_BY_NAME.get(client.getUsername());
+        int points = (previous != null ? previous.points() : 0) + addition;
+        if (previous != null) {
+            SCORES.remove(previous);
+        }
+        Score score = new Score(client.getUsername(), points);
+        SCORES_BY_NAME.put(score.username(), score);
+        SCORES.add(score);
+        EventLog.recordScore(score.username(), addition, points);
+        publishChanges();
+        return points;
+    }
+
+    /**
+     * Give a client who just joined the points of their username, and send them the whole leaderboard
+     * as a change from an empty leaderboard. The client must already be in the list of clients,
+     * so that they receive every later change.
+     * @param client The client.
+     */
+    public static synchronized void addClient(Client client) {
+        Score score = SCORES_BY_NAME.get(client.getUsername());
+        if (score != null) {
+            client.addPoints(score.points());
+        }
+        if (leaderboard.length > 0) {
+            client.addTcpSystemMessage(CommandType.LEADERBOARD, createChanges(new Score[0], leaderboard));
+        }
+    }
+
+    /**
+     * Replace every score, such as with the scores recovered from the event log, and tell everyone
+     * how the leaderboard changed.
+     * @param scores The points of each player by their username.
+     */
+    public static synchronized void restore(Map<String, Integer> scores) {
+        SCORES.clear();
+        SCORES_BY_NAME.clear();
+        for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+            Score score = new Score(entry.getKey(), entry.getValue());
+            SCORES_BY_NAME.put(score.username(), score);
+            SCORES.add(score);
+        }
+        publishChanges();
+    }
+
+    /**
+     * Read the top players from the ordered set and broadcast the rows that changed since the last time.
+     */
+    private static void publishChanges() {
+        Score[] next = new Score[Math.min(SystemUtility.LEADERBOARD_SIZE, SCORES.size())];
+        Iterator<Score> iterator = SCORES.iterator();
+        for (int i = 0; i < next.length; i++) {
+            next[i] = iterator.next();
+        }
+        List<String> changes = createChanges(leaderboard, next);
+        leaderboard = next;
+        if (changes != null) {
+            ClientManager.broadcastSystemMessage(CommandType.LEADERBOARD, changes);
+        }
+    }
+
+    /**
+     * Create the data of a LEADERBOARD command: the number of rows of the new leaderboard, followed by
+     * the rank, username and points of every row that differs from the old leaderboard.
+     * @param previous The old leaderboard.
+     * @param next The new leaderboard.
+     * @return The data of the command, or null if nothing changed.
+     */
+    private static List<String> createChanges(Score[] previous, Score[] next) {
+        List<String> changes = new ArrayList<>();
+        changes.add(String.valueOf(next.length));
+        for (int i = 0; i < next.length; i++) {
+            if (i >= previous.length || !previous[i].equals(next[i])) {
+                changes.add(String.valueOf(i + 1));
+                changes.add(next[i].username());
+                changes.add(String.valueOf(next[i].points()));
+            }
+        }
+        if (changes.size() == 1 && previous.length == next.length) {
+            return null;
+        }
+        return changes;
+    }
+
+    /**
+     * The points of a player, ordered by most points first and then by username.
+     * @param username The username of the player.
+     * @param points The game points of the player.
+     */
+    private record Score(String username, int points) implements Comparable<Score> {
+        @Override
+        public int compareTo(Score other) {
+            if (points != other.points) {
+                return Integer.compare(other.points, points);
+            }
+            return username.compareTo(other.username);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package Server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits the server's Java Flight Recorder events, so that game events can be lined up with GC pauses and CPU
+ * stalls in a recording. The events are in the "DrawGuesser" category and are only written while a recording is
+ * running, such as one started with -XX:StartFlightRecording or "jcmd pid JFR.start". Otherwise, each call costs
+ * a check of a flag that JFR keeps in the event class.
+ */
+public class ServerEvents {
+    private static final int QUEUE_OVERFLOW_DEPTH = 256; // Report queues at every multiple of this depth
+
+    /**
+     * Emit an event for a round that started.
+     * @param painterId The ID of the painter.
+     * @param wordLength The length of the secret word.
+     */
+    public static void roundStarted(int painterId, int wordLength) {
+        RoundStartEvent event = new RoundStartEvent();
+        if (event.shouldCommit()) {
+            event.painterId = painterId;
+            event.wordLength = wordLength;
+            event.commit();
+        }
+    }
+
+    /**
+     * Emit an event for a round that ended.
+     * @param painterId The ID of the painter.
+     * @param wordLength The length of the secret word.
+     * @param millis The duration of the round in milliseconds.
+     * @param reason Why the round ended, such as "guessed", "timeout" or "interrupted".
+     */
+    public static void roundEnded(int painterId, int wordLength, long millis, String reason) {
+        RoundEndEvent event = new RoundEndEvent();
+        if (event.shouldCommit()) {
+            event.painterId = painterId;
+            event.wordLength = wordLength;
+            event.roundDuration = millis;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+
+    /**
+     * Emit an event for an attempt to select the next painter.
+     * @param clientId The ID of the chosen client.
+     * @param nanos How long the client took to accept, or how long the server waited, in nanoseconds.
+     * @param accepted If the client accepted in time.
+     */
+    public static void painterSelected(int clientId, long nanos, boolean accepted) {
+        PainterSelectionEvent event = new PainterSelectionEvent();
+        if (event.shouldCommit()) {
+            event.clientId = clientId;
+            event.ackLatency = nanos;
+            event.accepted = accepted;
+            event.commit();
+        }
+    }
+
+    /**
+     * Emit an event for a client that connected.
+     * @param client The client.
+     */
+    public static void clientConnected(Client client) {
+        ClientConnectEvent event = new ClientConnectEvent();
+        if (event.shouldCommit()) {
+            event.clientId = client.getId();
+            event.username = client.getUsername();
+            event.address = client.getAddress().getHostAddress();
+            event.commit();
+        }
+    }
+
+    /**
+     * Emit an event for a client that disconnected.
+     * @param client The client.
+     */
+    public static void clientDisconnected(Client client) {
+        ClientDisconnectEvent event = new ClientDisconnectEvent();
+        if (event.shouldCommit()) {
+            event.clientId = client.getId();
+            event.username = client.getUsername();
+            event.commit();
+        }
+    }
+
+    /**
+     * Emit an event if a client's outbound queue has grown to a multiple of the overflow depth.
+     * @param clientId The ID of the client.
+     * @param queueDepth The number of messages waiting in the queue.
+     */
+    public static void queueGrew(int clientId, int queueDepth) {
+        if (queueDepth < QUEUE_OVERFLOW_DEPTH || queueDepth % QUEUE_OVERFLOW_DEPTH != 0) {
+            return;
+        }
+        QueueOverflowEvent event = new QueueOverflowEvent();
+        if (event.shouldCommit()) {
+            event.clientId = clientId;
+            event.queueDepth = queueDepth;
+            event.commit();
+        }
+    }
+
+    /**
+     * Emit an event for a sampled relay of a datagram to the clients of a tier.
+     * @param tier The tier, or "ALL" if the datagram was relayed to every tier.
+     * @param fanOut The number of clients the datagram was sent to.
+     * @param bytes The size of the datagram.
+     * @param nanos How long sending to every client took, in nanoseconds.
+     * @param sampleInterval The number of relays the sample stands for.
+     */
+    public static void relaySampled(String tier, int fanOut, int bytes, long nanos, int sampleInterval) {
+        RelayBatchEvent event = new RelayBatchEvent();
+        if (event.shouldCommit()) {
+            event.tier = tier;
+            event.fanOut = fanOut;
+            event.bytes = bytes;
+            event.fanOutTime = nanos;
+            event.sampleInterval = sampleInterval;
+            event.commit();
+        }
+    }
+
+    /**
+     * A round that started.
+     */
+    @Name("DrawGuesser.RoundStart")
+    @Label("Round Start")
+    @Category("DrawGuesser")
+    @Description("A round started")
+    @StackTrace(false)
+    static class RoundStartEvent extends Event {
+        @Label("Painter ID")
+        int painterId; // The ID of the painter
+
+        @Label("Word Length")
+        int wordLength; // The length of the secret word
+    }
+
+    /**
+     * A round that ended.
+     */
+    @Name("DrawGuesser.RoundEnd")
+    @Label("Round End")
+    @Category("DrawGuesser")
+    @Description("A round ended")
+    @StackTrace(false)
+    static class RoundEndEvent extends Event {
+        @Label("Painter ID")
+        int painterId; // The ID of the painter
+
+        @Label("Word Length")
+        int wordLength; // The length of the secret word
+
+        @Label("Round Duration")
+        @Timespan(Timespan.MILLISECONDS)
+        long roundDuration; // The duration of the round
+
+        @Label("Reason")
+        String reason; // Why the round ended
+    }
+
+    /**
+     * An attempt to select the next painter.
+     */
+    @Name("DrawGuesser.PainterSelection")
+    @Label("Painter Selection")
+    @Category("DrawGuesser")
+    @Description("A client was asked to paint the next round")
+    @StackTrace(false)
+    static class PainterSelectionEvent extends Event {
+        @Label("Client ID")
+        int clientId; // The ID of the chosen client
+
+        @Label("ACK Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long ackLatency; // How long the client took to accept, or how long the server waited
+
+        @Label("Accepted")
+        boolean accepted; // If the client accepted in time
+    }
+
+    /**
+     * A client that connected.
+     */
+    @Name("DrawGuesser.ClientConnect")
+    @Label("Client Connect")
+    @Category("DrawGuesser")
+    @Description("A client connected")
+    @StackTrace(false)
+    static class ClientConnectEvent extends Event {
+        @Label("Client ID")
+        int clientId; // The ID of the client
+
+        @Label("Username")
+        String username; // The username of the client
+
+        @Label("Address")
+        String address; // The IP address of the client
+    }
+
+    /**
+     * A client that disconnected.
+     */
+    @Name("DrawGuesser.ClientDisconnect")
+    @Label("Client Disconnect")
+    @Category("DrawGuesser")
+    @Description("A client disconnected")
+    @StackTrace(false)
+    static class ClientDisconnectEvent extends Event {
+        @Label("Client ID")
+        int clientId; // The ID of the client
+
+        @Label("Username")
+        String username; // The username of the client
+    }
+
+    /**
+     * A client's outbound queue that grew too long.
+     */
+    @Name("DrawGuesser.QueueOverflow")
+    @Label("Queue Overflow")
+    @Category("DrawGuesser")
+    @Description("A client's outbound message queue grew past a multiple of the overflow depth")
+    @StackTrace(false)
+    static class QueueOverflowEvent extends Event {
+        @Label("Client ID")
+        int clientId; // The ID of the client
+
+        @Label("Queue Depth")
+        int queueDepth; // The number of messages waiting in the queue
+    }
+
+    /**
+     * A sampled relay of a datagram.
+     */
+    @Name("DrawGuesser.RelayBatch")
+    @Label("Relay Batch")
+    @Category("DrawGuesser")
+    @Description("A sampled relay of a drawing datagram to the clients of a tier")
+    @StackTrace(false)
+    static class RelayBatchEvent extends Event {
+        @Label("Tier")
+        String tier; // The tier relayed to
+
+        @Label("Fan-Out")
+        int fanOut; // The number of clients the datagram was sent to
+
+        @Label("Bytes")
+        int bytes; // The size of the datagram
+
+        @Label("Fan-Out Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long fanOutTime; // How long sending to every client took
+
+        @Label("Sample Interval")
+        int sampleInterval; // The number of relays the sample stands for
+    }
+}
@@ -0,0 +1,325 @@
+package Server;
+
+import Utility.LogRing;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logs the server's events as structured lines, with a timestamp, a level, the event, the room, the client and
+ * the type of the client's message. The threads that log only store references to their strings in a lock-free
+ * ring, so that logging never makes the connection threads wait for each other or for the disk, and this thread
+ * formats the records and writes them to a log file that is rotated when it grows too large. Records of INFO and
+ * above are printed to the console as well. Messages from clients are sampled, since there is one per chat line.
+ */
+public class ServerLog extends Thread {
+    public static final byte DEBUG = 0; // Level: Sampled details, such as every message received
+    public static final byte INFO = 1; // Level: Normal events, such as connects
+    public static final byte WARN = 2; // Level: Something went wrong with a client
+    private static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARN"}; // The name of each level
+    private static final String ROOM = "main"; // The room of every record, the server hosts a single room
+    private static final String FILE_NAME = "server.log"; // The name of the current log file
+    private static final int CAPACITY = 1 << 14; // The max number of queued records
+    private static final long MAX_FILE_SIZE = 10_000_000; // The size in bytes at which the log file is rotated
+    private static final int MAX_FILES = 5; // The number of rotated log files to keep
+    private static final int BUFFER_SIZE = 1 << 16; // The size in bytes of the write buffer
+    private static final long IDLE_WAIT = 1_000_000_000; // Time in nanoseconds to wait if no record wakes the thread
+    private static volatile ServerLog instance = null; // The logger, or null if logging to files is disabled
+    private static volatile int sampleInterval = 1; // One in how many client messages is logged
+
+    private final Path directory; // The directory to write log files to
+    private final LogRing records = new LogRing(CAPACITY); // Records waiting to be written, from any thread
+    private final StringBuilder line = new StringBuilder(256); // Reused for formatting each record
+    private OutputStream out = null; // The current log file
+    private long fileSize = 0; // The number of bytes in the current log file
+    private long reportedDropped = 0; // The number of dropped records that have been reported
+    private volatile boolean idle = false; // If the thread is about to wait, so that a new record has to wake it
+    private volatile boolean alive = true;
+
+    /**
+     * Kill this thread after it has written every queued record.
+     */
+    public void kill() {
+        alive = false;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Initialize the logger and start writing records.
+     * @param directory The directory to write log files to.
+     */
+    private ServerLog(Path directory) {
+        super("log-writer");
+        this.directory = directory;
+        setDaemon(true);
+        this.start();
+    }
+
+    /**
+     * Start logging to files, instead of only to the console.
+     * @param directory The directory to write log files to, created if it doesn't exist.
+     * @param messageSampleInterval One in how many client messages to log, 1 logs every message.
+     */
+    public static synchronized void startLogging(Path directory, int messageSampleInterval) {
+        sampleInterval = Math.max(1, messageSampleInterval);
+        if (instance == null) {
+            instance = new ServerLog(directory);
+            System.out.println("Logging to " + directory.resolve(FILE_NAME).toAbsolutePath());
+        }
+    }
+
+    /**
+     * Stop logging to files, after every queued record has been written.
+     * @throws InterruptedException If the thread was interrupted while waiting for the writer.
+     */
+    public static synchronized void stopLogging() throws InterruptedException {
+        ServerLog logger = instance;
+        if (logger != null) {
+            instance = null;
+            logger.kill();
+            logger.join();
+        }
+    }
+
+    /**
+     * Log a normal event.
+     * @param event What happened, such as "connect".
+     * @param clientId The id of the client the event is about, or -1.
+     * @param text Details of the event, or null.
+     */
+    public static void info(String event, int clientId, String text) {
+        log(INFO, event, clientId, null, text);
+    }
+
+    /**
+     * Log that something went wrong.
+     * @param event What happened, such as "rejected".
+     * @param clientId The id of the client the event is about, or -1.
+     * @param text Details of the event, or null.
+     */
+    public static void warn(String event, int clientId, String text) {
+        log(WARN, event, clientId, null, text);
+    }
+
+    /**
+     * Log a message received from a client, if it's sampled.
+     * @param clientId The id of the client.
+     * @param message The message, as received.
+     */
+    public static void message(int clientId, String message) {
+        ServerLog logger = instance;
+        int interval = sampleInterval;
+        if (logger == null || (interval > 1 && ThreadLocalRandom.current().nextInt(interval) != 0)) {
+            return;
+        }
+        logger.records.offer(DEBUG, System.currentTimeMillis(), clientId, "message", getCommand(message), message);
+        logger.wake();
+    }
+
+    /**
+     * Log a record, or print it if logging to files is disabled.
+     * @param level The level of the record.
+     * @param event What happened.
+     * @param clientId The id of the client the record is about, or -1.
+     * @param command The type of the client's message, or null.
+     * @param text Details of the record, or null.
+     */
+    private static void log(byte level, String event, int clientId, String command, String text) {
+        ServerLog logger = instance;
+        if (logger == null) {
+            System.out.println(LEVEL_NAMES[level] + " " + event + (clientId >= 0 ? " client " + clientId : "")
+                    + (text != null ? ": " + text : ""));
+            return;
+        }
+        logger.records.offer(level, System.currentTimeMillis(), clientId, event, command, text);
+        logger.wake();
+    }
+
+    /**
+     * Wake the thread after a record was queued, if it's waiting. While it's busy, logging costs no unpark.
+     */
+    private void wake() {
+        if (idle) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    /**
+     * Get the type of a message from a client by its prefix, without parsing it.
+     * @param message The message.
+     * @return "GUESS", "CHAT", "SYSTEM" or "UNKNOWN".
+     */
+    private static String getCommand(String message) {
+        if (message.startsWith("/g ")) {
+            return "GUESS";
+        } else if (message.startsWith("/m ")) {
+            return "CHAT";
+        } else if (message.startsWith("/s ")) {
+            return "SYSTEM";
+        }
+        return "UNKNOWN";
+    }
+
+    /**
+     * Write queued records until the thread is killed and every record is written.
+     */
+    @Override
+    public void run() {
+        try {
+            Files.createDirectories(directory);
+            openFile();
+            while (alive || records.hasNext()) {
+                if (!records.hasNext()) {
+                    out.flush();
+                    reportDropped();
+                    // Ask to be woken, then look again, so that a record queued meanwhile isn't left waiting
+                    idle = true;
+                    if (alive && !records.hasNext()) {
+                        LockSupport.parkNanos(IDLE_WAIT);
+                    }
+                    idle = false;
+                    continue;
+                }
+                writeRecord();
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Could not write the log: " + e.getMessage());
+        } finally {
+            closeFile();
+        }
+    }
+
+    /**
+     * Format the oldest record as one line, write it and print it if it's INFO or above.
+     * @throws IOException If the line couldn't be written.
+     */
+    private void writeRecord() throws IOException {
+        byte level = records.peekLevel();
+        line.setLength(0);
+        line.append(DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(records.peekTime())));
+        line.append(" level=").append(LEVEL_NAMES[level]);
+        line.append(" event=").append(records.peekEvent());
+        line.append(" room=").append(ROOM);
+        if (records.peekClientId() >= 0) {
+            line.append(" client=").append(records.peekClientId());
+        }
+        if (records.peekCommand() != null) {
+            line.append(" command=").append(records.peekCommand());
+        }
+        String text = records.peekText();
+        if (text != null) {
+            line.append(" text=");
+            appendQuoted(text);
+        }
+        records.remove();
+        if (level >= INFO) {
+            System.out.println(line);
+        }
+        line.append('\n');
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (fileSize + bytes.length > MAX_FILE_SIZE) {
+            rotate();
+        }
+        out.write(bytes);
+        fileSize += bytes.length;
+    }
+
+    /**
+     * Append text in quotes, escaping quotes, backslashes and line breaks so that a record stays on one line.
+     * @param text The text.
+     */
+    private void appendQuoted(String text) {
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else if (c == '\r') {
+                line.append("\\r");
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Log how many records were dropped since the last report, if any.
+     * @throws IOException If the report couldn't be written.
+     */
+    private void reportDropped() throws IOException {
+        long dropped = records.getDropped();
+        if (dropped > reportedDropped) {
+            byte[] bytes = (DateTimeFormatter.ISO_INSTANT.format(Instant.now()) + " level=WARN event=dropped room="
+                    + ROOM + " text=\"" + (dropped - reportedDropped) + " records\"\n").getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            fileSize += bytes.length;
+            reportedDropped = dropped;
+        }
+    }
+
+    /**
+     * Open the current log file, appending to it if it exists.
+     * @throws IOException If the file couldn't be opened.
+     */
+    private void openFile() throws IOException {
+        Path path = directory.resolve(FILE_NAME);
+        out = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND), BUFFER_SIZE);
+        fileSize = Files.size(path);
+    }
+
+    /**
+     * Rotate the log files: server.log becomes server.1.log, server.1.log becomes server.2.log and so on,
+     * and the oldest file is deleted.
+     * @throws IOException If the files couldn't be rotated.
+     */
+    private void rotate() throws IOException {
+        out.close();
+        Files.deleteIfExists(directory.resolve(getRotatedName(MAX_FILES)));
+        for (int i = MAX_FILES - 1; i >= 1; i--) {
+            Path rotated = directory.resolve(getRotatedName(i));
+            if (Files.exists(rotated)) {
+                Files.move(rotated, directory.resolve(getRotatedName(i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(directory.resolve(FILE_NAME), directory.resolve(getRotatedName(1)),
+                StandardCopyOption.REPLACE_EXISTING);
+        openFile();
+    }
+
+    /**
+     * Get the name of a rotated log file.
+     * @param index How many rotations old the file is, from 1.
+     * @return The name, such as "server.1.log".
+     */
+    private static String getRotatedName(int index) {
+        return FILE_NAME.replace(".log", "." + index + ".log");
+    }
+
+    /**
+     * Close the current log file.
+     */
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.out.println("Could not close the log: " + e.getMessage());
+            }
+        }
+    }
+}
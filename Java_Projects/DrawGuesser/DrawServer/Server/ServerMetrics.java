@@ -0,0 +1,620 @@
+package Server;
+
+import Utility.Histogram;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the server's metrics: connected clients, outbound queues, relayed datagrams, broadcasts, painter selection,
+ * rounds, the event log and how long the server took to start. Recording a metric costs an adder increment or a
+ * histogram record, so it can be done on every datagram and message. Gauges are read from the clients when the metrics
+ * are exposed, over JMX as {@link ServerMetricsMBean} and in the Prometheus text format.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    private static final String OBJECT_NAME = "DrawGuesser:type=ServerMetrics"; // The name of the JMX bean
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999}; // The exposed quantiles of every histogram
+    private static final LongAdder CONNECTS = new LongAdder(); // The number of clients that have connected
+    private static final LongAdder DISCONNECTS = new LongAdder(); // The number of clients that have disconnected
+    private static final LongAdder DATAGRAMS_RECEIVED = new LongAdder(); // Datagrams received from clients
+    private static final LongAdder DATAGRAMS_RELAYED = new LongAdder(); // Datagrams sent to clients
+    private static final LongAdder ACK_TIMEOUTS = new LongAdder(); // Painters that didn't accept in time
+    private static final LongAdder THROTTLED_MESSAGES = new LongAdder(); // Chat, guesses and tile requests dropped for their rate
+    private static final LongAdder HEARTBEAT_TIMEOUTS = new LongAdder(); // Clients disconnected for being silent
+    private static final LongAdder[] REJECTIONS = createAdders(Rejection.values().length); // Rejections by reason
+    private static final LongAdder ROUNDS_STARTED = new LongAdder(); // Rounds that have started
+    private static final Histogram FAN_OUT = new Histogram(); // Nanoseconds to relay a datagram to a tier
+    private static final Histogram BROADCAST = new Histogram(); // Nanoseconds to queue a broadcast for every client
+    private static final Histogram ACK_WAIT = new Histogram(); // Nanoseconds for a chosen painter to accept
+    private static final Histogram ROUND_DURATION = new Histogram(); // Nanoseconds from a round's start to its end
+    private static final LongAdder EVENTS_COMMITTED = new LongAdder(); // Events synced to the event log
+    private static final Histogram EVENT_COMMIT = new Histogram(); // Nanoseconds to write and sync a batch of events
+    private static final LongAdder SESSIONS_RESUMED = new LongAdder(); // Clients who resumed a dropped session
+    private static final LongAdder SESSIONS_EXPIRED = new LongAdder(); // Dropped sessions that weren't resumed
+    private static final LongAdder PROFILE_CACHE_HITS = new LongAdder(); // Profiles loaded from the cache
+    private static final LongAdder PROFILE_CACHE_MISSES = new LongAdder(); // Profiles loaded from the disk or new
+    private static volatile long recoveryTime = 0; // Nanoseconds to rebuild the scoreboard from the event log
+    private static volatile long startupTime = 0; // Milliseconds from the JVM starting to accepting connections
+    private static long rateTime = System.nanoTime(); // When the relay rate was last calculated
+    private static long rateCount = 0; // The number of relayed datagrams when the rate was last calculated
+    private static double relayRate = 0; // The number of datagrams relayed per second, as last calculated
+
+    /**
+     * Reasons for turning away a connection before it became a client.
+     */
+    public enum Rejection {
+        RATE_LIMIT, // The address connected too often
+        PENDING_LIMIT, // Too many connections were in their handshake
+        HANDSHAKE_TIMEOUT, // The connection didn't send its arguments in time
+        INVALID_HANDSHAKE, // The connection sent invalid arguments
+        USERNAME_TAKEN // The username was in use, or the connection didn't hold its key
+    }
+
+    /**
+     * Register the metrics as a JMX bean, so that they can be read over JMX.
+     */
+    public static void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new ServerMetrics(), name);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not register the metrics over JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Count a client that connected.
+     */
+    public static void recordConnect() {
+        CONNECTS.increment();
+    }
+
+    /**
+     * Count a client that disconnected.
+     */
+    public static void recordDisconnect() {
+        DISCONNECTS.increment();
+    }
+
+    /**
+     * Count a datagram received from a client.
+     */
+    public static void recordDatagramReceived() {
+        DATAGRAMS_RECEIVED.increment();
+    }
+
+    /**
+     * Record a datagram relayed to the clients of a tier.
+     * @param datagrams The number of clients the datagram was sent to.
+     * @param nanos The time it took to send to every client, in nanoseconds.
+     */
+    public static void recordFanOut(int datagrams, long nanos) {
+        DATAGRAMS_RELAYED.add(datagrams);
+        FAN_OUT.record(nanos);
+    }
+
+    /**
+     * Record a message broadcast to every client.
+     * @param nanos The time it took to queue the message for every client, in nanoseconds.
+     */
+    public static void recordBroadcast(long nanos) {
+        BROADCAST.record(nanos);
+    }
+
+    /**
+     * Record the wait for a chosen painter to accept the role.
+     * @param nanos The time waited, in nanoseconds.
+     * @param accepted If the painter accepted in time.
+     */
+    public static void recordAckWait(long nanos, boolean accepted) {
+        ACK_WAIT.record(nanos);
+        if (!accepted) {
+            ACK_TIMEOUTS.increment();
+        }
+    }
+
+    /**
+     * Count a connection that was turned away before it became a client.
+     * @param reason Why the connection was turned away.
+     */
+    public static void recordRejection(Rejection reason) {
+        REJECTIONS[reason.ordinal()].increment();
+    }
+
+    /**
+     * Count a chat message, guess or tile request that was dropped because the client sent too fast.
+     */
+    public static void recordThrottled() {
+        THROTTLED_MESSAGES.increment();
+    }
+
+    /**
+     * Count a client that was disconnected because they stopped answering heartbeats.
+     */
+    public static void recordHeartbeatTimeout() {
+        HEARTBEAT_TIMEOUTS.increment();
+    }
+
+    /**
+     * Count a round that started.
+     */
+    public static void recordRoundStarted() {
+        ROUNDS_STARTED.increment();
+    }
+
+    /**
+     * Record a round that ended.
+     * @param nanos The duration of the round, in nanoseconds.
+     */
+    public static void recordRoundEnded(long nanos) {
+        ROUND_DURATION.record(nanos);
+    }
+
+    /**
+     * Record a batch of events written and synced to the event log.
+     * @param events The number of events in the batch.
+     * @param nanos The time it took to write and sync the batch, in nanoseconds.
+     */
+    public static void recordEventCommit(int events, long nanos) {
+        EVENTS_COMMITTED.add(events);
+        EVENT_COMMIT.record(nanos);
+    }
+
+    /**
+     * Record how long it took to rebuild the scoreboard from the event log.
+     * @param nanos The time, in nanoseconds.
+     */
+    public static void recordRecovery(long nanos) {
+        recoveryTime = nanos;
+    }
+
+    /**
+     * Record that a client resumed their session after their connection dropped.
+     */
+    public static void recordResume() {
+        SESSIONS_RESUMED.increment();
+    }
+
+    /**
+     * Record that a client whose connection dropped didn't resume their session in time.
+     */
+    public static void recordSessionExpired() {
+        SESSIONS_EXPIRED.increment();
+    }
+
+    /**
+     * Record that a player's profile was loaded.
+     * @param cached True if the profile was in the cache; otherwise, false.
+     */
+    public static void recordProfileLoad(boolean cached) {
+        (cached ? PROFILE_CACHE_HITS : PROFILE_CACHE_MISSES).increment();
+    }
+
+    /**
+     * Record that the server accepts connections, which is the end of its startup.
+     * @return The time since the JVM started, in milliseconds.
+     */
+    public static long recordReady() {
+        startupTime = ManagementFactory.getRuntimeMXBean().getUptime();
+        return startupTime;
+    }
+
+    /**
+     * Get the number of connected clients.
+     * @return The number of clients.
+     */
+    @Override
+    public int getConnectedClients() {
+        return ClientManager.getOpenClients().size();
+    }
+
+    /**
+     * Get the number of messages waiting in the longest outbound queue of any client.
+     * @return The number of messages.
+     */
+    @Override
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (Client client : ClientManager.getOpenClients()) {
+            max = Math.max(max, client.getTcpQueueDepth());
+        }
+        return max;
+    }
+
+    /**
+     * Get the number of messages waiting in the outbound queues of every client.
+     * @return The number of messages.
+     */
+    @Override
+    public int getTotalQueueDepth() {
+        int total = 0;
+        for (Client client : ClientManager.getOpenClients()) {
+            total += client.getTcpQueueDepth();
+        }
+        return total;
+    }
+
+    /**
+     * Get the number of datagrams received from clients.
+     * @return The number of datagrams.
+     */
+    @Override
+    public long getDatagramsReceived() {
+        return DATAGRAMS_RECEIVED.sum();
+    }
+
+    /**
+     * Get the number of datagrams relayed to clients.
+     * @return The number of datagrams.
+     */
+    @Override
+    public long getDatagramsRelayed() {
+        return DATAGRAMS_RELAYED.sum();
+    }
+
+    /**
+     * Get the number of datagrams relayed per second, recalculated at most once per second.
+     * @return The rate.
+     */
+    @Override
+    public double getDatagramsRelayedPerSecond() {
+        synchronized (ServerMetrics.class) {
+            long now = System.nanoTime();
+            if (now - rateTime >= 1_000_000_000L) {
+                long relayed = DATAGRAMS_RELAYED.sum();
+                relayRate = (relayed - rateCount) * 1e9 / (now - rateTime);
+                rateTime = now;
+                rateCount = relayed;
+            }
+            return relayRate;
+        }
+    }
+
+    /**
+     * Get the median time it takes to relay a datagram to every client in a tier.
+     * @return The time in milliseconds.
+     */
+    @Override
+    public double getFanOutP50() {
+        return FAN_OUT.getPercentile(50) / 1e6;
+    }
+
+    /**
+     * Get the 99th percentile of the time it takes to relay a datagram to every client in a tier.
+     * @return The time in milliseconds.
+     */
+    @Override
+    public double getFanOutP99() {
+        return FAN_OUT.getPercentile(99) / 1e6;
+    }
+
+    /**
+     * Get the median time it takes to queue a broadcast for every client.
+     * @return The time in milliseconds.
+     */
+    @Override
+    public double getBroadcastP50() {
+        return BROADCAST.getPercentile(50) / 1e6;
+    }
+
+    /**
+     * Get the 99th percentile of the time it takes to queue a broadcast for every client.
+     * @return The time in milliseconds.
+     */
+    @Override
+    public double getBroadcastP99() {
+        return BROADCAST.getPercentile(99) / 1e6;
+    }
+
+    /**
+     * Get the median time a chosen painter takes to accept the role.
+     * @return The time in milliseconds.
+     */
+    @Override
+    public double getAckWaitP50() {
+        return ACK_WAIT.getPercentile(50) / 1e6;
+    }
+
+    /**
+     * Get the 99th percentile of the time a chosen painter takes to accept the role.
+     * @return The time in milliseconds.
+     */
+    @Override
+    public double getAckWaitP99() {
+        return ACK_WAIT.getPercentile(99) / 1e6;
+    }
+
+    /**
+     * Get the number of times a chosen painter didn't accept the role in time.
+     * @return The number of timeouts.
+     */
+    @Override
+    public long getAckTimeouts() {
+        return ACK_TIMEOUTS.sum();
+    }
+
+    /**
+     * Get the number of chat messages, guesses and tile requests that were dropped because the client sent too
+     * fast.
+     * @return The number of messages.
+     */
+    @Override
+    public long getThrottledMessages() {
+        return THROTTLED_MESSAGES.sum();
+    }
+
+    /**
+     * Get the number of connections turned away because their address connected too often.
+     * @return The number of connections.
+     */
+    @Override
+    public long getRateLimitRejections() {
+        return REJECTIONS[Rejection.RATE_LIMIT.ordinal()].sum();
+    }
+
+    /**
+     * Get the number of connections turned away because too many connections were in their handshake.
+     * @return The number of connections.
+     */
+    @Override
+    public long getPendingLimitRejections() {
+        return REJECTIONS[Rejection.PENDING_LIMIT.ordinal()].sum();
+    }
+
+    /**
+     * Get the number of connections that didn't send their arguments in time.
+     * @return The number of connections.
+     */
+    @Override
+    public long getHandshakeTimeouts() {
+        return REJECTIONS[Rejection.HANDSHAKE_TIMEOUT.ordinal()].sum();
+    }
+
+    /**
+     * Get the number of connections that sent invalid arguments.
+     * @return The number of connections.
+     */
+    @Override
+    public long getInvalidHandshakes() {
+        return REJECTIONS[Rejection.INVALID_HANDSHAKE.ordinal()].sum();
+    }
+
+    /**
+     * Get the number of connections whose username was in use or belonged to another player.
+     * @return The number of connections.
+     */
+    @Override
+    public long getTakenUsernames() {
+        return REJECTIONS[Rejection.USERNAME_TAKEN.ordinal()].sum();
+    }
+
+    /**
+     * Get the number of clients that were disconnected because they stopped answering heartbeats.
+     * @return The number of timeouts.
+     */
+    @Override
+    public long getHeartbeatTimeouts() {
+        return HEARTBEAT_TIMEOUTS.sum();
+    }
+
+    /**
+     * Get the number of rounds that have started.
+     * @return The number of rounds.
+     */
+    @Override
+    public long getRoundsStarted() {
+        return ROUNDS_STARTED.sum();
+    }
+
+    /**
+     * Get the median duration of a round.
+     * @return The duration in milliseconds.
+     */
+    @Override
+    public double getRoundDurationP50() {
+        return ROUND_DURATION.getPercentile(50) / 1e6;
+    }
+
+    /**
+     * Get the number of events synced to the event log.
+     * @return The number of events.
+     */
+    @Override
+    public long getEventsCommitted() {
+        return EVENTS_COMMITTED.sum();
+    }
+
+    /**
+     * Get the 99th percentile of the time to write and sync a batch of events to the event log.
+     * @return The time in milliseconds.
+     */
+    @Override
+    public double getEventCommitP99() {
+        return EVENT_COMMIT.getPercentile(99) / 1e6;
+    }
+
+    /**
+     * Get how long the server took from starting to accepting connections, including rebuilding the scoreboard.
+     * @return The time in milliseconds, or 0 if the server isn't accepting connections yet.
+     */
+    @Override
+    public long getStartupTime() {
+        return startupTime;
+    }
+
+    /**
+     * Get the number of clients who resumed their session after their connection dropped.
+     * @return The number of sessions.
+     */
+    @Override
+    public long getSessionsResumed() {
+        return SESSIONS_RESUMED.sum();
+    }
+
+    /**
+     * Get the number of sessions that weren't resumed in time after their connection dropped.
+     * @return The number of sessions.
+     */
+    @Override
+    public long getSessionsExpired() {
+        return SESSIONS_EXPIRED.sum();
+    }
+
+    /**
+     * Get the number of profiles loaded from the cache.
+     * @return The number of profiles.
+     */
+    @Override
+    public long getProfileCacheHits() {
+        return PROFILE_CACHE_HITS.sum();
+    }
+
+    /**
+     * Get the number of profiles that weren't in the cache, so they were read from the disk or new.
+     * @return The number of profiles.
+     */
+    @Override
+    public long getProfileCacheMisses() {
+        return PROFILE_CACHE_MISSES.sum();
+    }
+
+    /**
+     * Get the metrics in the Prometheus text format, with times in seconds.
+     * @return The metrics.
+     */
+    @Override
+    public String getPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        List<Client> clients = ClientManager.getOpenClients();
+        appendMetric(text, "drawguesser_clients_connected", "gauge", "Connected clients", clients.size());
+        appendMetric(text, "drawguesser_client_connects_total", "counter", "Clients that have connected", CONNECTS.sum());
+        appendMetric(text, "drawguesser_client_disconnects_total", "counter", "Clients that have disconnected",
+                DISCONNECTS.sum());
+        text.append("# HELP drawguesser_connections_rejected_total Connections turned away before becoming clients\n");
+        text.append("# TYPE drawguesser_connections_rejected_total counter\n");
+        for (Rejection reason : Rejection.values()) {
+            text.append("drawguesser_connections_rejected_total{reason=\"").append(reason.name().toLowerCase())
+                    .append("\"} ").append(REJECTIONS[reason.ordinal()].sum()).append('\n');
+        }
+        appendMetric(text, "drawguesser_messages_throttled_total", "counter",
+                "Chat messages, guesses and tile requests dropped because the client sent too fast", THROTTLED_MESSAGES.sum());
+        appendMetric(text, "drawguesser_heartbeat_timeouts_total", "counter",
+                "Clients disconnected for not answering heartbeats", HEARTBEAT_TIMEOUTS.sum());
+        appendMetric(text, "drawguesser_sessions_resumed_total", "counter",
+                "Clients who resumed their session after their connection dropped", SESSIONS_RESUMED.sum());
+        appendMetric(text, "drawguesser_sessions_expired_total", "counter",
+                "Dropped sessions that weren't resumed within the grace period", SESSIONS_EXPIRED.sum());
+        text.append("# HELP drawguesser_client_queue_depth Messages waiting to be sent to a client\n");
+        text.append("# TYPE drawguesser_client_queue_depth gauge\n");
+        for (Client client : clients) {
+            text.append("drawguesser_client_queue_depth{client=\"").append(client.getId()).append("\"} ")
+                    .append(client.getTcpQueueDepth()).append('\n');
+        }
+        appendMetric(text, "drawguesser_udp_datagrams_received_total", "counter", "Datagrams received from clients",
+                DATAGRAMS_RECEIVED.sum());
+        appendMetric(text, "drawguesser_udp_datagrams_relayed_total", "counter", "Datagrams relayed to clients",
+                DATAGRAMS_RELAYED.sum());
+        appendHistogram(text, "drawguesser_udp_fanout_seconds", "Time to relay a datagram to every client in a tier",
+                FAN_OUT);
+        appendHistogram(text, "drawguesser_broadcast_seconds", "Time to queue a broadcast for every client",
+                BROADCAST);
+        appendHistogram(text, "drawguesser_painter_ack_wait_seconds", "Time for a chosen painter to accept",
+                ACK_WAIT);
+        appendMetric(text, "drawguesser_painter_ack_timeouts_total", "counter", "Chosen painters that didn't accept",
+                ACK_TIMEOUTS.sum());
+        appendMetric(text, "drawguesser_rounds_started_total", "counter", "Rounds that have started",
+                ROUNDS_STARTED.sum());
+        appendHistogram(text, "drawguesser_round_duration_seconds", "Time from a round's start to its end",
+                ROUND_DURATION);
+        appendMetric(text, "drawguesser_events_committed_total", "counter", "Events synced to the event log",
+                EVENTS_COMMITTED.sum());
+        appendHistogram(text, "drawguesser_event_commit_seconds", "Time to write and sync a batch of events",
+                EVENT_COMMIT);
+        appendMetric(text, "drawguesser_recovery_seconds", "gauge",
+                "Time to rebuild the scoreboard from the event log", recoveryTime / 1e9);
+        appendMetric(text, "drawguesser_startup_seconds", "gauge",
+                "Time from the server starting to accepting connections", startupTime / 1e3);
+        text.append("# HELP drawguesser_profile_loads_total Profiles loaded when players joined, by where they were\n");
+        text.append("# TYPE drawguesser_profile_loads_total counter\n");
+        text.append("drawguesser_profile_loads_total{source=\"cache\"} ").append(PROFILE_CACHE_HITS.sum()).append('\n');
+        text.append("drawguesser_profile_loads_total{source=\"store\"} ").append(PROFILE_CACHE_MISSES.sum())
+                .append('\n');
+        return text.toString();
+    }
+
+    /**
+     * Forget the recorded latencies and durations, the counters keep counting.
+     */
+    @Override
+    public void resetHistograms() {
+        FAN_OUT.reset();
+        BROADCAST.reset();
+        ACK_WAIT.reset();
+        ROUND_DURATION.reset();
+        EVENT_COMMIT.reset();
+    }
+
+    /**
+     * Append a metric with a single value in the Prometheus text format.
+     * @param text The text to append to.
+     * @param name The name of the metric.
+     * @param type The Prometheus type of the metric, such as "counter" or "gauge".
+     * @param help What the metric measures.
+     * @param value The value.
+     */
+    private static void appendMetric(StringBuilder text, String name, String type, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Append a metric with a single value in the Prometheus text format.
+     * @param text The text to append to.
+     * @param name The name of the metric.
+     * @param type The Prometheus type of the metric, such as "gauge".
+     * @param help What the metric measures.
+     * @param value The value.
+     */
+    private static void appendMetric(StringBuilder text, String name, String type, String help, double value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Append a histogram of nanoseconds as a Prometheus summary in seconds.
+     * @param text The text to append to.
+     * @param name The name of the metric.
+     * @param help What the metric measures.
+     * @param histogram The histogram.
+     */
+    private static void appendHistogram(StringBuilder text, String name, String help, Histogram histogram) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getPercentile(quantile * 100) / 1e9).append('\n');
+        }
+        text.append(name).append("_sum ").append(histogram.getSum() / 1e9).append('\n');
+        text.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    /**
+     * Create counters that start at zero.
+     * @param count The number of counters.
+     * @return The counters.
+     */
+    private static LongAdder[] createAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,192 @@
+package Server;
+
+/**
+ * The server's metrics as seen over JMX, such as in JConsole or VisualVM. Latencies are in milliseconds.
+ */
+public interface ServerMetricsMBean {
+    /**
+     * Get the number of connected clients.
+     * @return The number of clients.
+     */
+    int getConnectedClients();
+
+    /**
+     * Get the number of messages waiting in the longest outbound queue of any client.
+     * @return The number of messages.
+     */
+    int getMaxQueueDepth();
+
+    /**
+     * Get the number of messages waiting in the outbound queues of every client.
+     * @return The number of messages.
+     */
+    int getTotalQueueDepth();
+
+    /**
+     * Get the number of datagrams received from clients.
+     * @return The number of datagrams.
+     */
+    long getDatagramsReceived();
+
+    /**
+     * Get the number of datagrams relayed to clients.
+     * @return The number of datagrams.
+     */
+    long getDatagramsRelayed();
+
+    /**
+     * Get the number of datagrams relayed per second, over the last second or more.
+     * @return The rate.
+     */
+    double getDatagramsRelayedPerSecond();
+
+    /**
+     * Get the median time it takes to relay a datagram to every client in a tier.
+     * @return The time in milliseconds.
+     */
+    double getFanOutP50();
+
+    /**
+     * Get the 99th percentile of the time it takes to relay a datagram to every client in a tier.
+     * @return The time in milliseconds.
+     */
+    double getFanOutP99();
+
+    /**
+     * Get the median time it takes to queue a broadcast for every client.
+     * @return The time in milliseconds.
+     */
+    double getBroadcastP50();
+
+    /**
+     * Get the 99th percentile of the time it takes to queue a broadcast for every client.
+     * @return The time in milliseconds.
+     */
+    double getBroadcastP99();
+
+    /**
+     * Get the median time a chosen painter takes to accept the role.
+     * @return The time in milliseconds.
+     */
+    double getAckWaitP50();
+
+    /**
+     * Get the 99th percentile of the time a chosen painter takes to accept the role.
+     * @return The time in milliseconds.
+     */
+    double getAckWaitP99();
+
+    /**
+     * Get the number of times a chosen painter didn't accept the role in time.
+     * @return The number of timeouts.
+     */
+    long getAckTimeouts();
+
+    /**
+     * Get the number of chat messages, guesses and tile requests that were dropped because the client sent too
+     * fast.
+     * @return The number of messages.
+     */
+    long getThrottledMessages();
+
+    /**
+     * Get the number of connections turned away because their address connected too often.
+     * @return The number of connections.
+     */
+    long getRateLimitRejections();
+
+    /**
+     * Get the number of connections turned away because too many connections were in their handshake.
+     * @return The number of connections.
+     */
+    long getPendingLimitRejections();
+
+    /**
+     * Get the number of connections that didn't send their arguments in time.
+     * @return The number of connections.
+     */
+    long getHandshakeTimeouts();
+
+    /**
+     * Get the number of connections that sent invalid arguments.
+     * @return The number of connections.
+     */
+    long getInvalidHandshakes();
+
+    /**
+     * Get the number of connections whose username was in use or belonged to another player.
+     * @return The number of connections.
+     */
+    long getTakenUsernames();
+
+    /**
+     * Get the number of clients that were disconnected because they stopped answering heartbeats.
+     * @return The number of timeouts.
+     */
+    long getHeartbeatTimeouts();
+
+    /**
+     * Get the number of rounds that have started.
+     * @return The number of rounds.
+     */
+    long getRoundsStarted();
+
+    /**
+     * Get the median duration of a round.
+     * @return The duration in milliseconds.
+     */
+    double getRoundDurationP50();
+
+    /**
+     * Get the number of events synced to the event log.
+     * @return The number of events.
+     */
+    long getEventsCommitted();
+
+    /**
+     * Get the 99th percentile of the time to write and sync a batch of events to the event log.
+     * @return The time in milliseconds.
+     */
+    double getEventCommitP99();
+
+    /**
+     * Get how long the server took from starting to accepting connections, including rebuilding the scoreboard.
+     * @return The time in milliseconds, or 0 if the server isn't accepting connections yet.
+     */
+    long getStartupTime();
+
+    /**
+     * Get the number of clients who resumed their session after their connection dropped.
+     * @return The number of sessions.
+     */
+    long getSessionsResumed();
+
+    /**
+     * Get the number of sessions that weren't resumed in time after their connection dropped.
+     * @return The number of sessions.
+     */
+    long getSessionsExpired();
+
+    /**
+     * Get the number of profiles loaded from the cache.
+     * @return The number of profiles.
+     */
+    long getProfileCacheHits();
+
+    /**
+     * Get the number of profiles that weren't in the cache, so they were read from the disk or new.
+     * @return The number of profiles.
+     */
+    long getProfileCacheMisses();
+
+    /**
+     * Get the metrics in the Prometheus text format.
+     * @return The metrics.
+     */
+    String getPrometheusText();
+
+    /**
+     * Forget the recorded latencies and durations, the counters keep counting.
+     */
+    void resetHistograms();
+}
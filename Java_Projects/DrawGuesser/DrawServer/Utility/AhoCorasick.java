@@ -0,0 +1,200 @@
+package Utility;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * An Aho-Corasick automaton that finds every occurrence of any number of patterns in a single pass over a text,
+ * in time proportional to the length of the text no matter how many patterns there are. The failure links are
+ * folded into a complete transition table, so each character costs one table lookup. Matching ignores case and
+ * accents: patterns and text are folded character by character with {@link #fold(char)}, which keeps the
+ * positions of the text. Characters that aren't in any pattern all share one column of the table.
+ * The automaton can't be changed once built, so it can be shared by any number of threads.
+ */
+public class AhoCorasick {
+    private static final int FOLD_TABLE_SIZE = 0x250; // Characters up to Latin Extended-B are folded by table
+    private static final char[] FOLD_TABLE = createFoldTable(); // The folded version of each character in the table
+
+    private final int[] asciiClasses = new int[128]; // The column of each ASCII character, 0 if in no pattern
+    private final char[] otherChars; // The sorted non-ASCII characters that are in patterns
+    private final int classCount; // The number of columns, including the column of characters in no pattern
+    private final int[] transitions; // The next state for each state and column
+    private final int[] lengths; // The length of the pattern that ends at each state, or 0
+    private final int[] outputLinks; // The closest state on each state's failure chain where a pattern ends, or -1
+
+    /**
+     * Build the automaton.
+     * @param patterns The patterns to find, empty patterns are ignored.
+     */
+    public AhoCorasick(Collection<String> patterns) {
+        // Give every folded character that's in a pattern its own column
+        List<Character> others = new ArrayList<>();
+        int classes = 1;
+        for (String pattern : patterns) {
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = fold(pattern.charAt(i));
+                if (c < 128) {
+                    if (asciiClasses[c] == 0) {
+                        asciiClasses[c] = classes++;
+                    }
+                } else if (!others.contains(c)) {
+                    others.add(c);
+                }
+            }
+        }
+        otherChars = new char[others.size()];
+        for (int i = 0; i < otherChars.length; i++) {
+            otherChars[i] = others.get(i);
+        }
+        Arrays.sort(otherChars);
+        classCount = classes + otherChars.length;
+
+        // Build the trie, -1 marks a missing edge
+        int maxStates = 1;
+        for (String pattern : patterns) {
+            maxStates += pattern.length();
+        }
+        int[] trie = new int[maxStates * classCount];
+        Arrays.fill(trie, -1);
+        int[] patternLengths = new int[maxStates];
+        int stateCount = 1;
+        for (String pattern : patterns) {
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                int column = state * classCount + getClass(fold(pattern.charAt(i)));
+                if (trie[column] < 0) {
+                    trie[column] = stateCount++;
+                }
+                state = trie[column];
+            }
+            if (state != 0) {
+                patternLengths[state] = pattern.length();
+            }
+        }
+
+        // Turn the trie into a complete transition table in breadth-first order, following failure links
+        transitions = Arrays.copyOf(trie, stateCount * classCount);
+        lengths = Arrays.copyOf(patternLengths, stateCount);
+        outputLinks = new int[stateCount];
+        int[] failures = new int[stateCount];
+        Arrays.fill(outputLinks, -1);
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < classCount; c++) {
+            int next = transitions[c];
+            if (next < 0) {
+                transitions[c] = 0;
+            } else {
+                failures[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int failure = failures[state];
+            outputLinks[state] = lengths[failure] > 0 ? failure : outputLinks[failure];
+            for (int c = 0; c < classCount; c++) {
+                int index = state * classCount + c;
+                int next = transitions[index];
+                if (next < 0) {
+                    transitions[index] = transitions[failure * classCount + c];
+                } else {
+                    failures[next] = transitions[failure * classCount + c];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fold a character for matching: lower case and without accents, such as 'E' and an accented 'e' to 'e'.
+     * @param c The character.
+     * @return The folded character.
+     */
+    public static char fold(char c) {
+        return c < FOLD_TABLE_SIZE ? FOLD_TABLE[c] : Character.toLowerCase(c);
+    }
+
+    /**
+     * Get the state of the automaton at the start of a text.
+     * @return The start state.
+     */
+    public int getStartState() {
+        return 0;
+    }
+
+    /**
+     * Move the automaton past a character.
+     * @param state The current state.
+     * @param folded The next character of the text, folded with {@link #fold(char)}.
+     * @return The next state.
+     */
+    public int step(int state, char folded) {
+        return transitions[state * classCount + getClass(folded)];
+    }
+
+    /**
+     * Get the first match that ends at a state: the longest pattern that ends there.
+     * @param state The state after a character.
+     * @return The match, or -1 if no pattern ends at the character.
+     */
+    public int getMatch(int state) {
+        return lengths[state] > 0 ? state : outputLinks[state];
+    }
+
+    /**
+     * Get the next, shorter, match that ends at the same character as a match.
+     * @param match A match.
+     * @return The next match, or -1 if there are no more.
+     */
+    public int getNextMatch(int match) {
+        return outputLinks[match];
+    }
+
+    /**
+     * Get the length of the pattern of a match, which ends at the last character.
+     * @param match A match.
+     * @return The length of the pattern.
+     */
+    public int getMatchLength(int match) {
+        return lengths[match];
+    }
+
+    /**
+     * Get the number of states, which grows with the total length of the patterns.
+     * @return The number of states.
+     */
+    public int getStateCount() {
+        return lengths.length;
+    }
+
+    /**
+     * Get the column of a folded character in the transition table.
+     * @param folded The folded character.
+     * @return The column, 0 if the character is in no pattern.
+     */
+    private int getClass(char folded) {
+        if (folded < 128) {
+            return asciiClasses[folded];
+        }
+        int index = Arrays.binarySearch(otherChars, folded);
+        return index >= 0 ? classCount - otherChars.length + index : 0;
+    }
+
+    /**
+     * Create the fold table by taking the base letter of each decomposed character in lower case.
+     * @return The table.
+     */
+    private static char[] createFoldTable() {
+        char[] table = new char[FOLD_TABLE_SIZE];
+        for (char c = 0; c < FOLD_TABLE_SIZE; c++) {
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            table[c] = Character.toLowerCase(decomposed.charAt(0));
+        }
+        return table;
+    }
+}
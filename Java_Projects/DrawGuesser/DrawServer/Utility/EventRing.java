@@ -0,0 +1,111 @@
+package Utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, preallocated queue of small events for exactly one producer thread and one consumer thread.
+ * Each event is a type, a timestamp and two longs of payload, stored in parallel primitive arrays.
+ * Neither side ever takes a lock or waits: when the queue is full, new events are dropped and counted.
+ */
+public class EventRing {
+    private final byte[] types; // The type of each event
+    private final long[] times; // The timestamp of each event
+    private final long[] firsts; // The first part of the payload of each event
+    private final long[] seconds; // The second part of the payload of each event
+    private final int mask; // The capacity minus one, for wrapping indices
+    private final AtomicLong head = new AtomicLong(); // The number of events taken, only advanced by the consumer
+    private final AtomicLong tail = new AtomicLong(); // The number of events added, only advanced by the producer
+    private volatile long dropped = 0; // The number of events dropped because the queue was full
+
+    /**
+     * Initialize an empty queue.
+     * @param capacity The max number of queued events, rounded up to a power of two.
+     */
+    public EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        types = new byte[size];
+        times = new long[size];
+        firsts = new long[size];
+        seconds = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Add an event, or drop it if the queue is full. Must only be called by the producer thread.
+     * @param type The type of the event.
+     * @param time The timestamp of the event.
+     * @param first The first part of the payload.
+     * @param second The second part of the payload.
+     * @return True if the event was added; otherwise, false.
+     */
+    public boolean offer(byte type, long time, long first, long second) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            dropped++;
+            return false;
+        }
+        int index = (int) t & mask;
+        types[index] = type;
+        times[index] = time;
+        firsts[index] = first;
+        seconds[index] = second;
+        // Publish the event after its fields are written
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Check if there are no events to take. Must only be called by the consumer thread.
+     * @return True if the queue is empty; otherwise, false.
+     */
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * Get the type of the oldest event.
+     * @return The type, only valid if the queue isn't empty.
+     */
+    public byte peekType() {
+        return types[(int) head.get() & mask];
+    }
+
+    /**
+     * Get the timestamp of the oldest event.
+     * @return The timestamp, only valid if the queue isn't empty.
+     */
+    public long peekTime() {
+        return times[(int) head.get() & mask];
+    }
+
+    /**
+     * Get the first part of the payload of the oldest event.
+     * @return The first part of the payload, only valid if the queue isn't empty.
+     */
+    public long peekFirst() {
+        return firsts[(int) head.get() & mask];
+    }
+
+    /**
+     * Get the second part of the payload of the oldest event.
+     * @return The second part of the payload, only valid if the queue isn't empty.
+     */
+    public long peekSecond() {
+        return seconds[(int) head.get() & mask];
+    }
+
+    /**
+     * Remove the oldest event, freeing its slot for the producer. Must only be called by the consumer thread.
+     */
+    public void remove() {
+        head.lazySet(head.get() + 1);
+    }
+
+    /**
+     * Get the number of events that were dropped because the queue was full.
+     * @return The number of dropped events.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
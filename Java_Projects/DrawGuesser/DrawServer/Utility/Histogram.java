@@ -0,0 +1,128 @@
+package Utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds, that any number of threads can record to
+ * without locking. Like an HDR histogram, the buckets are log-linear: every power of two is split into 32 equal
+ * buckets, so any recorded value is known within about 3%, over the whole range of a long, in fixed memory.
+ * Recording is one bucket calculation and two atomic additions, the count is summed from the buckets when read.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 5; // The power of two of the number of buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // The number of buckets per power of two
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS; // Enough for every long
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT); // The number of values in each bucket
+    private final LongAdder sum = new LongAdder(); // The sum of the recorded values
+    private final AtomicLong max = new AtomicLong(); // The largest recorded value
+
+    /**
+     * Record a value, negative values are recorded as 0.
+     * @param value The value.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(getBucket(value));
+        sum.add(value);
+        long previous = max.get();
+        while (value > previous && !max.compareAndSet(previous, value)) {
+            previous = max.get();
+        }
+    }
+
+    /**
+     * Get the number of recorded values.
+     * @return The number of values.
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Get the sum of the recorded values.
+     * @return The sum.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Get the largest recorded value.
+     * @return The largest value, or 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get a percentile of the recorded values, while values may still be recorded.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The largest value that could be in the percentile's bucket, at most the largest recorded value,
+     *         or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(getHighestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forget every recorded value. Values recorded at the same time may be partly forgotten.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * Get the bucket of a value. Values below 32 have a bucket each, and larger values are shifted down until
+     * their 6 highest bits remain, which pick one of 32 buckets per power of two.
+     * @param value The value, not negative.
+     * @return The index of the bucket.
+     */
+    private static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Get the largest value that goes into a bucket.
+     * @param bucket The index of the bucket.
+     * @return The largest value.
+     */
+    private static long getHighestValue(int bucket) {
+        if (bucket < SUB_BUCKETS * 2) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket - (long) shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,285 @@
+package Utility;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/**
+ * A log-structured key-value store in a single file: every put appends the key and its value to the end of the
+ * file, and an index in memory maps each key to where its latest value starts, so a get is one read from the file.
+ * The index is rebuilt by reading the file when it's opened, which also cuts off a record that was only partly
+ * written when the process died. Values that were replaced are left behind in the file until {@link #compact()}
+ * rewrites it with only the latest value of each key. Puts are buffered until {@link #commit()}, which writes them
+ * and syncs them to the disk at once. Any number of threads may get values, but only one thread may put, commit
+ * and compact.
+ */
+public class KeyValueStore implements AutoCloseable {
+    private static final int HEADER_SIZE = 12; // Checksum, key length and value length of a record
+    private static final int MAX_RECORD_SIZE = 1 << 16; // The max size in bytes of a key and its value
+    private static final long MIN_COMPACT_SIZE = 1_000_000; // The size in bytes below which the file isn't compacted
+
+    private final Path path; // The path of the file
+    private final Map<String, Location> index = new ConcurrentHashMap<>(); // The latest record of each key
+    private final ReadWriteLock fileLock = new ReentrantReadWriteLock(); // Gets read while compaction swaps files
+    private final ByteBuffer out = ByteBuffer.allocate(1 << 16); // Records waiting to be written
+    private final Map<String, Location> pending = new HashMap<>(); // Buffered records, indexed once written
+    private final CRC32C checksum = new CRC32C(); // Reused for the checksum of each record
+    private FileChannel file; // The file
+    private long fileSize; // The size in bytes of the file, including buffered records
+    private long liveSize = 0; // The size in bytes of the latest record of every key
+
+    /**
+     * Where a record is in the file.
+     * @param offset Where the record starts.
+     * @param keyLength The length of the key in bytes.
+     * @param valueLength The length of the value in bytes.
+     */
+    private record Location(long offset, int keyLength, int valueLength) {
+        /**
+         * Get the size of the record.
+         * @return The size in bytes.
+         */
+        int size() {
+            return HEADER_SIZE + keyLength + valueLength;
+        }
+    }
+
+    /**
+     * Open a store, creating its file if it doesn't exist, and index every key in it.
+     * @param path The path of the file.
+     * @throws IOException If the file couldn't be opened or read.
+     */
+    public KeyValueStore(Path path) throws IOException {
+        this.path = path;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        fileSize = buildIndex();
+        file.position(fileSize);
+    }
+
+    /**
+     * Get the latest value of a key that has been written to the file.
+     * @param key The key.
+     * @return The value, or null if the key has no value in the file.
+     * @throws IOException If the file couldn't be read.
+     */
+    public byte[] get(String key) throws IOException {
+        fileLock.readLock().lock();
+        try {
+            Location location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            ByteBuffer value = ByteBuffer.allocate(location.valueLength());
+            readFully(value, location.offset() + HEADER_SIZE + location.keyLength());
+            return value.array();
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Buffer a new value for a key. Gets return the old value until the new one has been committed.
+     * @param key The key.
+     * @param value The value.
+     * @throws IOException If the buffered records couldn't be written to make room.
+     */
+    public void put(String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int size = HEADER_SIZE + keyBytes.length + value.length;
+        if (size > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("The record is " + size + " bytes, the max is " + MAX_RECORD_SIZE);
+        }
+        if (out.remaining() < size) {
+            write();
+        }
+        int start = out.position();
+        out.putInt(0); // The checksum, once the rest of the record is in place
+        out.putInt(keyBytes.length);
+        out.putInt(value.length);
+        out.put(keyBytes);
+        out.put(value);
+        checksum.reset();
+        checksum.update(out.array(), start + 4, size - 4);
+        out.putInt(start, (int) checksum.getValue());
+        pending.put(key, new Location(fileSize, keyBytes.length, value.length));
+        fileSize += size;
+    }
+
+    /**
+     * Write the buffered records, sync them to the disk, and make them visible to gets.
+     * @throws IOException If the records couldn't be written.
+     */
+    public void commit() throws IOException {
+        write();
+        file.force(false);
+    }
+
+    /**
+     * Check if most of the file is replaced values, so that compacting it is worth it.
+     * @return True if the file should be compacted; otherwise, false.
+     */
+    public boolean shouldCompact() {
+        return fileSize > MIN_COMPACT_SIZE && liveSize < fileSize / 2;
+    }
+
+    /**
+     * Rewrite the file with only the latest value of each key, after committing the buffered records.
+     * The new file replaces the old one once it's on the disk, so a crash leaves one or the other.
+     * @throws IOException If the file couldn't be rewritten.
+     */
+    public void compact() throws IOException {
+        commit();
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        Map<String, Location> newIndex = new HashMap<>();
+        long newSize = 0;
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                ByteBuffer record = ByteBuffer.allocate(location.size());
+                readFully(record, location.offset());
+                record.flip();
+                while (record.hasRemaining()) {
+                    target.write(record);
+                }
+                newIndex.put(entry.getKey(), new Location(newSize, location.keyLength(), location.valueLength()));
+                newSize += location.size();
+            }
+            target.force(false);
+        }
+        fileLock.writeLock().lock();
+        try {
+            file.close();
+            Files.move(compacted, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            file.position(newSize);
+            index.clear();
+            index.putAll(newIndex);
+            fileSize = newSize;
+            liveSize = newSize;
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of keys in the file.
+     * @return The number of keys.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Get the size of the file, including buffered records.
+     * @return The size in bytes.
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Commit the buffered records and close the file.
+     * @throws IOException If the records couldn't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        commit();
+        file.close();
+    }
+
+    /**
+     * Append the buffered records to the file and point the index at them.
+     * @throws IOException If the records couldn't be written.
+     */
+    private void write() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            file.write(out);
+        }
+        out.clear();
+        for (Map.Entry<String, Location> entry : pending.entrySet()) {
+            index(entry.getKey(), entry.getValue());
+        }
+        pending.clear();
+    }
+
+    /**
+     * Point the index at the latest record of a key, counting the replaced record as garbage.
+     * @param key The key.
+     * @param location Where the record is.
+     */
+    private void index(String key, Location location) {
+        Location previous = index.put(key, location);
+        if (previous != null) {
+            liveSize -= previous.size();
+        }
+        liveSize += location.size();
+    }
+
+    /**
+     * Read every record of the file into the index, and cut off the file after the last complete record.
+     * @return The size in bytes of the complete records.
+     * @throws IOException If the file couldn't be read.
+     */
+    private long buildIndex() throws IOException {
+        long size = file.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (offset + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, offset);
+            int keyLength = header.getInt(4);
+            int valueLength = header.getInt(8);
+            int recordSize = HEADER_SIZE + keyLength + valueLength;
+            if (keyLength < 0 || valueLength < 0 || recordSize > MAX_RECORD_SIZE || offset + recordSize > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(recordSize);
+            readFully(record, offset);
+            checksum.reset();
+            checksum.update(record.array(), 4, recordSize - 4);
+            if ((int) checksum.getValue() != header.getInt(0)) {
+                break;
+            }
+            index(new String(record.array(), HEADER_SIZE, keyLength, StandardCharsets.UTF_8),
+                    new Location(offset, keyLength, valueLength));
+            offset += recordSize;
+        }
+        if (offset < size) {
+            // The process died while writing, nothing after this point was committed
+            file.truncate(offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Read from the file until a buffer is full.
+     * @param buffer The buffer, filled from its position to its limit.
+     * @param position Where in the file to start reading.
+     * @throws IOException If the file ended first or couldn't be read.
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = file.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("The file ended in the middle of a record");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package Utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, preallocated queue of log records for any number of producer threads and exactly one consumer thread.
+ * Each record is a level, a timestamp, a client id and three strings, stored in parallel arrays, so that logging
+ * only stores references to strings that already exist. Producers claim a slot with a compare-and-set and publish
+ * it once its fields are written. Neither side ever takes a lock or waits: when the queue is full, new records are
+ * dropped and counted.
+ */
+public class LogRing {
+    private final byte[] levels; // The level of each record
+    private final long[] times; // The timestamp of each record
+    private final int[] clientIds; // The id of the client each record is about, or -1
+    private final String[] events; // What happened, a constant such as "message" or "connect"
+    private final String[] commands; // The type of the client's message, or null
+    private final String[] texts; // The free text of each record, or null
+    private final AtomicLongArray published; // The claim number plus one of the record published in each slot
+    private final int mask; // The capacity minus one, for wrapping indices
+    private final AtomicLong head = new AtomicLong(); // The number of records taken, only advanced by the consumer
+    private final AtomicLong tail = new AtomicLong(); // The number of slots claimed by producers
+    private final AtomicLong dropped = new AtomicLong(); // The number of records dropped because the queue was full
+
+    /**
+     * Initialize an empty queue.
+     * @param capacity The max number of queued records, rounded up to a power of two.
+     */
+    public LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        levels = new byte[size];
+        times = new long[size];
+        clientIds = new int[size];
+        events = new String[size];
+        commands = new String[size];
+        texts = new String[size];
+        published = new AtomicLongArray(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Add a record, or drop it if the queue is full. May be called by any thread.
+     * @param level The level of the record.
+     * @param time The timestamp of the record.
+     * @param clientId The id of the client the record is about, or -1.
+     * @param event What happened.
+     * @param command The type of the client's message, or null.
+     * @param text The free text of the record, or null.
+     * @return True if the record was added; otherwise, false.
+     */
+    public boolean offer(byte level, long time, int clientId, String event, String command, String text) {
+        long claim;
+        do {
+            claim = tail.get();
+            if (claim - head.get() > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!tail.compareAndSet(claim, claim + 1));
+        int index = (int) claim & mask;
+        levels[index] = level;
+        times[index] = time;
+        clientIds[index] = clientId;
+        events[index] = event;
+        commands[index] = command;
+        texts[index] = text;
+        // Publish the record after its fields are written
+        published.lazySet(index, claim + 1);
+        return true;
+    }
+
+    /**
+     * Check if the oldest record is published and can be taken. Must only be called by the consumer thread.
+     * @return True if a record can be taken; otherwise, false.
+     */
+    public boolean hasNext() {
+        long next = head.get();
+        return published.get((int) next & mask) == next + 1;
+    }
+
+    /**
+     * Get the level of the oldest record.
+     * @return The level, only valid if a record can be taken.
+     */
+    public byte peekLevel() {
+        return levels[(int) head.get() & mask];
+    }
+
+    /**
+     * Get the timestamp of the oldest record.
+     * @return The timestamp, only valid if a record can be taken.
+     */
+    public long peekTime() {
+        return times[(int) head.get() & mask];
+    }
+
+    /**
+     * Get the client id of the oldest record.
+     * @return The client id or -1, only valid if a record can be taken.
+     */
+    public int peekClientId() {
+        return clientIds[(int) head.get() & mask];
+    }
+
+    /**
+     * Get what happened in the oldest record.
+     * @return The event, only valid if a record can be taken.
+     */
+    public String peekEvent() {
+        return events[(int) head.get() & mask];
+    }
+
+    /**
+     * Get the type of the client's message in the oldest record.
+     * @return The command or null, only valid if a record can be taken.
+     */
+    public String peekCommand() {
+        return commands[(int) head.get() & mask];
+    }
+
+    /**
+     * Get the free text of the oldest record.
+     * @return The text or null, only valid if a record can be taken.
+     */
+    public String peekText() {
+        return texts[(int) head.get() & mask];
+    }
+
+    /**
+     * Remove the oldest record, freeing its slot for the producers. Must only be called by the consumer thread.
+     */
+    public void remove() {
+        int index = (int) head.get() & mask;
+        // Let the strings be collected while the slot waits to be reused
+        events[index] = null;
+        commands[index] = null;
+        texts[index] = null;
+        head.lazySet(head.get() + 1);
+    }
+
+    /**
+     * Get the number of records that were dropped because the queue was full.
+     * @return The number of dropped records.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
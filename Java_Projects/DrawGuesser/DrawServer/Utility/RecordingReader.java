@@ -0,0 +1,224 @@
+package Utility;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a round recording through a memory mapping of the file, one event at a time.
+ * A recording starts with a header of the magic number, the format version and the start time of the round
+ * in epoch milliseconds. Each event that follows is the event type, the milliseconds since the previous event
+ * as a variable-length integer, and the payload of the type:
+ * <ul>
+ *     <li>POINT: x and y as shorts, then the flags of the point as a byte.</li>
+ *     <li>ERASE: left, top, right and bottom as shorts.</li>
+ *     <li>CHAT and SYSTEM: the length of the text as a variable-length integer, then the text in UTF-8.</li>
+ *     <li>END: nothing, marks that the round ended and the recording is complete.</li>
+ * </ul>
+ * A recording that was cut short, for example by a crash, is read up to its last complete event.
+ */
+public class RecordingReader implements Closeable {
+    public static final int MAGIC = 0x44475243; // "DGRC", the first bytes of every recording
+    public static final byte VERSION = 1; // The version of the format
+    public static final int HEADER_SIZE = 13; // The size of the header in bytes
+
+    /**
+     * The types of events in a recording.
+     */
+    public enum EventType {
+        POINT, // A point drawn by the painter
+        ERASE, // A rectangle erased by the painter
+        CHAT, // A chat message broadcast to the room
+        SYSTEM, // A system message sent to the room, or to the painter
+        END; // The end of the round
+
+        /**
+         * Get the event type from its byte.
+         * @param type The byte of the event type.
+         * @return The event type if it exists; otherwise, null.
+         */
+        public static EventType fromByte(byte type) {
+            EventType[] types = values();
+            return type >= 0 && type < types.length ? types[type] : null;
+        }
+    }
+
+    private final FileChannel channel; // The recording file
+    private final MappedByteBuffer buffer; // The mapping of the whole file
+    private final long startTime; // The start time of the round in epoch milliseconds
+    private EventType type = null; // The type of the current event
+    private long time = 0; // The milliseconds since the start of the round of the current event
+    private int x; // The x-coordinate of a point, or the left edge of an erased rectangle
+    private int y; // The y-coordinate of a point, or the top edge of an erased rectangle
+    private int right; // The right edge of an erased rectangle
+    private int bottom; // The bottom edge of an erased rectangle
+    private int flags; // The flags of a point
+    private String text; // The text of a chat or system message
+
+    /**
+     * Open a recording.
+     * @param path The path of the recording.
+     * @throws IOException If the file couldn't be mapped or isn't a recording.
+     */
+    public RecordingReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+                throw new IOException(path + " is not a round recording.");
+            }
+            startTime = buffer.getLong();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Advance to the next event.
+     * @return True if there was another complete event; otherwise, false.
+     */
+    public boolean next() {
+        if (!buffer.hasRemaining() || type == EventType.END) {
+            return false;
+        }
+        int start = buffer.position();
+        try {
+            EventType nextType = EventType.fromByte(buffer.get());
+            if (nextType == null) {
+                throw new IllegalArgumentException("Unknown event type.");
+            }
+            long nextTime = time + readVarInt();
+            switch (nextType) {
+                case POINT -> {
+                    x = buffer.getShort();
+                    y = buffer.getShort();
+                    flags = buffer.get();
+                }
+                case ERASE -> {
+                    x = buffer.getShort();
+                    y = buffer.getShort();
+                    right = buffer.getShort();
+                    bottom = buffer.getShort();
+                }
+                case CHAT, SYSTEM -> {
+                    byte[] bytes = new byte[readVarInt()];
+                    buffer.get(bytes);
+                    text = new String(bytes, StandardCharsets.UTF_8);
+                }
+                case END -> {
+                }
+            }
+            type = nextType;
+            time = nextTime;
+            return true;
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            // The rest of the file is an incomplete or corrupt event
+            buffer.position(start);
+            return false;
+        }
+    }
+
+    /**
+     * Get the start time of the round.
+     * @return The start time in epoch milliseconds.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Get the type of the current event.
+     * @return The event type.
+     */
+    public EventType getType() {
+        return type;
+    }
+
+    /**
+     * Get the time of the current event.
+     * @return The milliseconds since the start of the round.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Get the x-coordinate of a point, or the left edge of an erased rectangle.
+     * @return The x-coordinate.
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Get the y-coordinate of a point, or the top edge of an erased rectangle.
+     * @return The y-coordinate.
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Get the right edge of an erased rectangle.
+     * @return The largest x-coordinate of the rectangle.
+     */
+    public int getRight() {
+        return right;
+    }
+
+    /**
+     * Get the bottom edge of an erased rectangle.
+     * @return The largest y-coordinate of the rectangle.
+     */
+    public int getBottom() {
+        return bottom;
+    }
+
+    /**
+     * Get the flags of a point.
+     * @return The flags, such as {@link SystemUtility#STROKE_START}.
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Get the text of a chat or system message.
+     * @return The text.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Close the recording file.
+     * @throws IOException If the file couldn't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Read a non-negative integer stored with 7 bits per byte, where the high bit marks that more bytes follow.
+     * @return The integer.
+     * @throws IllegalArgumentException If the integer is malformed.
+     */
+    private int readVarInt() throws IllegalArgumentException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("The recording is malformed.");
+    }
+}
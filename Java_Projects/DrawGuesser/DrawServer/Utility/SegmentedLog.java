@@ -0,0 +1,259 @@
+package Utility;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only log of records split into segment files, each named after the sequence number of its first record.
+ * Every record is framed by its length, a checksum and its sequence number, so that a record that was only partly
+ * written when the process died is detected and cut off when the log is read back. Records are buffered until
+ * {@link #commit()}, which writes them and forces them to the disk at once, so a batch of records costs one sync.
+ * Must only be used by one thread.
+ */
+public class SegmentedLog implements AutoCloseable {
+    private static final String PREFIX = "segment-"; // The start of the name of every segment file
+    private static final String SUFFIX = ".log"; // The end of the name of every segment file
+    private static final int HEADER_SIZE = 16; // Length, checksum and sequence number of a record
+    private static final int MAX_RECORD_SIZE = 1 << 16; // The max size in bytes of a record's payload
+
+    private final Path directory; // The directory of the segment files
+    private final long segmentSize; // The size in bytes at which a new segment is started
+    private final ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + MAX_RECORD_SIZE); // Records to be written
+    private final CRC32C checksum = new CRC32C(); // Reused for the checksum of each record
+    private FileChannel file = null; // The current segment
+    private Path filePath = null; // The path of the current segment
+    private long fileSize = 0; // The size in bytes of the current segment, including buffered records
+    private long nextSequence; // The sequence number of the next record
+
+    /**
+     * Open the log for appending after its last record. {@link #read} must have been called first,
+     * to cut off a record that was only partly written.
+     * @param directory The directory of the segment files, created if it doesn't exist.
+     * @param segmentSize The size in bytes at which a new segment is started.
+     * @param nextSequence The sequence number of the next record, one more than the last record in the log.
+     * @throws IOException If the directory or the segment couldn't be created.
+     */
+    public SegmentedLog(Path directory, long segmentSize, long nextSequence) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.nextSequence = nextSequence;
+        Files.createDirectories(directory);
+        List<Path> segments = listSegments(directory);
+        if (segments.isEmpty()) {
+            openSegment();
+        } else {
+            filePath = segments.get(segments.size() - 1);
+            file = FileChannel.open(filePath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            fileSize = file.size();
+        }
+    }
+
+    /**
+     * Read every complete record after a sequence number, in order. A record that is cut off or doesn't match its
+     * checksum ends the log: it and anything after it in its segment are truncated, and later segments are deleted,
+     * so that new records are appended right after the last good one.
+     * @param directory The directory of the segment files.
+     * @param afterSequence Records up to and including this sequence number are skipped.
+     * @param consumer Receives the sequence number and the payload of each record, the payload is only valid
+     *                 until the consumer returns.
+     * @return The sequence number of the last record in the log, or afterSequence if there are none after it.
+     * @throws IOException If a segment couldn't be read or truncated.
+     */
+    public static long read(Path directory, long afterSequence, BiConsumer<Long, ByteBuffer> consumer)
+            throws IOException {
+        long lastSequence = afterSequence;
+        if (!Files.isDirectory(directory)) {
+            return lastSequence;
+        }
+        List<Path> segments = listSegments(directory);
+        CRC32C checksum = new CRC32C();
+        for (int i = 0; i < segments.size(); i++) {
+            // Skip segments that only hold records up to the sequence number
+            if (i + 1 < segments.size() && getFirstSequence(segments.get(i + 1)) <= afterSequence + 1) {
+                continue;
+            }
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(segments.get(i)));
+            while (in.remaining() >= HEADER_SIZE) {
+                int start = in.position();
+                int length = in.getInt();
+                int expected = in.getInt();
+                long sequence = in.getLong();
+                if (length < 0 || length > MAX_RECORD_SIZE || length > in.remaining()) {
+                    in.position(start);
+                    break;
+                }
+                checksum.reset();
+                checksum.update(in.array(), start + 8, 8 + length);
+                if ((int) checksum.getValue() != expected) {
+                    in.position(start);
+                    break;
+                }
+                ByteBuffer payload = in.slice(in.position(), length);
+                in.position(in.position() + length);
+                if (sequence > afterSequence) {
+                    consumer.accept(sequence, payload);
+                    lastSequence = sequence;
+                }
+            }
+            if (in.hasRemaining()) {
+                // The process died while writing, nothing after this point was committed
+                try (FileChannel channel = FileChannel.open(segments.get(i), StandardOpenOption.WRITE)) {
+                    channel.truncate(in.position());
+                }
+                for (int j = i + 1; j < segments.size(); j++) {
+                    Files.delete(segments.get(j));
+                }
+                break;
+            }
+        }
+        return lastSequence;
+    }
+
+    /**
+     * Buffer a record, writing the buffered records first if it doesn't fit. Records aren't durable until
+     * they have been committed.
+     * @param payload The payload of the record, from its position to its limit.
+     * @return The sequence number of the record.
+     * @throws IOException If the buffered records couldn't be written.
+     */
+    public long append(ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        if (length > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("The record is " + length + " bytes, the max is " + MAX_RECORD_SIZE);
+        }
+        if (out.remaining() < HEADER_SIZE + length) {
+            write();
+        }
+        long sequence = nextSequence++;
+        int start = out.position();
+        out.putInt(length);
+        out.putInt(0); // The checksum, once the rest of the record is in place
+        out.putLong(sequence);
+        out.put(payload);
+        checksum.reset();
+        checksum.update(out.array(), start + 8, 8 + length);
+        out.putInt(start + 4, (int) checksum.getValue());
+        fileSize += HEADER_SIZE + length;
+        return sequence;
+    }
+
+    /**
+     * Write the buffered records and force them to the disk, so that they survive a crash.
+     * @throws IOException If the records couldn't be written.
+     */
+    public void commit() throws IOException {
+        write();
+        file.force(false);
+    }
+
+    /**
+     * Check if the current segment has grown past the segment size, so that a new one should be started.
+     * @return True if a new segment should be started; otherwise, false.
+     */
+    public boolean isSegmentFull() {
+        return fileSize >= segmentSize;
+    }
+
+    /**
+     * Commit the buffered records and start a new segment for the next record.
+     * @throws IOException If the records couldn't be written or the segment couldn't be created.
+     */
+    public void startSegment() throws IOException {
+        commit();
+        file.close();
+        openSegment();
+    }
+
+    /**
+     * Delete every segment before the current one, once their records are no longer needed.
+     * @throws IOException If a segment couldn't be deleted.
+     */
+    public void deleteOldSegments() throws IOException {
+        for (Path segment : listSegments(directory)) {
+            if (!segment.equals(filePath)) {
+                Files.delete(segment);
+            }
+        }
+    }
+
+    /**
+     * Get the sequence number of the next record.
+     * @return The sequence number.
+     */
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Commit the buffered records and close the current segment.
+     * @throws IOException If the records couldn't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        commit();
+        file.close();
+    }
+
+    /**
+     * Create a segment that starts at the next record.
+     * @throws IOException If the segment couldn't be created.
+     */
+    private void openSegment() throws IOException {
+        filePath = directory.resolve(String.format("%s%016d%s", PREFIX, nextSequence, SUFFIX));
+        file = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        fileSize = file.size();
+    }
+
+    /**
+     * Append the buffered records to the current segment.
+     * @throws IOException If the records couldn't be written.
+     */
+    private void write() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            file.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * List the segment files in a directory, oldest first.
+     * @param directory The directory.
+     * @return The paths of the segments.
+     * @throws IOException If the directory couldn't be listed.
+     */
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                    segments.add(file);
+                }
+            }
+        }
+        // The sequence numbers are zero padded, so the names sort in the order of the segments
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * Get the sequence number of the first record of a segment from its name.
+     * @param segment The path of the segment.
+     * @return The sequence number.
+     */
+    private static long getFirstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
@@ -6,11 +6,43 @@ import java.util.StringJoiner;
 
 /**
  * Used for bridging the logic between the server and client side code.
- * Specifies the structure of commands and the round length.
+ * Specifies the structure of commands, datagrams and the round length.
  */
 public class SystemUtility {
 
     public static final int ROUND_LENGTH = 120; // The length of a round in seconds
+    public static final int CANVAS_WIDTH = 650; // The width of the drawing canvas in pixels
+    public static final int CANVAS_HEIGHT = 780; // The height of the drawing canvas in pixels
+    public static final int TILE_SIZE = 64; // The width and height of a canvas keyframe tile in pixels
+    public static final int MAX_PACKET_SIZE = 1400; // The maximum size of a UDP datagram in bytes
+    public static final int POINT_PACKET_SIZE = 14; // The size of a POINT datagram sent by a client in bytes
+    public static final int PONG_PACKET_SIZE = 9; // The size of a PONG datagram sent by a client in bytes
+    public static final int ERASE_PACKET_SIZE = 13; // The size of an ERASE datagram sent by a client in bytes
+    public static final int MAX_STROKE_POINTS = 160; // The maximum number of points in a STROKE datagram
+    public static final byte STROKE_START = 1; // Datagram flag: The first point starts a new stroke
+    public static final int LEADERBOARD_SIZE = 10; // The number of top players shown on the leaderboard
+
+    /**
+     * Packet types for all the UDP datagrams that the system can send between client and server.
+     * The type is always the first byte of a datagram.
+     */
+    public enum PacketType {
+        POINT, // Sent by client: id, x, y, flags. Sent by server: x, y
+        STROKE, // Sent by server: flags, sequence number, number of points, followed by x and y of each point
+        PING, // Sent by server: sequence number, measures UDP round trip time and loss
+        PONG, // Sent by client: id, sequence number of the answered PING
+        ERASE; // Sent by client: id, left, top, right, bottom. Sent by server: left, top, right, bottom (shorts)
+
+        /**
+         * Get the packet type from the first byte of a datagram.
+         * @param type the first byte of the datagram.
+         * @return The packet type if it exists; otherwise, null.
+         */
+        public static PacketType fromByte(byte type) {
+            PacketType[] types = values();
+            return type >= 0 && type < types.length ? types[type] : null;
+        }
+    }
 
     /**
      * Command types for all the system messages that the system can send between client and server.
@@ -18,14 +50,21 @@ public class SystemUtility {
     public enum CommandType {
         NEXT_PAINTER, // Sent by server: Request client to accept painter role
         NEXT_PAINTER_ACK, // Sent by client: Accepted the painter role
-        ID, // Sent by server: Gives a client an ID
+        ID, // Sent by server: Gives a new client an ID and the token to resume their session with
         SECRET_WORD, // Sent by server: Gives a client the secret word
         NEW_ROUND, // Sent by server: Inform client that a new round is about to start
         START_ROUND, // Sent by server: Starts a new round
         END_ROUND, // Sent by server: Ends an active round
         JOIN_ROUND, // Sent by server: Allows client to join an ongoing round
         INTERRUPT_ROUND, // Sent by server: Interrupts a round
-        CLIENT_ARGS; // Sent by client: initial handshake
+        CLIENT_ARGS, // Sent by client: initial handshake, username, UDP port and key, then a resume token if any
+        PING, // Sent by server: Measures TCP round trip time and loss
+        PONG, // Sent by client: Answers a PING with the same data
+        TILE_CHECKSUMS, // Sent by server: The checksum of every non-empty canvas tile
+        TILE_REQUEST, // Sent by client: Requests the canvas tiles that differ from the checksums
+        TILE_DATA, // Sent by server and painter: The contents of a canvas tile
+        LEADERBOARD, // Sent by server: The number of top players, then rank, username and points of changed rows
+        RESUME; // Sent by server: Resumes a client's session with their ID, and the token to resume it with next time
     }
 
     /**
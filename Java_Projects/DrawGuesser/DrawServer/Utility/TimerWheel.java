@@ -0,0 +1,96 @@
+package Utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel: deadlines are placed in one of a fixed number of slots by the tick they fall in,
+ * so scheduling is constant time and advancing the wheel only looks at the slots of the ticks that passed,
+ * no matter how many deadlines are scheduled. Deadlines further away than one turn of the wheel wait in their
+ * slot until the turn they fall in. Deadlines are only checked once per tick, so they expire up to one tick late.
+ * Must only be used by one thread.
+ * @param <T> The type of the items that the deadlines are for.
+ */
+public class TimerWheel<T> {
+    private final List<List<Timer<T>>> slots = new ArrayList<>(); // The deadlines in each slot
+    private final List<T> expired = new ArrayList<>(); // Reused for the items that expire in an advance
+    private final long tickNanos; // The duration of a tick in nanoseconds
+    private final long startTime; // The time of the first tick, in nanoseconds
+    private final int mask; // The number of slots minus one, for wrapping ticks
+    private long currentTick = 0; // The next tick to check
+    private int size = 0; // The number of scheduled deadlines
+
+    /**
+     * Initialize an empty wheel.
+     * @param slotCount The number of slots, rounded up to a power of two.
+     * @param tickNanos The duration of a tick in nanoseconds.
+     * @param startTime The current time from System.nanoTime().
+     */
+    public TimerWheel(int slotCount, long tickNanos, long startTime) {
+        int size = Integer.highestOneBit(Math.max(2, slotCount - 1)) << 1;
+        for (int i = 0; i < size; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.tickNanos = tickNanos;
+        this.startTime = startTime;
+        this.mask = size - 1;
+    }
+
+    /**
+     * Schedule a deadline for an item. Deadlines in the past expire at the next advance.
+     * @param item The item.
+     * @param deadline The time the item expires, from System.nanoTime().
+     */
+    public void schedule(T item, long deadline) {
+        long tick = Math.max(currentTick, (deadline - startTime + tickNanos - 1) / tickNanos);
+        slots.get((int) tick & mask).add(new Timer<>(item, deadline));
+        size++;
+    }
+
+    /**
+     * Advance the wheel to a time and expire every item whose deadline has passed. The items are handed
+     * to the callback after the wheel has advanced, so the callback may schedule new deadlines.
+     * @param now The current time from System.nanoTime().
+     * @param callback Receives each expired item.
+     */
+    public void advance(long now, Consumer<T> callback) {
+        long lastTick = (now - startTime) / tickNanos;
+        // A full turn checks every slot, there's no need to check them again
+        long firstTick = Math.max(currentTick, lastTick - mask);
+        for (long tick = firstTick; tick <= lastTick; tick++) {
+            List<Timer<T>> slot = slots.get((int) tick & mask);
+            for (int i = slot.size() - 1; i >= 0; i--) {
+                Timer<T> timer = slot.get(i);
+                if (timer.deadline() <= now) {
+                    // Swap with the last timer so the removal doesn't shift the slot
+                    slot.set(i, slot.get(slot.size() - 1));
+                    slot.remove(slot.size() - 1);
+                    expired.add(timer.item());
+                    size--;
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, lastTick + 1);
+        for (T item : expired) {
+            callback.accept(item);
+        }
+        expired.clear();
+    }
+
+    /**
+     * Get the number of scheduled deadlines.
+     * @return The number of deadlines.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A scheduled deadline.
+     * @param item The item the deadline is for.
+     * @param deadline The time the item expires, from System.nanoTime().
+     */
+    private record Timer<T>(T item, long deadline) {
+    }
+}
@@ -0,0 +1,63 @@
+package Utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket that refills at a fixed rate up to a burst size. Instead of a token count and a refill
+ * time, the bucket keeps a single timestamp: the time at which it would be full again, which every taken token moves
+ * one refill interval further. A token can be taken as long as that time is less than a full burst ahead of now.
+ * This behaves exactly like a token bucket, but taking a token is a single compare-and-set, so any number of
+ * threads can share a bucket without locking.
+ */
+public class TokenBucket {
+    private final long refillInterval; // Time in nanoseconds for one token to refill
+    private final long burstWindow; // Time in nanoseconds for an empty bucket to refill completely
+    private final AtomicLong fullTime; // The time the bucket is full again, from System.nanoTime()
+
+    /**
+     * Initialize a full bucket.
+     * @param ratePerSecond The number of tokens refilled per second.
+     * @param burst The max number of tokens in the bucket.
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        this.refillInterval = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+        this.burstWindow = refillInterval * Math.max(1, burst);
+        this.fullTime = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Try to take a token.
+     * @return True if a token was taken; otherwise, false.
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * Try to take a token at a given time.
+     * @param now The current time from System.nanoTime().
+     * @return True if a token was taken; otherwise, false.
+     */
+    public boolean tryAcquire(long now) {
+        while (true) {
+            long full = fullTime.get();
+            // A full bucket stops refilling, so the time never lags behind now
+            long next = Math.max(full, now) + refillInterval;
+            if (next - now > burstWindow) {
+                return false;
+            }
+            if (fullTime.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Get the time until a token can be taken.
+     * @param now The current time from System.nanoTime().
+     * @return The time in nanoseconds, 0 if a token can be taken now.
+     */
+    public long getWaitTime(long now) {
+        return Math.max(0, fullTime.get() + refillInterval - burstWindow - now);
+    }
+}